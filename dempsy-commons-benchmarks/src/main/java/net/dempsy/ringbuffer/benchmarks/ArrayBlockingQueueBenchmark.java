@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.Sequence;
+
+/**
+ * The baseline most people would reach for. The same one-to-one configuration as the
+ * {@link RingBufferControlBenchmark} but handing boxed values across an {@link ArrayBlockingQueue}.
+ * The consumer takes one entry (blocking) and then drains whatever else is there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ArrayBlockingQueueBenchmark {
+   private static final Object STOP = new Object();
+
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int batchSize;
+
+   private ArrayBlockingQueue<Object> queue;
+   private Thread consumer;
+   private final Sequence consumed = new Sequence(-1L);
+   private long nextValue = 0;
+   public volatile long sink; // keeps the consumer's work from being optimized away
+
+   @Setup(Level.Trial)
+   public void setup() {
+      queue = new ArrayBlockingQueue<>(bufferSize);
+      consumer = Benchmarks.start("ArrayBlockingQueue-Consumer", () -> {
+         final List<Object> drained = new ArrayList<>(bufferSize);
+         long sum = 0;
+         try {
+            while(true) {
+               drained.add(queue.take());
+               queue.drainTo(drained);
+               for(final Object o: drained) {
+                  if(o == STOP) {
+                     sink = sum;
+                     return;
+                  }
+                  final long value = (Long)o;
+                  sum += value;
+               }
+               consumed.set((Long)drained.get(drained.size() - 1));
+               drained.clear();
+            }
+         } catch(final InterruptedException ie) {
+            sink = sum;
+         }
+      });
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      queue.put(STOP);
+      Benchmarks.join(consumer);
+   }
+
+   private long publishBatch() throws InterruptedException {
+      for(int i = 0; i < batchSize; i++)
+         queue.put(nextValue++);
+      return nextValue - 1;
+   }
+
+   @Benchmark
+   public void throughput(final Benchmarks.EventCounter counter) throws InterruptedException {
+      publishBatch();
+      counter.events += batchSize;
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.SampleTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public void latency() throws InterruptedException {
+      Benchmarks.waitFor(consumed, publishBatch());
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.ringbuffer.BatchingPublisher;
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferControl;
+
+/**
+ * One publisher (the benchmark thread) to one consumer where the publisher hands over one entry at a time through a
+ * {@link BatchingPublisher}. Compare with the {@link RingBufferControlBenchmark} with a batchSize of 1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class BatchingPublisherBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int maxBatchSize;
+
+   @Param({"yield", "blocking"})
+   public String waitStrategy;
+
+   // a max delay means the clock is read on every publish.
+   @Param({"false", "true"})
+   public boolean maxDelay;
+
+   private RingBufferControl rbc;
+   private BatchingPublisher publisher;
+   private long[] events;
+   private Thread consumer;
+   public volatile long sink; // keeps the consumer's work from being optimized away
+
+   @Setup(Level.Trial)
+   public void setup() {
+      rbc = new RingBufferControl(bufferSize, Benchmarks.waitStrategy(waitStrategy));
+      publisher = maxDelay ? new BatchingPublisher(rbc, maxBatchSize, 100, TimeUnit.MICROSECONDS) : new BatchingPublisher(rbc, maxBatchSize);
+      events = new long[bufferSize];
+      consumer = Benchmarks.start("BatchingPublisher-Consumer", () -> {
+         long next = 0;
+         long sum = 0;
+         for(long availableTo = rbc.availableTo(); availableTo != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST; availableTo = rbc
+            .availableTo()) {
+            for(; next <= availableTo; next++)
+               sum += events[rbc.index(next)];
+            rbc.notifyProcessed();
+         }
+         sink = sum;
+      });
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      publisher.publishStop();
+      Benchmarks.join(consumer);
+   }
+
+   @Benchmark
+   public void throughput(final Benchmarks.EventCounter counter) {
+      final long seq = publisher.next();
+      events[rbc.index(seq)] = seq;
+      publisher.publish(seq);
+      counter.events++;
+   }
+}
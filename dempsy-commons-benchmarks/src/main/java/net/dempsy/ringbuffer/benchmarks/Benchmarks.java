@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+
+import net.dempsy.ringbuffer.BlockingWaitStrategy;
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferConsumerControl.ConsumerWaitStrategy;
+
+/**
+ * Shared plumbing for the ring buffer benchmarks.
+ */
+public class Benchmarks {
+   private static final AtomicLong threadSequence = new AtomicLong(0);
+
+   /**
+    * The number of individual events handed across the ring. Since a single benchmark
+    * invocation can publish (or consume) a batch of entries the primary JMH score is
+    * in batches. This counter is reported as a secondary "events" rate which is what
+    * should be compared across batch sizes and implementations.
+    */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class EventCounter {
+      public long events;
+
+      @Setup(Level.Iteration)
+      public void reset() {
+         events = 0;
+      }
+   }
+
+   /**
+    * Maps the name of a wait strategy (as given in a {@code @Param}) to the
+    * {@link RingBufferConsumerControl} implementation.
+    */
+   public static ConsumerWaitStrategy waitStrategy(final String name) {
+      switch(name) {
+         case "spin":
+            return RingBufferConsumerControl.spin;
+         case "yield":
+            return RingBufferConsumerControl.yield;
+         case "phasedBackoff":
+            return RingBufferConsumerControl.phasedBackoff;
+         case "blocking":
+            return new BlockingWaitStrategy(); // this has state so it can't be shared across benchmarks.
+         default:
+            throw new IllegalArgumentException("Unknown wait strategy \"" + name + "\"");
+      }
+   }
+
+   /**
+    * Maps the name of a wait strategy (as given in a {@code @Param}) to the closest
+    * equivalent LMAX Disruptor implementation.
+    */
+   public static WaitStrategy disruptorWaitStrategy(final String name) {
+      switch(name) {
+         case "spin":
+            return new BusySpinWaitStrategy();
+         case "yield":
+            return new YieldingWaitStrategy();
+         case "phasedBackoff":
+            return PhasedBackoffWaitStrategy.withSleep(1, 1, TimeUnit.MILLISECONDS);
+         case "blocking":
+            return new com.lmax.disruptor.BlockingWaitStrategy();
+         default:
+            throw new IllegalArgumentException("Unknown wait strategy \"" + name + "\"");
+      }
+   }
+
+   public static Thread start(final String name, final Runnable runnable) {
+      final Thread ret = new Thread(runnable, name + "-" + threadSequence.getAndIncrement());
+      ret.setDaemon(true);
+      ret.start();
+      return ret;
+   }
+
+   public static void join(final Thread... threads) throws InterruptedException {
+      for(final Thread t: threads) {
+         t.join(10000);
+         if(t.isAlive())
+            throw new IllegalStateException("Thread " + t.getName() + " failed to stop.");
+      }
+   }
+
+   /**
+    * Used by the latency benchmarks to wait for the consumer side to report
+    * that it has seen the given sequence.
+    */
+   public static void waitFor(final Sequence consumed, final long sequence) {
+      while(consumed.get() < sequence)
+         Thread.onSpinWait();
+   }
+}
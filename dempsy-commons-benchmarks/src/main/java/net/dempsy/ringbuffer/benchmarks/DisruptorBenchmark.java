@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+
+/**
+ * The baseline. This is the same one-to-one configuration as the {@link RingBufferControlBenchmark}
+ * but using the LMAX Disruptor's own {@link RingBuffer} and {@link BatchEventProcessor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class DisruptorBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int batchSize;
+
+   @Param({"spin", "yield", "phasedBackoff", "blocking"})
+   public String waitStrategy;
+
+   public static class LongEvent {
+      public long value;
+   }
+
+   private RingBuffer<LongEvent> ringBuffer;
+   private BatchEventProcessor<LongEvent> processor;
+   private Thread consumer;
+   private final Sequence consumed = new Sequence(-1L);
+   public long sum; // keeps the consumer's work from being optimized away
+
+   @Setup(Level.Trial)
+   public void setup() {
+      ringBuffer = RingBuffer.createSingleProducer(LongEvent::new, bufferSize, Benchmarks.disruptorWaitStrategy(waitStrategy));
+      processor = new BatchEventProcessor<>(ringBuffer, ringBuffer.newBarrier(), (event, sequence, endOfBatch) -> {
+         sum += event.value;
+         if(endOfBatch)
+            consumed.set(sequence);
+      });
+      ringBuffer.addGatingSequences(processor.getSequence());
+      consumer = Benchmarks.start("Disruptor-Consumer", processor);
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      processor.halt();
+      Benchmarks.join(consumer);
+   }
+
+   private long publishBatch() {
+      final long hi = ringBuffer.next(batchSize);
+      final long lo = hi - batchSize + 1;
+      for(long seq = lo; seq <= hi; seq++)
+         ringBuffer.get(seq).value = seq;
+      ringBuffer.publish(lo, hi);
+      return hi;
+   }
+
+   @Benchmark
+   public void throughput(final Benchmarks.EventCounter counter) {
+      publishBatch();
+      counter.events += batchSize;
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.SampleTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public void latency() {
+      Benchmarks.waitFor(consumed, publishBatch());
+   }
+}
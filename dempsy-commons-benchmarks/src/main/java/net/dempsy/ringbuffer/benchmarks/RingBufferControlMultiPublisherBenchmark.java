@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferControlMultiPublisher;
+
+/**
+ * Several publishers feeding a single consumer through one shared buffer using a
+ * {@link RingBufferControlMultiPublisher}. This is set up the same way as the
+ * {@link RingBufferControlMultiplexorBenchmark} so the two can be compared directly.
+ * See {@link RingBufferControlMultiPublisherLatencyBenchmark} for the latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RingBufferControlMultiPublisherBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int batchSize;
+
+   @Param({"2", "4"})
+   public int numPublishers;
+
+   private RingBufferControlMultiPublisher rbc;
+   private long[] events;
+   private long nextToConsume;
+   private Thread[] publishers;
+   private volatile boolean running;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      rbc = new RingBufferControlMultiPublisher(bufferSize);
+      events = new long[bufferSize];
+      nextToConsume = 0;
+      publishers = new Thread[numPublishers];
+      running = true;
+      for(int i = 0; i < numPublishers; i++) {
+         publishers[i] = Benchmarks.start("RingBufferControlMultiPublisher-Publisher", () -> {
+            while(running) {
+               final long hi = rbc.claim(batchSize);
+               final long lo = hi - batchSize + 1;
+               for(long seq = lo; seq <= hi; seq++)
+                  events[rbc.index(seq)] = seq;
+               rbc.publish(lo, hi);
+            }
+         });
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      running = false;
+      // drain until every publisher has stopped. Otherwise they can be stuck in a claim.
+      final Thread stopper = Benchmarks.start("RingBufferControlMultiPublisher-Stopper", () -> {
+         try {
+            Benchmarks.join(publishers);
+         } catch(final InterruptedException ie) {
+            throw new RuntimeException(ie);
+         }
+         rbc.publishStop();
+      });
+      while(rbc.availableTo() != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST)
+         rbc.notifyProcessed();
+      Benchmarks.join(stopper);
+   }
+
+   @Benchmark
+   public long throughput(final Benchmarks.EventCounter counter) {
+      final long availableTo = rbc.availableTo();
+      final long first = nextToConsume;
+      long sum = 0;
+      long next = first;
+      for(; next <= availableTo; next++)
+         sum += events[rbc.index(next)];
+      rbc.notifyProcessed();
+      nextToConsume = next;
+      counter.events += next - first;
+      return sum;
+   }
+}
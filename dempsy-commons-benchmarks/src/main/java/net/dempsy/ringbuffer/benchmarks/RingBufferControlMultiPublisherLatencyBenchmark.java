@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.Sequence;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferControlMultiPublisher;
+
+/**
+ * The benchmark thread publishes to a {@link RingBufferControlMultiPublisher} while the rest
+ * of the publishers stay idle. This is set up the same way as the
+ * {@link RingBufferControlMultiplexorLatencyBenchmark} so the two can be compared directly.
+ * Idle publishers cost the consumer nothing here so the number of them is irrelevant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RingBufferControlMultiPublisherLatencyBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int batchSize;
+
+   private RingBufferControlMultiPublisher rbc;
+   private long[] events;
+   private Thread consumer;
+   private final Sequence consumed = new Sequence(-1L);
+   public volatile long sink; // keeps the consumer's work from being optimized away
+
+   @Setup(Level.Trial)
+   public void setup() {
+      rbc = new RingBufferControlMultiPublisher(bufferSize);
+      events = new long[bufferSize];
+      consumer = Benchmarks.start("RingBufferControlMultiPublisher-Consumer", () -> {
+         long next = 0;
+         long sum = 0;
+         for(long availableTo = rbc.availableTo(); availableTo != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST; availableTo = rbc.availableTo()) {
+            for(; next <= availableTo; next++)
+               sum += events[rbc.index(next)];
+            rbc.notifyProcessed();
+            consumed.set(availableTo);
+         }
+         sink = sum;
+      });
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      rbc.publishStop();
+      Benchmarks.join(consumer);
+   }
+
+   @Benchmark
+   public void latency() {
+      final long hi = rbc.claim(batchSize);
+      final long lo = hi - batchSize + 1;
+      for(long seq = lo; seq <= hi; seq++)
+         events[rbc.index(seq)] = seq;
+      rbc.publish(lo, hi);
+      Benchmarks.waitFor(consumed, hi);
+   }
+}
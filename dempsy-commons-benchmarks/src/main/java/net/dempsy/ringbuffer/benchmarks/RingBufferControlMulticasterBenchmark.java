@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.Sequence;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferControlMulticaster;
+
+/**
+ * One publisher (the benchmark thread) multicasting to several subscribers using a
+ * {@link RingBufferControlMulticaster}. The latency is measured until the slowest
+ * subscriber has processed the batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RingBufferControlMulticasterBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int batchSize;
+
+   @Param({"2", "4"})
+   public int numSubscribers;
+
+   private RingBufferControlMulticaster rbc;
+   private long[] events;
+   private Thread[] consumers;
+   private Sequence[] consumed;
+   public volatile long sink; // keeps the consumer's work from being optimized away
+
+   @Setup(Level.Trial)
+   public void setup() {
+      rbc = new RingBufferControlMulticaster(numSubscribers, bufferSize);
+      events = new long[bufferSize];
+      consumers = new Thread[numSubscribers];
+      consumed = new Sequence[numSubscribers];
+      for(int i = 0; i < numSubscribers; i++) {
+         final RingBufferConsumerControl subscriber = rbc.get(i);
+         final Sequence subscriberConsumed = consumed[i] = new Sequence(-1L);
+         consumers[i] = Benchmarks.start("RingBufferControlMulticaster-Subscriber", () -> {
+            long next = 0;
+            long sum = 0;
+            for(long availableTo = subscriber.availableTo(); availableTo != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST; availableTo = subscriber
+               .availableTo()) {
+               for(; next <= availableTo; next++)
+                  sum += events[subscriber.index(next)];
+               subscriber.notifyProcessed();
+               subscriberConsumed.set(availableTo);
+            }
+            sink = sum;
+         });
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      rbc.publishStop();
+      Benchmarks.join(consumers);
+   }
+
+   private long publishBatch() {
+      final long hi = rbc.claim(batchSize);
+      for(long seq = hi - batchSize + 1; seq <= hi; seq++)
+         events[rbc.index(seq)] = seq;
+      rbc.publish(hi);
+      return hi;
+   }
+
+   @Benchmark
+   public void throughput(final Benchmarks.EventCounter counter) {
+      publishBatch();
+      counter.events += batchSize;
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.SampleTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public void latency() {
+      final long seq = publishBatch();
+      for(final Sequence c: consumed)
+         Benchmarks.waitFor(c, seq);
+   }
+}
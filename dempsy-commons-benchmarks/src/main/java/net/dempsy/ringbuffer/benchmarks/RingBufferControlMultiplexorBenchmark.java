@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferControl;
+import net.dempsy.ringbuffer.RingBufferControlMultiplexor;
+
+/**
+ * Several publishers feeding a single consumer using a {@link RingBufferControlMultiplexor}.
+ * Here the publishers are background threads that publish as fast as they can and the
+ * benchmark thread is the consumer so the throughput is measured as the rate the consumer
+ * drains the publishers. See {@link RingBufferControlMultiplexorLatencyBenchmark} for the
+ * latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RingBufferControlMultiplexorBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"1", "16", "256"})
+   public int batchSize;
+
+   @Param({"2", "4"})
+   public int numPublishers;
+
+   // every publisher here is busy so this shows what the readiness bitmap costs the publishers.
+   @Param({"false", "true"})
+   public boolean sparsePublishers;
+
+   private RingBufferControlMultiplexor rbm;
+   private long[][] events;
+   private long[] nextToConsume;
+   private Thread[] publishers;
+   private volatile boolean running;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      rbm = new RingBufferControlMultiplexor(numPublishers, bufferSize, RingBufferConsumerControl.yield, sparsePublishers);
+      events = new long[numPublishers][bufferSize];
+      nextToConsume = new long[numPublishers];
+      publishers = new Thread[numPublishers];
+      running = true;
+      for(int i = 0; i < numPublishers; i++) {
+         final RingBufferControl pub = rbm.get(i);
+         final long[] pubEvents = events[i];
+         publishers[i] = Benchmarks.start("RingBufferControlMultiplexor-Publisher", () -> {
+            while(running) {
+               final long hi = pub.claim(batchSize);
+               for(long seq = hi - batchSize + 1; seq <= hi; seq++)
+                  pubEvents[pub.index(seq)] = seq;
+               pub.publish(hi);
+            }
+            pub.publishStop();
+         });
+      }
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      running = false;
+      // drain until every publisher has stopped. Otherwise they can be stuck in a claim.
+      while(rbm.availableTo() != RingBufferControl.ACQUIRE_STOP_REQUEST)
+         rbm.notifyProcessed();
+      Benchmarks.join(publishers);
+   }
+
+   @Benchmark
+   public long throughput(final Benchmarks.EventCounter counter) {
+      final long availableTo = rbm.availableTo();
+      final int pubIndex = rbm.getCurrentIndex();
+      final long[] pubEvents = events[pubIndex];
+      final long first = nextToConsume[pubIndex];
+      long sum = 0;
+      long next = first;
+      for(; next <= availableTo; next++)
+         sum += pubEvents[rbm.index(next)];
+      rbm.notifyProcessed();
+      nextToConsume[pubIndex] = next;
+      counter.events += next - first;
+      return sum;
+   }
+}
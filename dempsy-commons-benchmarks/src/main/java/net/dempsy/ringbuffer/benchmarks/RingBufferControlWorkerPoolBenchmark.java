@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.Sequence;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl;
+import net.dempsy.ringbuffer.RingBufferControlWorkerPool;
+
+/**
+ * One publisher (the benchmark thread) distributing work to several workers using a
+ * {@link RingBufferControlWorkerPool}. The publisher claims one entry at a time. The
+ * {@code workerBatchSize} is the number of entries each worker takes from the pool at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RingBufferControlWorkerPoolBenchmark {
+   @Param({"1024", "65536"})
+   public int bufferSize;
+
+   @Param({"2", "4"})
+   public int numWorkers;
+
+   @Param({"spin", "yield", "phasedBackoff", "blocking"})
+   public String waitStrategy;
+
+   @Param({"1", "16"})
+   public int workerBatchSize;
+
+   private RingBufferControlWorkerPool rbc;
+   private long[] events;
+   private Thread[] workers;
+   private Sequence[] consumed;
+   public volatile long sink; // keeps the consumer's work from being optimized away
+
+   @Setup(Level.Trial)
+   public void setup() throws InterruptedException {
+      rbc = new RingBufferControlWorkerPool(bufferSize, Benchmarks.waitStrategy(waitStrategy), workerBatchSize);
+      events = new long[bufferSize];
+      workers = new Thread[numWorkers];
+      consumed = new Sequence[numWorkers];
+      final CountDownLatch registered = new CountDownLatch(numWorkers);
+      for(int i = 0; i < numWorkers; i++) {
+         final Sequence workerConsumed = consumed[i] = new Sequence(-1L);
+         workers[i] = Benchmarks.start("RingBufferControlWorkerPool-Worker", () -> {
+            final RingBufferConsumerControl worker = rbc.newWorker();
+            registered.countDown();
+            long sum = 0;
+            for(long seq = worker.availableTo(); seq != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST; seq = worker.availableTo()) {
+               sum += events[worker.index(seq)];
+               workerConsumed.set(seq);
+            }
+            sink = sum;
+         });
+      }
+      registered.await();
+   }
+
+   @TearDown(Level.Trial)
+   public void teardown() throws InterruptedException {
+      rbc.publishStop();
+      Benchmarks.join(workers);
+   }
+
+   private long publish() {
+      final long seq = rbc.next();
+      events[rbc.index(seq)] = seq;
+      rbc.publish(seq);
+      return seq;
+   }
+
+   @Benchmark
+   public void throughput(final Benchmarks.EventCounter counter) {
+      publish();
+      counter.events++;
+   }
+
+   /**
+    * The time from the claim of an entry until whichever worker picked it up has processed it.
+    */
+   @Benchmark
+   @BenchmarkMode(Mode.SampleTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public void latency() {
+      final long seq = publish();
+      for(boolean seen = false; !seen;) {
+         for(final Sequence c: consumed)
+            seen |= c.get() >= seq;
+         Thread.onSpinWait();
+      }
+   }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.util.BoundedCache;
+
+/**
+ * Writes to a {@link BoundedCache} that's already full so every write has to evict. Each write is a new key so this
+ * measures the cost of picking and removing a victim. The {@code sizing} is either a count bounded cache, whose map is
+ * sized for its maximum, or a weight bounded cache with the same bound that doesn't say how many entries to expect and
+ * so samples from the default sized map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class BoundedCacheBenchmark {
+
+   @Param({"100", "10000", "1000000"})
+   public int maximumSize;
+
+   @Param({"count", "unsizedWeight"})
+   public String sizing;
+
+   private BoundedCache<Integer, Integer> cache;
+   private final AtomicInteger nextKey = new AtomicInteger(0);
+
+   @Setup(Level.Trial)
+   public void setup() {
+      switch(sizing) {
+         case "count":
+            cache = new BoundedCache<>(maximumSize);
+            break;
+         case "unsizedWeight":
+            cache = new BoundedCache<>(maximumSize, (k, v) -> 1L);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown sizing \"" + sizing + "\"");
+      }
+      for(int i = 0; i < maximumSize; i++)
+         cache.put(nextKey.getAndIncrement(), i);
+   }
+
+   @Benchmark
+   public Object putEvicting() {
+      final int key = nextKey.getAndIncrement();
+      return cache.put(key, key);
+   }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.util.StupidHashMap;
+
+/**
+ * A mixed read/write load on a {@link StupidHashMap} compared with a {@link ConcurrentHashMap}. Every thread picks
+ * random keys out of twice as many as are preloaded. A {@code readPercent} of the operations are a {@code get} and the
+ * rest are split evenly between a {@code put} and a {@code remove} so the map stays about the same size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class StupidHashMapBenchmark {
+
+   @Param({"StupidHashMap", "ConcurrentHashMap"})
+   public String impl;
+
+   @Param({"1024", "1048576"})
+   public int numKeys;
+
+   @Param({"100", "90", "50"})
+   public int readPercent;
+
+   private Map<Integer, Integer> map;
+   private Integer[] keys;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      switch(impl) {
+         case "StupidHashMap":
+            map = new StupidHashMap<>();
+            break;
+         case "ConcurrentHashMap":
+            map = new ConcurrentHashMap<>();
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown map implementation \"" + impl + "\"");
+      }
+
+      // the keys are created up front so boxing isn't part of what's measured.
+      keys = new Integer[numKeys << 1];
+      for(int i = 0; i < keys.length; i++)
+         keys[i] = Integer.valueOf(i);
+      for(int i = 0; i < keys.length; i += 2)
+         map.put(keys[i], keys[i]);
+   }
+
+   @Benchmark
+   public Object mixed() {
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final Integer key = keys[random.nextInt(keys.length)];
+      final int op = random.nextInt(100);
+      if(op < readPercent)
+         return map.get(key);
+      if(((op - readPercent) & 0x1) == 0)
+         return map.put(key, key);
+      return map.remove(key);
+   }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+/**
+ * Receives entries from a ring one at a time, along with whether the entry is the last of the current batch. A
+ * handler can use {@code endOfBatch} to flush I/O or commit whatever it's accumulated once per batch rather than once
+ * per entry. See {@link RingBufferConsumerControl#drain(Object[], BatchHandler, int)}.
+ */
+@FunctionalInterface
+public interface BatchHandler<T> {
+   /**
+    * @param entry is the entry that was published.
+    * @param sequence is the sequence the entry was published at.
+    * @param endOfBatch is true if this is the last entry of the batch.
+    */
+   public void accept(T entry, long sequence, boolean endOfBatch);
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Wraps the publish side of a {@link RingBufferControl} so that entries are published in runs rather than one at a
+ * time. Each call to {@link BatchingPublisher#publish(long)} only marks the entry as ready. The run of ready entries
+ * is made visible to the consumer with a single store to the cursor (and a single wake up of a blocked consumer) when
+ * any of the following happens:
+ * </p>
+ *
+ * <ul>
+ * <li>{@code maxBatchSize} entries are ready.</li>
+ * <li>an entry is published after the first entry of the run has waited for {@code maxDelay}.</li>
+ * <li>{@link BatchingPublisher#flushIfDue()} is called after the first entry of the run has waited for
+ * {@code maxDelay}.</li>
+ * <li>{@link BatchingPublisher#flush()} is called.</li>
+ * <li>the buffer is full, so that the consumer can make room.</li>
+ * </ul>
+ *
+ * <p>
+ * There's no timer thread. Only the publisher thread can publish to a {@link RingBufferControl} so the deadline is
+ * checked on each {@link BatchingPublisher#publish(long)}. A publisher that might go idle with entries still waiting
+ * needs to call {@link BatchingPublisher#flushIfDue()} (or {@link BatchingPublisher#flush()}) from its idle loop to keep
+ * the latency bounded.
+ * </p>
+ *
+ * <p>
+ * Like the {@link RingBufferControl} itself this can only be used from the one publisher thread. Every sequence
+ * returned from {@link BatchingPublisher#next()} must be passed to {@link BatchingPublisher#publish(long)}, in order,
+ * before the next one is claimed.
+ * </p>
+ */
+public class BatchingPublisher {
+   private final RingBufferControl control;
+   private final int maxBatchSize;
+   private final long maxDelayNanos;
+   private final boolean checkDeadline;
+
+   // only touched by the publisher thread.
+   private long lastReady = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
+   private int numReady = 0;
+   private long deadline = 0L;
+
+   /**
+    * Creates a {@link BatchingPublisher} that only publishes when {@code maxBatchSize} entries are ready, when the
+    * buffer is full, or when it's explicitly flushed.
+    *
+    * @throws IllegalArgumentException if the maxBatchSize is less than 1 or larger than the buffer.
+    */
+   public BatchingPublisher(final RingBufferControl control, final int maxBatchSize) throws IllegalArgumentException {
+      this(control, maxBatchSize, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+   }
+
+   /**
+    * Creates a {@link BatchingPublisher} that also publishes once the oldest unpublished entry has waited for
+    * {@code maxDelay}. Checking the deadline means reading {@link System#nanoTime()} on every publish, which costs
+    * about as much as the cursor store being saved, so this pays off when the consumer is woken by a blocking wait
+    * strategy or when the bound on the latency is needed.
+    *
+    * @throws IllegalArgumentException if the maxBatchSize is less than 1 or larger than the buffer or if the maxDelay
+    *            is negative.
+    */
+   public BatchingPublisher(final RingBufferControl control, final int maxBatchSize, final long maxDelay, final TimeUnit unit)
+         throws IllegalArgumentException {
+      if(maxBatchSize < 1 || maxBatchSize > control.bufferSize)
+         throw new IllegalArgumentException("The maxBatchSize must be between 1 and the size of the buffer (" + control.bufferSize
+               + ") but was " + maxBatchSize);
+      if(maxDelay < 0)
+         throw new IllegalArgumentException("The maxDelay cannot be negative but was " + maxDelay);
+      this.control = control;
+      this.maxBatchSize = maxBatchSize;
+      this.maxDelayNanos = unit.toNanos(maxDelay);
+      this.checkDeadline = maxDelayNanos != Long.MAX_VALUE;
+   }
+
+   /**
+    * Claim the next entry. This will wait if the buffer is full, but first it will publish any ready entries so that
+    * the consumer can make room.
+    *
+    * @return the sequence to fill in the entry for (using {@link RingBufferControl#index(long)}) and then pass to
+    *         {@link BatchingPublisher#publish(long)}.
+    */
+   public long next() {
+      if(numReady > 0) {
+         final long sequence = control.tryClaim(1);
+         if(sequence != RingBufferConsumerControl.UNAVAILABLE)
+            return sequence;
+         flush();
+      }
+      return control.claim(1);
+   }
+
+   /**
+    * Mark the entry claimed with {@link BatchingPublisher#next()} as ready. It will be published along with the rest
+    * of the run once the run is full or the oldest entry in it has waited for the maxDelay.
+    */
+   public void publish(final long sequence) {
+      lastReady = sequence;
+      if(++numReady >= maxBatchSize)
+         flush();
+      else if(checkDeadline) {
+         final long now = System.nanoTime();
+         if(numReady == 1)
+            deadline = now + maxDelayNanos;
+         if(now - deadline >= 0L)
+            flush();
+      }
+   }
+
+   /**
+    * Publish any ready entries if the oldest has waited for the maxDelay. This is meant to be called from the
+    * publisher's idle loop.
+    *
+    * @return true if anything was published.
+    */
+   public boolean flushIfDue() {
+      if(numReady > 0 && checkDeadline && System.nanoTime() - deadline >= 0L) {
+         flush();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Publish any ready entries now.
+    */
+   public void flush() {
+      if(numReady > 0) {
+         control.publish(lastReady);
+         numReady = 0;
+      }
+   }
+
+   /**
+    * Publish any ready entries and then call {@link RingBufferControl#publishStop()}.
+    *
+    * @return the sequence that represents where the consumer will be notified to stop.
+    */
+   public long publishStop() {
+      flush();
+      return control.publishStop();
+   }
+
+   /**
+    * The number of entries that are ready but haven't been published yet.
+    */
+   public int getNumReady() {
+      return numReady;
+   }
+}
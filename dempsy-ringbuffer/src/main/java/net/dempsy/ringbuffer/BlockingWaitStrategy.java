@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * This code is substantially based on the ingenious work done by Martin
+ * Thompson on what he calls "Mechanical Sympathy." It leans heavily on
+ * the source code from version 3.0.0.beta2 of the LMAX-exchange Disruptor
+ * but has been completely refactored in order to invert separate the control
+ * mechanism from what is being controlled and to simplify the API.
+ *
+ * For more information on the LMAX Disruptor, see:
+ *
+ * http://lmax-exchange.github.com/disruptor/
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl.ConsumerWaitStrategy;
+
+/**
+ * <p>
+ * A {@link ConsumerWaitStrategy} where the consumer gives up the CPU entirely while waiting for data to be available
+ * and is woken up by the publisher. This is the strategy to use when the consumer is expected to be idle for long
+ * periods and burning a core while it waits isn't acceptable. The cost is the latency of waking the consumer thread.
+ * </p>
+ *
+ * <p>
+ * The publisher only pays for the wakeup when a consumer is actually waiting. Otherwise
+ * {@link BlockingWaitStrategy#signalAllWhenBlocking()} is a fence and a read.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link RingBufferConsumerControl#spin} and {@link RingBufferConsumerControl#yield} an instance of this class
+ * has state. An instance can be shared by all of the consumers of a single control (or all of the publishers of a
+ * {@link RingBufferControlMultiplexor}) but sharing one across unrelated controls will just cause spurious wakeups.
+ * </p>
+ */
+public class BlockingWaitStrategy implements ConsumerWaitStrategy {
+   private final ReentrantLock lock = new ReentrantLock();
+   private final Condition published = lock.newCondition();
+   private final AtomicInteger waiters = new AtomicInteger(0);
+
+   @Override
+   public long waitFor(final long sequence, final Sequence cursor) {
+      long availableSequence;
+      if((availableSequence = cursor.get()) < sequence) {
+         lock.lock();
+         try {
+            // registering as a waiter BEFORE checking the cursor again means either we see the
+            // publisher's update or the publisher sees us waiting.
+            waiters.incrementAndGet();
+            try {
+               while((availableSequence = cursor.get()) < sequence)
+                  published.awaitUninterruptibly();
+            } finally {
+               waiters.decrementAndGet();
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+      return availableSequence;
+   }
+
+   @Override
+   public long waitFor(final long sequence, final Sequence cursor, final long timeoutNanos) {
+      long availableSequence;
+      if((availableSequence = cursor.get()) < sequence) {
+         long nanos = timeoutNanos;
+         lock.lock();
+         try {
+            waiters.incrementAndGet();
+            try {
+               while((availableSequence = cursor.get()) < sequence) {
+                  if(nanos <= 0)
+                     return availableSequence;
+                  nanos = awaitNanos(nanos);
+               }
+            } finally {
+               waiters.decrementAndGet();
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+      return availableSequence;
+   }
+
+   @Override
+   public long waitUntilAvailable(final LongSupplier tryAvailableTo) {
+      long ret;
+      if((ret = tryAvailableTo.getAsLong()) == RingBufferConsumerControl.UNAVAILABLE) {
+         lock.lock();
+         try {
+            waiters.incrementAndGet();
+            try {
+               while((ret = tryAvailableTo.getAsLong()) == RingBufferConsumerControl.UNAVAILABLE)
+                  published.awaitUninterruptibly();
+            } finally {
+               waiters.decrementAndGet();
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+      return ret;
+   }
+
+   @Override
+   public long waitUntilAvailable(final LongSupplier tryAvailableTo, final long timeoutNanos) {
+      long ret;
+      if((ret = tryAvailableTo.getAsLong()) == RingBufferConsumerControl.UNAVAILABLE) {
+         long nanos = timeoutNanos;
+         lock.lock();
+         try {
+            waiters.incrementAndGet();
+            try {
+               while((ret = tryAvailableTo.getAsLong()) == RingBufferConsumerControl.UNAVAILABLE) {
+                  if(nanos <= 0)
+                     return RingBufferConsumerControl.UNAVAILABLE;
+                  nanos = awaitNanos(nanos);
+               }
+            } finally {
+               waiters.decrementAndGet();
+            }
+         } finally {
+            lock.unlock();
+         }
+      }
+      return ret;
+   }
+
+   @Override
+   public void signalAllWhenBlocking() {
+      // the cursor was just set with a release write. That's not enough to keep the
+      // read of the waiters from moving ahead of it and missing a consumer that's just
+      // about to block.
+      VarHandle.fullFence();
+      if(waiters.get() != 0) {
+         lock.lock();
+         try {
+            published.signalAll();
+         } finally {
+            lock.unlock();
+         }
+      }
+   }
+
+   private long awaitNanos(final long nanos) {
+      try {
+         return published.awaitNanos(nanos);
+      } catch(final InterruptedException ie) {
+         // the untimed waits are uninterruptible so we're consistent with that here.
+         Thread.currentThread().interrupt();
+         return 0;
+      }
+   }
+}
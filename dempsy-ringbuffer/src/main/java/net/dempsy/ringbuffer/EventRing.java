@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * A single-publisher to single-consumer ring buffer of pre-allocated entries. Rather than handing a new object across
+ * for every message, every slot of the ring is filled from a factory when the {@link EventRing} is constructed and the
+ * publisher mutates the entry in place. Once it's running, publishing and consuming allocate nothing.
+ * </p>
+ *
+ * <p>
+ * The {@link EventRing} IS the {@link RingBufferControl} for the entries so everything on the control works as usual.
+ * For example, a publisher can {@link RingBufferControl#claim(int)} a batch of entries, fill them in using
+ * {@link EventRing#get(long)} and then {@link RingBufferControl#publish(long)} the batch. In the simple case the
+ * publisher can use {@link EventRing#publishEvent(Consumer)} which does all three.
+ * </p>
+ *
+ * <p>
+ * Since the entries are reused, neither side can hold on to an entry once it's been passed along. The publisher can't
+ * touch an entry after it's published and the consumer can't touch it after the
+ * {@link RingBufferConsumerControl#notifyProcessed()}.
+ * </p>
+ */
+public class EventRing<T> extends RingBufferControl {
+   private final T[] entries;
+
+   /**
+    * Creates an {@link EventRing} with a {@link RingBufferConsumerControl#yield} consumer wait strategy.
+    *
+    * @param sizePowerOfTwo is the number of entries in the ring. It must be a power of 2.
+    * @param factory is used to create each of the entries up front.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2.
+    */
+   public EventRing(final int sizePowerOfTwo, final Supplier<T> factory) throws IllegalArgumentException {
+      this(sizePowerOfTwo, factory, yield);
+   }
+
+   /**
+    * Creates an {@link EventRing} with the given wait strategy.
+    *
+    * @param sizePowerOfTwo is the number of entries in the ring. It must be a power of 2.
+    * @param factory is used to create each of the entries up front.
+    * @param waitStrategy is the implementation of {@link RingBufferConsumerControl.ConsumerWaitStrategy} to use.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2 or the factory returns null.
+    */
+   public EventRing(final int sizePowerOfTwo, final Supplier<T> factory, final ConsumerWaitStrategy waitStrategy)
+         throws IllegalArgumentException {
+      super(sizePowerOfTwo, waitStrategy);
+      @SuppressWarnings("unchecked")
+      final T[] tmp = (T[])new Object[sizePowerOfTwo];
+      for(int i = 0; i < sizePowerOfTwo; i++) {
+         if((tmp[i] = factory.get()) == null)
+            throw new IllegalArgumentException("The factory supplied to the " + EventRing.class.getSimpleName() + " returned null.");
+      }
+      this.entries = tmp;
+   }
+
+   /**
+    * Retrieve the entry for the given sequence. The publisher should only call this for sequences it has claimed and
+    * not yet published. The consumer should only call this for sequences up to what was returned from
+    * {@link RingBufferConsumerControl#availableTo()} (or {@link RingBufferConsumerControl#tryAvailableTo()}).
+    */
+   public T get(final long sequence) {
+      return entries[index(sequence)];
+   }
+
+   /**
+    * Claim the next entry, have the {@code translator} fill it in, and publish it. This will wait if the ring is
+    * full.
+    *
+    * @return the sequence of the entry that was published.
+    */
+   public long publishEvent(final Consumer<T> translator) {
+      final long sequence = claim(1);
+      translator.accept(entries[index(sequence)]);
+      publish(sequence);
+      return sequence;
+   }
+
+   /**
+    * The same as {@link EventRing#publishEvent(Consumer)} but the {@code arg} is passed to the {@code translator}. This
+    * allows a translator that doesn't capture anything (and so isn't allocated on every call) to copy data into the
+    * entry.
+    *
+    * @return the sequence of the entry that was published.
+    */
+   public <A> long publishEvent(final BiConsumer<T, A> translator, final A arg) {
+      final long sequence = claim(1);
+      translator.accept(entries[index(sequence)], arg);
+      publish(sequence);
+      return sequence;
+   }
+
+   /**
+    * Claim {@code args.length} entries, have the {@code translator} fill each one in from the corresponding
+    * {@code arg}, and publish them all at once. The number of args cannot be larger than the size of the ring.
+    *
+    * @return the sequence of the last entry that was published.
+    */
+   public <A> long publishEvents(final BiConsumer<T, A> translator, final A[] args) {
+      final int num = args.length;
+      final long hi = claim(num);
+      long sequence = hi - num + 1;
+      for(int i = 0; i < num; i++)
+         translator.accept(entries[index(sequence++)], args[i]);
+      publish(hi);
+      return hi;
+   }
+
+   /**
+    * This is a consumer side call that will wait for at least one entry to be published, pass each available entry,
+    * in order, to the {@code handler}, and then notify the publisher they've been processed.
+    *
+    * @return {@code false} if the publisher called {@link RingBufferControl#publishStop()} and so there will be no more
+    *         entries. Otherwise {@code true}.
+    */
+   public boolean consume(final Consumer<T> handler) {
+      final long availableTo = availableTo();
+      if(availableTo == ACQUIRE_STOP_REQUEST)
+         return false;
+
+      for(long sequence = tail.get() + 1; sequence <= availableTo; sequence++)
+         handler.accept(entries[index(sequence)]);
+      notifyProcessed();
+      return true;
+   }
+
+   /**
+    * The same as {@link EventRing#consume(Consumer)} but the {@code handler} is also told the sequence of each entry and
+    * which entry is the last of the batch. See {@link RingBufferConsumerControl#drain(Object[], BatchHandler, int)}.
+    */
+   public boolean drain(final BatchHandler<T> handler) {
+      return drain(entries, handler, Integer.MAX_VALUE);
+   }
+
+   /**
+    * The same as {@link EventRing#drain(BatchHandler)} but no more than {@code maxBatchSize} entries make up a batch.
+    * The publisher is notified as each batch is processed. See
+    * {@link RingBufferConsumerControl#drain(Object[], BatchHandler, int)}.
+    */
+   public boolean drain(final BatchHandler<T> handler, final int maxBatchSize) {
+      return drain(entries, handler, maxBatchSize);
+   }
+}
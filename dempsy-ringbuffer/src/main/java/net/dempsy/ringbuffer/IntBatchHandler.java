@@ -0,0 +1,31 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+/**
+ * Receives the {@code int} values from a ring one at a time, along with whether the value is the last of the batch
+ * that was available. A handler can use {@code endOfBatch} to flush whatever it's accumulated from the batch.
+ */
+@FunctionalInterface
+public interface IntBatchHandler {
+   /**
+    * @param value is the value that was published.
+    * @param sequence is the sequence the value was published at.
+    * @param endOfBatch is true if this is the last value available at the moment the batch was acquired.
+    */
+   public void accept(int value, long sequence, boolean endOfBatch);
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32C;
+
+import net.dempsy.serialization.Serializer;
+import net.dempsy.util.io.MegaByteBuffer;
+import net.dempsy.util.io.MessageBufferInput;
+import net.dempsy.util.io.MessageBufferOutput;
+
+/**
+ * <p>
+ * An append-only journal of the entries passing through a ring so they can be replayed after a restart. Each entry is
+ * serialized with a {@link Serializer} into a series of fixed size, memory mapped, segment files in a directory.
+ * </p>
+ *
+ * <p>
+ * The journal is meant to be run as a stage of a {@link RingBufferControlMulticaster} that every other subscriber
+ * depends on, for example {@code new int[][] { {}, {0}, {0} }} where subscriber 0 is passed to
+ * {@link Journal#journal(RingBufferConsumerControl, Object[])}. That way the other subscribers only see an entry once
+ * it's been journaled and, since the publisher waits on them, nothing is overwritten before it's journaled.
+ * </p>
+ *
+ * <p>
+ * Every entry journaled is given the next journal sequence. Unlike the sequences of a ring, these continue from where
+ * the journal left off when it's reopened, so they can be used to {@link Journal#replay(long, ObjLongConsumer)} from
+ * a given point at startup.
+ * </p>
+ *
+ * <p>
+ * Each record is a 16 byte header (the length of the serialized entry, a CRC32C of it, and the journal sequence)
+ * followed by the serialized entry, padded so the next header is 8 byte aligned. The header is written after the entry
+ * so a record that was only partially written when the process died is seen as the end of the journal. A record that
+ * doesn't fit in the rest of a segment starts a new segment. Segment files are named for the journal sequence of their
+ * first record.
+ * </p>
+ *
+ * <p>
+ * A record is also only accepted if its journal sequence follows the record before it, or is the sequence the segment
+ * is named for if it's the first record in the segment. If the host fails the pages of a segment can reach the disk
+ * out of order so a complete, but stale, record can be left past the real end of the journal. When the journal is
+ * reopened anything past the last accepted record is cut off before new records are written over it.
+ * </p>
+ *
+ * <p>
+ * When the journaled data is forced to disk is determined by the {@link Journal.FsyncPolicy}. A journal can only be
+ * used from one thread at a time.
+ * </p>
+ */
+public class Journal<T> implements AutoCloseable {
+   /**
+    * The size of the header in front of each record.
+    */
+   public static final int HEADER_SIZE = 16;
+
+   /**
+    * The suffix of the name of each segment file.
+    */
+   public static final String SEGMENT_SUFFIX = ".journal";
+
+   private static final int ALIGNMENT_MASK = Long.BYTES - 1;
+   private static final int LENGTH_OFFSET = 0;
+   private static final int CRC_OFFSET = 4;
+   private static final int SEQUENCE_OFFSET = 8;
+
+   /**
+    * When the journal forces what's been written to disk.
+    */
+   public static enum FsyncPolicy {
+      /**
+       * Force the segment to disk at the end of each batch taken from the ring. Nothing acknowledged downstream can
+       * be lost.
+       */
+      PER_BATCH,
+      /**
+       * Force the segment to disk at the end of a batch if it's been at least the fsync interval since it was last
+       * forced, or once the interval is up if the ring goes idle first. Up to about the interval's worth of entries can
+       * be lost if the host fails.
+       */
+      PERIODIC,
+      /**
+       * Never explicitly force the segment to disk and leave it to the operating system. Nothing is lost if only the
+       * process dies but anything can be lost if the host fails.
+       */
+      NONE
+   }
+
+   private final File directory;
+   private final long segmentSize;
+   private final Serializer serializer;
+   private final Class<T> clazz;
+   private final FsyncPolicy fsyncPolicy;
+   private final long fsyncIntervalNanos;
+
+   private final MessageBufferOutput out = new MessageBufferOutput();
+   private final CRC32C crc = new CRC32C();
+   private byte[] readBuffer = new byte[1024];
+
+   private MegaByteBuffer segment = null;
+   private long position = 0;
+   private long nextSequence = 0;
+   private boolean dirty = false;
+   private long lastFsync = System.nanoTime();
+
+   /**
+    * Open the journal in the given directory, creating the directory if it doesn't exist. If there are already
+    * segments in the directory then the journal continues from the end of the last one.
+    *
+    * @param segmentSize is the size, in bytes, of each segment file. A single serialized entry, plus the
+    *           {@link Journal#HEADER_SIZE}, must fit in a segment.
+    * @param fsyncPolicy cannot be {@link FsyncPolicy#PERIODIC}. That requires the interval.
+    * @throws IOException if the directory can't be created or the existing segments can't be read.
+    * @throws IllegalArgumentException if the policy is {@link FsyncPolicy#PERIODIC} or the segmentSize is too small.
+    */
+   public Journal(final File directory, final long segmentSize, final Serializer serializer, final Class<T> clazz,
+         final FsyncPolicy fsyncPolicy) throws IOException, IllegalArgumentException {
+      this(directory, segmentSize, serializer, clazz, fsyncPolicy, 0, TimeUnit.NANOSECONDS);
+   }
+
+   /**
+    * The same as {@link Journal#Journal(File, long, Serializer, Class, FsyncPolicy)} but the interval is used with a
+    * {@link FsyncPolicy#PERIODIC} policy.
+    */
+   public Journal(final File directory, final long segmentSize, final Serializer serializer, final Class<T> clazz,
+         final FsyncPolicy fsyncPolicy, final long fsyncInterval, final TimeUnit unit) throws IOException, IllegalArgumentException {
+      if(segmentSize < HEADER_SIZE * 2)
+         throw new IllegalArgumentException("The segmentSize for a " + Journal.class.getSimpleName() + " must be at least " + HEADER_SIZE * 2
+               + " bytes but was " + segmentSize);
+      if(fsyncPolicy == FsyncPolicy.PERIODIC && fsyncInterval <= 0)
+         throw new IllegalArgumentException("A " + FsyncPolicy.PERIODIC + " fsync policy requires a positive interval.");
+      if(!directory.isDirectory() && !directory.mkdirs())
+         throw new IOException("Couldn't create the journal directory " + directory);
+
+      this.directory = directory;
+      this.segmentSize = segmentSize;
+      this.serializer = serializer;
+      this.clazz = clazz;
+      this.fsyncPolicy = fsyncPolicy;
+      this.fsyncIntervalNanos = unit.toNanos(fsyncInterval);
+
+      // continue from the end of the last segment.
+      final File[] segments = segments();
+      if(segments.length > 0) {
+         final File last = segments[segments.length - 1];
+         final long size = Math.max(segmentSize, last.length());
+         final MegaByteBuffer existing = map(last, size);
+         nextSequence = firstSequence(last);
+         long next;
+         while((next = nextRecord(existing, position, nextSequence)) >= 0) {
+            nextSequence++;
+            position = next;
+         }
+         // anything left past the last good record would otherwise follow the records appended from here on.
+         segment = map(last, position, size);
+      }
+   }
+
+   /**
+    * This is a consumer side call, on the consumer the journal is run as, that will wait for at least one entry to be
+    * published, journal each available entry from {@code entries} in order, force them to disk if the
+    * {@link FsyncPolicy} calls for it, and then notify the publisher (and any downstream subscribers) that they've been
+    * processed.
+    *
+    * <p>
+    * With a {@link FsyncPolicy#PERIODIC} policy, if what's been journaled hasn't been forced to disk yet, this only
+    * waits until the fsync interval is up. If nothing is published by then it forces the segment to disk and returns
+    * so an idle ring doesn't leave the last batch unforced.
+    * </p>
+    *
+    * @return {@code false} if the publisher called {@link RingBufferControl#publishStop()} and so there will be no more
+    *         entries. Otherwise {@code true}.
+    * @throws IOException if an entry couldn't be serialized or written.
+    */
+   public boolean journal(final RingBufferConsumerControl consumer, final T[] entries) throws IOException {
+      final long availableTo;
+      if(fsyncPolicy == FsyncPolicy.PERIODIC && dirty) {
+         final long remaining = fsyncIntervalNanos - (System.nanoTime() - lastFsync);
+         availableTo = consumer.availableTo(Math.max(remaining, 0L), TimeUnit.NANOSECONDS);
+         if(availableTo == RingBufferConsumerControl.UNAVAILABLE) {
+            sync();
+            return true;
+         }
+      } else
+         availableTo = consumer.availableTo();
+
+      if(availableTo == RingBufferConsumerControl.ACQUIRE_STOP_REQUEST) {
+         if(fsyncPolicy != FsyncPolicy.NONE)
+            sync();
+         return false;
+      }
+
+      for(long sequence = consumer.tail.get() + 1L; sequence <= availableTo; sequence++)
+         append(entries[consumer.index(sequence)]);
+      endOfBatch();
+      consumer.notifyProcessed();
+      return true;
+   }
+
+   /**
+    * Journal a single entry.
+    *
+    * @return the journal sequence of the entry.
+    * @throws IOException if the entry couldn't be serialized or written.
+    */
+   public long append(final T entry) throws IOException {
+      out.reset();
+      serializer.serialize(entry, out);
+      final int length = out.getPosition();
+      final long recordSize = align(HEADER_SIZE + (long)length);
+      if(recordSize > segmentSize)
+         throw new IOException("The serialized entry is " + length + " bytes which is too large for a journal segment of " + segmentSize
+               + " bytes.");
+      if(segment == null || position + recordSize > segmentSize)
+         roll();
+
+      crc.reset();
+      crc.update(out.getBuffer(), 0, length);
+      final long sequence = nextSequence++;
+      segment.put(position + HEADER_SIZE, out.getBuffer(), 0, length);
+      segment.putInt(position + CRC_OFFSET, (int)crc.getValue());
+      segment.putLong(position + SEQUENCE_OFFSET, sequence);
+      // the length goes last so the record doesn't exist until it's complete.
+      segment.putInt(position + LENGTH_OFFSET, length);
+      position += recordSize;
+      dirty = true;
+      return sequence;
+   }
+
+   /**
+    * Tell the journal the current batch is done so it can force it to disk according to the {@link FsyncPolicy}. This
+    * is called from {@link Journal#journal(RingBufferConsumerControl, Object[])} so it only needs to be called when
+    * {@link Journal#append(Object)} is used directly.
+    */
+   public void endOfBatch() {
+      if(fsyncPolicy == FsyncPolicy.PER_BATCH)
+         sync();
+      else if(fsyncPolicy == FsyncPolicy.PERIODIC && System.nanoTime() - lastFsync >= fsyncIntervalNanos)
+         sync();
+   }
+
+   /**
+    * Force everything journaled so far to disk regardless of the {@link FsyncPolicy}.
+    */
+   public void sync() {
+      if(dirty) {
+         segment.force();
+         dirty = false;
+      }
+      lastFsync = System.nanoTime();
+   }
+
+   /**
+    * Pass each journaled entry, starting with the given journal sequence, to the {@code handler} along with its journal
+    * sequence. This is meant to be called at startup before anything new is journaled.
+    *
+    * @return the number of entries passed to the handler.
+    * @throws IOException if the segments couldn't be read or an entry couldn't be deserialized.
+    */
+   public long replay(final long fromSequence, final ObjLongConsumer<T> handler) throws IOException {
+      final File[] segments = segments();
+      long count = 0;
+      for(int i = 0; i < segments.length; i++) {
+         // skip the segments that end before the sequence we're looking for.
+         if(i + 1 < segments.length && firstSequence(segments[i + 1]) <= fromSequence)
+            continue;
+         final MegaByteBuffer buf = map(segments[i], segments[i].length());
+         long pos = 0;
+         long sequence = firstSequence(segments[i]);
+         long next;
+         while((next = nextRecord(buf, pos, sequence)) >= 0) {
+            if(sequence >= fromSequence) {
+               handler.accept(read(buf, pos), sequence);
+               count++;
+            }
+            pos = next;
+            sequence++;
+         }
+      }
+      return count;
+   }
+
+   /**
+    * Delete the segments that only contain entries before the given journal sequence. The segment currently being
+    * written is never deleted.
+    *
+    * @return the number of segments deleted.
+    * @throws IOException if a segment couldn't be deleted.
+    */
+   public int deleteSegmentsBefore(final long sequence) throws IOException {
+      final File[] segments = segments();
+      int count = 0;
+      for(int i = 0; i + 1 < segments.length && firstSequence(segments[i + 1]) <= sequence; i++) {
+         if(!segments[i].delete())
+            throw new IOException("Couldn't delete the journal segment " + segments[i]);
+         count++;
+      }
+      return count;
+   }
+
+   /**
+    * The journal sequence the next entry journaled will be given.
+    */
+   public long getNextSequence() {
+      return nextSequence;
+   }
+
+   // whether anything's been journaled since the segment was last forced to disk. Only meant for tests.
+   boolean isDirty() {
+      return dirty;
+   }
+
+   @Override
+   public void close() {
+      if(segment != null && fsyncPolicy != FsyncPolicy.NONE)
+         sync();
+      segment = null;
+   }
+
+   private void roll() throws IOException {
+      if(segment != null && fsyncPolicy != FsyncPolicy.NONE)
+         sync();
+      segment = map(new File(directory, String.format("%020d", nextSequence) + SEGMENT_SUFFIX), segmentSize);
+      position = 0;
+   }
+
+   private T read(final MegaByteBuffer buf, final long pos) throws IOException {
+      final int length = buf.getInt(pos + LENGTH_OFFSET);
+      if(readBuffer.length < length)
+         readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+      buf.getBytes(pos + HEADER_SIZE, readBuffer, 0, length);
+      try(MessageBufferInput in = new MessageBufferInput(readBuffer, 0, length)) {
+         return serializer.deserialize(in, clazz);
+      }
+   }
+
+   // the position of the record after the one at pos, or -1 if there's no complete record at pos with the expected
+   // journal sequence.
+   private long nextRecord(final MegaByteBuffer buf, final long pos, final long expectedSequence) {
+      if(pos + HEADER_SIZE > buf.capacity())
+         return -1L;
+      final int length = buf.getInt(pos + LENGTH_OFFSET);
+      if(length <= 0 || pos + HEADER_SIZE + length > buf.capacity())
+         return -1L;
+      if(buf.getLong(pos + SEQUENCE_OFFSET) != expectedSequence)
+         return -1L;
+      if(readBuffer.length < length)
+         readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+      buf.getBytes(pos + HEADER_SIZE, readBuffer, 0, length);
+      crc.reset();
+      crc.update(readBuffer, 0, length);
+      if(buf.getInt(pos + CRC_OFFSET) != (int)crc.getValue())
+         return -1L;
+      return pos + align(HEADER_SIZE + (long)length);
+   }
+
+   private File[] segments() {
+      final File[] ret = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+      if(ret == null)
+         return new File[0];
+      // the names are zero padded so they sort in sequence order.
+      Arrays.sort(ret);
+      return ret;
+   }
+
+   private static long firstSequence(final File segment) {
+      final String name = segment.getName();
+      return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+   }
+
+   private static MegaByteBuffer map(final File file, final long size) throws IOException {
+      return map(file, -1L, size);
+   }
+
+   // the same as map(file, size) but the file is first truncated to truncateTo unless it's negative.
+   private static MegaByteBuffer map(final File file, final long truncateTo, final long size) throws IOException {
+      try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         if(truncateTo >= 0)
+            channel.truncate(truncateTo);
+         // the mapping stays valid after the channel is closed.
+         return MegaByteBuffer.allocateMaped(0, size, channel, MapMode.READ_WRITE);
+      }
+   }
+
+   private static long align(final long size) {
+      return (size + ALIGNMENT_MASK) & ~ALIGNMENT_MASK;
+   }
+}
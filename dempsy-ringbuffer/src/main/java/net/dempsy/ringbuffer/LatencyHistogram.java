@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * <p>
+ * A histogram of latencies in nanoseconds with log-linear buckets in the style of HdrHistogram. Values are grouped
+ * by their power of 2 and each power of 2 is split into {@link LatencyHistogram#SUB_BUCKETS} linear buckets so the
+ * value reported for a bucket is within about 1.5% of any value recorded in it, whatever the magnitude.
+ * </p>
+ *
+ * <p>
+ * There's a single writer (the consumer thread that records the latencies) which never does an atomic
+ * read-modify-write or allocates. Snapshots can be taken from any other thread at any time. Resetting doesn't write
+ * to the counts the recording thread is incrementing. Instead it moves the baseline that later snapshots are taken
+ * relative to.
+ * </p>
+ */
+public class LatencyHistogram {
+   /**
+    * The number of linear buckets each power of 2 is split into.
+    */
+   public static final int SUB_BUCKETS = 64;
+
+   private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+   private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+   // values less than this go directly into the bucket with that index.
+   private static final long LINEAR_LIMIT = 2 * SUB_BUCKETS;
+   private static final int NUM_BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+   private final long[] counts = new long[NUM_BUCKETS];
+
+   // only accessed by the readers (under the monitor)
+   private long[] resetBaseline = new long[NUM_BUCKETS];
+   private long[] intervalBaseline = new long[NUM_BUCKETS];
+
+   /**
+    * Record a latency. This can only be called from one thread. Negative values are recorded as zero.
+    */
+   public void record(final long nanos) {
+      final int bucket = bucket(nanos < 0 ? 0 : nanos);
+      COUNTS.setOpaque(counts, bucket, (long)COUNTS.getOpaque(counts, bucket) + 1L);
+   }
+
+   /**
+    * Everything recorded since the histogram was created or last reset.
+    */
+   public synchronized Snapshot getSnapshot() {
+      return new Snapshot(subtract(read(), resetBaseline));
+   }
+
+   /**
+    * Everything recorded since the last call to this method or the last reset. Each call starts a new interval.
+    */
+   public synchronized Snapshot getIntervalSnapshot() {
+      final long[] current = read();
+      final Snapshot ret = new Snapshot(subtract(current, intervalBaseline));
+      intervalBaseline = current;
+      return ret;
+   }
+
+   /**
+    * Start over from zero. This can be called from any thread, including while latencies are being recorded.
+    */
+   public synchronized void reset() {
+      resetBaseline = read();
+      intervalBaseline = resetBaseline;
+   }
+
+   private long[] read() {
+      final long[] ret = new long[NUM_BUCKETS];
+      for(int i = 0; i < NUM_BUCKETS; i++)
+         ret[i] = (long)COUNTS.getOpaque(counts, i);
+      return ret;
+   }
+
+   private static long[] subtract(final long[] current, final long[] baseline) {
+      final long[] ret = new long[NUM_BUCKETS];
+      for(int i = 0; i < NUM_BUCKETS; i++)
+         ret[i] = current[i] - baseline[i];
+      return ret;
+   }
+
+   private static int bucket(final long value) {
+      if(value < LINEAR_LIMIT)
+         return (int)value;
+      final int magnitude = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+      return (magnitude * SUB_BUCKETS) + (int)(value >>> magnitude);
+   }
+
+   private static long lowestValue(final int bucket) {
+      final int magnitude = Math.max(0, (bucket / SUB_BUCKETS) - 1);
+      return (long)(bucket - (magnitude * SUB_BUCKETS)) << magnitude;
+   }
+
+   private static long highestValue(final int bucket) {
+      final int magnitude = Math.max(0, (bucket / SUB_BUCKETS) - 1);
+      return lowestValue(bucket) + (1L << magnitude) - 1L;
+   }
+
+   /**
+    * The counts in a {@link LatencyHistogram} at a point in time.
+    */
+   public static class Snapshot {
+      private final long[] counts;
+      private final long totalCount;
+
+      private Snapshot(final long[] counts) {
+         this.counts = counts;
+         long total = 0;
+         for(final long count: counts)
+            total += count;
+         this.totalCount = total;
+      }
+
+      public long getTotalCount() {
+         return totalCount;
+      }
+
+      /**
+       * The latency, in nanoseconds, that the given percentage (for example, 99.9) of the recorded latencies are less
+       * than or equal to. This is the highest value that falls in the same bucket. Returns 0 if nothing was recorded.
+       */
+      public long getValueAtPercentile(final double percentile) {
+         if(totalCount == 0)
+            return 0L;
+         final long countAtPercentile = Math.max(1L, (long)Math.ceil((Math.min(percentile, 100.0) / 100.0) * totalCount));
+         long count = 0;
+         for(int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if(count >= countAtPercentile)
+               return highestValue(i);
+         }
+         return 0L; // can't get here.
+      }
+
+      /**
+       * The largest latency recorded, to the precision of the buckets.
+       */
+      public long getMaxValue() {
+         for(int i = counts.length - 1; i >= 0; i--) {
+            if(counts[i] != 0)
+               return highestValue(i);
+         }
+         return 0L;
+      }
+
+      /**
+       * The smallest latency recorded, to the precision of the buckets.
+       */
+      public long getMinValue() {
+         for(int i = 0; i < counts.length; i++) {
+            if(counts[i] != 0)
+               return lowestValue(i);
+         }
+         return 0L;
+      }
+
+      /**
+       * The mean of the latencies recorded, using the middle of each bucket.
+       */
+      public double getMean() {
+         if(totalCount == 0)
+            return 0.0;
+         double sum = 0.0;
+         for(int i = 0; i < counts.length; i++) {
+            if(counts[i] != 0)
+               sum += counts[i] * ((lowestValue(i) + highestValue(i)) / 2.0);
+         }
+         return sum / totalCount;
+      }
+
+      @Override
+      public String toString() {
+         return "LatencyHistogram.Snapshot [totalCount=" + totalCount + ", p50=" + getValueAtPercentile(50.0) + ", p99="
+               + getValueAtPercentile(99.0) + ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + getMaxValue() + "]";
+      }
+   }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.util.function.LongConsumer;
+
+/**
+ * <p>
+ * A single-publisher to single-consumer ring buffer of {@code long}s. The values are stored directly in a
+ * {@code long[]} so passing sequence numbers, timestamps, or indices into other tables doesn't box anything or create
+ * any garbage, and the consumer reads the values sequentially from the one array rather than following a reference
+ * for each.
+ * </p>
+ *
+ * <p>
+ * The {@link LongRing} IS the {@link RingBufferControl} for the values so everything on the control works as usual.
+ * For example, a publisher can {@link RingBufferControl#claim(int)} a batch, fill it in using
+ * {@link LongRing#set(long, long)} and then {@link RingBufferControl#publish(long)} the batch. In the simple case the
+ * publisher can use {@link LongRing#publishValue(long)} which does all three.
+ * </p>
+ *
+ * <p>
+ * See {@link IntRing} for {@code int}s. For many publishers see {@link RingBufferControlMultiplexor.LongManager} and
+ * for many consumers see {@link RingBufferControlWorkerPool.Worker#consumeBatch(long[], LongConsumer)}.
+ * </p>
+ */
+public class LongRing extends RingBufferControl {
+   private final long[] values;
+
+   /**
+    * Creates a {@link LongRing} with a {@link RingBufferConsumerControl#yield} consumer wait strategy.
+    *
+    * @param sizePowerOfTwo is the number of values in the ring. It must be a power of 2.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2.
+    */
+   public LongRing(final int sizePowerOfTwo) throws IllegalArgumentException {
+      this(sizePowerOfTwo, yield);
+   }
+
+   /**
+    * Creates a {@link LongRing} with the given wait strategy.
+    *
+    * @param sizePowerOfTwo is the number of values in the ring. It must be a power of 2.
+    * @param waitStrategy is the implementation of {@link RingBufferConsumerControl.ConsumerWaitStrategy} to use.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2.
+    */
+   public LongRing(final int sizePowerOfTwo, final ConsumerWaitStrategy waitStrategy) throws IllegalArgumentException {
+      super(sizePowerOfTwo, waitStrategy);
+      this.values = new long[sizePowerOfTwo];
+   }
+
+   /**
+    * Retrieve the value for the given sequence. The consumer should only call this for sequences up to what was
+    * returned from {@link RingBufferConsumerControl#availableTo()} (or {@link RingBufferConsumerControl#tryAvailableTo()}).
+    */
+   public long get(final long sequence) {
+      return values[index(sequence)];
+   }
+
+   /**
+    * Set the value for the given sequence. The publisher should only call this for sequences it has claimed and not yet
+    * published.
+    */
+   public void set(final long sequence, final long value) {
+      values[index(sequence)] = value;
+   }
+
+   /**
+    * Claim the next slot, set it to the {@code value}, and publish it. This will wait if the ring is full.
+    *
+    * @return the sequence of the value that was published.
+    */
+   public long publishValue(final long value) {
+      final long sequence = claim(1);
+      values[index(sequence)] = value;
+      publish(sequence);
+      return sequence;
+   }
+
+   /**
+    * Claim {@code length} slots, copy that many values from {@code src} starting at {@code offset}, and publish them all
+    * at once. The length cannot be larger than the size of the ring.
+    *
+    * @return the sequence of the last value that was published.
+    */
+   public long publishValues(final long[] src, final int offset, final int length) {
+      final long hi = claim(length);
+      final int first = index(hi - length + 1);
+      // the claimed slots may wrap around the end of the array.
+      final int toEnd = Math.min(length, values.length - first);
+      System.arraycopy(src, offset, values, first, toEnd);
+      System.arraycopy(src, offset + toEnd, values, 0, length - toEnd);
+      publish(hi);
+      return hi;
+   }
+
+   /**
+    * This is a consumer side call that will wait for at least one value to be published, pass each available value, in
+    * order, to the {@code handler}, and then notify the publisher they've been processed.
+    *
+    * @return {@code false} if the publisher called {@link RingBufferControl#publishStop()} and so there will be no more
+    *         values. Otherwise {@code true}.
+    */
+   public boolean consume(final LongConsumer handler) {
+      final long availableTo = availableTo();
+      if(availableTo == ACQUIRE_STOP_REQUEST)
+         return false;
+
+      for(long sequence = tail.get() + 1; sequence <= availableTo; sequence++)
+         handler.accept(values[index(sequence)]);
+      notifyProcessed();
+      return true;
+   }
+
+   /**
+    * The same as {@link LongRing#consume(LongConsumer)} but the {@code handler} is also told the sequence of each value
+    * and which value is the last of the batch.
+    */
+   public boolean consume(final LongBatchHandler handler) {
+      return consume(handler, Integer.MAX_VALUE);
+   }
+
+   /**
+    * The same as {@link LongRing#consume(LongBatchHandler)} but no more than {@code maxBatchSize} values make up a batch and the
+    * publisher is notified as each batch is processed. See
+    * {@link RingBufferConsumerControl#drain(Object[], BatchHandler, int)}.
+    *
+    * @throws IllegalArgumentException if the maxBatchSize is less than 1.
+    */
+   public boolean consume(final LongBatchHandler handler, final int maxBatchSize) {
+      checkMaxBatchSize(maxBatchSize);
+      final long availableTo = availableTo();
+      if(availableTo == ACQUIRE_STOP_REQUEST)
+         return false;
+
+      long sequence = tail.get() + 1L;
+      while(sequence <= availableTo) {
+         final long batchEnd = Math.min(availableTo, sequence + maxBatchSize - 1L);
+         for(; sequence < batchEnd; sequence++)
+            handler.accept(values[index(sequence)], sequence, false);
+         handler.accept(values[index(sequence)], sequence, true);
+         doNotifyProcessed(sequence++);
+      }
+      return true;
+   }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl.ConsumerWaitStrategy;
+import net.dempsy.ringbuffer.internal.ByteBuffers;
+import net.dempsy.util.io.MegaByteBuffer;
+
+/**
+ * <p>
+ * A single-publisher to single-consumer ring of variable length messages written directly into a {@link ByteBuffer}
+ * (typically a direct or memory mapped one) rather than handing a separate {@code byte[]} across for each message.
+ * </p>
+ *
+ * <p>
+ * The sequencing is done by a {@link RingBufferControl} where each sequence is a byte in the buffer. Each message is
+ * written as a record with an int length header and is padded out so the next header is 8 byte aligned. When a record
+ * won't fit in the space left before the end of the buffer the publisher marks the rest of the buffer as padding and
+ * writes the record at the beginning. That way every record is contiguous in the buffer and the consumer can read
+ * it in place.
+ * </p>
+ *
+ * <p>
+ * Neither side allocates anything per message. The {@link ByteBuffer} returned from
+ * {@link MessageRing#claim(int)} and the one passed to the handler in {@link MessageRing#consume(Consumer)} are views
+ * of the ring's buffer that are reused. Their position and limit are set to the bounds of the record's payload so
+ * they can be passed directly to anything that reads from or writes to a {@link ByteBuffer}, including an NIO
+ * channel. They are only valid until the next call on the same side of the ring.
+ * </p>
+ */
+public class MessageRing {
+   /**
+    * The size of the length header written in front of each message.
+    */
+   public static final int HEADER_SIZE = Integer.BYTES;
+
+   private static final int ALIGNMENT = Long.BYTES;
+   private static final int ALIGNMENT_MASK = ALIGNMENT - 1;
+
+   // the length written in the header when the rest of the buffer is skipped.
+   private static final int PADDING = -1;
+
+   private final RingBufferControl control;
+   private final ByteBuffer buffer;
+   private final int capacity;
+
+   // publish side only
+   private final ByteBuffer publisherView;
+   private long nextPublishPosition = 0;
+   private long pendingPublish = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
+
+   // consume side only
+   private final ByteBuffer consumerView;
+   private long nextConsumePosition = 0;
+
+   /**
+    * Creates a {@link MessageRing} over a newly allocated direct buffer with a {@link RingBufferConsumerControl#yield}
+    * consumer wait strategy.
+    *
+    * @param sizePowerOfTwo is the size of the buffer in bytes. It must be a power of 2.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2.
+    */
+   public static MessageRing allocateDirect(final int sizePowerOfTwo) throws IllegalArgumentException {
+      return new MessageRing(ByteBuffer.allocateDirect(sizePowerOfTwo));
+   }
+
+   /**
+    * Creates a {@link MessageRing} that uses the given buffer, from position 0 up to its capacity, with a
+    * {@link RingBufferConsumerControl#yield} consumer wait strategy.
+    *
+    * @throws IllegalArgumentException if the capacity of the buffer isn't a power of 2 or the buffer is read only.
+    */
+   public MessageRing(final ByteBuffer buffer) throws IllegalArgumentException {
+      this(buffer, RingBufferConsumerControl.yield);
+   }
+
+   /**
+    * Creates a {@link MessageRing} that uses the given buffer, from position 0 up to its capacity, with the given
+    * consumer wait strategy.
+    *
+    * @throws IllegalArgumentException if the capacity of the buffer isn't a power of 2 or the buffer is read only.
+    */
+   public MessageRing(final ByteBuffer buffer, final ConsumerWaitStrategy waitStrategy) throws IllegalArgumentException {
+      if(buffer.isReadOnly())
+         throw new IllegalArgumentException("Cannot create a " + MessageRing.class.getSimpleName() + " on a read only buffer.");
+      if(buffer.capacity() < ALIGNMENT * 2)
+         throw new IllegalArgumentException("The buffer for a " + MessageRing.class.getSimpleName() + " must be at least " + ALIGNMENT * 2
+               + " bytes.");
+
+      this.control = new RingBufferControl(buffer.capacity(), waitStrategy);
+      this.buffer = buffer.duplicate().order(buffer.order()).clear();
+      this.capacity = buffer.capacity();
+      this.publisherView = this.buffer.duplicate().order(buffer.order());
+      this.consumerView = this.buffer.duplicate().order(buffer.order());
+   }
+
+   /**
+    * Creates a {@link MessageRing} that uses the given {@link MegaByteBuffer} with a
+    * {@link RingBufferConsumerControl#yield} consumer wait strategy.
+    *
+    * @throws IllegalArgumentException if the {@link MegaByteBuffer} isn't backed by a single {@link ByteBuffer} (that
+    *            is, it's larger than 2 Gig), its capacity isn't a power of 2, or it's read only.
+    */
+   public MessageRing(final MegaByteBuffer buffer) throws IllegalArgumentException {
+      this(buffer, RingBufferConsumerControl.yield);
+   }
+
+   /**
+    * Creates a {@link MessageRing} that uses the given {@link MegaByteBuffer} with the given consumer wait strategy.
+    *
+    * @throws IllegalArgumentException if the {@link MegaByteBuffer} isn't backed by a single {@link ByteBuffer} (that
+    *            is, it's larger than 2 Gig), its capacity isn't a power of 2, or it's read only.
+    */
+   public MessageRing(final MegaByteBuffer buffer, final ConsumerWaitStrategy waitStrategy) throws IllegalArgumentException {
+      this(ByteBuffers.single(buffer, MessageRing.class), waitStrategy);
+   }
+
+   /**
+    * This is used by the publisher to claim space for a message of the given length. It will wait if there isn't
+    * currently enough room in the ring. The message should be written into the returned buffer, between its position
+    * and limit, and then {@link MessageRing#publish()} should be called.
+    *
+    * @param length is the length of the message in bytes.
+    * @return a view of the ring's buffer with the position and limit set to the bounds of the claimed message.
+    * @throws IllegalArgumentException if the message (along with its header) can't fit in the ring.
+    */
+   public ByteBuffer claim(final int length) throws IllegalArgumentException {
+      final int start = doClaim(length);
+      publisherView.limit(start + length).position(start);
+      return publisherView;
+   }
+
+   /**
+    * Publish the message from the most recent call to {@link MessageRing#claim(int)}.
+    */
+   public void publish() {
+      control.publish(pendingPublish);
+   }
+
+   /**
+    * Copy the message into the ring and publish it. This will wait if there isn't currently enough room in the ring.
+    *
+    * @throws IllegalArgumentException if the message (along with its header) can't fit in the ring.
+    */
+   public void publish(final byte[] message, final int offset, final int length) throws IllegalArgumentException {
+      buffer.put(doClaim(length), message, offset, length);
+      control.publish(pendingPublish);
+   }
+
+   /**
+    * Copy the remaining bytes in the message into the ring and publish it. The position of the message buffer is not
+    * changed. This will wait if there isn't currently enough room in the ring.
+    *
+    * @throws IllegalArgumentException if the message (along with its header) can't fit in the ring.
+    */
+   public void publish(final ByteBuffer message) throws IllegalArgumentException {
+      final int length = message.remaining();
+      buffer.put(doClaim(length), message, message.position(), length);
+      control.publish(pendingPublish);
+   }
+
+   /**
+    * The {@link MessageRing} can ONLY be stopped from the publish side. Once the consumer has consumed all of the
+    * messages published prior to this call, {@link MessageRing#consume(Consumer)} will return {@code false}.
+    */
+   public void publishStop() {
+      control.publishStop();
+      nextPublishPosition = 0;
+   }
+
+   /**
+    * This is the consumer side call that will wait until at least one message has been published and then pass each
+    * available message, in order, to the {@code handler}. The buffer passed to the handler has its position and limit
+    * set to the bounds of the message and is only valid for the duration of the call.
+    *
+    * @return {@code false} if the publisher called {@link MessageRing#publishStop()} and so there will be no more
+    *         messages. Otherwise {@code true}.
+    */
+   public boolean consume(final Consumer<ByteBuffer> handler) {
+      final long availableTo = control.availableTo();
+      if(availableTo == RingBufferConsumerControl.ACQUIRE_STOP_REQUEST) {
+         nextConsumePosition = 0;
+         return false;
+      }
+
+      long position = nextConsumePosition;
+      while(position <= availableTo) {
+         final int index = control.index(position);
+         final int length = buffer.getInt(index);
+         if(length == PADDING)
+            position += capacity - index;
+         else {
+            final int start = index + HEADER_SIZE;
+            consumerView.limit(start + length).position(start);
+            handler.accept(consumerView);
+            position += recordSize(length);
+         }
+      }
+      nextConsumePosition = position;
+      control.notifyProcessed();
+      return true;
+   }
+
+   /**
+    * The largest message that can be published into this ring.
+    */
+   public int maxMessageLength() {
+      return capacity - HEADER_SIZE;
+   }
+
+   /**
+    * Turn on the {@link RingBufferStats} counters. This needs to be called before the ring is used. Note that the
+    * sequences in a {@link MessageRing} are bytes so the occupancy and batch sizes are in bytes rather than messages.
+    */
+   public void enableStats() {
+      control.enableStats();
+   }
+
+   /**
+    * A snapshot of the {@link RingBufferStats}. This can be called from any thread.
+    */
+   public RingBufferStats.Snapshot getStats() {
+      return control.getStats();
+   }
+
+   /**
+    * Once the publisher calls {@link MessageRing#publishStop()} and the consumer acquires it this method will return
+    * <code>true</code>. It will also return <code>true</code> up until the first message is retrieved by a consumer.
+    */
+   public boolean isShutdown() {
+      return control.isShutdown();
+   }
+
+   // returns the index in the buffer to write the message to.
+   private int doClaim(final int length) {
+      if(length < 0 || length > maxMessageLength())
+         throw new IllegalArgumentException("A message of length " + length + " cannot fit in a " + MessageRing.class.getSimpleName()
+               + " with a capacity of " + capacity);
+
+      final int recordSize = recordSize(length);
+      int index = control.index(nextPublishPosition);
+      final int toEnd = capacity - index;
+      if(recordSize > toEnd) {
+         // The rest of the buffer is skipped. This needs to be published on its own since the
+         // record can be as large as the buffer and so the consumer may need to release the
+         // padding before there's room for it.
+         final long paddingHi = control.claim(toEnd);
+         buffer.putInt(index, PADDING);
+         control.publish(paddingHi);
+         nextPublishPosition = paddingHi + 1;
+         index = 0;
+      }
+
+      final long hi = control.claim(recordSize);
+      buffer.putInt(index, length);
+      nextPublishPosition = hi + 1;
+      pendingPublish = hi;
+      return index + HEADER_SIZE;
+   }
+
+   private static int recordSize(final int length) {
+      // the long math keeps a length near Integer.MAX_VALUE from overflowing.
+      return (int)((HEADER_SIZE + (long)length + ALIGNMENT_MASK) & ~ALIGNMENT_MASK);
+   }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * This code is substantially based on the ingenious work done by Martin
+ * Thompson on what he calls "Mechanical Sympathy." It leans heavily on
+ * the source code from version 3.0.0.beta2 of the LMAX-exchange Disruptor
+ * but has been completely refactored in order to invert separate the control
+ * mechanism from what is being controlled and to simplify the API.
+ *
+ * For more information on the LMAX Disruptor, see:
+ *
+ * http://lmax-exchange.github.com/disruptor/
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl.ConsumerWaitStrategy;
+
+/**
+ * <p>
+ * A {@link ConsumerWaitStrategy} that backs off in phases the longer the consumer waits. It first spins, then
+ * busy-waits using {@link Thread#onSpinWait()}, then yields the thread, and finally parks the thread for a time that
+ * starts at {@code minParkNanos} and doubles on every poll up to {@code maxParkNanos}.
+ * </p>
+ *
+ * <p>
+ * This gives close to the latency of {@link RingBufferConsumerControl#spin} when data is arriving steadily while
+ * not burning a core when the consumer is idle. Unlike the {@link BlockingWaitStrategy} the publisher never needs to
+ * wake the consumer so there's no cost on the publish side but the consumer can take up to {@code maxParkNanos} to
+ * notice new data once it's been idle for a while.
+ * </p>
+ *
+ * <p>
+ * Instances have no state so a single one can be shared by any number of controls.
+ * </p>
+ */
+public class PhasedBackoffWaitStrategy implements ConsumerWaitStrategy {
+   public static final int DEFAULT_SPIN_TRIES = 100;
+   public static final int DEFAULT_ON_SPIN_WAIT_TRIES = 1000;
+   public static final int DEFAULT_YIELD_TRIES = 100;
+   public static final long DEFAULT_MIN_PARK_NANOS = 1000L;
+   public static final long DEFAULT_MAX_PARK_NANOS = 1000000L;
+
+   private final int spinLimit;
+   private final int onSpinWaitLimit;
+   private final int yieldLimit;
+   private final long minParkNanos;
+   private final long maxParkNanos;
+
+   /**
+    * Creates a {@link PhasedBackoffWaitStrategy} with the default tries and park times.
+    */
+   public PhasedBackoffWaitStrategy() {
+      this(DEFAULT_SPIN_TRIES, DEFAULT_ON_SPIN_WAIT_TRIES, DEFAULT_YIELD_TRIES, DEFAULT_MIN_PARK_NANOS, DEFAULT_MAX_PARK_NANOS);
+   }
+
+   /**
+    * @param spinTries is the number of times to poll in a tight loop.
+    * @param onSpinWaitTries is the number of times to poll, after the spinTries, calling {@link Thread#onSpinWait()}
+    *           in between.
+    * @param yieldTries is the number of times to poll, after the onSpinWaitTries, calling {@link Thread#yield()} in
+    *           between.
+    * @param minParkNanos is the first park time once the yieldTries are exhausted.
+    * @param maxParkNanos is the limit the park time grows to.
+    * @throws IllegalArgumentException if any of the values are negative, the minParkNanos is zero, or the maxParkNanos
+    *            is less than the minParkNanos.
+    */
+   public PhasedBackoffWaitStrategy(final int spinTries, final int onSpinWaitTries, final int yieldTries, final long minParkNanos,
+         final long maxParkNanos) throws IllegalArgumentException {
+      if(spinTries < 0 || onSpinWaitTries < 0 || yieldTries < 0)
+         throw new IllegalArgumentException("The number of tries for each phase cannot be negative");
+      if(minParkNanos <= 0 || maxParkNanos < minParkNanos)
+         throw new IllegalArgumentException("The minParkNanos must be positive and the maxParkNanos must be at least the minParkNanos");
+
+      this.spinLimit = spinTries;
+      this.onSpinWaitLimit = spinLimit + onSpinWaitTries;
+      this.yieldLimit = onSpinWaitLimit + yieldTries;
+      this.minParkNanos = minParkNanos;
+      this.maxParkNanos = maxParkNanos;
+   }
+
+   @Override
+   public long waitFor(final long sequence, final Sequence cursor) {
+      long availableSequence;
+      int tries = 0;
+      long parkNanos = minParkNanos;
+      while((availableSequence = cursor.get()) < sequence) {
+         if(tries < yieldLimit)
+            backOff(tries++);
+         else
+            parkNanos = park(parkNanos);
+      }
+      return availableSequence;
+   }
+
+   @Override
+   public long waitFor(final long sequence, final Sequence cursor, final long timeoutNanos) {
+      final long deadline = System.nanoTime() + timeoutNanos;
+      long availableSequence;
+      int tries = 0;
+      long parkNanos = minParkNanos;
+      while((availableSequence = cursor.get()) < sequence) {
+         final long remaining = deadline - System.nanoTime();
+         if(remaining <= 0)
+            return availableSequence;
+         if(tries < yieldLimit)
+            backOff(tries++);
+         else
+            parkNanos = park(Math.min(parkNanos, remaining));
+      }
+      return availableSequence;
+   }
+
+   @Override
+   public long waitUntilAvailable(final LongSupplier tryAvailableTo) {
+      long ret;
+      int tries = 0;
+      long parkNanos = minParkNanos;
+      while((ret = tryAvailableTo.getAsLong()) == RingBufferConsumerControl.UNAVAILABLE) {
+         if(tries < yieldLimit)
+            backOff(tries++);
+         else
+            parkNanos = park(parkNanos);
+      }
+      return ret;
+   }
+
+   @Override
+   public long waitUntilAvailable(final LongSupplier tryAvailableTo, final long timeoutNanos) {
+      final long deadline = System.nanoTime() + timeoutNanos;
+      long ret;
+      int tries = 0;
+      long parkNanos = minParkNanos;
+      while((ret = tryAvailableTo.getAsLong()) == RingBufferConsumerControl.UNAVAILABLE) {
+         final long remaining = deadline - System.nanoTime();
+         if(remaining <= 0)
+            return RingBufferConsumerControl.UNAVAILABLE;
+         if(tries < yieldLimit)
+            backOff(tries++);
+         else
+            parkNanos = park(Math.min(parkNanos, remaining));
+      }
+      return ret;
+   }
+
+   private void backOff(final int tries) {
+      if(tries < spinLimit)
+         return;
+      if(tries < onSpinWaitLimit)
+         Thread.onSpinWait();
+      else
+         Thread.yield();
+   }
+
+   // parks and returns the next park time.
+   private long park(final long parkNanos) {
+      LockSupport.parkNanos(parkNanos);
+      return Math.min(parkNanos << 1, maxParkNanos);
+   }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+// Padded the same way as a Sequence. See the comment there.
+abstract class PublisherCacheLhsPadding {
+   protected long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+abstract class PublisherCacheValues extends PublisherCacheLhsPadding {
+   /** Set to -1 as sequence starting point */
+   long nextValue = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
+   long tailCache = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
+}
+
+abstract class PublisherCacheRhsPadding extends PublisherCacheValues {
+   protected long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+}
+
+/**
+ * The publisher's next sequence and its cached copy of the minimum tail. These are only accessed from the publisher
+ * thread so they're plain fields, but they're padded like a {@link Sequence} so the publisher doesn't share a cache
+ * line with the sequences the consumers write.
+ */
+final class PublisherCache extends PublisherCacheRhsPadding {}
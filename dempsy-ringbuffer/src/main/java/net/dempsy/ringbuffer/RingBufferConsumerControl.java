@@ -28,8 +28,8 @@
 package net.dempsy.ringbuffer;
 
 import java.util.Iterator;
-
-import com.lmax.disruptor.Sequence;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 import net.dempsy.ringbuffer.internal.PaddedLong;
 
@@ -86,7 +86,8 @@ import net.dempsy.ringbuffer.internal.PaddedLong;
  * <p>
  * These two base primitives can only be used with one consuming thread and one publishing thread, however, they form
  * the building blocks for several other configurations (see
- * {@link RingBufferControlMulticaster} and {@link RingBufferControlMultiplexor})
+ * {@link RingBufferControlMulticaster}, {@link RingBufferControlMultiplexor} and
+ * {@link RingBufferControlMultiPublisher})
  * </p>
  */
 public abstract class RingBufferConsumerControl {
@@ -108,9 +109,87 @@ public abstract class RingBufferConsumerControl {
 
    /**
     * This interface can be implemented to provide various custom wait strategies for the consumer side of the control.
+    *
+    * <p>
+    * Only {@link ConsumerWaitStrategy#waitFor(long, Sequence)} is required. The remaining methods have default
+    * implementations that poll, spinning briefly before yielding the thread in between polls. A strategy that actually
+    * blocks (see {@link BlockingWaitStrategy}) needs to implement all of them.
+    * </p>
     */
    public static interface ConsumerWaitStrategy {
+      /**
+       * The number of spins the default implementations make before backing off to {@link Thread#yield()}
+       */
+      public static final int DEFAULT_SPIN_TRIES = 100;
+
+      /**
+       * Wait until the {@code cursor} reaches the {@code sequence} and return the value of the cursor.
+       */
       public long waitFor(final long sequence, final Sequence cursor);
+
+      /**
+       * Wait until the {@code cursor} reaches the {@code sequence} or until the {@code timeoutNanos} expires.
+       *
+       * @return the value of the cursor. If the wait timed out this will be less than the {@code sequence}.
+       */
+      public default long waitFor(final long sequence, final Sequence cursor, final long timeoutNanos) {
+         final long deadline = System.nanoTime() + timeoutNanos;
+         long availableSequence;
+         int counter = DEFAULT_SPIN_TRIES;
+         while((availableSequence = cursor.get()) < sequence) {
+            if(counter > 0)
+               counter--;
+            else {
+               if(deadline - System.nanoTime() <= 0)
+                  return availableSequence;
+               Thread.yield();
+            }
+         }
+         return availableSequence;
+      }
+
+      /**
+       * This is the generalization of {@link ConsumerWaitStrategy#waitFor(long, Sequence)} for when there's more than
+       * one cursor to watch (see {@link RingBufferControlMultiplexor}). It repeatedly calls {@code tryAvailableTo}
+       * until it returns something other than {@link RingBufferConsumerControl#UNAVAILABLE} and then returns that.
+       */
+      public default long waitUntilAvailable(final LongSupplier tryAvailableTo) {
+         long ret;
+         int counter = DEFAULT_SPIN_TRIES;
+         while((ret = tryAvailableTo.getAsLong()) == UNAVAILABLE) {
+            if(counter > 0)
+               counter--;
+            else
+               Thread.yield();
+         }
+         return ret;
+      }
+
+      /**
+       * The same as {@link ConsumerWaitStrategy#waitUntilAvailable(LongSupplier)} but it will return
+       * {@link RingBufferConsumerControl#UNAVAILABLE} once {@code timeoutNanos} expires.
+       */
+      public default long waitUntilAvailable(final LongSupplier tryAvailableTo, final long timeoutNanos) {
+         final long deadline = System.nanoTime() + timeoutNanos;
+         long ret;
+         int counter = DEFAULT_SPIN_TRIES;
+         while((ret = tryAvailableTo.getAsLong()) == UNAVAILABLE) {
+            if(counter > 0)
+               counter--;
+            else {
+               if(deadline - System.nanoTime() <= 0)
+                  return UNAVAILABLE;
+               Thread.yield();
+            }
+         }
+         return ret;
+      }
+
+      /**
+       * This is called by the publisher every time it moves the cursor. Strategies that don't block the consumer
+       * don't need to do anything.
+       */
+      public default void signalAllWhenBlocking() {}
    }
 
    /**
@@ -123,6 +202,35 @@ public abstract class RingBufferConsumerControl {
          while((availableSequence = cursor.get()) < sequence);
          return availableSequence;
       }
+
+      @Override
+      public long waitFor(final long sequence, final Sequence cursor, final long timeoutNanos) {
+         final long deadline = System.nanoTime() + timeoutNanos;
+         long availableSequence;
+         while((availableSequence = cursor.get()) < sequence) {
+            if(deadline - System.nanoTime() <= 0)
+               return availableSequence;
+         }
+         return availableSequence;
+      }
+
+      @Override
+      public long waitUntilAvailable(final LongSupplier tryAvailableTo) {
+         long ret;
+         while((ret = tryAvailableTo.getAsLong()) == UNAVAILABLE);
+         return ret;
+      }
+
+      @Override
+      public long waitUntilAvailable(final LongSupplier tryAvailableTo, final long timeoutNanos) {
+         final long deadline = System.nanoTime() + timeoutNanos;
+         long ret;
+         while((ret = tryAvailableTo.getAsLong()) == UNAVAILABLE) {
+            if(deadline - System.nanoTime() <= 0)
+               return UNAVAILABLE;
+         }
+         return ret;
+      }
    };
 
    /**
@@ -130,12 +238,10 @@ public abstract class RingBufferConsumerControl {
     * spinning but quickly backs off to yielding the thread in between polls.
     */
    public static final ConsumerWaitStrategy yield = new ConsumerWaitStrategy() {
-      private static final int SPIN_TRIES = 100;
-
       @Override
       public long waitFor(final long sequence, final Sequence cursor) {
          long availableSequence;
-         int counter = SPIN_TRIES;
+         int counter = DEFAULT_SPIN_TRIES;
          while((availableSequence = cursor.get()) < sequence) {
             if(counter > 0)
                counter--;
@@ -146,6 +252,14 @@ public abstract class RingBufferConsumerControl {
       }
    };
 
+   /**
+    * Using this strategy the consumer spins, then busy-waits with {@link Thread#onSpinWait()}, then yields, and
+    * finally parks with a growing timeout while waiting for data to be available. See
+    * {@link PhasedBackoffWaitStrategy}. Unlike {@link BlockingWaitStrategy} this doesn't need to be woken by the
+    * publisher and so a single instance can be shared.
+    */
+   public static final ConsumerWaitStrategy phasedBackoff = new PhasedBackoffWaitStrategy();
+
    protected final int bufferSize;
    protected final int indexMask;
    protected final ConsumerWaitStrategy waitStrategy;
@@ -167,25 +281,59 @@ public abstract class RingBufferConsumerControl {
 
    // private final Object obj0 = null;
 
-   // stop flag. Will contain the sequence of the stop command.
-   // This value is potentially interlocked.
-   protected final PaddedLong stop;
+   // stop flag. Will contain the sequence of the stop command. It's written by the publisher
+   // before the cursor is moved past it and read by the consumer(s).
+   protected final Sequence stop;
    protected boolean stopIsCommon;
 
+   // The tails of the consumers this one can't get ahead of. See RingBufferControlMulticaster.
+   private final Sequence[] upstream;
+
+   // Set when another consumer is gated on this one's tail.
+   protected boolean hasDownstream = false;
+
+   // null unless enableStats() was called.
+   protected RingBufferStats stats = null;
+
+   // null unless latency recording is enabled (see RingBufferControl#enableLatencyRecording). The
+   // publisher writes the time each slot is published before moving the cursor so the consumer
+   // sees it once it sees the sequence.
+   protected long[] publishNanos = null;
+   protected LatencyHistogram latency = null;
+
    /**
-    * Making this public avoids it being optimized away
+    * @deprecated these are no longer the padding. The fields that are shared between threads are each a padded
+    *             {@link Sequence} and the ones only accessed from one side are padded {@link PaddedLong}s.
     */
+   @Deprecated
    public volatile long p1, p2, p3, p4, p5, p6 = 7L;
 
    protected RingBufferConsumerControl(final int sizePowerOfTwo,
          final ConsumerWaitStrategy waitStrategy, final Sequence cursor)
          throws IllegalArgumentException {
-      this(sizePowerOfTwo, waitStrategy, cursor, new PaddedLong(Long.MAX_VALUE));
+      this(sizePowerOfTwo, waitStrategy, cursor, new Sequence(Long.MAX_VALUE));
       stopIsCommon = false;
    }
 
+   /**
+    * Creates a consumer control that will never return a sequence beyond what every one of the {@code upstream}
+    * tails has reached. That is, it won't see an entry until all of the consumers it depends on have processed it.
+    */
    protected RingBufferConsumerControl(final int sizePowerOfTwo,
-         final ConsumerWaitStrategy waitStrategy, final Sequence cursor, final PaddedLong commonStop)
+         final ConsumerWaitStrategy waitStrategy, final Sequence cursor, final Sequence[] upstream)
+         throws IllegalArgumentException {
+      this(sizePowerOfTwo, waitStrategy, cursor, new Sequence(Long.MAX_VALUE), upstream);
+      stopIsCommon = false;
+   }
+
+   protected RingBufferConsumerControl(final int sizePowerOfTwo,
+         final ConsumerWaitStrategy waitStrategy, final Sequence cursor, final Sequence commonStop)
+         throws IllegalArgumentException {
+      this(sizePowerOfTwo, waitStrategy, cursor, commonStop, new Sequence[0]);
+   }
+
+   private RingBufferConsumerControl(final int sizePowerOfTwo,
+         final ConsumerWaitStrategy waitStrategy, final Sequence cursor, final Sequence commonStop, final Sequence[] upstream)
          throws IllegalArgumentException {
       if(Integer.bitCount(sizePowerOfTwo) != 1)
          throw new IllegalArgumentException("bufferSize must be a power of 2");
@@ -196,6 +344,7 @@ public abstract class RingBufferConsumerControl {
       this.publishCursor = cursor;
       this.stop = commonStop;
       this.stopIsCommon = true;
+      this.upstream = upstream;
    }
 
    /**
@@ -212,7 +361,19 @@ public abstract class RingBufferConsumerControl {
     * </p>
     */
    public long availableTo() {
-      return availableTo(consumerTailCache.get() + 1L);
+      final long requestedSequence = consumerTailCache.get() + 1L;
+      return recordBatch(requestedSequence, availableTo(requestedSequence));
+   }
+
+   /**
+    * <p>
+    * This is the same as {@link RingBufferControl#availableTo()} but it will give up waiting once the {@code timeout}
+    * expires, in which case it returns {@link RingBufferControl#UNAVAILABLE}.
+    * </p>
+    */
+   public long availableTo(final long timeout, final TimeUnit unit) {
+      final long requestedSequence = consumerTailCache.get() + 1L;
+      return recordBatch(requestedSequence, availableTo(requestedSequence, unit.toNanos(timeout)));
    }
 
    /**
@@ -223,7 +384,23 @@ public abstract class RingBufferConsumerControl {
     * </p>
     */
    public long tryAvailableTo() {
-      return tryAvailableTo(consumerTailCache.get() + 1L);
+      final long requestedSequence = consumerTailCache.get() + 1L;
+      return recordBatch(requestedSequence, tryAvailableTo(requestedSequence));
+   }
+
+   /**
+    * The same as {@link RingBufferConsumerControl#tryAvailableTo()} but it never returns more than {@code maxBatchSize}
+    * entries. The rest stay available for the next call. {@link RingBufferConsumerControl#notifyProcessed()} only
+    * releases what was returned.
+    */
+   protected final long tryAvailableToAtMost(final int maxBatchSize) {
+      final long requestedSequence = consumerTailCache.get() + 1L;
+      final long availableTo = tryAvailableTo(requestedSequence);
+      if(availableTo < requestedSequence) // UNAVAILABLE or ACQUIRE_STOP_REQUEST
+         return availableTo;
+      final long ret = Math.min(availableTo, requestedSequence + maxBatchSize - 1L);
+      previousAvailableToResult.set(ret);
+      return recordBatch(requestedSequence, ret);
    }
 
    /**
@@ -275,6 +452,50 @@ public abstract class RingBufferConsumerControl {
       return ret;
    }
 
+   /**
+    * The same as {@link RingBufferConsumerControl#drain(Object[], BatchHandler, int)} with no limit on the size of a
+    * batch.
+    */
+   public <T> boolean drain(final T[] values, final BatchHandler<T> handler) {
+      return drain(values, handler, Integer.MAX_VALUE);
+   }
+
+   /**
+    * <p>
+    * This is a consumer side call that will wait for at least one entry to be published and then pass each available
+    * entry from {@code values}, in order, to the {@code handler}. The last entry of each batch is flagged with
+    * {@code endOfBatch} so the handler can flush once per batch.
+    * </p>
+    *
+    * <p>
+    * A batch is everything that was available, but no more than {@code maxBatchSize} entries. The publisher is
+    * notified that each batch has been processed as soon as the handler returns from its last entry so, under a
+    * burst, slots are released back to the publisher every {@code maxBatchSize} entries rather than only once
+    * everything that was available has been handled. This takes the place of calling
+    * {@link RingBufferConsumerControl#notifyProcessed()}.
+    * </p>
+    *
+    * @return {@code false} if the publisher called {@link RingBufferControl#publishStop()} and so there will be no more
+    *         entries. Otherwise {@code true}.
+    * @throws IllegalArgumentException if the maxBatchSize is less than 1.
+    */
+   public <T> boolean drain(final T[] values, final BatchHandler<T> handler, final int maxBatchSize) {
+      checkMaxBatchSize(maxBatchSize);
+      final long availableTo = availableTo();
+      if(availableTo == ACQUIRE_STOP_REQUEST)
+         return false;
+
+      long sequence = consumerTailCache.get() + 1L;
+      while(sequence <= availableTo) {
+         final long batchEnd = Math.min(availableTo, sequence + maxBatchSize - 1L);
+         for(; sequence < batchEnd; sequence++)
+            handler.accept(values[index(sequence)], sequence, false);
+         handler.accept(values[index(sequence)], sequence, true);
+         doNotifyProcessed(sequence++);
+      }
+      return true;
+   }
+
    public <T> Iterable<T> consumeAsIterable(final T[] values) {
       return new Iterable<T>() {
          @Override
@@ -294,6 +515,28 @@ public abstract class RingBufferConsumerControl {
       return tail.get() == INITIAL_CURSOR_VALUE;
    }
 
+   /**
+    * Turn on the {@link RingBufferStats} counters. This needs to be called before the control is used by either the
+    * publisher or the consumer.
+    */
+   public void enableStats() {
+      if(stats == null)
+         stats = new RingBufferStats();
+   }
+
+   /**
+    * A snapshot of the {@link RingBufferStats}. If {@link RingBufferConsumerControl#enableStats()} wasn't called
+    * then only the occupancy is filled in. This can be called from any thread.
+    */
+   public RingBufferStats.Snapshot getStats() {
+      return RingBufferStats.snapshot(stats, publishCursor.getOpaque() - tail.getOpaque());
+   }
+
+   /**
+    * @deprecated the {@link RingBufferConsumerControl#p1} ... {@link RingBufferConsumerControl#p6} fields are no longer
+    *             the padding.
+    */
+   @Deprecated
    public long sumPaddingToPreventOptimisation() {
       return p1 + p2 + p3 + p4 + p5 + p6;
    }
@@ -312,7 +555,11 @@ public abstract class RingBufferConsumerControl {
 
       // this final set has the correct memory barrier so that the
       // publish side can see that it's been shut down. So we do it last.
-      tail.set(INITIAL_CURSOR_VALUE);
+      // If there are consumers downstream of this one they may still need to see
+      // that this one made it to the stop so whoever manages the dependencies
+      // needs to reset it once they're done.
+      if(!hasDownstream)
+         tail.set(INITIAL_CURSOR_VALUE);
 
       // This is all consumer side
       consumerTailCache.set(INITIAL_CURSOR_VALUE);
@@ -326,9 +573,11 @@ public abstract class RingBufferConsumerControl {
       if(lastKnownHead >= requestedSequence)
          return lastKnownHead;
 
-      final long availableSequence = publishCursor.get();
+      final long availableSequence = gate(highestPublishedSequence(requestedSequence, publishCursor.get()));
       if(availableSequence < requestedSequence) {
          headCache.set(availableSequence);
+         if(stats != null)
+            stats.emptyPoll();
          return UNAVAILABLE;
       }
 
@@ -340,12 +589,137 @@ public abstract class RingBufferConsumerControl {
       if(lastKnownHead >= requestedSequence)
          return lastKnownHead;
 
-      return doAvailableTo(waitStrategy.waitFor(requestedSequence, publishCursor), requestedSequence);
+      if(stats != null && publishCursor.get() < requestedSequence)
+         stats.emptyPoll();
+
+      long availableSequence = highestPublishedSequence(requestedSequence,
+            waitStrategy.waitFor(requestedSequence, publishCursor));
+      // the slot is claimed but the publisher hasn't finished with it yet. The cursor won't move again when it does
+      // so the wait is on what's actually been published.
+      if(availableSequence < requestedSequence)
+         availableSequence = waitStrategy.waitUntilAvailable(() -> publishedFrom(requestedSequence));
+
+      if(upstream.length != 0) {
+         for(final Sequence s: upstream)
+            waitStrategy.waitFor(requestedSequence, s);
+         availableSequence = gate(availableSequence);
+      }
+
+      return doAvailableTo(availableSequence, requestedSequence);
+   }
+
+   protected long availableTo(final long requestedSequence, final long timeoutNanos) {
+      final long lastKnownHead = headCache.get();
+      if(lastKnownHead >= requestedSequence)
+         return lastKnownHead;
+
+      if(stats != null && publishCursor.get() < requestedSequence)
+         stats.emptyPoll();
+
+      final long deadline = System.nanoTime() + timeoutNanos;
+      long availableSequence = highestPublishedSequence(requestedSequence,
+            waitStrategy.waitFor(requestedSequence, publishCursor, timeoutNanos));
+      if(availableSequence < requestedSequence) {
+         // as above, the cursor may have moved on a claim that hasn't been published yet.
+         final long remaining = deadline - System.nanoTime();
+         if(publishCursor.get() < requestedSequence || remaining <= 0) {
+            headCache.set(availableSequence);
+            return UNAVAILABLE;
+         }
+         availableSequence = waitStrategy.waitUntilAvailable(() -> publishedFrom(requestedSequence), remaining);
+         if(availableSequence == UNAVAILABLE)
+            return UNAVAILABLE;
+      }
+
+      if(upstream.length != 0) {
+         for(final Sequence s: upstream) {
+            if(waitStrategy.waitFor(requestedSequence, s, deadline - System.nanoTime()) < requestedSequence)
+               return UNAVAILABLE;
+         }
+         availableSequence = gate(availableSequence);
+      }
+
+      return doAvailableTo(availableSequence, requestedSequence);
+   }
+
+   // The highest sequence published contiguously from the requestedSequence or UNAVAILABLE if the requestedSequence
+   // itself hasn't been published.
+   private long publishedFrom(final long requestedSequence) {
+      final long ret = highestPublishedSequence(requestedSequence, publishCursor.get());
+      return ret < requestedSequence ? UNAVAILABLE : ret;
+   }
+
+   /**
+    * When the cursor can move ahead of what's actually been published (see {@link RingBufferControlMultiPublisher})
+    * this needs to return the highest sequence, starting at {@code lowerBound}, that's been contiguously published
+    * up to the {@code availableSequence} read from the cursor. If {@code lowerBound} itself hasn't been published
+    * it should return {@code lowerBound - 1}. With a single publisher the cursor is the published position so it's
+    * simply returned.
+    */
+   protected long highestPublishedSequence(final long lowerBound, final long availableSequence) {
+      return availableSequence;
    }
 
    protected final void doNotifyProcessed(final long sequence) {
       tail.set(sequence);
       consumerTailCache.set(sequence);
+      if(hasDownstream)
+         waitStrategy.signalAllWhenBlocking();
+   }
+
+   protected static void checkMaxBatchSize(final int maxBatchSize) {
+      if(maxBatchSize < 1)
+         throw new IllegalArgumentException("The maxBatchSize must be at least 1 but was " + maxBatchSize);
+   }
+
+   protected boolean hasUpstream() {
+      return upstream.length != 0;
+   }
+
+   /**
+    * Position the consumer so that the next sequence it sees is the one after the given sequence. This can only be
+    * called before the consumer starts consuming.
+    */
+   protected void startAfter(final long sequence) {
+      consumerTailCache.set(sequence);
+      headCache.set(sequence);
+      previousAvailableToResult.set(sequence);
+      tail.set(sequence);
+   }
+
+   protected final long recordBatch(final long requestedSequence, final long availableTo) {
+      if(availableTo >= requestedSequence) {
+         if(stats != null)
+            stats.batch(availableTo - requestedSequence + 1L);
+         if(latency != null) {
+            final long now = System.nanoTime();
+            for(long seq = requestedSequence; seq <= availableTo; seq++)
+               latency.record(now - publishNanos[index(seq)]);
+         }
+      }
+      return availableTo;
+   }
+
+   protected void initLatencyRecording() {
+      if(latency == null) {
+         publishNanos = new long[bufferSize];
+         latency = new LatencyHistogram();
+      }
+   }
+
+   // stamp the sequences from lo to hi inclusive with the current time.
+   protected final void stampPublished(final long lo, final long hi) {
+      final long now = System.nanoTime();
+      for(long seq = lo; seq <= hi; seq++)
+         publishNanos[index(seq)] = now;
+   }
+
+   // limit the available sequence to what all of the upstream consumers have processed.
+   private long gate(final long availableSequence) {
+      long ret = availableSequence;
+      for(final Sequence s: upstream)
+         ret = Math.min(ret, s.get());
+      return ret;
    }
 
    private final long doAvailableTo(final long availableSequence, final long requestedSequence) {
@@ -30,6 +30,9 @@ package net.dempsy.ringbuffer;
 import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.Collector;
 
 public class RingBufferConsumerIterator<T> {
 
@@ -127,6 +130,101 @@ public class RingBufferConsumerIterator<T> {
         allDone.await();
     }
 
+    /**
+     * <p>
+     * Runs everything from the {@code delegate} through {@code numConsumers} consumer threads, each accumulating into
+     * its own result container from the {@code collector}, and then combines the containers into the result. The
+     * publishing is done on the calling thread.
+     * </p>
+     *
+     * <p>
+     * The entries are dealt out to the consumers round-robin and each consumer's container is combined in consumer
+     * order, so the result is only in the order of the {@code delegate} for a collector that doesn't depend on order
+     * (for example, a sum or a grouping into a map of counts). If the accumulator throws, the rest of the entries are
+     * still consumed (and discarded) so the publishing can finish, and then the exception is thrown from here. If the
+     * {@code delegate} throws, the publishing ends there so the consumers still finish, and then that exception is
+     * thrown from here. Whichever fails first is the one that's thrown.
+     * </p>
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the consumers to finish.
+     * @throws IllegalArgumentException if numConsumers is less than 1.
+     */
+    public static <T, A, R> R collect(final Iterator<T> delegate, final Collector<? super T, A, R> collector,
+            final int queueSizePowerOf2, final int numConsumers) throws InterruptedException, IllegalArgumentException {
+        if (numConsumers < 1)
+            throw new IllegalArgumentException("collect needs at least 1 consumer but was given " + numConsumers);
+        final BiConsumer<A, ? super T> accumulator = collector.accumulator();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        @SuppressWarnings("unchecked")
+        final A[] containers = (A[]) new Object[numConsumers];
+        @SuppressWarnings("unchecked")
+        final Consumer<T>[] consumers = new Consumer[numConsumers];
+        for (int i = 0; i < numConsumers; i++) {
+            final A container = containers[i] = collector.supplier().get();
+            consumers[i] = iter -> {
+                try {
+                    while (iter.hasNext())
+                        accumulator.accept(container, iter.next());
+                } catch (final Throwable th) {
+                    failure.compareAndSet(null, th);
+                    // keep the publisher from waiting forever on this consumer.
+                    while (iter.hasNext())
+                        iter.next();
+                }
+            };
+        }
+
+        new RingBufferConsumerIterator<T>(new Iterator<T>() {
+            // the next value is taken from the delegate in hasNext so that nothing thrown from the delegate escapes
+            // the publisher before every ring has been stopped.
+            private boolean fetched = false;
+            private T next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (!fetched) {
+                    try {
+                        if (delegate.hasNext()) {
+                            next = delegate.next();
+                            fetched = true;
+                        }
+                    } catch (final Throwable th) {
+                        failure.compareAndSet(null, th);
+                    }
+                }
+                return fetched;
+            }
+
+            @Override
+            public T next() {
+                fetched = false;
+                final T ret = next;
+                next = null;
+                return ret;
+            }
+        }, consumers, queueSizePowerOf2, true).waitForCompletion();
+
+        final Throwable th = failure.get();
+        if (th instanceof RuntimeException)
+            throw (RuntimeException) th;
+        if (th instanceof Error)
+            throw (Error) th;
+        if (th != null)
+            throw new RuntimeException(th);
+
+        A ret = containers[0];
+        for (int i = 1; i < numConsumers; i++)
+            ret = collector.combiner().apply(ret, containers[i]);
+
+        if (collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)) {
+            @SuppressWarnings("unchecked")
+            final R r = (R) ret;
+            return r;
+        }
+        return collector.finisher().apply(ret);
+    }
+
     public static interface Consumer<R> {
         public void run(Iterator<R> iter);
     }
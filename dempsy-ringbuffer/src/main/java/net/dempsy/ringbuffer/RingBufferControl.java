@@ -29,8 +29,6 @@ package net.dempsy.ringbuffer;
 
 import java.util.concurrent.locks.LockSupport;
 
-import com.lmax.disruptor.Sequence;
-
 /**
  * <p>
  * This code is substantially based on the ingenious work done by Martin Thompson on what he calls "Mechanical Sympathy." It leans heavily on the
@@ -79,16 +77,9 @@ import com.lmax.disruptor.Sequence;
  */
 public class RingBufferControl extends RingBufferConsumerControl
 {
-    @SuppressWarnings("unused")
-    private static class Padding
-    {
-        /** Set to -1 as sequence starting point */
-        public long nextValue = INITIAL_CURSOR_VALUE, tailCache = INITIAL_CURSOR_VALUE, p2, p3, p4, p5, p6, p7;
-    }
-
     // tail cache accessed from the publish side only.
     // head cache accessed from the publish side only
-    private final Padding pubHeadAndTailCache = new Padding();
+    private final PublisherCache pubHeadAndTailCache = new PublisherCache();
 
     /**
      * Creates a {@link RingBufferControl} with a {@link RingBufferControl#yield} consumer
@@ -136,10 +127,42 @@ public class RingBufferControl extends RingBufferConsumerControl
         if (wrapPoint > cachedGatingSequence || cachedGatingSequence > curNextValue)
         {
             long minSequence;
+            final long stallStart = stats == null ? 0L : System.nanoTime();
+            boolean stalled = false;
             while (wrapPoint > (minSequence = Math.min(tail.get(), curNextValue)))
+            {
+                stalled = true;
                 LockSupport.parkNanos(1L);
+            }
+            if (stalled && stats != null)
+                stats.wrapStall(System.nanoTime() - stallStart);
+
+            pubHeadAndTailCache.tailCache = minSequence;
+        }
+
+        pubHeadAndTailCache.nextValue = nextSequence;
+
+        return nextSequence;
+    }
+
+    /**
+     * This is the same as {@link RingBufferControl#claim(int)} except it will return
+     * {@link RingBufferConsumerControl#UNAVAILABLE} rather than wait if there's currently
+     * not enough room in the buffer.
+     */
+    public long tryClaim(final int requestedNumberOfSlots)
+    {
+        final long curNextValue = pubHeadAndTailCache.nextValue;
+        final long nextSequence = curNextValue + requestedNumberOfSlots;
+        final long wrapPoint = nextSequence - bufferSize;
+        final long cachedGatingSequence = pubHeadAndTailCache.tailCache;
 
+        if (wrapPoint > cachedGatingSequence || cachedGatingSequence > curNextValue)
+        {
+            final long minSequence = Math.min(tail.get(), curNextValue);
             pubHeadAndTailCache.tailCache = minSequence;
+            if (wrapPoint > minSequence)
+                return UNAVAILABLE;
         }
 
         pubHeadAndTailCache.nextValue = nextSequence;
@@ -155,7 +178,10 @@ public class RingBufferControl extends RingBufferConsumerControl
      */
     public void publish(final long sequence)
     {
+        if (publishNanos != null)
+            stampPublished(publishCursor.get() + 1L, sequence);
         publishCursor.set(sequence);
+        waitStrategy.signalAllWhenBlocking();
     }
 
     /**
@@ -176,9 +202,37 @@ public class RingBufferControl extends RingBufferConsumerControl
         final long next = claim(1);
         stop.set(next);
         publishCursor.set(next);
+        waitStrategy.signalAllWhenBlocking();
         return next;
     }
 
+    /**
+     * <p>
+     * Turn on recording the latency from {@link RingBufferControl#publish(long)} until the consumer
+     * is given the sequence by {@link RingBufferControl#availableTo()} or {@link RingBufferControl#tryAvailableTo()}.
+     * The publisher stores the time each entry is published alongside the entry and the consumer records the
+     * difference into a {@link LatencyHistogram} without allocating.
+     * </p>
+     *
+     * <p>
+     * This needs to be called before the control is used by either the publisher or the consumer.
+     * </p>
+     */
+    public void enableLatencyRecording()
+    {
+        initLatencyRecording();
+    }
+
+    /**
+     * The histogram of the publish to consume latencies or <code>null</code> if
+     * {@link RingBufferControl#enableLatencyRecording()} wasn't called. Snapshots can be taken from,
+     * and the histogram reset by, any thread.
+     */
+    public LatencyHistogram getLatencyHistogram()
+    {
+        return latency;
+    }
+
     @Override
     protected void clear()
     {
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * This code is substantially based on the ingenious work done by Martin
+ * Thompson on what he calls "Mechanical Sympathy." It leans heavily on
+ * the source code from version 3.0.0.beta2 of the LMAX-exchange Disruptor
+ * but has been completely refactored in order to invert separate the control
+ * mechanism from what is being controlled and to simplify the API.
+ *
+ * For more information on the LMAX Disruptor, see:
+ *
+ * http://lmax-exchange.github.com/disruptor/
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * This is the publish side control for a ring buffer that can be published to from any number of threads
+ * concurrently and consumed by a single consumer in sequence order. Unlike the {@link RingBufferControlMultiplexor},
+ * which gives each publisher its own buffer and makes the consumer poll each of them in turn, all of the publishers
+ * here share one buffer.
+ * </p>
+ *
+ * <p>
+ * Publishers claim slots by atomically advancing a shared sequence. Since publishers can finish with their claimed
+ * slots in any order, each slot is individually marked as published and the consumer will only see the contiguous
+ * run of published slots. That is, the consumer side ({@link RingBufferConsumerControl}) works exactly the same as it
+ * does with a {@link RingBufferControl}.
+ * </p>
+ *
+ * <p>
+ * As with the {@link RingBufferControl}, this class can ONLY be stopped from the publish side but, since there's only
+ * one consumer, {@link RingBufferControlMultiPublisher#publishStop()} should be called once, by one thread, after all
+ * of the publishers are done.
+ * </p>
+ */
+public class RingBufferControlMultiPublisher extends RingBufferConsumerControl {
+   private static final VarHandle AVAILABLE = MethodHandles.arrayElementVarHandle(int[].class);
+
+   // Each slot holds the 'lap' of the sequence that was last published there. This
+   // way there's no need to clear the slot when it's consumed.
+   private final int[] available;
+   private final int indexShift;
+
+   // the cached minimum of the consumer position shared by all publishers.
+   private final Sequence gatingSequenceCache = new Sequence(INITIAL_CURSOR_VALUE);
+
+   /**
+    * Creates a {@link RingBufferControlMultiPublisher} with a {@link RingBufferConsumerControl#yield} consumer wait
+    * strategy.
+    *
+    * @param sizePowerOfTwo is the size of the buffer being controlled. It must be a power of 2.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2.
+    */
+   public RingBufferControlMultiPublisher(final int sizePowerOfTwo) throws IllegalArgumentException {
+      this(sizePowerOfTwo, yield);
+   }
+
+   /**
+    * Creates a {@link RingBufferControlMultiPublisher} with the given wait strategy.
+    *
+    * @param sizePowerOfTwo is the size of the buffer being controlled. It must be a power of 2.
+    * @param waitStrategy is the implementation of {@link RingBufferConsumerControl.ConsumerWaitStrategy} to use.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2.
+    */
+   public RingBufferControlMultiPublisher(final int sizePowerOfTwo, final ConsumerWaitStrategy waitStrategy)
+         throws IllegalArgumentException {
+      // the cursor the consumer waits on is the claim sequence.
+      super(sizePowerOfTwo, waitStrategy, new Sequence(INITIAL_CURSOR_VALUE));
+      this.available = new int[sizePowerOfTwo];
+      this.indexShift = Integer.numberOfTrailingZeros(sizePowerOfTwo);
+      Arrays.fill(available, -1);
+   }
+
+   /**
+    * This is used by any publishing thread to claim the given number of entries in the buffer. It can be called
+    * concurrently from any number of threads. The sequence returned is the last of the claimed entries so the claimed
+    * entries are from {@code sequence - requestedNumberOfSlots + 1} to {@code sequence} inclusive. This will block
+    * (by parking) if there's not enough room in the buffer.
+    *
+    * @param requestedNumberOfSlots is the number of entries in the buffer we need to wait for to be open. It cannot
+    *           be larger than the buffer size.
+    * @return the sequence to provide to the {@link RingBufferControlMultiPublisher#publish(long, long)} or the
+    *         {@link RingBufferControlMultiPublisher#index(long)} methods.
+    */
+   public long claim(final int requestedNumberOfSlots) {
+      final long nextSequence = publishCursor.addAndGet(requestedNumberOfSlots);
+      final long wrapPoint = nextSequence - bufferSize;
+
+      if(wrapPoint > gatingSequenceCache.get()) {
+         long minSequence;
+         final long stallStart = stats == null ? 0L : System.nanoTime();
+         boolean stalled = false;
+         while(wrapPoint > (minSequence = tail.get())) {
+            stalled = true;
+            LockSupport.parkNanos(1L);
+         }
+         // any number of publishers can be here at once.
+         if(stalled && stats != null)
+            stats.sharedWrapStall(System.nanoTime() - stallStart);
+
+         gatingSequenceCache.set(minSequence);
+      }
+
+      return nextSequence;
+   }
+
+   /**
+    * This is the same as {@link RingBufferControlMultiPublisher#claim(int)} except it will return
+    * {@link RingBufferConsumerControl#UNAVAILABLE} rather than wait if there's currently not enough room in the buffer.
+    */
+   public long tryClaim(final int requestedNumberOfSlots) {
+      long current;
+      long nextSequence;
+      do {
+         current = publishCursor.get();
+         nextSequence = current + requestedNumberOfSlots;
+         final long wrapPoint = nextSequence - bufferSize;
+
+         if(wrapPoint > gatingSequenceCache.get()) {
+            final long minSequence = tail.get();
+            gatingSequenceCache.set(minSequence);
+            if(wrapPoint > minSequence)
+               return UNAVAILABLE;
+         }
+      } while(!publishCursor.compareAndSet(current, nextSequence));
+
+      return nextSequence;
+   }
+
+   /**
+    * Once the publisher has readied the single buffer entry it claimed, this method makes it available to the
+    * consumer.
+    *
+    * @param sequence is the sequence returned from the {@link RingBufferControlMultiPublisher#claim(int)} call.
+    */
+   public void publish(final long sequence) {
+      if(publishNanos != null)
+         stampPublished(sequence, sequence);
+      setAvailable(sequence);
+      waitStrategy.signalAllWhenBlocking();
+   }
+
+   /**
+    * Once the publisher has readied the buffer entries that were claimed, this method makes them available to the
+    * consumer. Entries become visible to the consumer in sequence order so if another publisher has claimed an earlier
+    * entry and not yet published it, these entries won't be seen until that one is published.
+    *
+    * @param lo is the first claimed sequence. That's the value returned from
+    *           {@link RingBufferControlMultiPublisher#claim(int)} minus the number claimed plus one.
+    * @param hi is the sequence returned from the {@link RingBufferControlMultiPublisher#claim(int)} call.
+    */
+   public void publish(final long lo, final long hi) {
+      if(publishNanos != null)
+         stampPublished(lo, hi);
+      for(long seq = lo; seq <= hi; seq++)
+         setAvailable(seq);
+      waitStrategy.signalAllWhenBlocking();
+   }
+
+   /**
+    * <p>
+    * This can ONLY be called once all of the publishers are finished and only from one of them. Once the consumer
+    * reaches this point in the sequence, the consumer will receive a {@link RingBufferConsumerControl#ACQUIRE_STOP_REQUEST}
+    * returned from either {@link RingBufferConsumerControl#availableTo()} or
+    * {@link RingBufferConsumerControl#tryAvailableTo()}.
+    * </p>
+    *
+    * @return the sequence that represents where the consumer will be notified to stop.
+    */
+   public long publishStop() {
+      final long next = claim(1);
+      stop.set(next);
+      setAvailable(next);
+      waitStrategy.signalAllWhenBlocking();
+      return next;
+   }
+
+   /**
+    * Turn on recording the latency from the publish until the consumer is given the sequence. See
+    * {@link RingBufferControl#enableLatencyRecording()}. This needs to be called before the control is used.
+    */
+   public void enableLatencyRecording() {
+      initLatencyRecording();
+   }
+
+   /**
+    * The histogram of the publish to consume latencies or <code>null</code> if
+    * {@link RingBufferControlMultiPublisher#enableLatencyRecording()} wasn't called.
+    */
+   public LatencyHistogram getLatencyHistogram() {
+      return latency;
+   }
+
+   @Override
+   protected long highestPublishedSequence(final long lowerBound, final long availableSequence) {
+      for(long seq = lowerBound; seq <= availableSequence; seq++) {
+         if(!isAvailable(seq))
+            return seq - 1;
+      }
+      return availableSequence;
+   }
+
+   @Override
+   protected void clear() {
+      if(isShutdown())
+         return;
+
+      publishCursor.set(INITIAL_CURSOR_VALUE);
+      gatingSequenceCache.set(INITIAL_CURSOR_VALUE);
+      Arrays.fill(available, -1);
+
+      super.clear();
+   }
+
+   private void setAvailable(final long sequence) {
+      AVAILABLE.setRelease(available, index(sequence), (int)(sequence >>> indexShift));
+   }
+
+   private boolean isAvailable(final long sequence) {
+      return (int)AVAILABLE.getAcquire(available, index(sequence)) == (int)(sequence >>> indexShift);
+   }
+}
@@ -27,67 +27,258 @@
 
 package net.dempsy.ringbuffer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 
-import com.lmax.disruptor.Sequence;
-
 /**
  * <p>
  * This is a helper class for managing a set of {@link RingBufferControl}s for use in a "single-publisher to multi-consumer" thread configuration
  * where everything published is "multicast" to all consumers.
  * </p>
+ *
+ * <p>
+ * Subscribers can also depend on each other (see
+ * {@link RingBufferControlMulticaster#RingBufferControlMulticaster(int, RingBufferConsumerControl.ConsumerWaitStrategy, int[][])}).
+ * A subscriber that depends on others will only see an entry once all of the subscribers it depends on have processed it.
+ * This allows several stages of processing (e.g. a pipeline, or a diamond) to operate in place on the same buffer. The
+ * publisher only needs to wait on the subscribers at the end of the graph.
+ * </p>
  */
 public class RingBufferControlMulticaster
 {
     private final Sequence cursor = new Sequence(RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
-    private final RingBufferConsumerControl[] consumers;
-    private final Sequence[] tails;
+    // Both of these are replaced (copy-on-write) when subscribers are added or removed.
+    private volatile RingBufferConsumerControl[] consumers;
+    // the tails of the terminal subscribers. These are the only ones the publisher needs to check.
+    private volatile Sequence[] tails;
     private final int bufferSize;
     private final int indexMask;
     private final AtomicInteger openCount = new AtomicInteger(0);
-
-    @SuppressWarnings("unused")
-    private static class Padding
-    {
-        /** Set to -1 as sequence starting point */
-        public long nextValue = RingBufferConsumerControl.INITIAL_CURSOR_VALUE,
-                tailCache = RingBufferConsumerControl.INITIAL_CURSOR_VALUE,
-                p2, p3, p4, p5, p6, p7;
-    }
+    // the publisher's stats. null unless enableStats() was called.
+    private RingBufferStats stats = null;
+    private final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy;
 
     // tail cache accessed from the publish side only.
     // head cache accessed from the publish side only
-    private final Padding pubHeadAndTailCache = new Padding();
+    private final PublisherCache pubHeadAndTailCache = new PublisherCache();
 
+    /**
+     * Creates a {@link RingBufferControlMulticaster} where each of the subscribers uses a
+     * {@link RingBufferConsumerControl#yield} wait strategy.
+     */
     public RingBufferControlMulticaster(final int numberOfSubscribers, final int sizePowerOfTwo)
             throws IllegalArgumentException
     {
-        this.consumers = new RingBufferConsumerControl[numberOfSubscribers];
-        this.tails = new Sequence[numberOfSubscribers];
+        this(numberOfSubscribers, sizePowerOfTwo, RingBufferConsumerControl.yield);
+    }
+
+    /**
+     * Creates a {@link RingBufferControlMulticaster} where each of the subscribers uses the given
+     * wait strategy. The same instance is shared by all of the subscribers.
+     */
+    public RingBufferControlMulticaster(final int numberOfSubscribers, final int sizePowerOfTwo,
+            final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy)
+            throws IllegalArgumentException
+    {
+        this(sizePowerOfTwo, waitStrategy, new int[numberOfSubscribers][0]);
+    }
+
+    /**
+     * Creates a {@link RingBufferControlMulticaster} where the subscribers can depend on each other.
+     * 
+     * @param sizePowerOfTwo is the size of the buffer being controlled. It must be a power of 2.
+     * @param waitStrategy is the wait strategy shared by all of the subscribers.
+     * @param upstream has an entry for each subscriber. Each entry is the list of the indices of the
+     *            subscribers that subscriber depends on. A subscriber can only depend on subscribers with
+     *            a lower index which means the subscribers must be listed in the order the data flows. For
+     *            example, {@code new int[][] { {}, {0}, {0}, {1, 2} }} describes a diamond where
+     *            subscribers 1 and 2 both process each entry after subscriber 0 and subscriber 3 processes it
+     *            after both of them.
+     * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2 or if a subscriber
+     *             depends on one with an index that's not lower than its own.
+     */
+    public RingBufferControlMulticaster(final int sizePowerOfTwo, final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy,
+            final int[][] upstream)
+            throws IllegalArgumentException
+    {
+        final int numberOfSubscribers = upstream.length;
+        this.waitStrategy = waitStrategy;
+        this.indexMask = sizePowerOfTwo - 1;
+        this.bufferSize = sizePowerOfTwo;
+        final RingBufferConsumerControl[] consumers = new RingBufferConsumerControl[numberOfSubscribers];
         for (int i = 0; i < numberOfSubscribers; i++)
         {
-            this.consumers[i] = new RingBufferConsumerControl(sizePowerOfTwo, RingBufferConsumerControl.yield, cursor)
+            final Sequence[] upstreamTails = new Sequence[upstream[i].length];
+            for (int j = 0; j < upstreamTails.length; j++)
+            {
+                final int dependsOn = upstream[i][j];
+                if (dependsOn < 0 || dependsOn >= i)
+                    throw new IllegalArgumentException("Subscriber " + i + " cannot depend on subscriber " + dependsOn
+                            + ". A subscriber can only depend on subscribers with a lower index.");
+                consumers[dependsOn].hasDownstream = true;
+                upstreamTails[j] = consumers[dependsOn].getTail();
+            }
+
+            consumers[i] = newConsumer(upstreamTails);
+        }
+
+        int numTerminal = 0;
+        for (final RingBufferConsumerControl consumer : consumers)
+            if (!consumer.hasDownstream)
+                numTerminal++;
+        final Sequence[] tails = new Sequence[numTerminal];
+        int index = 0;
+        for (final RingBufferConsumerControl consumer : consumers)
+            if (!consumer.hasDownstream)
+                tails[index++] = consumer.getTail();
+
+        this.consumers = consumers;
+        this.tails = tails;
+        this.openCount.set(numberOfSubscribers);
+    }
+
+    private RingBufferConsumerControl newConsumer(final Sequence[] upstreamTails)
+    {
+        return new RingBufferConsumerControl(bufferSize, waitStrategy, cursor, upstreamTails)
+        {
+            @Override
+            protected void clear()
             {
-                @Override
-                protected void clear()
+                final int curCount = openCount.decrementAndGet();
+                if (curCount == 0)
                 {
-                    final int curCount = openCount.decrementAndGet();
-                    if (curCount == 0)
+                    final RingBufferConsumerControl[] curConsumers = consumers;
+                    // everyone has stopped so the subscribers with downstream subscribers
+                    // no longer need to hold their tails at the stop.
+                    for (final RingBufferConsumerControl consumer : curConsumers)
                     {
-                        cursor.set(RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
-                        openCount.set(consumers.length);
-                        pubHeadAndTailCache.nextValue = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
-                        pubHeadAndTailCache.tailCache = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
+                        if (consumer != this && consumer.hasDownstream)
+                            consumer.tail.set(RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
                     }
-                    super.clear();
+                    cursor.set(RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
+                    openCount.set(curConsumers.length);
+                    pubHeadAndTailCache.nextValue = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
+                    pubHeadAndTailCache.tailCache = RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
                 }
-            };
-            tails[i] = this.consumers[i].getTail();
+                super.clear();
+                // this one is done with its own tail only after it's cleared.
+                if (curCount == 0 && hasDownstream)
+                    tail.set(RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Add a new subscriber. The new subscriber will see everything published after the
+     * point it joins. That is, its first sequence will be the one after the last sequence
+     * published at the time it's added. The new subscriber doesn't depend on any others.
+     * </p>
+     *
+     * <p>
+     * This can be called while the publisher is running but not while the multicaster is
+     * being stopped.
+     * </p>
+     */
+    public synchronized RingBufferConsumerControl newSubscriber()
+    {
+        final RingBufferConsumerControl ret = newConsumer(new Sequence[0]);
+        if (stats != null)
+            ret.enableStats();
+        final Sequence tail = ret.getTail();
+
+        // until the new tail is included, the publisher can have a cached view of the slowest
+        // subscriber from before we joined which means it can overwrite anything after where
+        // the cursor was at the time that cached value was read. So we provisionally start at
+        // the cursor, join, and then start at wherever the cursor is once we know the publisher
+        // can see us.
+        tail.set(cursor.get());
+
+        final RingBufferConsumerControl[] newConsumers = Arrays.copyOf(consumers, consumers.length + 1);
+        newConsumers[newConsumers.length - 1] = ret;
+        final Sequence[] newTails = Arrays.copyOf(tails, tails.length + 1);
+        newTails[newTails.length - 1] = tail;
+
+        openCount.incrementAndGet();
+        consumers = newConsumers;
+        tails = newTails;
+
+        // this load can't be allowed to move ahead of the store to tails above.
+        ret.startAfter(cursor.getVolatile());
+        return ret;
+    }
+
+    /**
+     * <p>
+     * Remove a subscriber. Once removed the publisher will no longer wait for the subscriber
+     * so it can be removed even if it's stalled. The removed subscriber can no longer be used.
+     * </p>
+     *
+     * <p>
+     * Subscribers that are part of a dependency graph (that is, subscribers that depend on
+     * others or are depended on) cannot be removed.
+     * </p>
+     *
+     * <p>
+     * This can be called while the publisher is running but not while the multicaster is
+     * being stopped.
+     * </p>
+     *
+     * @throws IllegalArgumentException if the subscriber isn't from this multicaster or is part
+     *             of a dependency graph.
+     */
+    public synchronized void removeSubscriber(final RingBufferConsumerControl subscriber) throws IllegalArgumentException
+    {
+        if (subscriber.hasDownstream || subscriber.hasUpstream())
+            throw new IllegalArgumentException("A subscriber that's part of a dependency graph cannot be removed from a "
+                    + RingBufferControlMulticaster.class.getSimpleName());
+
+        final List<RingBufferConsumerControl> consumersList = new ArrayList<>(Arrays.asList(consumers));
+        if (!consumersList.remove(subscriber))
+            throw new IllegalArgumentException("The subscriber isn't part of this " + RingBufferControlMulticaster.class.getSimpleName());
+        final List<Sequence> tailsList = new ArrayList<>(Arrays.asList(tails));
+        tailsList.remove(subscriber.getTail());
+
+        tails = tailsList.toArray(new Sequence[tailsList.size()]);
+        consumers = consumersList.toArray(new RingBufferConsumerControl[consumersList.size()]);
+        openCount.decrementAndGet();
+    }
+
+    /**
+     * Turn on the {@link RingBufferStats} counters for the publisher and for each of the subscribers.
+     * This needs to be called before the multicaster is used. Each subscriber's consumer side counters
+     * are retrieved from the subscriber's {@link RingBufferConsumerControl#getStats()}.
+     */
+    public synchronized void enableStats()
+    {
+        if (stats == null)
+        {
+            stats = new RingBufferStats();
+            for (final RingBufferConsumerControl consumer : consumers)
+                consumer.enableStats();
         }
-        this.openCount.set(numberOfSubscribers);
-        this.indexMask = sizePowerOfTwo - 1;
-        this.bufferSize = sizePowerOfTwo;
+    }
+
+    /**
+     * A snapshot of the publisher's {@link RingBufferStats} where the occupancy is the number of
+     * entries published that the slowest subscriber hasn't processed yet. This can be called from any
+     * thread.
+     */
+    public RingBufferStats.Snapshot getStats()
+    {
+        final long published = cursor.get();
+        return RingBufferStats.snapshot(stats, published - getMinimumSequence(tails, published));
+    }
+
+    /**
+     * The current number of subscribers.
+     */
+    public int getNumberOfSubscribers()
+    {
+        return consumers.length;
     }
 
     /**
@@ -119,8 +310,15 @@ public class RingBufferControlMulticaster
         if (wrapPoint > cachedGatingSequence || cachedGatingSequence > curNextValue)
         {
             long minSequence;
+            final long stallStart = stats == null ? 0L : System.nanoTime();
+            boolean stalled = false;
             while (wrapPoint > (minSequence = getMinimumSequence(tails, curNextValue)))
+            {
+                stalled = true;
                 LockSupport.parkNanos(1L);
+            }
+            if (stalled && stats != null)
+                stats.wrapStall(System.nanoTime() - stallStart);
 
             pubHeadAndTailCache.tailCache = minSequence;
         }
@@ -139,6 +337,7 @@ public class RingBufferControlMulticaster
     public void publish(final long sequence)
     {
         cursor.set(sequence);
+        waitStrategy.signalAllWhenBlocking();
     }
 
     /**
@@ -157,8 +356,9 @@ public class RingBufferControlMulticaster
     public long publishStop()
     {
         final long next = claim(1);
-        for (int i = 0; i < consumers.length; i++)
-            consumers[i].stop.set(next);
+        final RingBufferConsumerControl[] curConsumers = consumers;
+        for (int i = 0; i < curConsumers.length; i++)
+            curConsumers[i].stop.set(next);
         publish(next);
         return next;
     }
@@ -181,7 +381,7 @@ public class RingBufferControlMulticaster
     }
 
     /**
-     * Get the minimum sequence from an array of {@link com.lmax.disruptor.Sequence}s.
+     * Get the minimum sequence from an array of {@link Sequence}s.
      * 
      * @param sequences to compare.
      * @param minimum an initial default minimum. If the array is empty this value will be
@@ -16,9 +16,15 @@
 
 package net.dempsy.ringbuffer;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Array;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
 
 /**
  * <p>
@@ -32,17 +38,56 @@ import java.util.function.Consumer;
  * related to message ordering in which this implementation is substantially more likely
  * to create out of order messages between different publishers.
  * </p>
+ *
+ * <p>
+ * Each publisher has its own buffer and by default the consumer polls each in turn. For a large number of busy
+ * publishers consider the {@link RingBufferControlMultiPublisher} where all of the publishers share a single buffer.
+ * </p>
+ *
+ * <p>
+ * When most of the publishers are idle most of the time, the multiplexor can be constructed with
+ * {@code sparsePublishers} set (see
+ * {@link RingBufferControlMultiplexor#RingBufferControlMultiplexor(int, int, RingBufferConsumerControl.ConsumerWaitStrategy, boolean)}).
+ * Publishing to a buffer then sets that publisher's bit in a readiness bitmap and the consumer only polls the buffers
+ * whose bits are set, taking them in turn starting after the last one it consumed from. The consumer's cost then
+ * depends on how many publishers are busy rather than on how many there are. The price is a full fence on every
+ * publish so that a publish can't be missed while the consumer is clearing the bit, which noticeably slows down
+ * publishers that are all busy. That's why it isn't the default.
+ * </p>
+ *
+ * <p>
+ * By default each turn takes everything available from a publisher and each publisher gets one turn before the
+ * consumer moves on to the next one. {@link RingBufferControlMultiplexor#setMaxBatchPerPublisher(int)} caps how
+ * much a turn takes so a publisher that's far ahead can't hold up the others, and
+ * {@link RingBufferControlMultiplexor#setWeight(int, int)} gives a publisher more consecutive turns than the others.
+ * </p>
  */
 public class RingBufferControlMultiplexor {
    /**
     * The number of spin tried before the {@link RingBufferControlMultiplexor#availableTo()} backs down to using
     * {@link Thread#yield()}.
+    *
+    * @deprecated how the {@link RingBufferControlMultiplexor#availableTo()} waits is now determined by the
+    *             {@link RingBufferConsumerControl.ConsumerWaitStrategy} the multiplexor is constructed with.
     */
+   @Deprecated
    public final static int SPIN_TRIES = 1000;
 
    private final RingBufferControl[] ringBuffers;
    private final int numOfPublishers;
    private final int indexMask;
+   private final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy;
+   private final LongSupplier pollAll;
+
+   // one bit per publisher, set by the publisher on publish and cleared by the consumer when it finds nothing there.
+   // null unless the multiplexor was constructed for sparse publishers.
+   private static final VarHandle READY = MethodHandles.arrayElementVarHandle(long[].class);
+   private final long[] ready;
+
+   // These are only touched by the consumer.
+   private final int[] weights;
+   private int maxBatchPerPublisher = Integer.MAX_VALUE;
+   private int turnsLeft = 0;
 
    private long stopCount = 0L;
    private int curIndex = -1;
@@ -63,13 +108,110 @@ public class RingBufferControlMultiplexor {
     */
    public RingBufferControlMultiplexor(final int numOfPublishers, final int sizePowerOfTwo)
          throws IllegalArgumentException {
+      this(numOfPublishers, sizePowerOfTwo, RingBufferConsumerControl.yield);
+   }
+
+   /**
+    * Instantiate a {@link RingBufferControlMultiplexor} with a given number of publishers, a given buffer size for
+    * each {@link RingBufferControl}, and the wait strategy the consumer uses in
+    * {@link RingBufferControlMultiplexor#availableTo()}.
+    *
+    * @param numOfPublishers
+    *           is the number of publishers
+    * @param sizePowerOfTwo
+    *           is the size of each {@link RingBufferControl} and it must be a power of 2 or an
+    *           {@link IllegalArgumentException} is thrown.
+    * @param waitStrategy
+    *           is the wait strategy. It's shared with each of the underlying {@link RingBufferControl}s so
+    *           a blocking strategy will be woken by a publish to any of them.
+    * @throws IllegalArgumentException
+    *            if the sizePowerOfTwo parameter isn't a power of 2.
+    *            if the numOfPublishers is zero
+    */
+   public RingBufferControlMultiplexor(final int numOfPublishers, final int sizePowerOfTwo,
+         final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy) throws IllegalArgumentException {
+      this(numOfPublishers, sizePowerOfTwo, waitStrategy, false);
+   }
+
+   /**
+    * Instantiate a {@link RingBufferControlMultiplexor} with a given number of publishers, a given buffer size for
+    * each {@link RingBufferControl}, the wait strategy the consumer uses in
+    * {@link RingBufferControlMultiplexor#availableTo()}, and whether or not to track which publishers have something
+    * published.
+    *
+    * @param numOfPublishers
+    *           is the number of publishers
+    * @param sizePowerOfTwo
+    *           is the size of each {@link RingBufferControl} and it must be a power of 2 or an
+    *           {@link IllegalArgumentException} is thrown.
+    * @param waitStrategy
+    *           is the wait strategy. It's shared with each of the underlying {@link RingBufferControl}s so
+    *           a blocking strategy will be woken by a publish to any of them.
+    * @param sparsePublishers
+    *           if true, each publish sets the publisher's bit in a readiness bitmap and the consumer only polls the
+    *           publishers whose bits are set. This is worth it when there are many publishers and only a few are
+    *           busy at a time. It costs the publisher a full fence on every publish. If false the consumer polls
+    *           every publisher in turn.
+    * @throws IllegalArgumentException
+    *            if the sizePowerOfTwo parameter isn't a power of 2.
+    *            if the numOfPublishers is zero
+    */
+   public RingBufferControlMultiplexor(final int numOfPublishers, final int sizePowerOfTwo,
+         final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy, final boolean sparsePublishers)
+         throws IllegalArgumentException {
       if(numOfPublishers == 0)
          throw new IllegalArgumentException("Cannot create a " + RingBufferControlMultiplexor.class.getSimpleName() + " with zero publishers.");
+      this.waitStrategy = waitStrategy;
+      this.ready = sparsePublishers ? new long[(numOfPublishers + 63) >>> 6] : null;
+      this.weights = new int[numOfPublishers];
       this.ringBuffers = new RingBufferControl[numOfPublishers];
-      for(int i = 0; i < numOfPublishers; i++)
-         ringBuffers[i] = new RingBufferControl(sizePowerOfTwo);
+      for(int i = 0; i < numOfPublishers; i++) {
+         ringBuffers[i] = new RingBufferControl(sizePowerOfTwo, sparsePublishers ? new ReadySignal(i, waitStrategy) : waitStrategy);
+         weights[i] = 1;
+      }
       this.numOfPublishers = numOfPublishers;
       this.indexMask = sizePowerOfTwo - 1;
+      this.pollAll = sparsePublishers ? this::tryAvailableTo : this::tryAvailableToAny;
+   }
+
+   /**
+    * Turn on the {@link RingBufferStats} counters for each of the underlying {@link RingBufferControl}s. This needs to
+    * be called before the multiplexor is used. The counters for each publisher's buffer are retrieved from
+    * {@link RingBufferConsumerControl#getStats()} on the {@link RingBufferControl} for that publisher. Note that since
+    * the consumer polls each of the buffers in turn, each poll of a buffer that had nothing is counted as an empty
+    * poll on that buffer. With {@code sparsePublishers} the consumer only polls a buffer that's been published to since
+    * it last found it empty so an idle publisher's buffer doesn't accumulate empty polls.
+    */
+   public void enableStats() {
+      for(final RingBufferControl rb: ringBuffers)
+         rb.enableStats();
+   }
+
+   /**
+    * Limit the number of entries the consumer takes from one publisher in a single turn. The rest are left for that
+    * publisher's next turn. The default is no limit. This should be called before the multiplexor is used or from the
+    * consumer thread.
+    *
+    * @throws IllegalArgumentException if the maxBatchPerPublisher is less than 1.
+    */
+   public void setMaxBatchPerPublisher(final int maxBatchPerPublisher) throws IllegalArgumentException {
+      RingBufferConsumerControl.checkMaxBatchSize(maxBatchPerPublisher);
+      this.maxBatchPerPublisher = maxBatchPerPublisher;
+   }
+
+   /**
+    * Give the publisher at {@code publisherIndex} up to {@code weight} consecutive turns, as long as it has entries
+    * available, before the consumer moves on to the next ready publisher. Every publisher starts with a weight of 1.
+    * Combined with {@link RingBufferControlMultiplexor#setMaxBatchPerPublisher(int)} this gives the publisher
+    * {@code weight} times the share of a busy consumer that a publisher with a weight of 1 gets. This should be called
+    * before the multiplexor is used or from the consumer thread.
+    *
+    * @throws IllegalArgumentException if the weight is less than 1.
+    */
+   public void setWeight(final int publisherIndex, final int weight) throws IllegalArgumentException {
+      if(weight < 1)
+         throw new IllegalArgumentException("The weight of a publisher must be at least 1 but was " + weight);
+      weights[publisherIndex] = weight;
    }
 
    /**
@@ -113,24 +255,22 @@ public class RingBufferControlMultiplexor {
     * </p>
     * 
     * <p>
-    * Note, the wait strategy uses a spin that quickly
-    * ({@link RingBufferControlMultiplexor#SPIN_TRIES} iterations) backs down to using
-    * {@link Thread#yield()}.
+    * How this method waits is determined by the wait strategy the multiplexor was constructed with. By default it
+    * spins briefly before backing down to using {@link Thread#yield()}.
     * </p>
     */
    public long availableTo() {
-      long countdown = SPIN_TRIES;
-      while(true) {
-         final long availableTo = tryAvailableTo();
-         if(availableTo == RingBufferControl.UNAVAILABLE) {
-            if(countdown > 0)
-               countdown--;
-            else
-               Thread.yield();
-            continue;
-         } else
-            return availableTo;
-      }
+      return waitStrategy.waitUntilAvailable(pollAll);
+   }
+
+   /**
+    * <p>
+    * This is the same as {@link RingBufferControlMultiplexor#availableTo()} but it will give up waiting once the
+    * {@code timeout} expires, in which case it returns {@link RingBufferControl#UNAVAILABLE}.
+    * </p>
+    */
+   public long availableTo(final long timeout, final TimeUnit unit) {
+      return waitStrategy.waitUntilAvailable(pollAll, unit.toNanos(timeout));
    }
 
    /**
@@ -138,7 +278,9 @@ public class RingBufferControlMultiplexor {
     * This method allows the consumer side to poll for publishing events on ANY of the managed
     * {@link RingBufferControl}. It will return the same thing that {@link RingBufferControlMultiplexor#availableTo()}
     * will return, but can also return {@link RingBufferControl#UNAVAILABLE} which means there's no currently published
-    * value available on any underlying {@link RingBufferControl}s.
+    * value available. Without {@code sparsePublishers} each call polls the next publisher in turn so
+    * {@link RingBufferControl#UNAVAILABLE} only means that publisher had nothing. With {@code sparsePublishers} it
+    * means no underlying {@link RingBufferControl} had anything.
     * </p>
     * 
     * <p>
@@ -147,26 +289,108 @@ public class RingBufferControlMultiplexor {
     * </p>
     */
    public long tryAvailableTo() {
+      if(ready == null)
+         return tryNextPublisher();
+
+      // the current publisher gets another turn if it has any left.
+      final boolean anotherTurn = turnsLeft > 0;
+      int from = anotherTurn ? curIndex : curIndex + 1;
       while(true) {
-         if((++curIndex) == numOfPublishers)
-            curIndex = 0;
-         final RingBufferControl rb = ringBuffers[curIndex];
-         final long availableTo = rb.tryAvailableTo();
+         final int index = nextReady(from == numOfPublishers ? 0 : from);
+         if(index < 0) {
+            // nothing is ready on ANY of the publishers so a blocking wait strategy can safely block.
+            turnsLeft = 0;
+            return RingBufferControl.UNAVAILABLE;
+         }
+         final RingBufferControl rb = ringBuffers[index];
+         final long availableTo = poll(index, rb);
+         from = index + 1;
          if(availableTo == RingBufferControl.UNAVAILABLE)
+            continue;
+         if(availableTo == RingBufferControl.ACQUIRE_STOP_REQUEST) {
+            curIndex = index;
+            turnsLeft = 0;
+            stopCount++;
+            if(stopCount == numOfPublishers) {
+               stopCount = 0L;
+               return availableTo;
+            }
+         } else {
+            turnsLeft = (anotherTurn && index == curIndex) ? turnsLeft - 1 : weights[index] - 1;
+            curIndex = index;
+            curRingBuffer = rb;
+            return availableTo;
+         }
+      }
+   }
+
+   private long tryNextPublisher() {
+      while(true) {
+         // the current publisher gets another turn if it has any left.
+         final boolean anotherTurn = turnsLeft > 0;
+         final int index = anotherTurn ? curIndex : (curIndex + 1 == numOfPublishers ? 0 : curIndex + 1);
+         final RingBufferControl rb = ringBuffers[index];
+         final long availableTo = rb.tryAvailableToAtMost(maxBatchPerPublisher);
+         curIndex = index;
+         if(availableTo == RingBufferControl.UNAVAILABLE) {
+            turnsLeft = 0;
             return availableTo;
+         }
          if(availableTo == RingBufferControl.ACQUIRE_STOP_REQUEST) {
+            turnsLeft = 0;
             stopCount++;
             if(stopCount == numOfPublishers) {
                stopCount = 0L;
                return availableTo;
             }
          } else {
+            turnsLeft = anotherTurn ? turnsLeft - 1 : weights[index] - 1;
             curRingBuffer = rb;
             return availableTo;
          }
       }
    }
 
+   // A blocking wait strategy can only decide to block once it has seen that nothing is available on ALL of the
+   // publishers, otherwise it could miss a publish. The extra poll covers the first one being another turn on the
+   // current publisher.
+   private long tryAvailableToAny() {
+      for(int i = 0; i <= numOfPublishers; i++) {
+         final long availableTo = tryNextPublisher();
+         if(availableTo != RingBufferControl.UNAVAILABLE)
+            return availableTo;
+      }
+      return RingBufferControl.UNAVAILABLE;
+   }
+
+   // Find the first publisher at or after 'from', wrapping around, whose ready bit is set or -1 if there are none.
+   private int nextReady(final int from) {
+      final int numWords = ready.length;
+      int word = from >>> 6;
+      // the shift only uses the low 6 bits of 'from' so this masks off the bits before it in its word.
+      long bits = (long)READY.getVolatile(ready, word) & (-1L << from);
+      // one extra pass back to the first word picks up the bits before 'from'.
+      for(int i = 0; i <= numWords; i++) {
+         if(bits != 0L)
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+         if(++word == numWords)
+            word = 0;
+         bits = (long)READY.getVolatile(ready, word);
+      }
+      return -1;
+   }
+
+   private long poll(final int index, final RingBufferControl rb) {
+      long availableTo = rb.tryAvailableToAtMost(maxBatchPerPublisher);
+      if(availableTo == RingBufferControl.UNAVAILABLE) {
+         // clearing the bit (a full fence) before polling again means either we see what was published or the
+         // publisher sees the bit cleared and sets it again.
+         READY.getAndBitwiseAnd(ready, index >>> 6, ~(1L << index));
+         availableTo = rb.tryAvailableToAtMost(maxBatchPerPublisher);
+      }
+      return availableTo;
+   }
+
    /**
     * <p>
     * Given that the {@link RingBufferControlMultiplexor#availableTo()} or
@@ -207,6 +431,52 @@ public class RingBufferControlMultiplexor {
       return (int)sequence & indexMask;
    }
 
+   // With sparse publishers each publisher's RingBufferControl gets one of these wrapped around the multiplexor's wait
+   // strategy. Every publish (and the publishStop) calls signalAllWhenBlocking, which is where the publisher's ready
+   // bit gets set.
+   private class ReadySignal implements RingBufferConsumerControl.ConsumerWaitStrategy {
+      private final int word;
+      private final long bit;
+      private final RingBufferConsumerControl.ConsumerWaitStrategy delegate;
+
+      ReadySignal(final int publisherIndex, final RingBufferConsumerControl.ConsumerWaitStrategy delegate) {
+         this.word = publisherIndex >>> 6;
+         this.bit = 1L << publisherIndex;
+         this.delegate = delegate;
+      }
+
+      @Override
+      public long waitFor(final long sequence, final Sequence cursor) {
+         return delegate.waitFor(sequence, cursor);
+      }
+
+      @Override
+      public long waitFor(final long sequence, final Sequence cursor, final long timeoutNanos) {
+         return delegate.waitFor(sequence, cursor, timeoutNanos);
+      }
+
+      @Override
+      public long waitUntilAvailable(final LongSupplier tryAvailableTo) {
+         return delegate.waitUntilAvailable(tryAvailableTo);
+      }
+
+      @Override
+      public long waitUntilAvailable(final LongSupplier tryAvailableTo, final long timeoutNanos) {
+         return delegate.waitUntilAvailable(tryAvailableTo, timeoutNanos);
+      }
+
+      @Override
+      public void signalAllWhenBlocking() {
+         // the cursor was just set with a release write. The fence keeps the read of the bit from moving ahead of it
+         // and missing the consumer clearing it. While the publisher stays busy the bit stays set so this is only a
+         // fence and a read.
+         VarHandle.fullFence();
+         if(((long)READY.getVolatile(ready, word) & bit) == 0L)
+            READY.getAndBitwiseOr(ready, word, bit);
+         delegate.signalAllWhenBlocking();
+      }
+   }
+
    public static class Manager<T> {
       private final T[][] data;
       private final RingBufferControlMultiplexor rbm;
@@ -285,4 +555,186 @@ public class RingBufferControlMultiplexor {
          return new PublisherWithData<T>(data[pubIndex], rbm.get(pubIndex), pubIndex);
       }
    }
+
+   /**
+    * The {@code long} equivalent of the {@link Manager}. Each publisher's values are kept in a {@code long[]} so
+    * nothing is boxed. See {@link IntManager} for {@code int}s.
+    */
+   public static class LongManager {
+      private final long[][] data;
+      private final RingBufferControlMultiplexor rbm;
+
+      private final AtomicInteger publisherIndexGenerator = new AtomicInteger(0);
+
+      public LongManager(final RingBufferControlMultiplexor rbm) {
+         this.rbm = rbm;
+         data = new long[rbm.numOfPublishers][rbm.indexMask + 1];
+      }
+
+      /**
+       * Pass each value available from one of the publishers, in order, to the {@code consumer} without waiting.
+       *
+       * @return the number of values passed to the consumer or {@link RingBufferControl#ACQUIRE_STOP_REQUEST} once
+       *         all of the publishers have stopped.
+       */
+      public long tryGet(final LongConsumer consumer) {
+         return consume(rbm.tryAvailableTo(), consumer);
+      }
+
+      /**
+       * The same as {@link LongManager#tryGet(LongConsumer)} but waits for at least one value to be published.
+       */
+      public long get(final LongConsumer consumer) {
+         return consume(rbm.availableTo(), consumer);
+      }
+
+      /**
+       * The same as {@link LongManager#get(LongConsumer)} but the {@code handler} is also told the sequence of each
+       * value in its publisher's buffer and which value is the last of the batch. The publisher the batch came from is
+       * {@link RingBufferControlMultiplexor#getCurrentIndex()}.
+       */
+      public long get(final LongBatchHandler handler) {
+         return consume(rbm.availableTo(), handler);
+      }
+
+      private long consume(final long availableTo, final LongConsumer consumer) {
+         if(RingBufferControl.ACQUIRE_STOP_REQUEST == availableTo)
+            return availableTo;
+         if(RingBufferControl.UNAVAILABLE == availableTo)
+            return 0;
+         final long[] values = data[rbm.getCurrentIndex()];
+         final long first = rbm.curRingBuffer.tail.get() + 1L;
+         for(long i = first; i <= availableTo; i++)
+            consumer.accept(values[rbm.index(i)]);
+         rbm.notifyProcessed();
+         return availableTo - first + 1L;
+      }
+
+      private long consume(final long availableTo, final LongBatchHandler handler) {
+         if(RingBufferControl.ACQUIRE_STOP_REQUEST == availableTo)
+            return availableTo;
+         if(RingBufferControl.UNAVAILABLE == availableTo)
+            return 0;
+         final long[] values = data[rbm.getCurrentIndex()];
+         final long first = rbm.curRingBuffer.tail.get() + 1L;
+         for(long i = first; i <= availableTo; i++)
+            handler.accept(values[rbm.index(i)], i, i == availableTo);
+         rbm.notifyProcessed();
+         return availableTo - first + 1L;
+      }
+
+      public static class Publisher {
+         public final RingBufferControl pub;
+         public final long[] data;
+         public final int publisherIndex;
+
+         private Publisher(final long[] data, final RingBufferControl pub, final int publisherIndex) {
+            this.pub = pub;
+            this.data = data;
+            this.publisherIndex = publisherIndex;
+         }
+
+         public void publish(final long newEntry) {
+            final long binId = pub.claim(1);
+            data[pub.index(binId)] = newEntry;
+            pub.publish(binId);
+         }
+      }
+
+      public Publisher getNextPublisher() {
+         final int pubIndex = publisherIndexGenerator.getAndIncrement();
+         return new Publisher(data[pubIndex], rbm.get(pubIndex), pubIndex);
+      }
+   }
+
+   /**
+    * The {@code int} equivalent of the {@link Manager}. Each publisher's values are kept in an {@code int[]} so
+    * nothing is boxed. See {@link LongManager} for {@code long}s.
+    */
+   public static class IntManager {
+      private final int[][] data;
+      private final RingBufferControlMultiplexor rbm;
+
+      private final AtomicInteger publisherIndexGenerator = new AtomicInteger(0);
+
+      public IntManager(final RingBufferControlMultiplexor rbm) {
+         this.rbm = rbm;
+         data = new int[rbm.numOfPublishers][rbm.indexMask + 1];
+      }
+
+      /**
+       * Pass each value available from one of the publishers, in order, to the {@code consumer} without waiting.
+       *
+       * @return the number of values passed to the consumer or {@link RingBufferControl#ACQUIRE_STOP_REQUEST} once
+       *         all of the publishers have stopped.
+       */
+      public long tryGet(final IntConsumer consumer) {
+         return consume(rbm.tryAvailableTo(), consumer);
+      }
+
+      /**
+       * The same as {@link IntManager#tryGet(IntConsumer)} but waits for at least one value to be published.
+       */
+      public long get(final IntConsumer consumer) {
+         return consume(rbm.availableTo(), consumer);
+      }
+
+      /**
+       * The same as {@link IntManager#get(IntConsumer)} but the {@code handler} is also told the sequence of each
+       * value in its publisher's buffer and which value is the last of the batch. The publisher the batch came from is
+       * {@link RingBufferControlMultiplexor#getCurrentIndex()}.
+       */
+      public long get(final IntBatchHandler handler) {
+         return consume(rbm.availableTo(), handler);
+      }
+
+      private long consume(final long availableTo, final IntConsumer consumer) {
+         if(RingBufferControl.ACQUIRE_STOP_REQUEST == availableTo)
+            return availableTo;
+         if(RingBufferControl.UNAVAILABLE == availableTo)
+            return 0;
+         final int[] values = data[rbm.getCurrentIndex()];
+         final long first = rbm.curRingBuffer.tail.get() + 1L;
+         for(long i = first; i <= availableTo; i++)
+            consumer.accept(values[rbm.index(i)]);
+         rbm.notifyProcessed();
+         return availableTo - first + 1L;
+      }
+
+      private long consume(final long availableTo, final IntBatchHandler handler) {
+         if(RingBufferControl.ACQUIRE_STOP_REQUEST == availableTo)
+            return availableTo;
+         if(RingBufferControl.UNAVAILABLE == availableTo)
+            return 0;
+         final int[] values = data[rbm.getCurrentIndex()];
+         final long first = rbm.curRingBuffer.tail.get() + 1L;
+         for(long i = first; i <= availableTo; i++)
+            handler.accept(values[rbm.index(i)], i, i == availableTo);
+         rbm.notifyProcessed();
+         return availableTo - first + 1L;
+      }
+
+      public static class Publisher {
+         public final RingBufferControl pub;
+         public final int[] data;
+         public final int publisherIndex;
+
+         private Publisher(final int[] data, final RingBufferControl pub, final int publisherIndex) {
+            this.pub = pub;
+            this.data = data;
+            this.publisherIndex = publisherIndex;
+         }
+
+         public void publish(final int newEntry) {
+            final long binId = pub.claim(1);
+            data[pub.index(binId)] = newEntry;
+            pub.publish(binId);
+         }
+      }
+
+      public Publisher getNextPublisher() {
+         final int pubIndex = publisherIndexGenerator.getAndIncrement();
+         return new Publisher(data[pubIndex], rbm.get(pubIndex), pubIndex);
+      }
+   }
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * This is a helper class for managing a set of {@link RingBufferControl}s for use in a "single-publisher to
+ * multi-consumer" thread configuration where each published entry goes to exactly one consumer chosen by a key. All
+ * of the entries for the same key go to the same consumer so they're processed in the order they were published
+ * while the different keys are spread across the consumers. Each consumer retrieves its own partition's
+ * {@link RingBufferControl} using {@link RingBufferControlPartitioner#get(int)} and uses it exactly as it would any
+ * other {@link RingBufferControl}.
+ * </p>
+ *
+ * <p>
+ * Keys are hashed to one of a fixed number of buckets and each bucket is assigned to a partition. The publisher
+ * looks up the partition for an entry's key using {@link RingBufferControlPartitioner#partition(Object)}, claims a
+ * slot on that partition using {@link RingBufferControlPartitioner#claim(int)}, and then publishes it using
+ * {@link RingBufferControlPartitioner#publish(int, long)}. If the partitioner was constructed with a
+ * {@code publishBatchSize} greater than 1 then entries only become visible to the consumer once that many have been
+ * published to the partition or when the publisher calls {@link RingBufferControlPartitioner#flush()}. A publisher
+ * using batching should flush when it runs out of things to publish or the entries can sit there indefinitely.
+ * </p>
+ *
+ * <p>
+ * The publisher keeps a count of the entries published to each bucket. If some keys are much busier than others
+ * the publisher can call {@link RingBufferControlPartitioner#rebalance()} which will move a bucket from the busiest
+ * partition to the least busy one. Before a bucket is moved the publisher waits for the consumer of the partition
+ * it's moving from to finish everything that's been published to it so the order for a given key is maintained.
+ * </p>
+ *
+ * <p>
+ * Everything other than {@link RingBufferControlPartitioner#get(int)} and the occupancy statistics is a publish side
+ * call and must be made from the single publishing thread.
+ * </p>
+ */
+public class RingBufferControlPartitioner {
+   /**
+    * The number of buckets created for each partition.
+    */
+   public static final int BUCKETS_PER_PARTITION = 64;
+
+   private final RingBufferControl[] partitions;
+   private final int indexMask;
+   private final int publishBatchSize;
+
+   // all of these are only accessed from the publish side.
+   private final int[] bucketToPartition;
+   private final long[] bucketCounts;
+   private final int[] pendingCount;
+   private final long[] pendingSequence;
+
+   /**
+    * Creates a {@link RingBufferControlPartitioner} where every entry is made visible to the consumer as soon as it's
+    * published and the consumers use the {@link RingBufferConsumerControl#yield} wait strategy.
+    *
+    * @param numPartitions is the number of partitions and therefore the number of consumers.
+    * @param sizePowerOfTwo is the size of each partition's {@link RingBufferControl}. It must be a power of 2.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2 or the numPartitions is zero.
+    */
+   public RingBufferControlPartitioner(final int numPartitions, final int sizePowerOfTwo) throws IllegalArgumentException {
+      this(numPartitions, sizePowerOfTwo, RingBufferConsumerControl.yield, 1);
+   }
+
+   /**
+    * @param numPartitions is the number of partitions and therefore the number of consumers.
+    * @param sizePowerOfTwo is the size of each partition's {@link RingBufferControl}. It must be a power of 2.
+    * @param waitStrategy is the wait strategy used by each partition's {@link RingBufferControl}.
+    * @param publishBatchSize is the number of entries published to a partition before they're made visible to its
+    *           consumer. It can't be larger than the sizePowerOfTwo.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2, the numPartitions is zero, or the
+    *            publishBatchSize isn't between 1 and the sizePowerOfTwo.
+    */
+   public RingBufferControlPartitioner(final int numPartitions, final int sizePowerOfTwo,
+         final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy, final int publishBatchSize)
+         throws IllegalArgumentException {
+      if(numPartitions <= 0)
+         throw new IllegalArgumentException("Cannot create a " + RingBufferControlPartitioner.class.getSimpleName() + " with "
+               + numPartitions + " partitions.");
+      // any more than this and a full buffer could be made up entirely of entries the consumer can't see yet.
+      if(publishBatchSize < 1 || publishBatchSize > sizePowerOfTwo)
+         throw new IllegalArgumentException("The publishBatchSize for a " + RingBufferControlPartitioner.class.getSimpleName()
+               + " must be between 1 and the buffer size (" + sizePowerOfTwo + ") but was " + publishBatchSize);
+
+      this.partitions = new RingBufferControl[numPartitions];
+      for(int i = 0; i < numPartitions; i++)
+         partitions[i] = new RingBufferControl(sizePowerOfTwo, waitStrategy);
+      this.indexMask = sizePowerOfTwo - 1;
+      this.publishBatchSize = publishBatchSize;
+
+      final int numBuckets = numPartitions * BUCKETS_PER_PARTITION;
+      this.bucketToPartition = new int[numBuckets];
+      for(int i = 0; i < numBuckets; i++)
+         bucketToPartition[i] = i % numPartitions;
+      this.bucketCounts = new long[numBuckets];
+      this.pendingCount = new int[numPartitions];
+      this.pendingSequence = new long[numPartitions];
+   }
+
+   /**
+    * This will retrieve the {@link RingBufferControl} for the given partition. This is the way the consumer of a
+    * particular partition should retrieve its corresponding {@link RingBufferControl}.
+    */
+   public RingBufferControl get(final int partition) {
+      return partitions[partition];
+   }
+
+   /**
+    * Turn on the {@link RingBufferStats} counters for each partition. This needs to be called before the partitioner
+    * is used. The counters for each partition are retrieved from {@link RingBufferConsumerControl#getStats()} on the
+    * partition's {@link RingBufferControl}.
+    */
+   public void enableStats() {
+      for(final RingBufferControl rbc: partitions)
+         rbc.enableStats();
+   }
+
+   public int getNumPartitions() {
+      return partitions.length;
+   }
+
+   /**
+    * This method will convert the sequence to an index of a ring buffer.
+    */
+   public int index(final long sequence) {
+      return (int)sequence & indexMask;
+   }
+
+   /**
+    * This is used by the publishing thread to find the partition for the entry it's about to publish. Each call is
+    * counted toward the load on the key's bucket for the purposes of {@link RingBufferControlPartitioner#rebalance()}
+    * so it should be called once per entry published.
+    */
+   public int partition(final Object key) {
+      return partitionForHash(key == null ? 0 : key.hashCode());
+   }
+
+   /**
+    * This is the same as {@link RingBufferControlPartitioner#partition(Object)} for when the publisher already has
+    * the key's hash code.
+    */
+   public int partitionForHash(final int hashCode) {
+      final int bucket = bucket(hashCode);
+      bucketCounts[bucket]++;
+      return bucketToPartition[bucket];
+   }
+
+   /**
+    * This is used by the publishing thread to claim the next entry on the given partition. The sequence returned
+    * should be supplied to {@link RingBufferControlPartitioner#publish(int, long)} once the publishing thread has
+    * prepared the entry.
+    *
+    * @return the sequence to provide to the {@link RingBufferControlPartitioner#publish(int, long)} or the
+    *         {@link RingBufferControlPartitioner#index(long)} methods.
+    */
+   public long claim(final int partition) {
+      return partitions[partition].claim(1);
+   }
+
+   /**
+    * Once the publisher has readied the entry it claimed this method will make it, along with any others
+    * published to the same partition since the last time the partition was flushed, available to the consumer
+    * if there are at least {@code publishBatchSize} of them.
+    *
+    * @param sequence is the sequence returned from the {@link RingBufferControlPartitioner#claim(int)} call.
+    */
+   public void publish(final int partition, final long sequence) {
+      pendingSequence[partition] = sequence;
+      if(++pendingCount[partition] >= publishBatchSize)
+         flush(partition);
+   }
+
+   /**
+    * Make everything published to the given partition visible to its consumer.
+    */
+   public void flush(final int partition) {
+      if(pendingCount[partition] != 0) {
+         pendingCount[partition] = 0;
+         partitions[partition].publish(pendingSequence[partition]);
+      }
+   }
+
+   /**
+    * Make everything published to every partition visible to the consumers.
+    */
+   public void flush() {
+      for(int i = 0; i < partitions.length; i++)
+         flush(i);
+   }
+
+   /**
+    * <p>
+    * Move a bucket from the busiest partition to the least busy one if doing so will make the load more even.
+    * The load is the number of entries published (according to calls to
+    * {@link RingBufferControlPartitioner#partition(Object)}) since the last rebalance. This can block while the
+    * consumer of the busiest partition catches up.
+    * </p>
+    *
+    * @return true if a bucket was moved.
+    */
+   public boolean rebalance() {
+      final long[] load = new long[partitions.length];
+      for(int i = 0; i < bucketCounts.length; i++)
+         load[bucketToPartition[i]] += bucketCounts[i];
+
+      int hottest = 0;
+      int coldest = 0;
+      for(int i = 1; i < load.length; i++) {
+         if(load[i] > load[hottest])
+            hottest = i;
+         if(load[i] < load[coldest])
+            coldest = i;
+      }
+
+      // the best bucket to move is the busiest one that won't make the coldest partition
+      // busier than the hottest one was. That's anything less than the difference.
+      final long difference = load[hottest] - load[coldest];
+      int toMove = -1;
+      for(int i = 0; i < bucketCounts.length; i++) {
+         if(bucketToPartition[i] == hottest && bucketCounts[i] > 0 && bucketCounts[i] < difference
+               && (toMove < 0 || bucketCounts[i] > bucketCounts[toMove]))
+            toMove = i;
+      }
+
+      for(int i = 0; i < bucketCounts.length; i++)
+         bucketCounts[i] = 0;
+
+      if(toMove < 0)
+         return false;
+
+      moveBucket(toMove, coldest);
+      return true;
+   }
+
+   /**
+    * Assign the bucket to the given partition. Everything already published to the bucket's current partition is
+    * flushed and this waits until the consumer has processed it so entries with keys in the bucket are still
+    * processed in order.
+    */
+   public void moveBucket(final int bucket, final int toPartition) {
+      final int fromPartition = bucketToPartition[bucket];
+      if(fromPartition == toPartition)
+         return;
+
+      flush(fromPartition);
+      final RingBufferControl from = partitions[fromPartition];
+      final long published = from.publishCursor.get();
+      while(from.tail.get() < published)
+         LockSupport.parkNanos(1L);
+
+      bucketToPartition[bucket] = toPartition;
+   }
+
+   /**
+    * The number of buckets keys are hashed to.
+    */
+   public int getNumBuckets() {
+      return bucketToPartition.length;
+   }
+
+   /**
+    * The partition the given bucket is currently assigned to.
+    */
+   public int getPartitionOfBucket(final int bucket) {
+      return bucketToPartition[bucket];
+   }
+
+   /**
+    * The bucket a key with the given hash code goes to.
+    */
+   public int bucket(final int hashCode) {
+      // spread the higher bits down like the HashMap does.
+      return Math.floorMod(hashCode ^ (hashCode >>> 16), bucketToPartition.length);
+   }
+
+   /**
+    * This is an estimate of the number of entries that have been made visible to the given partition's consumer but
+    * not yet processed. It can be called from any thread.
+    */
+   public long getOccupancy(final int partition) {
+      final RingBufferControl rbc = partitions[partition];
+      final long tail = rbc.tail.getOpaque();
+      final long ret = rbc.publishCursor.getOpaque() - tail;
+      return ret < 0 ? 0 : ret;
+   }
+
+   /**
+    * This is an estimate of the total number of entries that have been made visible to the consumers but not yet
+    * processed. It can be called from any thread.
+    */
+   public long getOccupancy() {
+      long ret = 0;
+      for(int i = 0; i < partitions.length; i++)
+         ret += getOccupancy(i);
+      return ret;
+   }
+
+   /**
+    * <p>
+    * The {@link RingBufferControlPartitioner} can ONLY be stopped from the publish side. This flushes anything still
+    * pending and then stops each partition's consumer. Once each consumer reaches this point it will receive a
+    * {@link RingBufferControl#ACQUIRE_STOP_REQUEST} returned from either {@link RingBufferControl#availableTo()} or
+    * {@link RingBufferControl#tryAvailableTo()}.
+    * </p>
+    */
+   public void publishStop() {
+      flush();
+      for(final RingBufferControl rbc: partitions)
+         rbc.publishStop();
+   }
+
+   /**
+    * Once the publisher calls {@link RingBufferControlPartitioner#publishStop()} and all of the consumers acquire it
+    * this method will return <code>true</code>. It will also return <code>true</code> up until the first sequence is
+    * retrieved by all of the consumers.
+    */
+   public boolean isShutdown() {
+      for(final RingBufferControl rbc: partitions) {
+         if(!rbc.isShutdown())
+            return false;
+      }
+      return true;
+   }
+}
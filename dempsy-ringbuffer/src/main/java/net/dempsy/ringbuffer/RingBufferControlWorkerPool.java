@@ -30,9 +30,10 @@ package net.dempsy.ringbuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
-
-import com.lmax.disruptor.Sequence;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 import net.dempsy.ringbuffer.internal.PaddedLong;
 
@@ -44,10 +45,18 @@ import net.dempsy.ringbuffer.internal.PaddedLong;
  * </p>
  * 
  * <p>
- * Currently it would be really bad for Worker consumers to mix availableTo and tryAvailableTo. If a worker uses
- * tryAvailableTo it MUST use
- * tryAvailableTo until tryAvailableTo returns a value that isn't RingBufferConsumerControl.UNAVAILABLE before using
- * availableTo.
+ * Each call to a worker's availableTo or tryAvailableTo takes the next single entry from the pool. When
+ * tryAvailableTo (or the timed availableTo) returns RingBufferConsumerControl.UNAVAILABLE the worker holds
+ * on to the entry it took and the next call, of either kind, will return it.
+ * </p>
+ *
+ * <p>
+ * By default each entry is taken from the pool individually which means every entry costs an atomic increment
+ * on a sequence shared by all of the workers. When the work per entry is small and there are many workers that
+ * shared sequence becomes the bottleneck. If the pool is constructed with a {@code batchSize} greater than 1 then
+ * each worker takes {@code batchSize} consecutive entries from the pool at once and hands them out one at a time
+ * from subsequent availableTo or tryAvailableTo calls before going back to the pool. The tradeoff is that a
+ * worker will process its entire batch even if other workers are idle. See {@link Worker#consumeBatch(LongConsumer)}.
  * </p>
  */
 public class RingBufferControlWorkerPool {
@@ -59,26 +68,22 @@ public class RingBufferControlWorkerPool {
    private final int bufferSize;
    private final int indexMask;
    private final int sizePowerOfTwo;
+   private final int batchSize;
 
    private final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy;
-   private final PaddedLong commonStop = new PaddedLong(Long.MAX_VALUE);
+   private final Sequence commonStop = new Sequence(Long.MAX_VALUE);
+
+   // the publisher's stats. null unless enableStats() was called.
+   private RingBufferStats stats = null;
 
    // We need to pre-allocate the first worker requested or the publisher can get ahead
    // of the workers. This will prevent that.
-   private RingBufferConsumerControl firstWorker;
+   private Worker firstWorker;
    private boolean firstWorkerGiven = false;
 
-   @SuppressWarnings("unused")
-   private static class Padding {
-      /** Set to -1 as sequence starting point */
-      public long nextValue = RingBufferConsumerControl.INITIAL_CURSOR_VALUE,
-            tailCache = RingBufferConsumerControl.INITIAL_CURSOR_VALUE,
-            p2, p3, p4, p5, p6, p7;
-   }
-
    // tail cache accessed from the publish side only.
    // head cache accessed from the publish side only
-   private final Padding pubHeadAndTailCache = new Padding();
+   private final PublisherCache pubHeadAndTailCache = new PublisherCache();
 
    public RingBufferControlWorkerPool(final int sizePowerOfTwo) {
       this(sizePowerOfTwo, RingBufferConsumerControl.yield);
@@ -87,8 +92,23 @@ public class RingBufferControlWorkerPool {
    public RingBufferControlWorkerPool(final int sizePowerOfTwo,
          final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy)
          throws IllegalArgumentException {
+      this(sizePowerOfTwo, waitStrategy, 1);
+   }
+
+   /**
+    * @param batchSize is the number of consecutive entries each worker takes from the pool at once. 1 means
+    *           each entry is taken individually.
+    * @throws IllegalArgumentException if the batchSize is less than 1.
+    */
+   public RingBufferControlWorkerPool(final int sizePowerOfTwo,
+         final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy, final int batchSize)
+         throws IllegalArgumentException {
+      if(batchSize < 1)
+         throw new IllegalArgumentException("The batchSize for a " + RingBufferControlWorkerPool.class.getSimpleName()
+               + " must be at least 1 but was " + batchSize);
       this.sizePowerOfTwo = sizePowerOfTwo;
       this.waitStrategy = waitStrategy;
+      this.batchSize = batchSize;
       this.tails = new Sequence[0];
 
       this.indexMask = sizePowerOfTwo - 1;
@@ -97,96 +117,215 @@ public class RingBufferControlWorkerPool {
       firstWorker = newWorker(true);
    }
 
-   private RingBufferConsumerControl createConsumerControl() {
-      return new RingBufferConsumerControl(sizePowerOfTwo, waitStrategy, cursor, commonStop) {
-         // save off the workSequence ... shared among all workers.
-         private final Sequence workSequence = RingBufferControlWorkerPool.this.workSequence;
+   /**
+    * A worker retrieved from {@link RingBufferControlWorkerPool#newWorker()}.
+    */
+   public class Worker extends RingBufferConsumerControl {
+      // save off the workSequence ... shared among all workers.
+      private final Sequence workSequence = RingBufferControlWorkerPool.this.workSequence;
+      private final int batchSize = RingBufferControlWorkerPool.this.batchSize;
 
-         @Override
-         protected void clear() {
-            synchronized(RingBufferControlWorkerPool.this) {
-               removeWorker(this);
-               super.clear();
-            }
-         }
+      // the work sequence this worker has taken from the workSequence but hasn't yet returned
+      // to the caller because it wasn't available yet.
+      private final PaddedLong allocatedTry = new PaddedLong(INITIAL_CURSOR_VALUE);
 
-         @Override
-         public long availableTo() {
-            // humm ... no getAndIncrement.
-            final long ret = workSequence.incrementAndGet();
-            super.doNotifyProcessed(ret - 1L); // notify up to the previous
-            final long alt = super.availableTo(ret);
-            return alt == RingBufferConsumerControl.ACQUIRE_STOP_REQUEST ? alt : ret;
+      // the rest of the batch taken from the workSequence. Only touched by the worker thread.
+      private long batchNext = 0;
+      private long batchEnd = INITIAL_CURSOR_VALUE;
+
+      // set while drain is handing out a batch so that the entries the handler has already been given aren't
+      // released to the publisher until the end of the batch. Only touched by the worker thread.
+      private boolean holding = false;
+
+      private Worker() {
+         super(sizePowerOfTwo, RingBufferControlWorkerPool.this.waitStrategy, cursor, commonStop);
+      }
+
+      @Override
+      protected void clear() {
+         synchronized(RingBufferControlWorkerPool.this) {
+            removeWorker(this);
+            batchNext = 0;
+            batchEnd = INITIAL_CURSOR_VALUE;
+            super.clear();
          }
+      }
 
-         final PaddedLong allocatedTry = new PaddedLong(INITIAL_CURSOR_VALUE);
+      @Override
+      public long availableTo() {
+         final long ret = allocate();
+         return complete(ret, super.availableTo(ret));
+      }
 
-         // TODO: add a test for this.
-         @Override
-         public long tryAvailableTo() {
-            final boolean inProcess = allocatedTry.get() != INITIAL_CURSOR_VALUE;
-            final long ret = inProcess ? allocatedTry.get() : workSequence.incrementAndGet();
-            if(!inProcess) {
-               allocatedTry.set(ret);
-               super.doNotifyProcessed(ret - 1L);
-            }
+      @Override
+      public long availableTo(final long timeout, final TimeUnit unit) {
+         final long ret = allocate();
+         return complete(ret, super.availableTo(ret, unit.toNanos(timeout)));
+      }
 
-            final long alt = super.tryAvailableTo(ret);
-            if(alt == RingBufferConsumerControl.UNAVAILABLE)
-               return alt;
-            else if(inProcess) // reset the allocatedTry
-               allocatedTry.set(INITIAL_CURSOR_VALUE); // reset the allocatedTry
-            return alt == RingBufferConsumerControl.ACQUIRE_STOP_REQUEST ? alt : ret;
+      @Override
+      public long tryAvailableTo() {
+         final long ret = allocate();
+         return complete(ret, super.tryAvailableTo(ret));
+      }
+
+      private long allocate() {
+         final long allocated = allocatedTry.get();
+         if(allocated != INITIAL_CURSOR_VALUE)
+            return allocated;
+
+         final long ret;
+         if(batchNext <= batchEnd)
+            ret = batchNext++;
+         else {
+            // a single atomic add takes the whole batch.
+            batchEnd = workSequence.addAndGet(batchSize);
+            ret = batchEnd - batchSize + 1L;
+            batchNext = ret + 1L;
          }
+         allocatedTry.set(ret);
+         if(!holding)
+            super.doNotifyProcessed(ret - 1L); // notify up to the previous
+         return ret;
+      }
 
-         @Override
-         public void notifyProcessed() { /* We don't do anything here. This is done in availableTo/tryAvailableTo. */}
-
-         /**
-          * The iterator returned from this call has the peculiar property of requiring that
-          * 'next()' be called if 'hasNext()' returns true or data will be lost. 'hasNext(),'
-          * when it returns 'true' literally reserves the spot with the data to be retrieved.
-          * Ignoring this and moving on will leave it in the worker queue unprocessed.
-          */
-         @Override
-         public <T> Iterator<T> consumeAsIterator(final T[] values) {
-            if(iter == null) iter = new Iterator<T>() {
-               long availableTo = RingBufferControl.INITIAL_CURSOR_VALUE;
-               boolean nextIsReady = false;
-
-               @Override
-               public boolean hasNext() {
-                  if(!nextIsReady) {
-                     availableTo = availableTo();
-                     nextIsReady = true;
-                  }
-                  return availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST;
-               }
+      private long complete(final long ret, final long alt) {
+         if(alt == RingBufferConsumerControl.UNAVAILABLE)
+            return alt; // we keep the allocatedTry for the next call.
 
-               @Override
-               public T next() {
-                  nextIsReady = false;
-                  final T ret = values[index(availableTo)];
-                  notifyProcessed();
-                  return ret;
-               }
+         allocatedTry.set(INITIAL_CURSOR_VALUE); // reset the allocatedTry
+         return alt == RingBufferConsumerControl.ACQUIRE_STOP_REQUEST ? alt : recordBatch(ret, ret);
+      }
 
-               @Override
-               public void remove() {
-                  throw new UnsupportedOperationException();
+      @Override
+      public void notifyProcessed() { /* We don't do anything here. This is done in availableTo/tryAvailableTo. */}
+
+      /**
+       * The iterator returned from this call has the peculiar property of requiring that
+       * 'next()' be called if 'hasNext()' returns true or data will be lost. 'hasNext(),'
+       * when it returns 'true' literally reserves the spot with the data to be retrieved.
+       * Ignoring this and moving on will leave it in the worker queue unprocessed.
+       */
+      @Override
+      public <T> Iterator<T> consumeAsIterator(final T[] values) {
+         if(iter == null) iter = new Iterator<T>() {
+            long availableTo = RingBufferControl.INITIAL_CURSOR_VALUE;
+            boolean nextIsReady = false;
+
+            @Override
+            public boolean hasNext() {
+               if(!nextIsReady) {
+                  availableTo = availableTo();
+                  nextIsReady = true;
                }
-            };
+               return availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST;
+            }
+
+            @Override
+            public T next() {
+               nextIsReady = false;
+               final T ret = values[index(availableTo)];
+               notifyProcessed();
+               return ret;
+            }
 
-            @SuppressWarnings("unchecked")
-            final Iterator<T> ret = iter;
-            return ret;
+            @Override
+            public void remove() {
+               throw new UnsupportedOperationException();
+            }
+         };
+
+         @SuppressWarnings("unchecked")
+         final Iterator<T> ret = iter;
+         return ret;
+      }
+
+      /**
+       * <p>
+       * Process the rest of this worker's current batch, taking a new batch from the pool first if there's
+       * nothing left of the current one. The handler is given each sequence once it's been published. With a
+       * batchSize of 1 this processes a single entry.
+       * </p>
+       *
+       * @return false if the worker reached the point where the publisher called
+       *         {@link RingBufferControlWorkerPool#publishStop()}, in which case the worker is finished.
+       *         true otherwise.
+       */
+      public boolean consumeBatch(final LongConsumer handler) {
+         do {
+            final long sequence = availableTo();
+            if(sequence == ACQUIRE_STOP_REQUEST)
+               return false;
+            handler.accept(sequence);
+         } while(batchNext <= batchEnd);
+         return true;
+      }
+
+      /**
+       * <p>
+       * For a worker, a batch is the rest of the batch it took from the pool, as far as it's been published, but no
+       * more than {@code maxBatchSize} entries. If there's nothing left of the current batch it takes a new one from
+       * the pool first. With a batchSize of 1 every entry is the end of its batch.
+       * </p>
+       *
+       * <p>
+       * See {@link RingBufferConsumerControl#drain(Object[], BatchHandler, int)}.
+       * </p>
+       */
+      @Override
+      public <T> boolean drain(final T[] values, final BatchHandler<T> handler, final int maxBatchSize) {
+         checkMaxBatchSize(maxBatchSize);
+         try {
+            for(int count = 1;; count++) {
+               // the first entry releases everything before it but the rest are held until the end of the batch.
+               final long sequence = availableTo();
+               holding = true;
+               if(sequence == ACQUIRE_STOP_REQUEST)
+                  return false;
+               // the batch ends when the next sequence isn't in hand or hasn't been published yet.
+               final boolean endOfBatch = count >= maxBatchSize || batchNext > batchEnd || publishCursor.get() < batchNext
+                     || stop.get() <= batchNext;
+               handler.accept(values[index(sequence)], sequence, endOfBatch);
+               if(endOfBatch) {
+                  doNotifyProcessed(sequence);
+                  return true;
+               }
+            }
+         } finally {
+            holding = false;
          }
+      }
 
-      };
+      /**
+       * The same as {@link Worker#consumeBatch(LongConsumer)} but the handler is given the value at each sequence from
+       * {@code values}, an array the same size as the ring buffer that the publisher fills in at
+       * {@link RingBufferControlWorkerPool#index(long)} of each sequence before it's published. Nothing is boxed.
+       */
+      public boolean consumeBatch(final long[] values, final LongConsumer handler) {
+         do {
+            final long sequence = availableTo();
+            if(sequence == ACQUIRE_STOP_REQUEST)
+               return false;
+            handler.accept(values[index(sequence)]);
+         } while(batchNext <= batchEnd);
+         return true;
+      }
 
+      /**
+       * The same as {@link Worker#consumeBatch(long[], LongConsumer)} for {@code int} values.
+       */
+      public boolean consumeBatch(final int[] values, final IntConsumer handler) {
+         do {
+            final long sequence = availableTo();
+            if(sequence == ACQUIRE_STOP_REQUEST)
+               return false;
+            handler.accept(values[index(sequence)]);
+         } while(batchNext <= batchEnd);
+         return true;
+      }
    }
 
-   public synchronized RingBufferConsumerControl newWorker() {
+   public synchronized Worker newWorker() {
       if(!firstWorkerGiven) {
          firstWorkerGiven = true;
          return firstWorker;
@@ -194,8 +333,10 @@ public class RingBufferControlWorkerPool {
       return newWorker(true);
    }
 
-   private synchronized RingBufferConsumerControl newWorker(final boolean force) {
-      final RingBufferConsumerControl ret = createConsumerControl();
+   private synchronized Worker newWorker(final boolean force) {
+      final Worker ret = new Worker();
+      if(stats != null)
+         ret.enableStats();
 
       // replace the tails array;
       final Sequence[] newTails = new Sequence[tails.length + 1];
@@ -240,8 +381,14 @@ public class RingBufferControlWorkerPool {
 
       if(wrapPoint > cachedGatingSequence || cachedGatingSequence > curNextValue) {
          long minSequence;
-         while(wrapPoint > (minSequence = getMinimumSequence(tails, curNextValue)))
+         final long stallStart = stats == null ? 0L : System.nanoTime();
+         boolean stalled = false;
+         while(wrapPoint > (minSequence = getMinimumSequence(tails, curNextValue))) {
+            stalled = true;
             LockSupport.parkNanos(1L);
+         }
+         if(stalled && stats != null)
+            stats.wrapStall(System.nanoTime() - stallStart);
 
          pubHeadAndTailCache.tailCache = minSequence;
       }
@@ -291,6 +438,7 @@ public class RingBufferControlWorkerPool {
     */
    public void publish(final long sequence) {
       cursor.set(sequence);
+      waitStrategy.signalAllWhenBlocking();
    }
 
    /**
@@ -357,6 +505,26 @@ public class RingBufferControlWorkerPool {
       return cursor.get() == RingBufferConsumerControl.INITIAL_CURSOR_VALUE;
    }
 
+   /**
+    * Turn on the {@link RingBufferStats} counters for the publisher and for the workers. This needs to be called
+    * before the pool is used and before any workers are retrieved with {@link RingBufferControlWorkerPool#newWorker()}.
+    * Each worker's consumer side counters are retrieved from the worker's {@link RingBufferConsumerControl#getStats()}.
+    */
+   public synchronized void enableStats() {
+      if(stats == null) {
+         stats = new RingBufferStats();
+         firstWorker.enableStats();
+      }
+   }
+
+   /**
+    * A snapshot of the publisher's {@link RingBufferStats} where the occupancy is
+    * {@link RingBufferControlWorkerPool#getNumEntries()}. This can be called from any thread.
+    */
+   public RingBufferStats.Snapshot getStats() {
+      return RingBufferStats.snapshot(stats, getNumEntries());
+   }
+
    public int getBufferSize() {
       return bufferSize;
    }
@@ -367,12 +535,12 @@ public class RingBufferControlWorkerPool {
    public long getNumEntries() {
       // If the client a worker is waiting in an availableTo call then the
       // workerSequence will be ahead of the pubHeadAndTailCache.nextValue.
-      final long ret = pubHeadAndTailCache.nextValue - workSequence.get();
+      final long ret = pubHeadAndTailCache.nextValue - workSequence.getOpaque();
       return ret < 0 ? 0 : ret;
    }
 
    /**
-    * Get the minimum sequence from an array of {@link com.lmax.disruptor.Sequence}s.
+    * Get the minimum sequence from an array of {@link Sequence}s.
     * 
     * @param sequences to compare.
     * @param minimum an initial default minimum. If the array is empty this value will be
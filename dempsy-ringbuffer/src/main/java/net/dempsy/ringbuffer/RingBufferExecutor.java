@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * An {@link java.util.concurrent.ExecutorService} whose task queues are rings of pre-allocated slots rather than
+ * linked queues. Submitting a task doesn't allocate a queue node or take a lock, which matters when many small tasks
+ * are submitted from many threads.
+ * </p>
+ *
+ * <p>
+ * Each worker thread consumes its own {@link RingBufferControlMultiPublisher} so any number of threads can submit
+ * concurrently. Tasks are spread over the workers round-robin. If the chosen worker's ring is full the task goes to
+ * the next worker with room and, if they're all full, the submitter waits for room in the chosen worker's ring. Tasks
+ * given to the same worker run in the order they were submitted but, since there's no work stealing, a long running
+ * task holds up the tasks queued behind it on that worker.
+ * </p>
+ *
+ * <p>
+ * {@link RingBufferExecutor#shutdown()} lets every task already submitted run before the workers exit.
+ * {@link RingBufferExecutor#shutdownNow()} interrupts the workers and returns the tasks that hadn't started.
+ * </p>
+ */
+public class RingBufferExecutor extends AbstractExecutorService {
+   private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Runnable[].class);
+
+   private final Worker[] workers;
+   private final Thread[] threads;
+   private final AtomicInteger nextWorker = new AtomicInteger(0);
+
+   // the number of submitters that may be claiming or publishing. The stops can only be published once it's zero.
+   private final AtomicInteger inFlight = new AtomicInteger(0);
+   private final AtomicBoolean stopsPublished = new AtomicBoolean(false);
+   private final CountDownLatch terminated;
+   private final Queue<Runnable> unrun = new ConcurrentLinkedQueue<>();
+
+   private volatile boolean shutdown = false;
+   private volatile boolean halted = false;
+
+   /**
+    * Creates a {@link RingBufferExecutor} using {@link Executors#defaultThreadFactory()} and a
+    * {@link RingBufferConsumerControl#yield} wait strategy.
+    *
+    * @param numThreads is the number of worker threads.
+    * @param sizePowerOfTwo is the number of task slots in each worker's ring. It must be a power of 2.
+    * @throws IllegalArgumentException if the numThreads is less than 1 or the sizePowerOfTwo isn't a power of 2.
+    */
+   public RingBufferExecutor(final int numThreads, final int sizePowerOfTwo) throws IllegalArgumentException {
+      this(numThreads, sizePowerOfTwo, Executors.defaultThreadFactory(), () -> RingBufferConsumerControl.yield);
+   }
+
+   /**
+    * @param numThreads is the number of worker threads.
+    * @param sizePowerOfTwo is the number of task slots in each worker's ring. It must be a power of 2.
+    * @param threadFactory is used to create the worker threads. They're started before the constructor returns.
+    * @param waitStrategy supplies the wait strategy an idle worker uses. It's called once per worker so a strategy
+    *           with state, like the {@link BlockingWaitStrategy}, isn't shared.
+    * @throws IllegalArgumentException if the numThreads is less than 1 or the sizePowerOfTwo isn't a power of 2.
+    */
+   public RingBufferExecutor(final int numThreads, final int sizePowerOfTwo, final ThreadFactory threadFactory,
+         final Supplier<? extends RingBufferConsumerControl.ConsumerWaitStrategy> waitStrategy) throws IllegalArgumentException {
+      if(numThreads < 1)
+         throw new IllegalArgumentException("The number of threads for a " + RingBufferExecutor.class.getSimpleName()
+               + " must be at least 1 but was " + numThreads);
+
+      this.workers = new Worker[numThreads];
+      this.threads = new Thread[numThreads];
+      this.terminated = new CountDownLatch(numThreads);
+      for(int i = 0; i < numThreads; i++)
+         workers[i] = new Worker(new RingBufferControlMultiPublisher(sizePowerOfTwo, waitStrategy.get()), sizePowerOfTwo);
+      for(int i = 0; i < numThreads; i++)
+         threads[i] = threadFactory.newThread(workers[i]);
+      for(final Thread t: threads)
+         t.start();
+   }
+
+   @Override
+   public void execute(final Runnable task) throws RejectedExecutionException {
+      if(task == null)
+         throw new NullPointerException();
+
+      inFlight.incrementAndGet();
+      try {
+         // checked after registering as in flight so either we see the shutdown or the shutdown sees us.
+         if(shutdown)
+            throw new RejectedExecutionException("The " + RingBufferExecutor.class.getSimpleName() + " has been shut down.");
+
+         // unsigned so the counter wrapping around doesn't go negative.
+         final int first = Integer.remainderUnsigned(nextWorker.getAndIncrement(), workers.length);
+         Worker worker = workers[first];
+         long sequence = worker.ring.tryClaim(1);
+         for(int i = 1; sequence == RingBufferConsumerControl.UNAVAILABLE && i < workers.length; i++) {
+            worker = workers[(first + i) % workers.length];
+            sequence = worker.ring.tryClaim(1);
+         }
+         if(sequence == RingBufferConsumerControl.UNAVAILABLE) {
+            // the workers always make room, even once halted, so this won't wait forever.
+            worker = workers[first];
+            sequence = worker.ring.claim(1);
+         }
+
+         // a halted worker leaves its tasks in their slots so there may still be one here that never ran.
+         final Runnable displaced = (Runnable)SLOT.getAndSet(worker.slots, worker.ring.index(sequence), task);
+         if(displaced != null)
+            unrun.add(displaced);
+         worker.ring.publish(sequence);
+      } finally {
+         if(inFlight.decrementAndGet() == 0 && shutdown)
+            publishStops();
+      }
+   }
+
+   @Override
+   public void shutdown() {
+      shutdown = true;
+      if(inFlight.get() == 0)
+         publishStops();
+   }
+
+   @Override
+   public List<Runnable> shutdownNow() {
+      halted = true;
+      shutdown();
+      for(final Thread t: threads)
+         t.interrupt();
+
+      // once nothing is in flight nothing more can be published so every task still in a slot never started.
+      while(inFlight.get() != 0)
+         Thread.yield();
+
+      final List<Runnable> ret = new ArrayList<>(unrun);
+      unrun.clear();
+      for(final Worker worker: workers) {
+         final Runnable[] slots = worker.slots;
+         final int start = worker.ring.index(worker.ring.tail.getOpaque() + 1L);
+         for(int i = 0; i < slots.length; i++) {
+            final Runnable task = (Runnable)SLOT.getAndSet(slots, (start + i) & (slots.length - 1), (Runnable)null);
+            if(task != null)
+               ret.add(task);
+         }
+      }
+      return ret;
+   }
+
+   @Override
+   public boolean isShutdown() {
+      return shutdown;
+   }
+
+   @Override
+   public boolean isTerminated() {
+      return terminated.getCount() == 0;
+   }
+
+   @Override
+   public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+      return terminated.await(timeout, unit);
+   }
+
+   /**
+    * The number of tasks that have been submitted but not yet finished, including the ones currently running. This is
+    * only an estimate while tasks are being submitted or run.
+    */
+   public long getNumPending() {
+      long ret = 0;
+      for(final Worker worker: workers)
+         ret += Math.max(0L, worker.ring.publishCursor.getOpaque() - worker.ring.tail.getOpaque());
+      return ret;
+   }
+
+   private void publishStops() {
+      if(stopsPublished.compareAndSet(false, true)) {
+         for(final Worker worker: workers)
+            worker.ring.publishStop();
+      }
+   }
+
+   private final class Worker implements Runnable {
+      final RingBufferControlMultiPublisher ring;
+      final Runnable[] slots;
+
+      Worker(final RingBufferControlMultiPublisher ring, final int sizePowerOfTwo) {
+         this.ring = ring;
+         this.slots = new Runnable[sizePowerOfTwo];
+      }
+
+      @Override
+      public void run() {
+         try {
+            long availableTo;
+            while((availableTo = ring.availableTo()) != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST) {
+               for(long sequence = ring.tail.get() + 1L; sequence <= availableTo; sequence++) {
+                  // once halted the remaining tasks are left in their slots for shutdownNow but the worker keeps
+                  // moving so submitters waiting for room, and the stop, can get through.
+                  if(halted)
+                     continue;
+                  // shutdownNow may be taking the task at the same time so only one of us gets it.
+                  final Runnable task = (Runnable)SLOT.getAndSet(slots, ring.index(sequence), (Runnable)null);
+                  if(task != null)
+                     runTask(task);
+               }
+               ring.notifyProcessed();
+            }
+         } finally {
+            terminated.countDown();
+         }
+      }
+
+      private void runTask(final Runnable task) {
+         // don't let an interrupt meant for a previous task leak into this one unless we're halting.
+         if(Thread.interrupted() && halted)
+            Thread.currentThread().interrupt();
+         try {
+            task.run();
+         } catch(final Throwable th) {
+            final Thread cur = Thread.currentThread();
+            cur.getUncaughtExceptionHandler().uncaughtException(cur, th);
+         }
+      }
+   }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>
+ * A {@link Spliterator} over the entries published to a ring buffer so they can be processed with a
+ * {@link java.util.stream.Stream}, including a parallel one, without first collecting them.
+ * </p>
+ *
+ * <p>
+ * The {@link RingBufferSpliterator} is the ring's single consumer. When a parallel stream splits it, it takes the
+ * next contiguous range of published sequences, copies the entries out and releases them back to the publisher as it
+ * goes. The fork-join worker then processes the copied range while the ring keeps filling. Each split is
+ * {@link RingBufferSpliterator#BATCH_UNIT} entries larger than the one before it (up to the maxBatchSize), which
+ * keeps the number of splits, and so the cost of merging their results, down on a long stream.
+ * {@link RingBufferSpliterator#tryAdvance(Consumer)} consumes entries in place and releases them once the range it's
+ * working through is done. Since every split is the range that comes before what's left, the entries keep the order
+ * they were published in.
+ * </p>
+ *
+ * <p>
+ * The stream ends once the publisher calls {@link RingBufferControl#publishStop()}. The size isn't known up front so
+ * {@link RingBufferSpliterator#estimateSize()} is always {@link Long#MAX_VALUE}.
+ * </p>
+ */
+public class RingBufferSpliterator<T> implements Spliterator<T> {
+   /**
+    * How much larger each split is than the one before it.
+    */
+   public static final int BATCH_UNIT = 1 << 10;
+
+   /**
+    * The default largest range a split will take from the ring.
+    */
+   public static final int DEFAULT_MAX_BATCH_SIZE = 1 << 25;
+
+   private static final AtomicLong threadSequence = new AtomicLong();
+
+   private final RingBufferConsumerControl control;
+   private final T[] values;
+   private final int maxBatchSize;
+   private final Producer<T> producer;
+
+   private long sequence;
+   private long availableTo;
+   private boolean stopped = false;
+   private int batchSize = 0;
+
+   /**
+    * Creates a {@link RingBufferSpliterator} that consumes from a ring whose publisher is managed elsewhere.
+    *
+    * @param control is the consumer side of the ring. No one else may consume from it.
+    * @param values are the entries the {@code control} controls.
+    * @param maxBatchSize is the largest range of sequences handed out by a single split.
+    * @throws IllegalArgumentException if the maxBatchSize is less than 1.
+    */
+   public RingBufferSpliterator(final RingBufferConsumerControl control, final T[] values, final int maxBatchSize)
+         throws IllegalArgumentException {
+      this(control, values, maxBatchSize, null);
+   }
+
+   private RingBufferSpliterator(final RingBufferConsumerControl control, final T[] values, final int maxBatchSize,
+         final Producer<T> producer) throws IllegalArgumentException {
+      RingBufferConsumerControl.checkMaxBatchSize(maxBatchSize);
+      this.control = control;
+      this.values = values;
+      this.maxBatchSize = maxBatchSize;
+      this.producer = producer;
+      this.availableTo = control.tail.get();
+      this.sequence = availableTo + 1L;
+   }
+
+   /**
+    * <p>
+    * Creates a {@link Stream} of the entries published to the ring controlled by {@code control} up until the
+    * publisher calls {@link RingBufferControl#publishStop()}.
+    * </p>
+    *
+    * @param control is the consumer side of the ring. No one else may consume from it.
+    * @param values are the entries the {@code control} controls.
+    * @param parallel whether or not the stream should be a parallel stream.
+    */
+   public static <T> Stream<T> stream(final RingBufferConsumerControl control, final T[] values, final boolean parallel) {
+      return StreamSupport.stream(new RingBufferSpliterator<>(control, values, DEFAULT_MAX_BATCH_SIZE), parallel);
+   }
+
+   /**
+    * <p>
+    * Creates a {@link Stream} of everything from the {@code source}. A producer thread moves the entries from the
+    * {@code source} through a ring of {@code queueSizePowerOf2} entries so the stream can be consumed while the
+    * {@code source} is still producing.
+    * </p>
+    *
+    * <p>
+    * If the stream might not be consumed to the end (for example, {@code findFirst()}) then it should be closed, which
+    * stops the producer thread. If the {@code source} throws an exception the stream ends and the exception is thrown
+    * from the stream's terminal operation.
+    * </p>
+    *
+    * @param source supplies the entries. It's only ever called from the producer thread.
+    * @param queueSizePowerOf2 is the number of entries in the ring. It must be a power of 2.
+    * @param parallel whether or not the stream should be a parallel stream.
+    * @throws IllegalArgumentException if the queueSizePowerOf2 isn't a power of 2.
+    */
+   public static <T> Stream<T> stream(final Iterator<T> source, final int queueSizePowerOf2, final boolean parallel)
+         throws IllegalArgumentException {
+      final RingBufferControl control = new RingBufferControl(queueSizePowerOf2);
+      @SuppressWarnings("unchecked")
+      final T[] values = (T[])new Object[queueSizePowerOf2];
+      final Producer<T> producer = new Producer<>(source, control, values);
+      final RingBufferSpliterator<T> spliterator = new RingBufferSpliterator<>(control, values,
+            DEFAULT_MAX_BATCH_SIZE, producer);
+
+      final Thread thread = new Thread(producer, "RingBufferSpliterator-Producer-" + threadSequence.getAndIncrement());
+      thread.setDaemon(true);
+      thread.start();
+      return StreamSupport.stream(spliterator, parallel).onClose(spliterator::close);
+   }
+
+   @Override
+   public boolean tryAdvance(final Consumer<? super T> action) {
+      if(!available())
+         return false;
+
+      final long cur = sequence++;
+      try {
+         action.accept(values[control.index(cur)]);
+      } finally {
+         if(cur == availableTo)
+            control.doNotifyProcessed(cur);
+      }
+      return true;
+   }
+
+   @Override
+   public Spliterator<T> trySplit() {
+      if(!available())
+         return null;
+
+      batchSize = Math.min(maxBatchSize, batchSize + BATCH_UNIT);
+      final Object[] batch = new Object[batchSize];
+      int count = 0;
+      do {
+         // the batch can be bigger than the ring so each range is released as soon as it's copied.
+         final long end = Math.min(availableTo, sequence + (batchSize - count) - 1L);
+         for(; sequence <= end; sequence++)
+            batch[count++] = values[control.index(sequence)];
+         control.doNotifyProcessed(end);
+      } while(count < batchSize && available());
+      return Spliterators.spliterator(batch, 0, count, characteristics());
+   }
+
+   @Override
+   public long estimateSize() {
+      return Long.MAX_VALUE;
+   }
+
+   @Override
+   public int characteristics() {
+      return ORDERED;
+   }
+
+   // Makes sure there's at least one entry between the sequence and the availableTo, waiting for one if necessary.
+   // Returns false once the publisher has stopped.
+   private boolean available() {
+      if(sequence <= availableTo)
+         return true;
+      if(stopped)
+         return false;
+
+      final long next = control.availableTo();
+      if(next == RingBufferConsumerControl.ACQUIRE_STOP_REQUEST) {
+         stopped = true;
+         if(producer != null)
+            producer.rethrow();
+         return false;
+      }
+      sequence = availableTo + 1L;
+      availableTo = next;
+      return true;
+   }
+
+   // Stops the producer and discards whatever it's still publishing until it stops.
+   private void close() {
+      if(producer == null || stopped)
+         return;
+      producer.closed = true;
+      while(control.availableTo() != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST)
+         control.notifyProcessed();
+      stopped = true;
+   }
+
+   private static class Producer<T> implements Runnable {
+      final Iterator<T> source;
+      final RingBufferControl control;
+      final T[] values;
+
+      volatile boolean closed = false;
+      volatile Throwable failure = null;
+
+      Producer(final Iterator<T> source, final RingBufferControl control, final T[] values) {
+         this.source = source;
+         this.control = control;
+         this.values = values;
+      }
+
+      @Override
+      public void run() {
+         try {
+            while(!closed && source.hasNext()) {
+               // taken before claiming so a failing source doesn't leave a claimed slot for the stop to publish.
+               final T value = source.next();
+               final long sequence = control.claim(1);
+               values[control.index(sequence)] = value;
+               control.publish(sequence);
+            }
+         } catch(final Throwable th) {
+            failure = th;
+         } finally {
+            control.publishStop();
+         }
+      }
+
+      // the failure is set before the stop is published so it's visible once the stop has been seen.
+      void rethrow() {
+         final Throwable th = failure;
+         if(th instanceof RuntimeException)
+            throw (RuntimeException)th;
+         if(th instanceof Error)
+            throw (Error)th;
+         if(th != null)
+            throw new RuntimeException(th);
+      }
+   }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Optional counters for a ring buffer control. They're off by default and are turned on by calling
+ * {@code enableStats()} on the control before it's used. A {@link RingBufferStats.Snapshot} of the current values is
+ * retrieved from the control's {@code getStats()}.
+ * </p>
+ *
+ * <p>
+ * Each counter has a single writer (either the publisher or the consumer) so it's updated without any atomic
+ * read-modify-write and the publisher's counters and the consumer's counters are kept on separate cache lines.
+ * The values can be read at any time from any thread (for example, a thread sampling them periodically or through
+ * JMX using {@link RingBufferStats#register(String, Supplier)}) but a snapshot isn't a consistent point in time
+ * across the counters.
+ * </p>
+ *
+ * <p>
+ * The counters are:
+ * </p>
+ * <ul>
+ * <li>The number of times the publisher had to wait for the consumer(s) because the buffer was full, and the total
+ * time it spent waiting.</li>
+ * <li>The number of times the consumer looked for entries and found nothing. That's a
+ * {@link RingBufferConsumerControl#tryAvailableTo()} that returned {@link RingBufferConsumerControl#UNAVAILABLE} or
+ * an {@link RingBufferConsumerControl#availableTo()} that had to wait.</li>
+ * <li>The distribution of the number of entries returned from each availableTo or tryAvailableTo.</li>
+ * </ul>
+ *
+ * <p>
+ * The occupancy (the number of entries published but not yet processed) isn't a counter. It's calculated from the
+ * control's sequences when the snapshot is taken.
+ * </p>
+ */
+public class RingBufferStats {
+   /**
+    * The number of buckets in the batch size histogram. Bucket {@code i} counts the batches with a size from
+    * {@code 2^i} to {@code 2^(i+1) - 1}. The last bucket counts everything larger.
+    */
+   public static final int NUM_BATCH_SIZE_BUCKETS = 16;
+
+   private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+   // the publisher's counters and the consumer's counters are written from different threads
+   // so they're separated by a cache line's worth of padding.
+   private static final int PAD = 8;
+   private static final int WRAP_STALLS = PAD;
+   private static final int WRAP_STALL_NANOS = PAD + 1;
+   private static final int EMPTY_POLLS = 3 * PAD;
+   private static final int BATCHES = EMPTY_POLLS + 1;
+
+   private final long[] counts = new long[BATCHES + NUM_BATCH_SIZE_BUCKETS + PAD];
+
+   /**
+    * Record the publisher waiting for room in the buffer. This can only be called by a single publisher.
+    */
+   void wrapStall(final long nanos) {
+      increment(WRAP_STALLS, 1L);
+      increment(WRAP_STALL_NANOS, nanos);
+   }
+
+   /**
+    * The same as {@link RingBufferStats#wrapStall(long)} but can be called from multiple publishers concurrently.
+    */
+   void sharedWrapStall(final long nanos) {
+      COUNTS.getAndAdd(counts, WRAP_STALLS, 1L);
+      COUNTS.getAndAdd(counts, WRAP_STALL_NANOS, nanos);
+   }
+
+   void emptyPoll() {
+      increment(EMPTY_POLLS, 1L);
+   }
+
+   void batch(final long size) {
+      final int bucket = 63 - Long.numberOfLeadingZeros(size);
+      increment(BATCHES + Math.min(bucket, NUM_BATCH_SIZE_BUCKETS - 1), 1L);
+   }
+
+   // single writer so there's no need for the read-modify-write to be atomic. It just
+   // needs to not be optimized away, torn, or reordered from the point of view of a reader.
+   private void increment(final int index, final long delta) {
+      COUNTS.setOpaque(counts, index, (long)COUNTS.getOpaque(counts, index) + delta);
+   }
+
+   private long get(final int index) {
+      return (long)COUNTS.getOpaque(counts, index);
+   }
+
+   /**
+    * Take a snapshot of the given stats, which may be {@code null} if they're not enabled in which case all of the
+    * counters are zero.
+    */
+   static Snapshot snapshot(final RingBufferStats stats, final long occupancy) {
+      final long[] histogram = new long[NUM_BATCH_SIZE_BUCKETS];
+      if(stats == null)
+         return new Snapshot(0L, 0L, occupancy < 0 ? 0L : occupancy, 0L, histogram);
+
+      for(int i = 0; i < NUM_BATCH_SIZE_BUCKETS; i++)
+         histogram[i] = stats.get(BATCHES + i);
+      return new Snapshot(stats.get(WRAP_STALLS), stats.get(WRAP_STALL_NANOS), occupancy < 0 ? 0L : occupancy,
+            stats.get(EMPTY_POLLS), histogram);
+   }
+
+   /**
+    * The values of the counters at the time the snapshot was taken.
+    */
+   public static class Snapshot {
+      private final long wrapStallCount;
+      private final long wrapStallNanos;
+      private final long occupancy;
+      private final long emptyPollCount;
+      private final long[] batchSizeHistogram;
+
+      private Snapshot(final long wrapStallCount, final long wrapStallNanos, final long occupancy, final long emptyPollCount,
+            final long[] batchSizeHistogram) {
+         this.wrapStallCount = wrapStallCount;
+         this.wrapStallNanos = wrapStallNanos;
+         this.occupancy = occupancy;
+         this.emptyPollCount = emptyPollCount;
+         this.batchSizeHistogram = batchSizeHistogram;
+      }
+
+      /**
+       * The number of times the publisher had to wait because the buffer was full.
+       */
+      public long getWrapStallCount() {
+         return wrapStallCount;
+      }
+
+      /**
+       * The total time the publisher spent waiting because the buffer was full.
+       */
+      public long getWrapStallNanos() {
+         return wrapStallNanos;
+      }
+
+      /**
+       * The number of entries that had been published but not yet processed.
+       */
+      public long getOccupancy() {
+         return occupancy;
+      }
+
+      /**
+       * The number of times the consumer found nothing available.
+       */
+      public long getEmptyPollCount() {
+         return emptyPollCount;
+      }
+
+      /**
+       * The number of times the consumer was given one or more entries.
+       */
+      public long getBatchCount() {
+         long ret = 0;
+         for(final long count: batchSizeHistogram)
+            ret += count;
+         return ret;
+      }
+
+      /**
+       * See {@link RingBufferStats#NUM_BATCH_SIZE_BUCKETS} for what each entry counts.
+       */
+      public long[] getBatchSizeHistogram() {
+         return batchSizeHistogram.clone();
+      }
+
+      @Override
+      public String toString() {
+         return "RingBufferStats.Snapshot [wrapStallCount=" + wrapStallCount + ", wrapStallNanos=" + wrapStallNanos + ", occupancy="
+               + occupancy + ", emptyPollCount=" + emptyPollCount + ", batchSizeHistogram=" + Arrays.toString(batchSizeHistogram) + "]";
+      }
+   }
+
+   /**
+    * The JMX view of a {@link RingBufferStats.Snapshot}. Each attribute is read from a new snapshot.
+    */
+   public static interface RingBufferStatsMXBean {
+      public long getWrapStallCount();
+
+      public long getWrapStallNanos();
+
+      public long getOccupancy();
+
+      public long getEmptyPollCount();
+
+      public long getBatchCount();
+
+      public long[] getBatchSizeHistogram();
+   }
+
+   /**
+    * Register the stats with the platform MBean server under the domain {@code net.dempsy.ringbuffer} with the given
+    * name. The {@code stats} is typically the control's {@code getStats} method. Use the returned {@link ObjectName}
+    * to unregister it once the control is no longer used.
+    *
+    * @throws JMException if the registration fails, for example because the name is already registered.
+    */
+   public static ObjectName register(final String name, final Supplier<Snapshot> stats) throws JMException {
+      final ObjectName objectName = new ObjectName(
+            RingBufferStats.class.getPackage().getName() + ":type=" + RingBufferStats.class.getSimpleName() + ",name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new RingBufferStatsMXBean() {
+         @Override
+         public long getWrapStallCount() {
+            return stats.get().getWrapStallCount();
+         }
+
+         @Override
+         public long getWrapStallNanos() {
+            return stats.get().getWrapStallNanos();
+         }
+
+         @Override
+         public long getOccupancy() {
+            return stats.get().getOccupancy();
+         }
+
+         @Override
+         public long getEmptyPollCount() {
+            return stats.get().getEmptyPollCount();
+         }
+
+         @Override
+         public long getBatchCount() {
+            return stats.get().getBatchCount();
+         }
+
+         @Override
+         public long[] getBatchSizeHistogram() {
+            return stats.get().getBatchSizeHistogram();
+         }
+      }, objectName);
+      return objectName;
+   }
+
+   /**
+    * Unregister stats registered with {@link RingBufferStats#register(String, Supplier)}.
+    */
+   public static void unregister(final ObjectName name) throws JMException {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+   }
+}
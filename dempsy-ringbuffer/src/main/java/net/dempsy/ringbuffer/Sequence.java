@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// The padding is split across the class hierarchy because the JVM is free to reorder the fields
+// within a class but lays out a superclass' fields before a subclass' fields. Longs are used so
+// there's no gap a subclass' field could be packed into.
+abstract class SequenceLhsPadding {
+   protected long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
+}
+
+abstract class SequenceValue extends SequenceLhsPadding {
+   protected long value;
+}
+
+abstract class SequenceRhsPadding extends SequenceValue {
+   protected long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
+}
+
+/**
+ * <p>
+ * A sequence (a cursor or a tail) shared between the publisher and the consumer(s). The value is padded on both sides
+ * by 120 bytes so that it doesn't share a cache line, or the adjacent line some hardware prefetches along with it,
+ * with anything else that's written.
+ * </p>
+ *
+ * <p>
+ * Unlike a {@code volatile} field, each access states the ordering it needs:
+ * </p>
+ * <ul>
+ * <li>{@link Sequence#get()} and {@link Sequence#set(long)} are acquire and release. That's all that's needed to hand
+ * off the entries up to a sequence from one thread to another. A release store is a plain store on x86 and doesn't
+ * need the full fence a volatile store does on either x86 or ARM.</li>
+ * <li>{@link Sequence#getOpaque()} and {@link Sequence#setOpaque(long)} only guarantee the value isn't torn or cached
+ * forever. They're for values that are only informational or only accessed by one thread.</li>
+ * <li>{@link Sequence#getVolatile()} and {@link Sequence#setVolatile(long)} are for the rare case where a store has to
+ * be ordered with a subsequent load of a different variable.</li>
+ * <li>The read-modify-write operations are all fully ordered.</li>
+ * </ul>
+ */
+public class Sequence extends SequenceRhsPadding {
+   private static final VarHandle VALUE;
+
+   static {
+      try {
+         VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+      } catch(final ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   public Sequence(final long initialValue) {
+      VALUE.setRelease(this, initialValue);
+   }
+
+   /**
+    * Read the value with acquire semantics. Nothing read after this can be seen from before it.
+    */
+   public long get() {
+      return (long)VALUE.getAcquire(this);
+   }
+
+   /**
+    * Write the value with release semantics. Everything written before this is visible to a thread that reads this
+    * value using {@link Sequence#get()}.
+    */
+   public void set(final long value) {
+      VALUE.setRelease(this, value);
+   }
+
+   public long getOpaque() {
+      return (long)VALUE.getOpaque(this);
+   }
+
+   public void setOpaque(final long value) {
+      VALUE.setOpaque(this, value);
+   }
+
+   public long getVolatile() {
+      return (long)VALUE.getVolatile(this);
+   }
+
+   public void setVolatile(final long value) {
+      VALUE.setVolatile(this, value);
+   }
+
+   public boolean compareAndSet(final long expectedValue, final long newValue) {
+      return VALUE.compareAndSet(this, expectedValue, newValue);
+   }
+
+   /**
+    * @return the value before the exchange. The exchange happened if it's the {@code expectedValue}.
+    */
+   public long compareAndExchange(final long expectedValue, final long newValue) {
+      return (long)VALUE.compareAndExchange(this, expectedValue, newValue);
+   }
+
+   public long getAndAdd(final long increment) {
+      return (long)VALUE.getAndAdd(this, increment);
+   }
+
+   public long addAndGet(final long increment) {
+      return getAndAdd(increment) + increment;
+   }
+
+   public long incrementAndGet() {
+      return addAndGet(1L);
+   }
+
+   @Override
+   public String toString() {
+      return Long.toString(get());
+   }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.ringbuffer;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import net.dempsy.ringbuffer.RingBufferConsumerControl.ConsumerWaitStrategy;
+import net.dempsy.ringbuffer.internal.ByteBuffers;
+import net.dempsy.util.io.MegaByteBuffer;
+
+/**
+ * <p>
+ * A single-publisher to single-consumer ring buffer control where the publisher and the consumer can be in different
+ * processes. The cursor, tail and stop sequences, along with the entries themselves, live in a region of shared memory
+ * (typically a file mapped by both processes, see {@link SharedMemoryRingBufferControl#create(Path, int, int)} and
+ * {@link SharedMemoryRingBufferControl#open(Path)}) and the protocol is the same claim/publish/availableTo/
+ * notifyProcessed protocol as the {@link RingBufferControl}.
+ * </p>
+ *
+ * <p>
+ * The region starts with a header of {@link SharedMemoryRingBufferControl#HEADER_SIZE} bytes. The first cache line
+ * describes the layout and each of the sequences has a cache line to itself. The sequences are read and written using
+ * acquire/release semantics. The data region, made up of {@code sizePowerOfTwo} entries of {@code entrySize} bytes
+ * each, follows the header and can be accessed through {@link SharedMemoryRingBufferControl#getData()} using the
+ * offset from {@link SharedMemoryRingBufferControl#offset(long)}.
+ * </p>
+ *
+ * <p>
+ * There are a few differences from the {@link RingBufferControl}:
+ * </p>
+ * <ul>
+ * <li>Once stopped, the ring cannot be reused. A new one needs to be created.</li>
+ * <li>Since the publisher is in a different process, the consumer can't be woken by it. A
+ * {@link BlockingWaitStrategy} can't be used.</li>
+ * <li>The region must be direct memory. A heap buffer can't be shared and can't guarantee the alignment needed for the
+ * atomic access to the sequences.</li>
+ * </ul>
+ */
+public class SharedMemoryRingBufferControl {
+   /**
+    * The sequences are each given this many bytes so that they don't share a cache line.
+    */
+   public static final int CACHE_LINE_SIZE = 64;
+
+   /**
+    * The size of the header at the beginning of the shared region. The entries follow it.
+    */
+   public static final int HEADER_SIZE = 4 * CACHE_LINE_SIZE;
+
+   private static final int MAGIC = 0x44525342; // "DRSB"
+   private static final int MAGIC_OFFSET = 0;
+   private static final int BUFFER_SIZE_OFFSET = MAGIC_OFFSET + Integer.BYTES;
+   private static final int ENTRY_SIZE_OFFSET = BUFFER_SIZE_OFFSET + Integer.BYTES;
+   private static final int CURSOR_OFFSET = CACHE_LINE_SIZE;
+   private static final int TAIL_OFFSET = 2 * CACHE_LINE_SIZE;
+   private static final int STOP_OFFSET = 3 * CACHE_LINE_SIZE;
+
+   private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+   private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   private final ByteBuffer region;
+   private final ByteBuffer data;
+   private final int bufferSize;
+   private final int indexMask;
+   private final int entrySize;
+   private final ConsumerWaitStrategy waitStrategy;
+   private final LongSupplier poll = this::doTryAvailableTo;
+
+   // null unless enableStats() was called. These are only for this process' side of the ring.
+   private RingBufferStats stats = null;
+
+   // publish side only
+   private long nextValue;
+   private long tailCache;
+
+   // consume side only
+   private long consumed;
+   private long headCache;
+   private long stopCache = Long.MAX_VALUE;
+   private long previousAvailableToResult;
+   private boolean stopped = false;
+
+   private SharedMemoryRingBufferControl(final ByteBuffer region, final int sizePowerOfTwo, final int entrySize,
+         final ConsumerWaitStrategy waitStrategy) throws IllegalArgumentException {
+      if(waitStrategy instanceof BlockingWaitStrategy)
+         throw new IllegalArgumentException("A " + SharedMemoryRingBufferControl.class.getSimpleName() + " can't use a "
+               + BlockingWaitStrategy.class.getSimpleName() + " since the publisher can't wake the consumer.");
+
+      this.region = region;
+      this.bufferSize = sizePowerOfTwo;
+      this.indexMask = sizePowerOfTwo - 1;
+      this.entrySize = entrySize;
+      this.waitStrategy = waitStrategy;
+      this.data = region.duplicate().position(HEADER_SIZE).limit(HEADER_SIZE + sizePowerOfTwo * entrySize).slice().order(region.order());
+
+      // pick up wherever the ring currently is.
+      this.nextValue = (long)LONG.getAcquire(region, CURSOR_OFFSET);
+      this.consumed = (long)LONG.getAcquire(region, TAIL_OFFSET);
+      this.tailCache = consumed;
+      this.headCache = consumed;
+      this.previousAvailableToResult = consumed;
+   }
+
+   /**
+    * The number of bytes the shared region needs to be to hold a ring with the given size and entry size.
+    */
+   public static long requiredSize(final int sizePowerOfTwo, final int entrySize) {
+      return HEADER_SIZE + ((long)sizePowerOfTwo * entrySize);
+   }
+
+   /**
+    * Initialize a new ring in the given region using a {@link RingBufferConsumerControl#yield} consumer wait strategy.
+    * This must happen before any other process attaches to the region.
+    *
+    * @param region is the shared memory. It must be at least
+    *           {@link SharedMemoryRingBufferControl#requiredSize(int, int)} bytes.
+    * @param sizePowerOfTwo is the number of entries. It must be a power of 2.
+    * @param entrySize is the size of each entry in bytes.
+    * @throws IllegalArgumentException if the sizePowerOfTwo isn't a power of 2, the region isn't direct, the region is
+    *            larger than 2 Gig, or the region is too small.
+    */
+   public static SharedMemoryRingBufferControl create(final MegaByteBuffer region, final int sizePowerOfTwo, final int entrySize)
+         throws IllegalArgumentException {
+      return create(region, sizePowerOfTwo, entrySize, RingBufferConsumerControl.yield);
+   }
+
+   /**
+    * Initialize a new ring in the given region. This must happen before any other process attaches to the region.
+    *
+    * @see SharedMemoryRingBufferControl#create(MegaByteBuffer, int, int)
+    */
+   public static SharedMemoryRingBufferControl create(final MegaByteBuffer region, final int sizePowerOfTwo, final int entrySize,
+         final ConsumerWaitStrategy waitStrategy) throws IllegalArgumentException {
+      if(Integer.bitCount(sizePowerOfTwo) != 1)
+         throw new IllegalArgumentException("bufferSize must be a power of 2");
+      if(entrySize <= 0)
+         throw new IllegalArgumentException("entrySize must be positive");
+
+      final ByteBuffer bb = checkRegion(region, requiredSize(sizePowerOfTwo, entrySize));
+      bb.putInt(BUFFER_SIZE_OFFSET, sizePowerOfTwo);
+      bb.putInt(ENTRY_SIZE_OFFSET, entrySize);
+      LONG.setRelease(bb, CURSOR_OFFSET, RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
+      LONG.setRelease(bb, TAIL_OFFSET, RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
+      LONG.setRelease(bb, STOP_OFFSET, Long.MAX_VALUE);
+      // this is written last so anyone who sees it sees the rest of the header.
+      INT.setRelease(bb, MAGIC_OFFSET, MAGIC);
+
+      return new SharedMemoryRingBufferControl(bb, sizePowerOfTwo, entrySize, waitStrategy);
+   }
+
+   /**
+    * Attach to a ring that was already initialized in the region (probably by another process) using a
+    * {@link RingBufferConsumerControl#yield} consumer wait strategy.
+    *
+    * @throws IllegalArgumentException if the region doesn't contain an initialized ring, isn't direct or is larger
+    *            than 2 Gig.
+    */
+   public static SharedMemoryRingBufferControl attach(final MegaByteBuffer region) throws IllegalArgumentException {
+      return attach(region, RingBufferConsumerControl.yield);
+   }
+
+   /**
+    * Attach to a ring that was already initialized in the region (probably by another process).
+    *
+    * @see SharedMemoryRingBufferControl#attach(MegaByteBuffer)
+    */
+   public static SharedMemoryRingBufferControl attach(final MegaByteBuffer region, final ConsumerWaitStrategy waitStrategy)
+         throws IllegalArgumentException {
+      final ByteBuffer bb = checkRegion(region, HEADER_SIZE);
+      if((int)INT.getAcquire(bb, MAGIC_OFFSET) != MAGIC)
+         throw new IllegalArgumentException("The region doesn't contain an initialized " + SharedMemoryRingBufferControl.class.getSimpleName());
+
+      final int sizePowerOfTwo = bb.getInt(BUFFER_SIZE_OFFSET);
+      final int entrySize = bb.getInt(ENTRY_SIZE_OFFSET);
+      checkRegion(region, requiredSize(sizePowerOfTwo, entrySize));
+      return new SharedMemoryRingBufferControl(bb, sizePowerOfTwo, entrySize, waitStrategy);
+   }
+
+   /**
+    * Create (or overwrite) the file, map it, and initialize a new ring in it. This must happen before any other process
+    * opens the file.
+    *
+    * @see SharedMemoryRingBufferControl#create(MegaByteBuffer, int, int)
+    */
+   public static SharedMemoryRingBufferControl create(final Path file, final int sizePowerOfTwo, final int entrySize) throws IOException {
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);) {
+         // the mapping stays valid after the channel is closed.
+         return create(MegaByteBuffer.allocateMaped(0, requiredSize(sizePowerOfTwo, entrySize), channel, MapMode.READ_WRITE),
+               sizePowerOfTwo, entrySize);
+      }
+   }
+
+   /**
+    * Map the file containing a ring that was already created (probably by another process) and attach to it.
+    *
+    * @see SharedMemoryRingBufferControl#attach(MegaByteBuffer)
+    */
+   public static SharedMemoryRingBufferControl open(final Path file) throws IOException {
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);) {
+         return attach(MegaByteBuffer.allocateMaped(0, channel.size(), channel, MapMode.READ_WRITE));
+      }
+   }
+
+   /**
+    * The data region of the ring. The entry for a given sequence starts at {@link SharedMemoryRingBufferControl#offset(long)}
+    * and is {@link SharedMemoryRingBufferControl#getEntrySize()} bytes long. The buffer returned is shared by all
+    * callers so the absolute get and put methods should be used.
+    */
+   public ByteBuffer getData() {
+      return data;
+   }
+
+   /**
+    * This method will convert the sequence to the offset of its entry in the data region.
+    */
+   public int offset(final long sequence) {
+      return index(sequence) * entrySize;
+   }
+
+   /**
+    * This method will convert the sequence to an index of the ring buffer.
+    */
+   public int index(final long sequence) {
+      return (int)sequence & indexMask;
+   }
+
+   public int getBufferSize() {
+      return bufferSize;
+   }
+
+   public int getEntrySize() {
+      return entrySize;
+   }
+
+   /**
+    * This is used by the publisher to claim the given number of entries. The sequence returned is the last of the
+    * claimed entries. This will wait if there's not enough room in the ring.
+    *
+    * @see RingBufferControl#claim(int)
+    */
+   public long claim(final int requestedNumberOfSlots) {
+      final long nextSequence = nextValue + requestedNumberOfSlots;
+      final long wrapPoint = nextSequence - bufferSize;
+
+      if(wrapPoint > tailCache) {
+         long minSequence;
+         final long stallStart = stats == null ? 0L : System.nanoTime();
+         boolean stalled = false;
+         while(wrapPoint > (minSequence = (long)LONG.getAcquire(region, TAIL_OFFSET))) {
+            stalled = true;
+            LockSupport.parkNanos(1L);
+         }
+         if(stalled && stats != null)
+            stats.wrapStall(System.nanoTime() - stallStart);
+
+         tailCache = minSequence;
+      }
+
+      nextValue = nextSequence;
+      return nextSequence;
+   }
+
+   /**
+    * This is the same as {@link SharedMemoryRingBufferControl#claim(int)} except it will return
+    * {@link RingBufferConsumerControl#UNAVAILABLE} rather than wait if there's currently not enough room in the ring.
+    */
+   public long tryClaim(final int requestedNumberOfSlots) {
+      final long nextSequence = nextValue + requestedNumberOfSlots;
+      final long wrapPoint = nextSequence - bufferSize;
+
+      if(wrapPoint > tailCache) {
+         final long minSequence = (long)LONG.getAcquire(region, TAIL_OFFSET);
+         tailCache = minSequence;
+         if(wrapPoint > minSequence)
+            return RingBufferConsumerControl.UNAVAILABLE;
+      }
+
+      nextValue = nextSequence;
+      return nextSequence;
+   }
+
+   /**
+    * Make the entries up to and including the given sequence available to the consumer.
+    */
+   public void publish(final long sequence) {
+      LONG.setRelease(region, CURSOR_OFFSET, sequence);
+   }
+
+   /**
+    * Stop the consumer once it's consumed everything already published. Unlike the {@link RingBufferControl} the ring
+    * cannot be reused after this.
+    *
+    * @return the sequence that represents where the consumer will be notified to stop.
+    */
+   public long publishStop() {
+      final long next = claim(1);
+      LONG.setRelease(region, STOP_OFFSET, next);
+      LONG.setRelease(region, CURSOR_OFFSET, next);
+      return next;
+   }
+
+   /**
+    * The consumer side call that will wait, using the wait strategy, until at least one entry is available.
+    *
+    * @return the last available sequence or {@link RingBufferConsumerControl#ACQUIRE_STOP_REQUEST} once the consumer
+    *         has reached the point where the publisher called {@link SharedMemoryRingBufferControl#publishStop()}.
+    */
+   public long availableTo() {
+      if(stats == null)
+         return waitStrategy.waitUntilAvailable(poll);
+
+      long ret = doTryAvailableTo();
+      if(ret == RingBufferConsumerControl.UNAVAILABLE) {
+         stats.emptyPoll();
+         ret = waitStrategy.waitUntilAvailable(poll);
+      }
+      return recordBatch(ret);
+   }
+
+   /**
+    * The same as {@link SharedMemoryRingBufferControl#availableTo()} but will return
+    * {@link RingBufferConsumerControl#UNAVAILABLE} rather than wait.
+    */
+   public long tryAvailableTo() {
+      final long ret = doTryAvailableTo();
+      if(stats != null && ret == RingBufferConsumerControl.UNAVAILABLE)
+         stats.emptyPoll();
+      return recordBatch(ret);
+   }
+
+   /**
+    * Turn on the {@link RingBufferStats} counters. This needs to be called before the ring is used. The counters only
+    * cover the side (publisher or consumer) of the ring that's in this process.
+    */
+   public void enableStats() {
+      if(stats == null)
+         stats = new RingBufferStats();
+   }
+
+   /**
+    * A snapshot of the {@link RingBufferStats}. The occupancy is read from the shared region so it's correct from
+    * either side. This can be called from any thread.
+    */
+   public RingBufferStats.Snapshot getStats() {
+      return RingBufferStats.snapshot(stats, (long)LONG.getAcquire(region, CURSOR_OFFSET) - (long)LONG.getAcquire(region, TAIL_OFFSET));
+   }
+
+   private long recordBatch(final long availableTo) {
+      if(stats != null && availableTo >= 0)
+         stats.batch(availableTo - consumed);
+      return availableTo;
+   }
+
+   private long doTryAvailableTo() {
+      if(stopped)
+         return RingBufferConsumerControl.ACQUIRE_STOP_REQUEST;
+
+      final long requestedSequence = consumed + 1L;
+      long head = headCache;
+      if(head < requestedSequence) {
+         head = (long)LONG.getAcquire(region, CURSOR_OFFSET);
+         if(head < requestedSequence)
+            return RingBufferConsumerControl.UNAVAILABLE;
+         headCache = head;
+         // the stop is written before the cursor is moved to it.
+         stopCache = (long)LONG.getAcquire(region, STOP_OFFSET);
+      }
+
+      if(stopCache <= head) {
+         if(stopCache > requestedSequence) {
+            previousAvailableToResult = stopCache - 1L;
+            return previousAvailableToResult;
+         }
+
+         stopped = true;
+         consumed = stopCache;
+         LONG.setRelease(region, TAIL_OFFSET, stopCache);
+         return RingBufferConsumerControl.ACQUIRE_STOP_REQUEST;
+      }
+
+      previousAvailableToResult = head;
+      return head;
+   }
+
+   /**
+    * This must be called by the consumer once it's finished with the entries returned from the last
+    * {@link SharedMemoryRingBufferControl#availableTo()} or {@link SharedMemoryRingBufferControl#tryAvailableTo()}.
+    */
+   public void notifyProcessed() {
+      consumed = previousAvailableToResult;
+      LONG.setRelease(region, TAIL_OFFSET, consumed);
+   }
+
+   /**
+    * Once the consumer has received the {@link RingBufferConsumerControl#ACQUIRE_STOP_REQUEST} this will return
+    * {@code true} on the consumer side.
+    */
+   public boolean isShutdown() {
+      return stopped;
+   }
+
+   private static ByteBuffer checkRegion(final MegaByteBuffer region, final long requiredSize) throws IllegalArgumentException {
+      final ByteBuffer bb = ByteBuffers.single(region, SharedMemoryRingBufferControl.class);
+      if(!bb.isDirect())
+         throw new IllegalArgumentException("The region for a " + SharedMemoryRingBufferControl.class.getSimpleName() + " must be direct memory.");
+      if(bb.capacity() < requiredSize)
+         throw new IllegalArgumentException("The region for a " + SharedMemoryRingBufferControl.class.getSimpleName() + " needs to be at least "
+               + requiredSize + " bytes but is only " + bb.capacity());
+      return bb;
+   }
+}
@@ -0,0 +1,23 @@
+package net.dempsy.ringbuffer.internal;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import net.dempsy.util.io.MegaByteBuffer;
+
+public final class ByteBuffers {
+   private ByteBuffers() {}
+
+   /**
+    * Returns the single {@link ByteBuffer} backing the {@link MegaByteBuffer} or throws an
+    * {@link IllegalArgumentException} if it's backed by more than one (that is, it's larger than 2 Gig).
+    */
+   public static ByteBuffer single(final MegaByteBuffer buffer, final Class<?> user) throws IllegalArgumentException {
+      final List<ByteBuffer> buffers = buffer.streamOfByteBuffers().collect(Collectors.toList());
+      if(buffers.size() != 1)
+         throw new IllegalArgumentException("A " + user.getSimpleName() + " requires a " + MegaByteBuffer.class.getSimpleName()
+               + " that's backed by a single ByteBuffer.");
+      return buffers.get(0);
+   }
+}
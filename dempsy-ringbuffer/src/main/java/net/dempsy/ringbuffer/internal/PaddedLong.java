@@ -1,7 +1,10 @@
 package net.dempsy.ringbuffer.internal;
 
+// Padded the same way as a net.dempsy.ringbuffer.Sequence, across the class hierarchy so the JVM can't
+// reorder the padding away from the value, but the value is a plain field. It's for values that are
+// only accessed from one thread but shouldn't share a cache line with anything another thread writes.
 class LhsPadding {
-   protected long p1, p2, p3, p4, p5, p6, p7;
+   protected long p01, p02, p03, p04, p05, p06, p07, p08, p09, p10, p11, p12, p13, p14, p15;
 }
 
 class Value extends LhsPadding {
@@ -9,7 +12,7 @@ class Value extends LhsPadding {
 }
 
 public final class PaddedLong extends Value {
-   protected long p9, p10, p11, p12, p13, p14, p15;
+   protected long p16, p17, p18, p19, p20, p21, p22, p23, p24, p25, p26, p27, p28, p29, p30;
 
    public PaddedLong(final long value) {
       this.value = value;
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestBatchingPublisher {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int BUFFER_SIZE = 1024;
+   private static final long ITERATIONS = 1000L * 1000L;
+
+   @Test
+   public void testSizeAndExplicitFlush() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(8);
+      final BatchingPublisher publisher = new BatchingPublisher(rbc, 3);
+
+      publisher.publish(publisher.next());
+      publisher.publish(publisher.next());
+      assertEquals(2, publisher.getNumReady());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbc.tryAvailableTo());
+      // there's no deadline.
+      assertFalse(publisher.flushIfDue());
+
+      // the third fills the run.
+      publisher.publish(publisher.next());
+      assertEquals(0, publisher.getNumReady());
+      assertEquals(2L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+
+      publisher.publish(publisher.next());
+      publisher.flush();
+      assertEquals(3L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+
+      publisher.publish(publisher.next());
+      publisher.publishStop();
+      assertEquals(4L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+      assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, rbc.tryAvailableTo());
+   }
+
+   @Test
+   public void testDeadlineNotReached() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(8);
+      // long enough that no pause can make the deadline pass during the test.
+      final BatchingPublisher publisher = new BatchingPublisher(rbc, 8, 1, TimeUnit.HOURS);
+
+      publisher.publish(publisher.next());
+      assertFalse(publisher.flushIfDue());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbc.tryAvailableTo());
+      publisher.publish(publisher.next());
+      assertFalse(publisher.flushIfDue());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbc.tryAvailableTo());
+      assertEquals(2, publisher.getNumReady());
+   }
+
+   @Test
+   public void testDeadline() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(8);
+      final BatchingPublisher publisher = new BatchingPublisher(rbc, 8, 1, TimeUnit.MILLISECONDS);
+
+      publisher.publish(publisher.next());
+      Thread.sleep(30);
+      // the next publish is past the deadline of the first.
+      publisher.publish(publisher.next());
+      assertEquals(1L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+
+      publisher.publish(publisher.next());
+      Thread.sleep(30);
+      assertTrue(publisher.flushIfDue());
+      assertEquals(2L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+      // there's nothing left to flush.
+      assertFalse(publisher.flushIfDue());
+   }
+
+   @Test
+   public void testFullBufferFlushes() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(4);
+      final BatchingPublisher publisher = new BatchingPublisher(rbc, 4);
+      publisher.publish(publisher.next());
+      publisher.publish(publisher.next());
+      publisher.flush();
+      publisher.publish(publisher.next());
+      publisher.publish(publisher.next());
+
+      // the ring is full so the next claim has to wait for the consumer, which can't free up
+      // room for the entries that are ready until it can see them.
+      final long[] seen = new long[1];
+      final Thread consumer = new Thread(() -> {
+         try {
+            Thread.sleep(50);
+         } catch(final InterruptedException ie) {}
+         seen[0] = rbc.availableTo();
+         rbc.notifyProcessed();
+      }, "Slow-Consumer");
+      consumer.start();
+      assertEquals(4L, publisher.next());
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(3L, seen[0]);
+      assertEquals(0, publisher.getNumReady());
+   }
+
+   @Test
+   public void testBatchingPublisher() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(BUFFER_SIZE);
+      final long[] values = new long[BUFFER_SIZE];
+      final BatchingPublisher publisher = new BatchingPublisher(rbc, 64, 1, TimeUnit.MILLISECONDS);
+      // only touched by the consumer thread until it's joined.
+      final long[] totals = new long[2];
+      final Thread consumer = new Thread(() -> {
+         for(long availableTo = rbc.availableTo(); availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST; availableTo = rbc.availableTo()) {
+            for(long sequence = rbc.tail.get() + 1; sequence <= availableTo; sequence++) {
+               totals[0] += values[rbc.index(sequence)];
+               totals[1]++;
+            }
+            rbc.notifyProcessed();
+         }
+      }, "Batching-Consumer");
+      consumer.start();
+
+      long expected = 0;
+      for(long i = 0; i < ITERATIONS; i++) {
+         final long sequence = publisher.next();
+         values[rbc.index(sequence)] = i;
+         publisher.publish(sequence);
+         expected += i;
+      }
+      publisher.publishStop();
+
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(ITERATIONS, totals[1]);
+      assertEquals(expected, totals[0]);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testBatchLargerThanBuffer() throws Throwable {
+      new BatchingPublisher(new RingBufferControl(4), 5);
+   }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestEventRing {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int BUFFER_SIZE = 1024;
+   private static final long ITERATIONS = 1000L * 1000L;
+
+   public static class LongEvent {
+      public long value;
+   }
+
+   private static void setValue(final LongEvent event, final Long value) {
+      event.value = value;
+   }
+
+   @Test
+   public void testEntriesArePreallocated() throws Throwable {
+      final AtomicLong created = new AtomicLong(0);
+      final EventRing<LongEvent> ring = new EventRing<>(4, () -> {
+         created.incrementAndGet();
+         return new LongEvent();
+      });
+      assertEquals(4L, created.get());
+
+      // the same entry is reused each time around the ring.
+      final LongEvent first = ring.get(0);
+      for(long i = 0; i < 12; i++) {
+         final long seq = ring.publishEvent(TestEventRing::setValue, i);
+         assertSame(ring.get(seq), ring.get(seq + 4));
+         assertEquals(i, ring.tryAvailableTo());
+         assertEquals(i, ring.get(i).value);
+         ring.notifyProcessed();
+      }
+      assertSame(first, ring.get(8));
+      assertEquals(4L, created.get());
+   }
+
+   @Test
+   public void testDrain() throws Throwable {
+      final EventRing<LongEvent> ring = new EventRing<>(8, LongEvent::new);
+      for(long i = 0; i < 6; i++)
+         ring.publishEvent(TestEventRing::setValue, i);
+
+      // the batches are capped and each is released as soon as it's handled.
+      final StringBuilder seen = new StringBuilder();
+      assertTrue(ring.drain((e, sequence, endOfBatch) -> {
+         assertEquals(sequence, e.value);
+         assertEquals(sequence < 4 ? -1L : 3L, ring.tail.get());
+         seen.append(e.value).append(endOfBatch ? "|" : ",");
+      }, 4));
+      assertEquals("0,1,2,3|4,5|", seen.toString());
+      assertEquals(5L, ring.tail.get());
+
+      seen.setLength(0);
+      ring.publishEvent(TestEventRing::setValue, 6L);
+      ring.publishEvent(TestEventRing::setValue, 7L);
+      assertTrue(ring.drain((e, sequence, endOfBatch) -> seen.append(e.value).append(endOfBatch ? "|" : ",")));
+      assertEquals("6,7|", seen.toString());
+
+      ring.publishStop();
+      assertFalse(ring.drain((e, sequence, endOfBatch) -> {}));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testDrainZeroMaxBatch() throws Throwable {
+      new EventRing<>(4, LongEvent::new).drain((e, sequence, endOfBatch) -> {}, 0);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNullFromFactory() throws Throwable {
+      new EventRing<LongEvent>(4, () -> null);
+   }
+
+   @Test
+   public void testEventRing() throws Throwable {
+      final EventRing<LongEvent> ring = new EventRing<>(BUFFER_SIZE, LongEvent::new);
+      // only touched by the consumer thread until it's joined.
+      final long[] totals = new long[2];
+      final Thread consumer = new Thread(() -> {
+         while(ring.consume(e -> {
+            totals[0] += e.value;
+            totals[1]++;
+         }));
+      }, "EventRing-Consumer");
+      consumer.start();
+
+      long expected = 0;
+      final Long[] batch = new Long[16];
+      for(long i = 0; i < ITERATIONS; i += batch.length) {
+         for(int j = 0; j < batch.length; j++) {
+            batch[j] = i + j;
+            expected += i + j;
+         }
+         ring.publishEvents(TestEventRing::setValue, batch);
+      }
+      ring.publishStop();
+
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(ITERATIONS, totals[1]);
+      assertEquals(expected, totals[0]);
+      assertTrue(ring.isShutdown());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, ring.availableTo(1, TimeUnit.MILLISECONDS));
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestIntRing {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int BUFFER_SIZE = 1024;
+   private static final int ITERATIONS = 1000 * 1000;
+
+   @Test
+   public void testIntRing() throws Throwable {
+      final IntRing ring = new IntRing(BUFFER_SIZE);
+      // only touched by the consumer thread until it's joined.
+      final long[] totals = new long[3];
+      final Thread consumer = new Thread(() -> {
+         while(ring.consume((value, sequence, endOfBatch) -> {
+            totals[0] += value;
+            totals[1]++;
+            if(endOfBatch)
+               totals[2]++;
+         }));
+      }, "IntRing-Consumer");
+      consumer.start();
+
+      long expected = 0;
+      final int[] batch = new int[16];
+      for(int i = 0; i < ITERATIONS; i += batch.length) {
+         for(int j = 0; j < batch.length; j++) {
+            batch[j] = i + j;
+            expected += i + j;
+         }
+         ring.publishValues(batch, 0, batch.length);
+      }
+      ring.publishStop();
+
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(ITERATIONS, totals[1]);
+      assertEquals(expected, totals[0]);
+      assertTrue(totals[2] > 0L && totals[2] <= ITERATIONS / batch.length);
+   }
+
+   @Test
+   public void testMultiplexorIntManager() throws Throwable {
+      final RingBufferControlMultiplexor rbm = new RingBufferControlMultiplexor(2, 4);
+      final RingBufferControlMultiplexor.IntManager manager = new RingBufferControlMultiplexor.IntManager(rbm);
+      final RingBufferControlMultiplexor.IntManager.Publisher first = manager.getNextPublisher();
+      final RingBufferControlMultiplexor.IntManager.Publisher second = manager.getNextPublisher();
+
+      assertEquals(0L, manager.tryGet(v -> {}));
+      first.publish(1);
+      first.publish(2);
+      second.publish(3);
+      final long[] total = new long[1];
+      // each call takes everything available from one of the publishers.
+      assertEquals(3L, manager.tryGet(v -> total[0] += v) + manager.get(v -> total[0] += v));
+      assertEquals(6L, total[0]);
+
+      first.pub.publishStop();
+      second.pub.publishStop();
+      assertEquals(RingBufferControl.ACQUIRE_STOP_REQUEST, manager.get(v -> {}));
+   }
+
+   @Test
+   public void testWorkerPool() throws Throwable {
+      final RingBufferControlWorkerPool pool = new RingBufferControlWorkerPool(4);
+      final int[] values = new int[pool.getBufferSize()];
+      final RingBufferControlWorkerPool.Worker worker = pool.newWorker();
+      for(int i = 0; i < 3; i++) {
+         final long sequence = pool.next();
+         values[pool.index(sequence)] = i + 1;
+         pool.publish(sequence);
+      }
+      pool.publishStop();
+
+      final long[] total = new long[1];
+      while(worker.consumeBatch(values, v -> total[0] += v));
+      assertEquals(6L, total[0]);
+   }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.dempsy.serialization.java.JavaSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestJournal {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   private static Journal<String> open(final File dir, final long segmentSize) throws IOException {
+      return new Journal<>(dir, segmentSize, new JavaSerializer(), String.class, Journal.FsyncPolicy.PER_BATCH);
+   }
+
+   private static List<String> replay(final Journal<String> journal, final long from) throws IOException {
+      final List<String> ret = new ArrayList<>();
+      journal.replay(from, (s, sequence) -> ret.add(sequence + ":" + s));
+      return ret;
+   }
+
+   @Test
+   public void testRecoverAfterRestart() throws Throwable {
+      final File dir = tmp.newFolder();
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         assertEquals(0L, journal.append("zero"));
+         assertEquals(1L, journal.append("one"));
+         journal.endOfBatch();
+      }
+
+      // the sequences pick up where they left off.
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         assertEquals(2L, journal.getNextSequence());
+         assertEquals(List.of("0:zero", "1:one"), replay(journal, 0));
+         assertEquals(2L, journal.append("two"));
+         journal.endOfBatch();
+         assertEquals(List.of("1:one", "2:two"), replay(journal, 1));
+         assertEquals(List.of(), replay(journal, 3));
+      }
+   }
+
+   // the size of each record in a segment where every entry serializes to the same length.
+   private static int recordSize(final File segment) throws IOException {
+      try(RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+         return (Journal.HEADER_SIZE + raf.readInt() + 7) & ~7;
+      }
+   }
+
+   private static File onlySegment(final File dir) {
+      final File[] segments = dir.listFiles();
+      assertEquals(1, segments.length);
+      return segments[0];
+   }
+
+   @Test
+   public void testTornRecordEndsTheJournal() throws Throwable {
+      final File dir = tmp.newFolder();
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         for(int i = 0; i < 5; i++)
+            journal.append("entry-" + i);
+         journal.endOfBatch();
+      }
+
+      // zero the header of the last record as if the process died before it was written.
+      final File segment = onlySegment(dir);
+      final int recordSize = recordSize(segment);
+      try(RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+         raf.seek(4L * recordSize);
+         raf.write(new byte[Journal.HEADER_SIZE]);
+      }
+
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         assertEquals(4L, journal.getNextSequence());
+         assertEquals(List.of("0:entry-0", "1:entry-1", "2:entry-2", "3:entry-3"), replay(journal, 0));
+         assertEquals(4L, journal.append("again-4"));
+         journal.endOfBatch();
+      }
+
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         assertEquals(5L, journal.getNextSequence());
+         assertEquals(List.of("3:entry-3", "4:again-4"), replay(journal, 3));
+      }
+   }
+
+   @Test
+   public void testStaleRecordsPastTheEndAreIgnored() throws Throwable {
+      final File dir = tmp.newFolder();
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         for(int i = 0; i < 5; i++)
+            journal.append("entry-" + i);
+         journal.endOfBatch();
+      }
+
+      final File segment = onlySegment(dir);
+      final int recordSize = recordSize(segment);
+      try(RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+         // a complete copy of record 0 just past the end, as if it were left there by an earlier write.
+         final byte[] record0 = new byte[recordSize];
+         raf.readFully(record0);
+         raf.seek(5L * recordSize);
+         raf.write(record0);
+         // and a corrupted header in front of records 3 and 4 which are otherwise intact.
+         raf.seek(2L * recordSize + 4);
+         raf.writeInt(0xdeadbeef);
+      }
+
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         assertEquals(2L, journal.getNextSequence());
+         assertEquals(List.of("0:entry-0", "1:entry-1"), replay(journal, 0));
+         // the same size as the record it replaces so the old records 3 and 4 would line up right after it.
+         assertEquals(2L, journal.append("again-2"));
+         journal.endOfBatch();
+         assertEquals(List.of("0:entry-0", "1:entry-1", "2:again-2"), replay(journal, 0));
+      }
+
+      try(Journal<String> journal = open(dir, 1024 * 1024)) {
+         assertEquals(3L, journal.getNextSequence());
+         assertEquals(List.of("0:entry-0", "1:entry-1", "2:again-2"), replay(journal, 0));
+      }
+   }
+
+   @Test
+   public void testSegmentRoll() throws Throwable {
+      final File dir = tmp.newFolder();
+      try(Journal<String> journal = open(dir, 256)) {
+         for(int i = 0; i < 20; i++)
+            journal.append("entry-" + i);
+         journal.endOfBatch();
+         assertTrue(dir.listFiles().length > 1);
+
+         final List<String> all = replay(journal, 0);
+         assertEquals(20, all.size());
+         for(int i = 0; i < 20; i++)
+            assertEquals(i + ":entry-" + i, all.get(i));
+         assertEquals(List.of("17:entry-17", "18:entry-18", "19:entry-19"), replay(journal, 17));
+
+         // everything before 17 can go except the segment 17 is in.
+         final int before = dir.listFiles().length;
+         final int deleted = journal.deleteSegmentsBefore(17);
+         assertTrue(deleted > 0);
+         assertEquals(before - deleted, dir.listFiles().length);
+         assertEquals(List.of("17:entry-17", "18:entry-18", "19:entry-19"), replay(journal, 17));
+      }
+
+      try(Journal<String> journal = open(dir, 256)) {
+         assertEquals(20L, journal.getNextSequence());
+      }
+   }
+
+   @Test(expected = IOException.class)
+   public void testEntryTooLarge() throws Throwable {
+      try(Journal<String> journal = open(tmp.newFolder(), 64)) {
+         journal.append("this string serializes to more than the 64 bytes of a segment");
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testPeriodicRequiresInterval() throws Throwable {
+      new Journal<>(tmp.newFolder(), 1024, new JavaSerializer(), String.class, Journal.FsyncPolicy.PERIODIC).close();
+   }
+
+   @Test
+   public void testPeriodicForcesTheLastBatchWhenIdle() throws Throwable {
+      final String[] entries = new String[8];
+      final RingBufferControl rbc = new RingBufferControl(entries.length);
+      final AtomicInteger batches = new AtomicInteger(0);
+      final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+      try(Journal<String> journal = new Journal<>(tmp.newFolder(), 4096, new JavaSerializer(), String.class, Journal.FsyncPolicy.PERIODIC,
+            50, TimeUnit.MILLISECONDS)) {
+         final Thread journaler = new Thread(() -> {
+            try {
+               while(journal.journal(rbc, entries))
+                  batches.incrementAndGet();
+            } catch(final Throwable th) {
+               failure.set(th);
+            }
+         }, "journaler");
+         journaler.start();
+
+         final long seq = rbc.claim(3);
+         for(int i = 0; i < 3; i++)
+            entries[rbc.index(seq - 2 + i)] = "entry-" + i;
+         rbc.publish(seq);
+         for(final long end = System.currentTimeMillis() + baseTimeoutMillis; batches.get() < 1 && System.currentTimeMillis() < end;)
+            Thread.sleep(1);
+         assertTrue(batches.get() >= 1);
+         assertEquals(3L, journal.getNextSequence());
+
+         // unless the interval was already up at the end of the batch, the batch is forced once it is, without anything
+         // else being published.
+         for(final long end = System.currentTimeMillis() + baseTimeoutMillis; journal.isDirty() && System.currentTimeMillis() < end;)
+            Thread.sleep(1);
+         assertFalse(journal.isDirty());
+
+         rbc.publishStop();
+         journaler.join(baseTimeoutMillis);
+         assertFalse(journaler.isAlive());
+         if(failure.get() != null)
+            throw failure.get();
+      }
+   }
+
+   @Test
+   public void testJournalGatesSubscribers() throws Throwable {
+      final File dir = tmp.newFolder();
+      final int numEntries = 1000;
+      final String[] entries = new String[8];
+      // subscriber 0 is the journal and subscriber 1 only sees what's been journaled.
+      final RingBufferControlMulticaster rbc = new RingBufferControlMulticaster(entries.length, RingBufferConsumerControl.yield,
+            new int[][] {{}, {0}});
+      final RingBufferConsumerControl journalStage = rbc.get(0);
+      final RingBufferConsumerControl consumer = rbc.get(1);
+      final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+      try(Journal<String> journal = new Journal<>(dir, 4096, new JavaSerializer(), String.class, Journal.FsyncPolicy.PERIODIC, 10,
+            TimeUnit.MILLISECONDS)) {
+         final Thread journaler = new Thread(() -> {
+            try {
+               while(journal.journal(journalStage, entries));
+            } catch(final Throwable th) {
+               failure.set(th);
+            }
+         }, "journaler");
+
+         final List<String> consumed = new ArrayList<>();
+         final Thread downstream = new Thread(() -> {
+            try {
+               long availableTo;
+               while((availableTo = consumer.availableTo()) != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST) {
+                  for(long seq = consumer.tail.get() + 1; seq <= availableTo; seq++) {
+                     // anything seen here has already been journaled.
+                     if(journal.getNextSequence() <= seq)
+                        throw new AssertionError("Entry " + seq + " was consumed before it was journaled.");
+                     consumed.add(entries[consumer.index(seq)]);
+                  }
+                  consumer.notifyProcessed();
+               }
+            } catch(final Throwable th) {
+               failure.set(th);
+            }
+         }, "downstream");
+         journaler.start();
+         downstream.start();
+
+         for(int i = 0; i < numEntries; i++) {
+            final long seq = rbc.claim(1);
+            entries[rbc.index(seq)] = "entry-" + i;
+            rbc.publish(seq);
+         }
+         rbc.publishStop();
+
+         journaler.join(baseTimeoutMillis);
+         downstream.join(baseTimeoutMillis);
+         assertFalse(journaler.isAlive());
+         assertFalse(downstream.isAlive());
+         if(failure.get() != null)
+            throw failure.get();
+
+         assertEquals(numEntries, consumed.size());
+         assertEquals(numEntries, journal.getNextSequence());
+      }
+
+      try(Journal<String> journal = open(dir, 4096)) {
+         final List<String> replayed = replay(journal, 0);
+         assertEquals(numEntries, replayed.size());
+         for(int i = 0; i < numEntries; i++)
+            assertEquals(i + ":entry-" + i, replayed.get(i));
+      }
+   }
+}
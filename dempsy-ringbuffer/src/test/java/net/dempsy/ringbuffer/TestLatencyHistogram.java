@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final double PRECISION = 1.0 / LatencyHistogram.SUB_BUCKETS;
+
+   private static void assertClose(final long expected, final long actual) {
+      assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected * PRECISION);
+   }
+
+   @Test
+   public void testPercentiles() throws Throwable {
+      final LatencyHistogram histogram = new LatencyHistogram();
+      for(long i = 1; i <= 100000; i++)
+         histogram.record(i);
+      histogram.record(1000L * 1000L * 1000L);
+
+      final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+      assertEquals(100001L, snapshot.getTotalCount());
+      assertEquals(1L, snapshot.getMinValue());
+      assertClose(50000L, snapshot.getValueAtPercentile(50.0));
+      assertClose(99000L, snapshot.getValueAtPercentile(99.0));
+      assertClose(99900L, snapshot.getValueAtPercentile(99.9));
+      assertClose(1000L * 1000L * 1000L, snapshot.getMaxValue());
+      assertClose(1000L * 1000L * 1000L, snapshot.getValueAtPercentile(100.0));
+
+      // small values are exact.
+      final LatencyHistogram small = new LatencyHistogram();
+      small.record(3);
+      small.record(-1);
+      assertEquals(3L, small.getSnapshot().getMaxValue());
+      assertEquals(0L, small.getSnapshot().getMinValue());
+   }
+
+   @Test
+   public void testIntervalsAndReset() throws Throwable {
+      final LatencyHistogram histogram = new LatencyHistogram();
+      for(int i = 0; i < 10; i++)
+         histogram.record(100);
+      assertEquals(10L, histogram.getIntervalSnapshot().getTotalCount());
+      for(int i = 0; i < 5; i++)
+         histogram.record(100);
+      assertEquals(5L, histogram.getIntervalSnapshot().getTotalCount());
+      assertEquals(0L, histogram.getIntervalSnapshot().getTotalCount());
+      assertEquals(15L, histogram.getSnapshot().getTotalCount());
+
+      histogram.reset();
+      assertEquals(0L, histogram.getSnapshot().getTotalCount());
+      assertEquals(0L, histogram.getSnapshot().getValueAtPercentile(99.0));
+      histogram.record(100);
+      assertEquals(1L, histogram.getSnapshot().getTotalCount());
+      assertEquals(1L, histogram.getIntervalSnapshot().getTotalCount());
+   }
+
+   @Test
+   public void testRingBufferControlLatency() throws Throwable {
+      final RingBufferControl disabled = new RingBufferControl(4);
+      assertNull(disabled.getLatencyHistogram());
+
+      final RingBufferControl rbc = new RingBufferControl(4);
+      rbc.enableLatencyRecording();
+      rbc.publish(rbc.claim(3));
+      Thread.sleep(10);
+      assertEquals(2L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+
+      final LatencyHistogram.Snapshot snapshot = rbc.getLatencyHistogram().getSnapshot();
+      assertEquals(3L, snapshot.getTotalCount());
+      // the minimum is the bottom of its bucket, which can be just under what was actually recorded.
+      final long slept = TimeUnit.MILLISECONDS.toNanos(10);
+      assertTrue(snapshot.getMinValue() >= slept - slept / LatencyHistogram.SUB_BUCKETS);
+
+      // every entry is recorded once when there's a consumer on another thread.
+      final long iterations = 100000;
+      rbc.getLatencyHistogram().reset();
+      final Thread consumer = new Thread(() -> {
+         for(long availableTo = rbc.availableTo(); availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST; availableTo = rbc.availableTo())
+            rbc.notifyProcessed();
+      }, "Latency-Consumer");
+      consumer.start();
+      for(long i = 0; i < iterations; i++)
+         rbc.publish(rbc.claim(1));
+      rbc.publishStop();
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(iterations, rbc.getLatencyHistogram().getSnapshot().getTotalCount());
+   }
+
+   @Test
+   public void testMultiPublisherLatency() throws Throwable {
+      final RingBufferControlMultiPublisher rbc = new RingBufferControlMultiPublisher(8);
+      rbc.enableLatencyRecording();
+      final long first = rbc.claim(1);
+      final long hi = rbc.claim(2);
+      rbc.publish(hi - 1, hi);
+      // the later entries aren't visible until the first one is published.
+      assertEquals(RingBufferControl.UNAVAILABLE, rbc.tryAvailableTo());
+      assertEquals(0L, rbc.getLatencyHistogram().getSnapshot().getTotalCount());
+      rbc.publish(first);
+      assertEquals(hi, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+      assertEquals(3L, rbc.getLatencyHistogram().getSnapshot().getTotalCount());
+   }
+}
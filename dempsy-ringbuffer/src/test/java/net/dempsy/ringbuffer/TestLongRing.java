@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLongRing {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int BUFFER_SIZE = 1024;
+   private static final long ITERATIONS = 1000L * 1000L;
+
+   @Test
+   public void testBatchHandler() throws Throwable {
+      final LongRing ring = new LongRing(4);
+      // the batch wraps around the end of the array.
+      ring.publishValues(new long[] {10L, 11L, 12L}, 0, 3);
+      assertTrue(ring.consume(v -> {}));
+      ring.publishValues(new long[] {0L, 13L, 14L, 15L}, 1, 3);
+      assertEquals(13L, ring.get(3));
+      assertEquals(15L, ring.get(5));
+
+      final List<String> seen = new ArrayList<>();
+      assertTrue(ring.consume((value, sequence, endOfBatch) -> seen.add(value + "@" + sequence + (endOfBatch ? "." : ""))));
+      assertEquals(List.of("13@3", "14@4", "15@5."), seen);
+
+      ring.publishStop();
+      assertFalse(ring.consume(v -> {}));
+   }
+
+   @Test
+   public void testLongRing() throws Throwable {
+      final LongRing ring = new LongRing(BUFFER_SIZE);
+      // only touched by the consumer thread until it's joined.
+      final long[] totals = new long[2];
+      final Thread consumer = new Thread(() -> {
+         while(ring.consume(v -> {
+            totals[0] += v;
+            totals[1]++;
+         }));
+      }, "LongRing-Consumer");
+      consumer.start();
+
+      long expected = 0;
+      for(long i = 0; i < ITERATIONS; i++) {
+         ring.publishValue(i);
+         expected += i;
+      }
+      ring.publishStop();
+
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(ITERATIONS, totals[1]);
+      assertEquals(expected, totals[0]);
+   }
+
+   @Test
+   public void testMultiplexorLongManager() throws Throwable {
+      final int numPublishers = 3;
+      final RingBufferControlMultiplexor rbm = new RingBufferControlMultiplexor(numPublishers, BUFFER_SIZE);
+      final RingBufferControlMultiplexor.LongManager manager = new RingBufferControlMultiplexor.LongManager(rbm);
+      final Thread[] publishers = new Thread[numPublishers];
+      for(int p = 0; p < numPublishers; p++) {
+         final RingBufferControlMultiplexor.LongManager.Publisher publisher = manager.getNextPublisher();
+         publishers[p] = new Thread(() -> {
+            for(long i = 0; i < ITERATIONS; i++)
+               publisher.publish(i);
+            publisher.pub.publishStop();
+         }, "LongManager-Publisher-" + p);
+         publishers[p].start();
+      }
+
+      // each publisher's values arrive in order.
+      final long[] next = new long[numPublishers];
+      final LongBatchHandler handler = (value, sequence, endOfBatch) -> {
+         assertEquals(next[rbm.getCurrentIndex()]++, value);
+         assertEquals(value, sequence);
+      };
+      long count = 0;
+      for(long num = manager.get(handler); num != RingBufferControl.ACQUIRE_STOP_REQUEST; num = manager.get(handler))
+         count += num;
+
+      for(final Thread publisher: publishers) {
+         publisher.join(baseTimeoutMillis);
+         assertFalse(publisher.isAlive());
+      }
+      assertEquals(ITERATIONS * numPublishers, count);
+   }
+
+   @Test
+   public void testWorkerPool() throws Throwable {
+      final RingBufferControlWorkerPool pool = new RingBufferControlWorkerPool(BUFFER_SIZE, RingBufferConsumerControl.yield, 16);
+      final long[] values = new long[pool.getBufferSize()];
+      final int numWorkers = 4;
+      final long[][] totals = new long[numWorkers][2];
+      final Thread[] workers = new Thread[numWorkers];
+      for(int w = 0; w < numWorkers; w++) {
+         final RingBufferControlWorkerPool.Worker worker = pool.newWorker();
+         final long[] total = totals[w];
+         workers[w] = new Thread(() -> {
+            while(worker.consumeBatch(values, v -> {
+               total[0] += v;
+               total[1]++;
+            }));
+         }, "LongWorker-" + w);
+         workers[w].start();
+      }
+
+      long expected = 0;
+      for(long i = 0; i < ITERATIONS; i++) {
+         final long sequence = pool.next();
+         values[pool.index(sequence)] = i;
+         pool.publish(sequence);
+         expected += i;
+      }
+      pool.publishStop();
+
+      long sum = 0;
+      long count = 0;
+      for(int w = 0; w < numWorkers; w++) {
+         workers[w].join(baseTimeoutMillis);
+         assertFalse(workers[w].isAlive());
+         sum += totals[w][0];
+         count += totals[w][1];
+      }
+      assertEquals(ITERATIONS, count);
+      assertEquals(expected, sum);
+   }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.dempsy.util.io.MegaByteBuffer;
+
+public class TestMessageRing {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int NUM_MESSAGES = 20000;
+
+   private static byte[] message(final int num, final int maxLength) {
+      final byte[] ret = new byte[num % (maxLength + 1)];
+      for(int i = 0; i < ret.length; i++)
+         ret[i] = (byte)(num + i);
+      return ret;
+   }
+
+   private static void runMessages(final MessageRing ring, final boolean useClaim) throws InterruptedException {
+      final int maxLength = ring.maxMessageLength();
+      final long[] received = new long[1];
+      final List<String> failures = new ArrayList<>();
+      final Thread consumer = new Thread(() -> {
+         final byte[] buf = new byte[maxLength];
+         while(ring.consume(bb -> {
+            final byte[] expected = message((int)received[0]++, maxLength);
+            if(bb.remaining() != expected.length) {
+               failures.add("Message " + (received[0] - 1) + " had length " + bb.remaining() + " rather than " + expected.length);
+               return;
+            }
+            bb.get(buf, 0, expected.length);
+            for(int i = 0; i < expected.length; i++) {
+               if(buf[i] != expected[i]) {
+                  failures.add("Message " + (received[0] - 1) + " is corrupt at " + i);
+                  return;
+               }
+            }
+         }));
+      }, "MessageRing-Consumer");
+      consumer.start();
+
+      for(int i = 0; i < NUM_MESSAGES; i++) {
+         final byte[] msg = message(i, maxLength);
+         if(useClaim) {
+            ring.claim(msg.length).put(msg);
+            ring.publish();
+         } else if((i & 1) == 0)
+            ring.publish(msg, 0, msg.length);
+         else
+            ring.publish(ByteBuffer.wrap(msg));
+      }
+      ring.publishStop();
+
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(new ArrayList<>(), failures);
+      assertEquals(NUM_MESSAGES, received[0]);
+      assertTrue(ring.isShutdown());
+   }
+
+   @Test
+   public void testMessageRingWraps() throws Throwable {
+      // small enough that messages regularly wrap, including ones as large as the ring.
+      final MessageRing ring = MessageRing.allocateDirect(64);
+      assertEquals(60, ring.maxMessageLength());
+      runMessages(ring, false);
+      // the ring can be reused after it's been stopped.
+      runMessages(ring, true);
+   }
+
+   @Test
+   public void testMessageRingOnMegaByteBuffer() throws Throwable {
+      runMessages(new MessageRing(MegaByteBuffer.allocateDirect(1024), new BlockingWaitStrategy()), true);
+   }
+
+   @Test
+   public void testZeroCopyView() throws Throwable {
+      final MessageRing ring = new MessageRing(ByteBuffer.allocate(32));
+      ring.publish(new byte[] {1,2,3}, 0, 3);
+      ring.publish(new byte[] {4,5}, 0, 2);
+      final List<byte[]> messages = new ArrayList<>();
+      assertTrue(ring.consume(bb -> {
+         final byte[] msg = new byte[bb.remaining()];
+         bb.get(msg);
+         messages.add(msg);
+      }));
+      assertEquals(2, messages.size());
+      assertArrayEquals(new byte[] {1,2,3}, messages.get(0));
+      assertArrayEquals(new byte[] {4,5}, messages.get(1));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testMessageTooLarge() throws Throwable {
+      MessageRing.allocateDirect(64).claim(61);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNotPowerOfTwo() throws Throwable {
+      MessageRing.allocateDirect(100);
+   }
+}
@@ -26,14 +26,20 @@
  */
 package net.dempsy.ringbuffer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import net.dempsy.ringbuffer.internal.PaddedLong;
 
@@ -437,6 +443,111 @@ public class TestRingBufferControl {
       return System.currentTimeMillis() - startTime;
    }
 
+   @Test
+   public void testRingBufferControlMulticasterDiamond() throws Throwable {
+      final long iterations = BASE_ITERATIONS / 10;
+      final int bufferSize = 1024;
+      // stage 0 increments the value in place, stages 1 and 2 both read it after stage 0 and
+      // stage 3 reads what they both write after they're both done.
+      final long[] events = new long[bufferSize];
+      final long[] doubled = new long[bufferSize];
+      final long[] tripled = new long[bufferSize];
+      // a blocking wait strategy needs the upstream stages to wake the downstream ones.
+      final RingBufferControlMulticaster[] rbcs = {
+         new RingBufferControlMulticaster(bufferSize, RingBufferConsumerControl.yield, new int[][] {{}, {0}, {0}, {1, 2}}),
+         new RingBufferControlMulticaster(bufferSize, new BlockingWaitStrategy(), new int[][] {{}, {0}, {0}, {1, 2}})
+      };
+
+      // each is run twice to make sure they can be reused after they're stopped.
+      for(int run = 0; run < 4; run++) {
+         final RingBufferControlMulticaster rbc = rbcs[run & 1];
+         final long[] failures = new long[1];
+         final long[] total = new long[1];
+         final Thread[] stages = {
+            stage(rbc.get(0), seq -> events[rbc.index(seq)]++),
+            stage(rbc.get(1), seq -> doubled[rbc.index(seq)] = events[rbc.index(seq)] * 2),
+            stage(rbc.get(2), seq -> tripled[rbc.index(seq)] = events[rbc.index(seq)] * 3),
+            stage(rbc.get(3), seq -> {
+               final int index = rbc.index(seq);
+               if(doubled[index] + tripled[index] != (seq + 1) * 5)
+                  failures[0]++;
+               total[0]++;
+            })
+         };
+
+         for(long i = 0; i < iterations; i++) {
+            final long seq = rbc.claim(1);
+            events[rbc.index(seq)] = seq;
+            rbc.publish(seq);
+         }
+         rbc.publishStop();
+
+         for(final Thread stage: stages) {
+            stage.join(baseTimeoutMillis);
+            assertFalse(stage.isAlive());
+         }
+         assertEquals(0L, failures[0]);
+         assertEquals(iterations, total[0]);
+         assertTrue(rbc.isShutdown());
+      }
+   }
+
+   @Test
+   public void testRingBufferControlMulticasterAddRemoveSubscriber() throws Throwable {
+      final int bufferSize = 16;
+      final RingBufferControlMulticaster rbc = new RingBufferControlMulticaster(1, bufferSize);
+      // this one never consumes anything.
+      final RingBufferConsumerControl stalled = rbc.get(0);
+
+      for(int i = 0; i < 10; i++)
+         rbc.publish(rbc.claim(1));
+
+      // the new subscriber only sees what's published after it joins.
+      final RingBufferConsumerControl late = rbc.newSubscriber();
+      assertEquals(2, rbc.getNumberOfSubscribers());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, late.tryAvailableTo());
+      rbc.publish(rbc.claim(1));
+      assertEquals(10L, late.tryAvailableTo());
+      late.notifyProcessed();
+
+      // the stalled subscriber would block the publisher once the buffer wraps. Removing it
+      // means the publisher only waits for the late one.
+      rbc.removeSubscriber(stalled);
+      assertEquals(1, rbc.getNumberOfSubscribers());
+      assertTrue(rbc.get(0) == late);
+      for(int i = 0; i < bufferSize * 10; i++) {
+         final long seq = rbc.claim(1);
+         rbc.publish(seq);
+         assertEquals(seq, late.tryAvailableTo());
+         late.notifyProcessed();
+      }
+
+      rbc.publishStop();
+      assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, late.availableTo());
+      assertTrue(rbc.isShutdown());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testRingBufferControlMulticasterRemoveDependentSubscriber() throws Throwable {
+      // only independent subscribers can be removed.
+      final RingBufferControlMulticaster rbc = new RingBufferControlMulticaster(16, RingBufferConsumerControl.yield, new int[][] {{}, {0}});
+      rbc.removeSubscriber(rbc.get(1));
+   }
+
+   private static Thread stage(final RingBufferConsumerControl rbc, final LongConsumer handler) {
+      final Thread ret = new Thread(() -> {
+         long next = 0;
+         for(long availableTo = rbc.availableTo(); availableTo != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST; availableTo = rbc
+            .availableTo()) {
+            for(; next <= availableTo; next++)
+               handler.accept(next);
+            rbc.notifyProcessed();
+         }
+      }, "Stage");
+      ret.start();
+      return ret;
+   }
+
    @Test
    public void testRingBufferControlMultiplexor() throws Throwable {
       System.out.println("Multiplexor, " + MANY + "-to-1");
@@ -509,6 +620,441 @@ public class TestRingBufferControl {
       return ret;
    }
 
+   @Test
+   public void testRingBufferControlMultiPublisher() throws Throwable {
+      System.out.println("MultiPublisher, " + MANY + "-to-1");
+
+      final long[] events = new long[BUFFER_SIZE];
+      final Random random = new Random();
+      final long iterations = BASE_ITERATIONS;
+      final RingBufferControlMultiPublisher rbc = new RingBufferControlMultiPublisher(BUFFER_SIZE);
+
+      for(int j = 0; j < NUM_RUNS; j++) {
+         final Thread[] t = new Thread[MANY];
+         final long[] starts = new long[MANY];
+         final long[] fiters = new long[MANY];
+         long expected = 0;
+         long totalIterations = 0;
+         for(int i = 0; i < MANY; i++) {
+            starts[i] = random.nextInt(1000);
+            fiters[i] = iterations + random.nextInt(2000) - 1000;
+            totalIterations += fiters[i];
+            expected += result(starts[i], fiters[i]);
+
+            // every other publisher claims in batches
+            final int batch = (i & 0x1) == 0 ? 1 : 4;
+            final long publisherId = ((long)i) << 40;
+            final long start = starts[i];
+            final long end = start + fiters[i];
+            t[i] = new Thread(() -> {
+               for(long v = start; v < end;) {
+                  final int toClaim = (int)Math.min(batch, end - v);
+                  final long hi = rbc.claim(toClaim);
+                  final long lo = hi - toClaim + 1;
+                  for(long seq = lo; seq <= hi; seq++)
+                     events[rbc.index(seq)] = publisherId | v++;
+                  rbc.publish(lo, hi);
+               }
+            }, "Producer Thread for *-to-1 " + i);
+         }
+
+         final long startTime = System.currentTimeMillis();
+         for(final Thread cur: t)
+            cur.start();
+
+         final Thread stopper = new Thread(() -> {
+            for(final Thread cur: t) {
+               try {
+                  cur.join(baseTimeoutMillis);
+               } catch(final InterruptedException e) {
+                  throw new RuntimeException(e);
+               }
+            }
+            rbc.publishStop();
+         }, "Stopper");
+         stopper.start();
+
+         // each publisher's entries must be seen in the order they were published.
+         final long[] lastSeen = new long[MANY];
+         Arrays.fill(lastSeen, -1L);
+         long sum = 0;
+         long count = 0;
+         for(long next = 0, availableTo = rbc.availableTo(); availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST; availableTo = rbc.availableTo()) {
+            for(; next <= availableTo; next++) {
+               final long v = events[rbc.index(next)];
+               final int pub = (int)(v >>> 40);
+               final long value = v & 0xffffffffffL;
+               assertTrue(value > lastSeen[pub]);
+               lastSeen[pub] = value;
+               sum += value;
+               count++;
+            }
+            rbc.notifyProcessed();
+         }
+         final long timeMillis = System.currentTimeMillis() - startTime;
+
+         stopper.join(baseTimeoutMillis);
+         assertFalse(stopper.isAlive());
+         assertEquals(totalIterations, count);
+         assertEquals(expected, sum);
+         assertTrue(rbc.isShutdown());
+         System.out.format("%,d ops/sec%n", (totalIterations * 1000) / timeMillis);
+      }
+   }
+
+   @Test
+   public void testRingBufferControlMultiPublisherTryClaim() throws Throwable {
+      final RingBufferControlMultiPublisher rbc = new RingBufferControlMultiPublisher(4);
+      final long first = rbc.tryClaim(1);
+      final long second = rbc.tryClaim(3);
+      assertEquals(0L, first);
+      assertEquals(3L, second);
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbc.tryClaim(1));
+
+      // nothing is visible until the first entry is published even though the rest are.
+      rbc.publish(1, 3);
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbc.tryAvailableTo());
+      rbc.publish(0);
+      assertEquals(3L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+      assertEquals(4L, rbc.tryClaim(1));
+   }
+
+   @Test
+   public void testMultiPublisherClaimedButUnpublishedDoesntSpin() throws Throwable {
+      final RingBufferControlMultiPublisher rbc = new RingBufferControlMultiPublisher(4, new BlockingWaitStrategy());
+      for(final boolean timed: new boolean[] {false, true}) {
+         // the cursor moves on the claim so the consumer sees it but there's nothing published yet.
+         final long seq = rbc.claim(1);
+         final AtomicLong result = new AtomicLong(Long.MIN_VALUE);
+         final Thread consumer = new Thread(() -> result.set(timed ? rbc.availableTo(baseTimeoutMillis, TimeUnit.MILLISECONDS)
+               : rbc.availableTo()), "Unpublished-Consumer");
+         consumer.start();
+
+         // a consumer that's spinning would stay RUNNABLE.
+         final Thread.State expected = timed ? Thread.State.TIMED_WAITING : Thread.State.WAITING;
+         for(final long endTime = System.currentTimeMillis() + baseTimeoutMillis; consumer.getState() != expected
+               && System.currentTimeMillis() < endTime;)
+            Thread.sleep(1);
+         assertEquals(expected, consumer.getState());
+         assertEquals(Long.MIN_VALUE, result.get());
+
+         rbc.publish(seq);
+         consumer.join(baseTimeoutMillis);
+         assertFalse(consumer.isAlive());
+         assertEquals(seq, result.get());
+         rbc.notifyProcessed();
+      }
+   }
+
+   @Test
+   public void test1To1RingBufferControlBlocking() throws Throwable {
+      final long iterations = BASE_ITERATIONS / 10;
+      final RingBufferControl rbc = new RingBufferControl(BUFFER_SIZE, new BlockingWaitStrategy());
+      final Long[] events = new Long[BUFFER_SIZE];
+      final Addup addup = new Addup(rbc, events);
+
+      for(int i = 0; i < NUM_RUNS; i++) {
+         final Thread thread = new Thread(addup, "Blocking-Consumer");
+         thread.start();
+
+         long expected = 0;
+         for(long j = 0; j < iterations; j++) {
+            final long seq = rbc.claim(1);
+            events[rbc.index(seq)] = j;
+            expected += j;
+            rbc.publish(seq);
+         }
+         rbc.publishStop();
+
+         thread.join(baseTimeoutMillis);
+         assertFalse(thread.isAlive());
+         assertEquals(expected, addup.getValue());
+         assertEquals(iterations, addup.totalMessageCount.get());
+         assertTrue(rbc.isShutdown());
+      }
+   }
+
+   @Test
+   public void testTimedAvailableTo() throws Throwable {
+      for(final RingBufferConsumerControl.ConsumerWaitStrategy waitStrategy: new RingBufferConsumerControl.ConsumerWaitStrategy[] {
+         RingBufferConsumerControl.yield, RingBufferConsumerControl.phasedBackoff, new BlockingWaitStrategy()}) {
+         final RingBufferControl rbc = new RingBufferControl(4, waitStrategy);
+         final long start = System.nanoTime();
+         assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbc.availableTo(10, TimeUnit.MILLISECONDS));
+         assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+
+         // the publisher wakes a consumer that's waiting.
+         final Thread publisher = new Thread(() -> {
+            try {
+               Thread.sleep(10);
+            } catch(final InterruptedException ie) {}
+            rbc.publish(rbc.claim(2));
+         }, "Timed-Publisher");
+         publisher.start();
+         assertEquals(1L, rbc.availableTo(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+         rbc.notifyProcessed();
+         publisher.join(baseTimeoutMillis);
+
+         rbc.publishStop();
+         assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, rbc.availableTo(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+         assertTrue(rbc.isShutdown());
+      }
+   }
+
+   @Test
+   public void testRingBufferControlWorkerTryAvailableTo() throws Throwable {
+      final RingBufferControlWorkerPool rbc = new RingBufferControlWorkerPool(4, new BlockingWaitStrategy());
+      final RingBufferConsumerControl worker = rbc.newWorker();
+
+      // the worker holds on to the entry it's taken until it's available.
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, worker.tryAvailableTo());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, worker.availableTo(10, TimeUnit.MILLISECONDS));
+      rbc.publish(rbc.next());
+      assertEquals(0L, worker.tryAvailableTo());
+
+      // each entry is only returned once.
+      rbc.publish(rbc.next());
+      assertEquals(1L, worker.tryAvailableTo());
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, worker.tryAvailableTo());
+      rbc.publish(rbc.next());
+      assertEquals(2L, worker.availableTo(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+
+      rbc.publishStop();
+      assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, worker.availableTo());
+   }
+
+   @Test
+   public void testRingBufferControlWorkerBatch() throws Throwable {
+      final int batchSize = 16;
+      // deliberately not a multiple of the batchSize.
+      final int iterations = (int)(BASE_ITERATIONS / 10) + 3;
+      final RingBufferControlWorkerPool rbc = new RingBufferControlWorkerPool(BUFFER_SIZE, RingBufferConsumerControl.yield, batchSize);
+
+      // a worker gets the consecutive entries of its batch before another worker gets any more.
+      final RingBufferControlWorkerPool.Worker first = rbc.newWorker();
+      final RingBufferControlWorkerPool.Worker second = rbc.newWorker();
+      for(int i = 0; i < batchSize + 1; i++)
+         rbc.publish(rbc.next());
+      assertEquals(0L, first.tryAvailableTo());
+      assertEquals((long)batchSize, second.tryAvailableTo());
+      final long[] firstBatch = new long[1];
+      assertTrue(first.consumeBatch(seq -> assertEquals(++firstBatch[0], seq)));
+      assertEquals(batchSize - 1L, firstBatch[0]);
+
+      // the rest of the batch comes from consumeBatch. Anything past what's been published
+      // is given to the handler once it is.
+      final int[] seen = new int[batchSize * 2 + iterations];
+      final Thread[] workers = new Thread[MANY];
+      for(int i = 0; i < MANY; i++) {
+         final RingBufferControlWorkerPool.Worker worker = i == 0 ? first : (i == 1 ? second : rbc.newWorker());
+         workers[i] = new Thread(() -> {
+            while(worker.consumeBatch(seq -> seen[(int)seq]++));
+         }, "Batch-Worker-" + i);
+         workers[i].start();
+      }
+
+      for(int i = 0; i < iterations; i++)
+         rbc.publish(rbc.next());
+      final long stop = rbc.publishStop();
+
+      for(final Thread worker: workers) {
+         worker.join(baseTimeoutMillis);
+         assertFalse(worker.isAlive());
+      }
+
+      // everything published was processed exactly once, except the ones the first worker
+      // consumed above, and nothing past the stop was.
+      for(int i = batchSize + 1; i < seen.length; i++)
+         assertEquals("sequence " + i, i < stop ? 1 : 0, seen[i]);
+   }
+
+   @Test
+   public void testRingBufferControlWorkerDrain() throws Throwable {
+      final RingBufferControlWorkerPool rbc = new RingBufferControlWorkerPool(16, RingBufferConsumerControl.yield, 4);
+      final Long[] values = new Long[rbc.getBufferSize()];
+      final RingBufferControlWorkerPool.Worker worker = rbc.newWorker();
+      final StringBuilder seen = new StringBuilder();
+      final BatchHandler<Long> handler = (value, sequence, endOfBatch) -> seen.append(value).append(endOfBatch ? "|" : ",");
+      final LongConsumer publish = v -> {
+         final long sequence = rbc.next();
+         values[rbc.index(sequence)] = v;
+         rbc.publish(sequence);
+      };
+
+      for(long i = 0; i < 6; i++)
+         publish.accept(i);
+      // the batch taken from the pool ends the first batch and what's been published ends the second.
+      assertTrue(worker.drain(values, handler));
+      assertTrue(worker.drain(values, handler));
+      assertEquals("0,1,2,3|4,5|", seen.toString());
+
+      seen.setLength(0);
+      for(long i = 6; i < 9; i++)
+         publish.accept(i);
+      assertTrue(worker.drain(values, handler, 1));
+      assertTrue(worker.drain(values, handler));
+      assertTrue(worker.drain(values, handler));
+      assertEquals("6|7|8|", seen.toString());
+
+      rbc.publishStop();
+      assertFalse(worker.drain(values, handler));
+   }
+
+   @Test
+   public void testRingBufferControlWorkerDrainHoldsTheBatch() throws Throwable {
+      final RingBufferControlWorkerPool rbc = new RingBufferControlWorkerPool(4, RingBufferConsumerControl.yield, 4);
+      final Long[] values = new Long[rbc.getBufferSize()];
+      final RingBufferControlWorkerPool.Worker worker = rbc.newWorker();
+      final List<Long> held = new ArrayList<>();
+      final StringBuilder seen = new StringBuilder();
+      // an eager publisher that fills in anything it can claim while the handler is in the middle of a batch.
+      final BatchHandler<Long> handler = (value, sequence, endOfBatch) -> {
+         held.add(sequence);
+         seen.append(value).append(endOfBatch ? "|" : ",");
+         final long claimed = rbc.tryNext();
+         if(claimed != RingBufferConsumerControl.UNAVAILABLE) {
+            values[rbc.index(claimed)] = claimed;
+            rbc.publish(claimed);
+         }
+         if(endOfBatch) {
+            // nothing the handler is holding was overwritten.
+            for(final long s: held)
+               assertEquals(Long.valueOf(s), values[rbc.index(s)]);
+            held.clear();
+         }
+      };
+
+      final LongConsumer publish = n -> {
+         for(long i = 0; i < n; i++) {
+            final long sequence = rbc.next();
+            values[rbc.index(sequence)] = sequence;
+            rbc.publish(sequence);
+         }
+      };
+
+      // the ring is full so nothing can be claimed until the end of the batch.
+      publish.accept(4);
+      assertTrue(worker.drain(values, handler));
+      assertEquals("0,1,2,3|", seen.toString());
+
+      // the second batch taken from the pool is split up so the eager publisher can claim the slots released by
+      // the first half while the second half is still being handled.
+      seen.setLength(0);
+      publish.accept(4);
+      assertTrue(worker.drain(values, handler, 2));
+      assertTrue(worker.drain(values, handler, 2));
+      assertEquals("4,5|6,7|", seen.toString());
+
+      rbc.publishStop();
+      seen.setLength(0);
+      while(worker.drain(values, (value, sequence, endOfBatch) -> seen.append(value).append(endOfBatch ? "|" : ",")));
+      assertEquals("8,9|", seen.toString());
+   }
+
+   @Test
+   public void testRingBufferControlMultiplexorBlocking() throws Throwable {
+      runRingBufferControlMultiplexorBlocking(false);
+      runRingBufferControlMultiplexorBlocking(true);
+   }
+
+   private void runRingBufferControlMultiplexorBlocking(final boolean sparsePublishers) throws Throwable {
+      final int numPublishers = 3;
+      final long iterations = BASE_ITERATIONS / 100;
+      final RingBufferControlMultiplexor rbm = new RingBufferControlMultiplexor(numPublishers, BUFFER_SIZE, new BlockingWaitStrategy(),
+            sparsePublishers);
+      final Thread[] publishers = new Thread[numPublishers];
+      for(int i = 0; i < numPublishers; i++) {
+         final RingBufferControl pub = rbm.get(i);
+         publishers[i] = new Thread(() -> {
+            for(long j = 0; j < iterations; j++)
+               pub.publish(pub.claim(1));
+            pub.publishStop();
+         }, "Multiplexor-Publisher-" + i);
+      }
+
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbm.availableTo(10, TimeUnit.MILLISECONDS));
+      for(final Thread publisher: publishers)
+         publisher.start();
+
+      final long[] next = new long[numPublishers];
+      for(long availableTo = rbm.availableTo(); availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST; availableTo = rbm.availableTo()) {
+         next[rbm.getCurrentIndex()] = availableTo + 1;
+         rbm.notifyProcessed();
+      }
+
+      for(final Thread publisher: publishers) {
+         publisher.join(baseTimeoutMillis);
+         assertFalse(publisher.isAlive());
+      }
+      for(int i = 0; i < numPublishers; i++)
+         assertEquals(iterations, next[i]);
+   }
+
+   @Test
+   public void testRingBufferControlMultiplexorTurns() throws Throwable {
+      final RingBufferControlMultiplexor rbm = new RingBufferControlMultiplexor(3, 16);
+      rbm.setMaxBatchPerPublisher(4);
+      rbm.setWeight(2, 2);
+      for(int i = 0; i < 3; i++) {
+         final RingBufferControl pub = rbm.get(i);
+         pub.publish(pub.claim(10));
+      }
+
+      // without sparse publishers an UNAVAILABLE only means the publisher whose turn it was had nothing.
+      final StringBuilder turns = new StringBuilder();
+      for(int polls = 0; polls < 20; polls++) {
+         final long availableTo = rbm.tryAvailableTo();
+         if(availableTo != RingBufferConsumerControl.UNAVAILABLE) {
+            turns.append(rbm.getCurrentIndex()).append(':').append(availableTo).append(' ');
+            rbm.notifyProcessed();
+         }
+      }
+      // each turn takes at most 4 and publisher 2 gets 2 turns in a row.
+      assertEquals("0:3 1:3 2:3 2:7 0:7 1:7 2:9 0:9 1:9 ", turns.toString());
+
+      for(int i = 0; i < 3; i++)
+         rbm.get(i).publishStop();
+      assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, rbm.availableTo());
+   }
+
+   @Test
+   public void testRingBufferControlMultiplexorSparseTurns() throws Throwable {
+      // more than one word of ready bits.
+      final int numPublishers = 130;
+      final RingBufferControlMultiplexor rbm = new RingBufferControlMultiplexor(numPublishers, 16, RingBufferConsumerControl.yield, true);
+      rbm.setMaxBatchPerPublisher(4);
+      rbm.setWeight(129, 2);
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbm.tryAvailableTo());
+
+      // only a few publishers have anything and the rest are skipped.
+      for(final int i: new int[] {3, 70, 129}) {
+         final RingBufferControl pub = rbm.get(i);
+         pub.publish(pub.claim(10));
+      }
+
+      final StringBuilder turns = new StringBuilder();
+      for(long availableTo = rbm.tryAvailableTo(); availableTo != RingBufferConsumerControl.UNAVAILABLE; availableTo = rbm
+            .tryAvailableTo()) {
+         turns.append(rbm.getCurrentIndex()).append(':').append(availableTo).append(' ');
+         rbm.notifyProcessed();
+      }
+      // each turn takes at most 4 and publisher 129 gets 2 turns in a row.
+      assertEquals("3:3 70:3 129:3 129:7 3:7 70:7 129:9 3:9 70:9 ", turns.toString());
+
+      // the bits were cleared when their buffers were found empty but a new publish sets one again.
+      final RingBufferControl pub = rbm.get(64);
+      pub.publish(pub.claim(1));
+      assertEquals(0L, rbm.tryAvailableTo());
+      assertEquals(64, rbm.getCurrentIndex());
+      rbm.notifyProcessed();
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, rbm.tryAvailableTo());
+
+      for(int i = 0; i < numPublishers; i++)
+         rbm.get(i).publishStop();
+      assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, rbm.tryAvailableTo());
+   }
+
    public static class MyConsumer implements RingBufferConsumerIterator.Consumer<Long> {
       long value = 0;
       long numMessages = 0;
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRingBufferControlPartitioner {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int BUFFER_SIZE = 1024;
+   private static final int NUM_PARTITIONS = 4;
+   private static final int NUM_KEYS = 1000;
+   private static final int ITERATIONS = 1000 * 1000;
+
+   @Test
+   public void testPerKeyOrdering() throws Throwable {
+      final RingBufferControlPartitioner rbp = new RingBufferControlPartitioner(NUM_PARTITIONS, BUFFER_SIZE, RingBufferConsumerControl.yield,
+         16);
+      final int[][] keys = new int[NUM_PARTITIONS][BUFFER_SIZE];
+      final long[][] values = new long[NUM_PARTITIONS][BUFFER_SIZE];
+
+      final AtomicLongArray lastSeen = new AtomicLongArray(NUM_KEYS);
+      for(int i = 0; i < NUM_KEYS; i++)
+         lastSeen.set(i, -1L);
+      final AtomicLong outOfOrder = new AtomicLong(0);
+      final AtomicLong total = new AtomicLong(0);
+
+      final Thread[] consumers = new Thread[NUM_PARTITIONS];
+      for(int i = 0; i < NUM_PARTITIONS; i++) {
+         final RingBufferControl rbc = rbp.get(i);
+         final int[] partitionKeys = keys[i];
+         final long[] partitionValues = values[i];
+         consumers[i] = new Thread(() -> {
+            long next = 0;
+            long count = 0;
+            for(long availableTo = rbc.availableTo(); availableTo != RingBufferControl.ACQUIRE_STOP_REQUEST; availableTo = rbc.availableTo()) {
+               for(; next <= availableTo; next++) {
+                  final int index = rbc.index(next);
+                  final long value = partitionValues[index];
+                  if(lastSeen.getAndSet(partitionKeys[index], value) >= value)
+                     outOfOrder.incrementAndGet();
+                  count++;
+               }
+               rbc.notifyProcessed();
+            }
+            total.addAndGet(count);
+         }, "Partition-Consumer-" + i);
+         consumers[i].start();
+      }
+
+      // a quarter of everything goes to key 0 so there's something for the rebalance to do.
+      final Random random = new Random();
+      final long[] lastPublished = new long[NUM_KEYS];
+      int numRebalances = 0;
+      for(int i = 0; i < ITERATIONS; i++) {
+         final int key = (i & 3) == 0 ? 0 : random.nextInt(NUM_KEYS);
+         final int partition = rbp.partition(Integer.valueOf(key));
+         final long seq = rbp.claim(partition);
+         keys[partition][rbp.index(seq)] = key;
+         values[partition][rbp.index(seq)] = i;
+         rbp.publish(partition, seq);
+         lastPublished[key] = i;
+
+         if(i % 10000 == 9999 && rbp.rebalance())
+            numRebalances++;
+      }
+      rbp.publishStop();
+
+      for(final Thread consumer: consumers) {
+         consumer.join(baseTimeoutMillis);
+         assertFalse(consumer.isAlive());
+      }
+
+      assertEquals(0L, outOfOrder.get());
+      assertEquals(ITERATIONS, total.get());
+      for(int i = 0; i < NUM_KEYS; i++)
+         assertEquals(lastPublished[i], lastSeen.get(i));
+      assertTrue(numRebalances > 0);
+      assertTrue(rbp.isShutdown());
+   }
+
+   @Test
+   public void testPublishBatching() throws Throwable {
+      final RingBufferControlPartitioner rbp = new RingBufferControlPartitioner(1, 16, RingBufferConsumerControl.yield, 4);
+      final RingBufferControl rbc = rbp.get(0);
+
+      // nothing is visible until there's a whole batch.
+      for(int i = 0; i < 3; i++)
+         rbp.publish(0, rbp.claim(0));
+      assertEquals(RingBufferControl.UNAVAILABLE, rbc.tryAvailableTo());
+      assertEquals(0L, rbp.getOccupancy(0));
+
+      rbp.publish(0, rbp.claim(0));
+      assertEquals(4L, rbp.getOccupancy(0));
+      assertEquals(3L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+      assertEquals(0L, rbp.getOccupancy());
+
+      // or until it's flushed.
+      rbp.publish(0, rbp.claim(0));
+      assertEquals(RingBufferControl.UNAVAILABLE, rbc.tryAvailableTo());
+      rbp.flush();
+      assertEquals(4L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+
+      rbp.publishStop();
+      assertEquals(RingBufferControl.ACQUIRE_STOP_REQUEST, rbc.availableTo());
+      assertTrue(rbp.isShutdown());
+   }
+
+   @Test
+   public void testRebalanceMovesBusiestBucket() throws Throwable {
+      final RingBufferControlPartitioner rbp = new RingBufferControlPartitioner(2, BUFFER_SIZE);
+
+      // buckets 0 and 2 both start on partition 0.
+      assertEquals(0, rbp.getPartitionOfBucket(rbp.bucket(0)));
+      assertEquals(0, rbp.getPartitionOfBucket(rbp.bucket(2)));
+      for(int i = 0; i < 150; i++) {
+         final int partition = rbp.partitionForHash(i < 100 ? 0 : 2);
+         assertEquals(0, partition);
+         rbp.publish(partition, rbp.claim(partition));
+      }
+
+      // the move waits for the consumer to catch up.
+      assertEquals(149L, rbp.get(0).availableTo());
+      rbp.get(0).notifyProcessed();
+
+      assertTrue(rbp.rebalance());
+      assertEquals(1, rbp.getPartitionOfBucket(rbp.bucket(0)));
+      assertEquals(0, rbp.getPartitionOfBucket(rbp.bucket(2)));
+
+      // nothing's been published since so there's nothing to move.
+      assertFalse(rbp.rebalance());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testBatchLargerThanBuffer() throws Throwable {
+      new RingBufferControlPartitioner(NUM_PARTITIONS, 16, RingBufferConsumerControl.yield, 32);
+   }
+}
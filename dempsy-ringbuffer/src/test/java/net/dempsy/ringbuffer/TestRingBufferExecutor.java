@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestRingBufferExecutor {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final int NUM_SUBMITTERS = 4;
+   private static final long TASKS_PER_SUBMITTER = 100000L;
+
+   @Test
+   public void testManySubmittersGracefulShutdown() throws Throwable {
+      final RingBufferExecutor executor = new RingBufferExecutor(2, 64);
+      final AtomicLong sum = new AtomicLong(0);
+
+      final List<Thread> submitters = new ArrayList<>();
+      for(int i = 0; i < NUM_SUBMITTERS; i++) {
+         submitters.add(new Thread(() -> {
+            for(long j = 1; j <= TASKS_PER_SUBMITTER; j++) {
+               final long value = j;
+               executor.execute(() -> sum.addAndGet(value));
+            }
+         }, "submitter-" + i));
+      }
+      submitters.forEach(Thread::start);
+      for(final Thread t: submitters)
+         t.join(baseTimeoutMillis);
+
+      // everything submitted before the shutdown still runs.
+      executor.shutdown();
+      assertTrue(executor.isShutdown());
+      assertTrue(executor.awaitTermination(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+      assertTrue(executor.isTerminated());
+      assertEquals(NUM_SUBMITTERS * (TASKS_PER_SUBMITTER * (TASKS_PER_SUBMITTER + 1) / 2), sum.get());
+   }
+
+   @Test
+   public void testSubmitAndBlockingWaitStrategy() throws Throwable {
+      final RingBufferExecutor executor = new RingBufferExecutor(4, 16, Executors.defaultThreadFactory(), BlockingWaitStrategy::new);
+      try {
+         final List<Future<Integer>> results = new ArrayList<>();
+         for(int i = 0; i < 100; i++) {
+            final int value = i;
+            results.add(executor.submit(() -> value * 2));
+         }
+         for(int i = 0; i < 100; i++)
+            assertEquals(i * 2, results.get(i).get(baseTimeoutMillis, TimeUnit.MILLISECONDS).intValue());
+
+         // a task that throws doesn't take the worker down with it.
+         final Future<?> failed = executor.submit(() -> {
+            throw new IllegalStateException();
+         });
+         try {
+            failed.get(baseTimeoutMillis, TimeUnit.MILLISECONDS);
+            fail("The task should have failed.");
+         } catch(final ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+         }
+         for(int i = 0; i < 4; i++)
+            assertTrue(executor.submit(() -> true).get(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+      } finally {
+         executor.shutdown();
+         assertTrue(executor.awaitTermination(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+      }
+   }
+
+   @Test(expected = RejectedExecutionException.class)
+   public void testRejectAfterShutdown() throws Throwable {
+      final RingBufferExecutor executor = new RingBufferExecutor(1, 16);
+      executor.shutdown();
+      executor.execute(() -> {});
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testNeedsAThread() throws Throwable {
+      new RingBufferExecutor(0, 16);
+   }
+
+   @Test
+   public void testAnyNumberOfThreadsFromTheFactory() throws Throwable {
+      final List<Thread> created = new ArrayList<>();
+      final RingBufferExecutor executor = new RingBufferExecutor(3, 16, r -> {
+         final Thread ret = Executors.defaultThreadFactory().newThread(r);
+         created.add(ret);
+         return ret;
+      }, () -> RingBufferConsumerControl.yield);
+      try {
+         // the factory's threads are used as they are.
+         assertEquals(3, created.size());
+         for(final Thread t: created)
+            assertFalse(t.isDaemon());
+
+         // tasks are spread round-robin over all of the workers.
+         final Set<Thread> ranOn = ConcurrentHashMap.newKeySet();
+         final List<Future<?>> results = new ArrayList<>();
+         for(int i = 0; i < 30; i++)
+            results.add(executor.submit(() -> ranOn.add(Thread.currentThread())));
+         for(final Future<?> f: results)
+            f.get(baseTimeoutMillis, TimeUnit.MILLISECONDS);
+         assertEquals(new HashSet<>(created), ranOn);
+      } finally {
+         executor.shutdown();
+         assertTrue(executor.awaitTermination(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+      }
+   }
+
+   @Test
+   public void testShutdownNow() throws Throwable {
+      final RingBufferExecutor executor = new RingBufferExecutor(1, 16);
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch interrupted = new CountDownLatch(1);
+      executor.execute(() -> {
+         running.countDown();
+         try {
+            Thread.sleep(baseTimeoutMillis);
+         } catch(final InterruptedException ie) {
+            interrupted.countDown();
+         }
+      });
+      assertTrue(running.await(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+
+      // these are queued behind the sleeping task.
+      final AtomicLong ran = new AtomicLong(0);
+      final List<Runnable> queued = new ArrayList<>();
+      for(int i = 0; i < 10; i++) {
+         final Runnable task = () -> ran.incrementAndGet();
+         queued.add(task);
+         executor.execute(task);
+      }
+      // the running task is pending too.
+      assertEquals(11L, executor.getNumPending());
+
+      final List<Runnable> notRun = executor.shutdownNow();
+      assertTrue(interrupted.await(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+      assertTrue(executor.awaitTermination(baseTimeoutMillis, TimeUnit.MILLISECONDS));
+      assertEquals(0L, ran.get());
+      assertEquals(queued, notRun);
+      assertTrue(executor.isShutdown());
+   }
+}
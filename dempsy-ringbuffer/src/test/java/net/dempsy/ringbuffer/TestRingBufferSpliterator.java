@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestRingBufferSpliterator {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final long NUM_ENTRIES = 1000L * 1000L;
+
+   private static Iterator<Long> source(final long count) {
+      return LongStream.rangeClosed(1L, count).boxed().iterator();
+   }
+
+   @Test
+   public void testParallelStream() throws Throwable {
+      try(final Stream<Long> stream = RingBufferSpliterator.stream(source(NUM_ENTRIES), 1024, true);) {
+         assertTrue(stream.isParallel());
+         assertEquals(NUM_ENTRIES * (NUM_ENTRIES + 1L) / 2L, stream.mapToLong(Long::longValue).sum());
+      }
+   }
+
+   @Test
+   public void testParallelStreamKeepsOrder() throws Throwable {
+      try(final Stream<Long> stream = RingBufferSpliterator.stream(source(NUM_ENTRIES), 64, true);) {
+         final List<Long> values = stream.map(v -> v * 2L).collect(Collectors.toList());
+         assertEquals(NUM_ENTRIES, values.size());
+         for(int i = 0; i < values.size(); i++)
+            assertEquals(2L * (i + 1), values.get(i).longValue());
+      }
+   }
+
+   @Test
+   public void testExistingRing() throws Throwable {
+      final RingBufferControl control = new RingBufferControl(16);
+      final Long[] values = new Long[16];
+      final Thread publisher = new Thread(() -> {
+         for(long i = 1; i <= NUM_ENTRIES; i++) {
+            final long sequence = control.claim(1);
+            values[control.index(sequence)] = i;
+            control.publish(sequence);
+         }
+         control.publishStop();
+      }, "RingBufferSpliterator-Publisher");
+      publisher.start();
+
+      assertEquals(NUM_ENTRIES, RingBufferSpliterator.stream(control, values, false).filter(v -> v > 0L).count());
+      publisher.join();
+   }
+
+   @Test
+   public void testCloseStopsTheProducer() throws Throwable {
+      // the source never ends so the producer only stops because the stream is closed.
+      final Iterator<Long> endless = LongStream.iterate(1L, v -> v + 1L).boxed().iterator();
+      try(final Stream<Long> stream = RingBufferSpliterator.stream(endless, 16, false);) {
+         assertEquals(100L, stream.filter(v -> v >= 100L).findFirst().get().longValue());
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testSourceFailure() throws Throwable {
+      final Iterator<Long> failing = LongStream.rangeClosed(1L, 100L).boxed().map(v -> {
+         if(v == 50L)
+            throw new IllegalStateException();
+         return v;
+      }).iterator();
+      try(final Stream<Long> stream = RingBufferSpliterator.stream(failing, 16, true);) {
+         stream.count();
+      }
+   }
+
+   @Test
+   public void testCollect() throws Throwable {
+      final Map<Long, Long> counts = RingBufferConsumerIterator.collect(source(NUM_ENTRIES),
+            Collectors.groupingBy(v -> v % 3L, Collectors.counting()), 1024, 4);
+      assertEquals(3, counts.size());
+      assertEquals(NUM_ENTRIES, counts.values().stream().mapToLong(Long::longValue).sum());
+      assertEquals(NUM_ENTRIES / 3L, counts.get(0L).longValue());
+
+      final long sum = RingBufferConsumerIterator.collect(source(NUM_ENTRIES), Collectors.summingLong(Long::longValue), 1024, 4);
+      assertEquals(NUM_ENTRIES * (NUM_ENTRIES + 1L) / 2L, sum);
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testCollectFailure() throws Throwable {
+      RingBufferConsumerIterator.collect(source(NUM_ENTRIES), Collectors.reducing(0L, v -> {
+         if(v == 1000L)
+            throw new IllegalStateException();
+         return v;
+      }, Long::sum), 64, 2);
+   }
+
+   @Test
+   public void testCollectSourceFailure() throws Throwable {
+      final Iterator<Long> failing = LongStream.rangeClosed(1L, NUM_ENTRIES).boxed().map(v -> {
+         if(v == 1000L)
+            throw new IllegalStateException();
+         return v;
+      }).iterator();
+      try {
+         RingBufferConsumerIterator.collect(failing, Collectors.summingLong(Long::longValue), 64, 4);
+         fail("The source failure wasn't thrown.");
+      } catch(final IllegalStateException ise) {}
+
+      // every ring was stopped so none of the consumer threads are left waiting.
+      for(final Thread thread: Thread.getAllStackTraces().keySet()) {
+         if(thread.getName().startsWith("RingBufferConsumerIterator-Worker-")) {
+            thread.join(baseTimeoutMillis);
+            assertFalse(thread.getName(), thread.isAlive());
+         }
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testCollectNeedsAConsumer() throws Throwable {
+      RingBufferConsumerIterator.collect(source(10), Collectors.counting(), 64, 0);
+   }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRingBufferStats {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+
+   @Test
+   public void testCounters() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(4);
+      rbc.enableStats();
+
+      assertEquals(RingBufferControl.UNAVAILABLE, rbc.tryAvailableTo());
+      assertEquals(1L, rbc.getStats().getEmptyPollCount());
+
+      rbc.publish(rbc.claim(3));
+      assertEquals(3L, rbc.getStats().getOccupancy());
+      assertEquals(2L, rbc.tryAvailableTo());
+      rbc.notifyProcessed();
+      assertEquals(0L, rbc.getStats().getOccupancy());
+      rbc.publish(rbc.claim(1));
+      assertEquals(3L, rbc.availableTo());
+      rbc.notifyProcessed();
+
+      // one batch of 3 and one of 1.
+      final RingBufferStats.Snapshot snapshot = rbc.getStats();
+      assertEquals(2L, snapshot.getBatchCount());
+      final long[] histogram = new long[RingBufferStats.NUM_BATCH_SIZE_BUCKETS];
+      histogram[0] = 1;
+      histogram[1] = 1;
+      assertArrayEquals(histogram, snapshot.getBatchSizeHistogram());
+      assertEquals(0L, snapshot.getWrapStallCount());
+
+      // fill the buffer so the next claim has to wait for the consumer.
+      rbc.publish(rbc.claim(4));
+      final Thread consumer = new Thread(() -> {
+         try {
+            Thread.sleep(50);
+         } catch(final InterruptedException ie) {}
+         rbc.availableTo();
+         rbc.notifyProcessed();
+      }, "Slow-Consumer");
+      consumer.start();
+      rbc.publish(rbc.claim(1));
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+
+      assertEquals(1L, rbc.getStats().getWrapStallCount());
+      assertTrue(rbc.getStats().getWrapStallNanos() > 0L);
+      assertEquals(1L, rbc.getStats().getOccupancy());
+   }
+
+   @Test
+   public void testDisabled() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(4);
+      assertEquals(RingBufferControl.UNAVAILABLE, rbc.tryAvailableTo());
+      rbc.publish(rbc.claim(2));
+
+      // only the occupancy is available.
+      final RingBufferStats.Snapshot snapshot = rbc.getStats();
+      assertEquals(2L, snapshot.getOccupancy());
+      assertEquals(0L, snapshot.getEmptyPollCount());
+      assertEquals(0L, snapshot.getBatchCount());
+   }
+
+   @Test
+   public void testWorkerPoolAndMulticaster() throws Throwable {
+      final RingBufferControlWorkerPool pool = new RingBufferControlWorkerPool(4);
+      pool.enableStats();
+      final RingBufferConsumerControl worker = pool.newWorker();
+      pool.publish(pool.next());
+      pool.publish(pool.next());
+      assertEquals(2L, pool.getStats().getOccupancy());
+      // workers always take one at a time.
+      assertEquals(0L, worker.tryAvailableTo());
+      assertEquals(1L, worker.tryAvailableTo());
+      assertEquals(RingBufferControl.UNAVAILABLE, worker.tryAvailableTo());
+      assertEquals(2L, worker.getStats().getBatchCount());
+      assertEquals(1L, worker.getStats().getEmptyPollCount());
+
+      final RingBufferControlMulticaster multicaster = new RingBufferControlMulticaster(2, 4);
+      multicaster.enableStats();
+      multicaster.publish(multicaster.claim(2));
+      assertEquals(1L, multicaster.get(0).tryAvailableTo());
+      multicaster.get(0).notifyProcessed();
+      // the occupancy is determined by the slowest subscriber.
+      assertEquals(2L, multicaster.getStats().getOccupancy());
+      assertEquals(0L, multicaster.get(0).getStats().getOccupancy());
+      assertEquals(1L, multicaster.get(0).getStats().getBatchCount());
+      assertEquals(0L, multicaster.get(1).getStats().getBatchCount());
+   }
+
+   @Test
+   public void testJmx() throws Throwable {
+      final RingBufferControl rbc = new RingBufferControl(4);
+      rbc.enableStats();
+      final ObjectName name = RingBufferStats.register("testJmx", rbc::getStats);
+      try {
+         final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         assertEquals(0L, server.getAttribute(name, "EmptyPollCount"));
+         rbc.tryAvailableTo();
+         assertEquals(1L, server.getAttribute(name, "EmptyPollCount"));
+         rbc.publish(rbc.claim(1));
+         assertEquals(1L, server.getAttribute(name, "Occupancy"));
+      } finally {
+         RingBufferStats.unregister(name);
+      }
+      assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+   }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSequence {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+
+   @Test
+   public void testOperations() throws Throwable {
+      final Sequence sequence = new Sequence(RingBufferConsumerControl.INITIAL_CURSOR_VALUE);
+      assertEquals(-1L, sequence.get());
+      assertEquals(-1L, sequence.getOpaque());
+      assertEquals(-1L, sequence.getVolatile());
+
+      sequence.set(5L);
+      assertEquals(5L, sequence.get());
+      sequence.setOpaque(6L);
+      assertEquals(6L, sequence.get());
+      sequence.setVolatile(7L);
+      assertEquals(7L, sequence.get());
+
+      assertFalse(sequence.compareAndSet(6L, 8L));
+      assertTrue(sequence.compareAndSet(7L, 8L));
+      assertEquals(8L, sequence.compareAndExchange(7L, 9L));
+      assertEquals(8L, sequence.compareAndExchange(8L, 9L));
+      assertEquals(9L, sequence.get());
+
+      assertEquals(9L, sequence.getAndAdd(2L));
+      assertEquals(13L, sequence.addAndGet(2L));
+      assertEquals(14L, sequence.incrementAndGet());
+      assertEquals("14", sequence.toString());
+   }
+
+   @Test
+   public void testConcurrentIncrement() throws Throwable {
+      final Sequence sequence = new Sequence(0L);
+      final int numThreads = 4;
+      final long iterations = 100000;
+      final Thread[] threads = new Thread[numThreads];
+      for(int i = 0; i < numThreads; i++) {
+         threads[i] = new Thread(() -> {
+            for(long j = 0; j < iterations; j++)
+               sequence.incrementAndGet();
+         }, "Incrementer-" + i);
+         threads[i].start();
+      }
+      for(final Thread thread: threads) {
+         thread.join(baseTimeoutMillis);
+         assertFalse(thread.isAlive());
+      }
+      assertEquals(numThreads * iterations, sequence.get());
+   }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.dempsy.ringbuffer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.dempsy.util.io.MegaByteBuffer;
+
+public class TestSharedMemoryRingBufferControl {
+   private static final long baseTimeoutMillis = 20000; // 20 seconds
+   private static final long ITERATIONS = 1000L * 1000L;
+
+   @Rule
+   public TemporaryFolder tmp = new TemporaryFolder();
+
+   @Test
+   public void testSharedMemoryRingBufferControl() throws Throwable {
+      final File file = tmp.newFile("ring");
+      // each side maps the file separately just as it would from separate processes.
+      final SharedMemoryRingBufferControl pub = SharedMemoryRingBufferControl.create(file.toPath(), 1024, Long.BYTES);
+      final SharedMemoryRingBufferControl con = SharedMemoryRingBufferControl.open(file.toPath());
+      assertEquals(1024, con.getBufferSize());
+      assertEquals(Long.BYTES, con.getEntrySize());
+
+      final long[] totals = new long[2];
+      final Thread consumer = new Thread(() -> {
+         final ByteBuffer data = con.getData();
+         long next = 0;
+         for(long availableTo = con.availableTo(); availableTo != RingBufferConsumerControl.ACQUIRE_STOP_REQUEST; availableTo = con
+            .availableTo()) {
+            for(; next <= availableTo; next++) {
+               totals[0] += data.getLong(con.offset(next));
+               totals[1]++;
+            }
+            con.notifyProcessed();
+         }
+      }, "SharedMemory-Consumer");
+      consumer.start();
+
+      final ByteBuffer data = pub.getData();
+      long expected = 0;
+      for(long i = 0; i < ITERATIONS; i++) {
+         final long seq = pub.claim(1);
+         data.putLong(pub.offset(seq), i);
+         expected += i;
+         pub.publish(seq);
+      }
+      pub.publishStop();
+
+      consumer.join(baseTimeoutMillis);
+      assertFalse(consumer.isAlive());
+      assertEquals(ITERATIONS, totals[1]);
+      assertEquals(expected, totals[0]);
+      assertTrue(con.isShutdown());
+   }
+
+   @Test
+   public void testTryClaimAndAttach() throws Throwable {
+      final MegaByteBuffer region = MegaByteBuffer.allocateDirect(SharedMemoryRingBufferControl.requiredSize(4, 16));
+      final SharedMemoryRingBufferControl pub = SharedMemoryRingBufferControl.create(region, 4, 16);
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, pub.tryAvailableTo());
+      assertEquals(3L, pub.tryClaim(4));
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, pub.tryClaim(1));
+      pub.publish(1L);
+
+      // a consumer attaching now picks up from where the ring is.
+      final SharedMemoryRingBufferControl con = SharedMemoryRingBufferControl.attach(region);
+      assertEquals(1L, con.tryAvailableTo());
+      con.notifyProcessed();
+      assertEquals(RingBufferConsumerControl.UNAVAILABLE, con.tryAvailableTo());
+      assertEquals(5L, pub.tryClaim(2));
+      pub.publish(5L);
+      assertEquals(5L, con.availableTo());
+      con.notifyProcessed();
+      pub.publishStop();
+      assertEquals(RingBufferConsumerControl.ACQUIRE_STOP_REQUEST, con.availableTo());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testUninitialized() throws Throwable {
+      SharedMemoryRingBufferControl.attach(MegaByteBuffer.allocateDirect(SharedMemoryRingBufferControl.requiredSize(4, 16)));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testHeapRegion() throws Throwable {
+      SharedMemoryRingBufferControl.create(MegaByteBuffer.allocate(SharedMemoryRingBufferControl.requiredSize(4, 16)), 4, 16);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testBlockingWaitStrategy() throws Throwable {
+      SharedMemoryRingBufferControl.create(MegaByteBuffer.allocateDirect(SharedMemoryRingBufferControl.requiredSize(4, 16)), 4, 16,
+            new BlockingWaitStrategy());
+   }
+}
@@ -0,0 +1,671 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * <p>
+ * A concurrent cache with a bound on either the number of entries or their total weight, backed by a
+ * {@link StupidHashMap}. Reads are as lock-free as {@link StupidHashMap#get(Object)} is. After each write, whichever
+ * writer gets the (try-)lock on the maintenance does it. A writer that doesn't get it only evicts entries, if the cache
+ * is over its bound, so that the cache can't run away from a single thread doing the evicting.
+ * </p>
+ *
+ * <p>
+ * Eviction is a sampled LRU. The victim is the least recently accessed of a handful of entries sampled from the bins of
+ * the map starting at a random one. Entries that have expired are always picked first. Optionally
+ * ({@link #frequencyAdmission(boolean)}) a newly written entry also has to earn its place: it's compared against the
+ * victim using a count-min sketch of how often each key has been read or written, and if it's not seen more often than
+ * the victim then it's the new entry that's evicted (TinyLFU admission). That check is only made by the writer doing
+ * the maintenance so, when writers contend, some writes are admitted without it. Reads don't touch the sketch
+ * directly. They drop the key's hash into one of a set of small striped buffers which are drained into the sketch
+ * during maintenance. If a buffer is full the read isn't recorded. The frequencies are estimates anyway.
+ * </p>
+ *
+ * <p>
+ * Entries can also expire a fixed time after they were written ({@link #expireAfterWrite(long, TimeUnit)}) and/or last
+ * read ({@link #expireAfterAccess(long, TimeUnit)}). An expired entry is never returned. It's removed when it's next
+ * looked up, when it's sampled during maintenance, or by {@link #cleanUp()}.
+ * </p>
+ *
+ * <p>
+ * {@link #get(Object, Function)} loads missing values. Only one thread loads a given key at a time. Others looking up
+ * the same key wait for that load to finish and get its value. The loader is called without any locks held but it must
+ * not load the same key from the same cache. Neither keys nor values can be null and a loader that returns null loads
+ * nothing.
+ * </p>
+ *
+ * <p>
+ * The configuration methods return the cache so they can be chained. They should all be called before the cache is
+ * shared between threads.
+ * </p>
+ */
+public class BoundedCache<K, V> {
+    /**
+     * The number of entries looked at to pick each eviction victim.
+     */
+    public static final int SAMPLE_SIZE = 8;
+
+    // access times are only updated when they move by at least this much so that hot entries aren't constantly written.
+    private static final long ACCESS_TIME_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // both must be powers of 2.
+    private static final int NUM_READ_BUFFERS = 16;
+    private static final int READ_BUFFER_SIZE = 32;
+    // the read buffer counters are spaced out so each stripe's are on a different cache line.
+    private static final int PAD_SHIFT = 3;
+
+    // how many times eviction will go around when removing its victim keeps failing because of other writers.
+    private static final int MAX_EVICTION_ATTEMPTS = 100;
+
+    // the map's load factor when it's sized for the expected number of entries. Sized to a power of 2 at or above the
+    // expected number of entries this leaves between 1 and 2 bins per entry and room for twice as many entries before
+    // it grows so that writes racing ahead of eviction, or loads in progress, don't grow it.
+    private static final float SIZED_LOAD_FACTOR = 2.0f;
+    private static final int MIN_SIZED_CAPACITY = 16;
+    private static final int MAX_SIZED_CAPACITY = 1 << 30;
+
+    private final StupidHashMap<K, Node<K, V>> map;
+    private final long maximum;
+    private final ToLongBiFunction<? super K, ? super V> weigher;
+    private final AtomicLong weight = new AtomicLong(0);
+
+    private long expireAfterWriteNanos = 0;
+    private long expireAfterAccessNanos = 0;
+    private boolean admission = false;
+    private LongSupplier ticker = System::nanoTime;
+
+    private final AtomicBoolean maintaining = new AtomicBoolean(false);
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final AtomicLongArray readBuffers = new AtomicLongArray(NUM_READ_BUFFERS * READ_BUFFER_SIZE);
+    private final AtomicLongArray readBufferWrites = new AtomicLongArray(NUM_READ_BUFFERS << PAD_SHIFT);
+    private final AtomicLongArray readBufferReads = new AtomicLongArray(NUM_READ_BUFFERS << PAD_SHIFT);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+
+    /**
+     * Create a cache that holds at most maximumSize entries. The underlying map is sized for maximumSize entries so
+     * picking an eviction victim looks at between 1 and 2 times {@link #SAMPLE_SIZE} bins.
+     *
+     * @throws IllegalArgumentException if the maximumSize is negative.
+     */
+    public BoundedCache(final long maximumSize) throws IllegalArgumentException {
+        this(maximumSize, (k, v) -> 1L, Math.max(1L, maximumSize));
+    }
+
+    /**
+     * <p>
+     * Create a cache whose entries' total weight, as given by the weigher, is at most maximumWeight. The weight of an
+     * entry is taken once when it's written.
+     * </p>
+     *
+     * <p>
+     * Picking an eviction victim walks the bins of the underlying map until it has found {@link #SAMPLE_SIZE} entries
+     * so each eviction (and each sweep for expired entries) looks at about {@code bins / entries * SAMPLE_SIZE} bins.
+     * Since the number of entries isn't known here the map starts with the {@link StupidHashMap} default of 2048 bins.
+     * It grows with the number of entries but never shrinks so a cache that holds a few heavy entries, or that once
+     * held a lot of light ones, looks at a lot of bins for every eviction. If the number of entries can be estimated,
+     * use {@link #BoundedCache(long, ToLongBiFunction, long)} instead.
+     * </p>
+     *
+     * @throws IllegalArgumentException if the maximumWeight is negative.
+     */
+    public BoundedCache(final long maximumWeight, final ToLongBiFunction<? super K, ? super V> weigher)
+        throws IllegalArgumentException {
+        this(maximumWeight, weigher, 0);
+    }
+
+    /**
+     * The same as {@link #BoundedCache(long, ToLongBiFunction)} but the underlying map is sized for expectedEntries,
+     * which should be about the number of entries the cache holds once it's full. Picking an eviction victim then looks
+     * at between 1 and 2 times {@link #SAMPLE_SIZE} bins as long as that estimate holds. 0 means it's not known.
+     *
+     * @throws IllegalArgumentException if the maximumWeight or the expectedEntries is negative.
+     */
+    public BoundedCache(final long maximumWeight, final ToLongBiFunction<? super K, ? super V> weigher, final long expectedEntries)
+        throws IllegalArgumentException {
+        if(maximumWeight < 0)
+            throw new IllegalArgumentException("The maximum size or weight of a " + BoundedCache.class.getSimpleName()
+                + " can't be negative. It was " + maximumWeight);
+        if(expectedEntries < 0)
+            throw new IllegalArgumentException("The expected number of entries in a " + BoundedCache.class.getSimpleName()
+                + " can't be negative. It was " + expectedEntries);
+        this.maximum = maximumWeight;
+        this.weigher = Objects.requireNonNull(weigher);
+        this.map = expectedEntries == 0 ? new StupidHashMap<>() : new StupidHashMap<>(sizedCapacity(expectedEntries), SIZED_LOAD_FACTOR);
+    }
+
+    /**
+     * Entries expire this long after they were written. 0 means they don't.
+     */
+    public BoundedCache<K, V> expireAfterWrite(final long duration, final TimeUnit unit) {
+        expireAfterWriteNanos = checkDuration(duration, unit);
+        return this;
+    }
+
+    /**
+     * Entries expire this long after they were last read or written. 0 means they don't.
+     */
+    public BoundedCache<K, V> expireAfterAccess(final long duration, final TimeUnit unit) {
+        expireAfterAccessNanos = checkDuration(duration, unit);
+        return this;
+    }
+
+    /**
+     * Whether or not newly written entries need to have been seen more often than the entry they'd replace in order to
+     * stay in the cache. This helps when a few keys are popular but a lot of others are only used once. It defaults to
+     * false.
+     */
+    public BoundedCache<K, V> frequencyAdmission(final boolean admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    // The clock the expiry is measured with, in nanoseconds. Only meant for tests.
+    BoundedCache<K, V> ticker(final LongSupplier ticker) {
+        this.ticker = Objects.requireNonNull(ticker);
+        return this;
+    }
+
+    /**
+     * Returns the value cached for the key or null if there isn't one (or it has expired).
+     */
+    public V getIfPresent(final K key) {
+        final Node<K, V> node = map.get(key);
+        recordAccess(key);
+        if(node != null && node.loading == null) {
+            final long now = ticker.getAsLong();
+            if(!isExpired(node, now)) {
+                touch(node, now);
+                hits.increment();
+                return node.value;
+            }
+            expire(node);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Returns the value cached for the key, calling the loader to load it if there isn't one. If another thread is
+     * already loading the key, this waits for it and returns the value it loaded. If the loader throws an exception,
+     * it's thrown from here and from any other calls waiting on the same load, and nothing is cached. If it returns
+     * null then null is returned and nothing is cached.
+     */
+    public V get(final K key, final Function<? super K, ? extends V> loader) {
+        recordAccess(key);
+        while(true) {
+            final Node<K, V> node = map.get(key);
+            if(node != null) {
+                if(node.loading != null) {
+                    hits.increment();
+                    return await(node.loading);
+                }
+                final long now = ticker.getAsLong();
+                if(!isExpired(node, now)) {
+                    touch(node, now);
+                    hits.increment();
+                    return node.value;
+                }
+                expire(node);
+            }
+
+            final Node<K, V> placeholder = new Node<>(key, new CompletableFuture<>());
+            if(map.putIfAbsent(key, placeholder) == null) {
+                misses.increment();
+                return load(placeholder, loader);
+            }
+            // someone else got there first. Go around and see what they put there.
+        }
+    }
+
+    /**
+     * Caches the value for the key, replacing (and returning) whatever was there. Anyone waiting on a load of the key
+     * that's in progress will still get the loaded value but it won't replace this one.
+     */
+    public V put(final K key, final V value) {
+        final Node<K, V> node = newNode(key, Objects.requireNonNull(value), ticker.getAsLong());
+        final Node<K, V> old = map.put(key, node);
+        final V ret = (old == null || old.loading != null) ? null : old.value;
+        if(ret != null)
+            weight.addAndGet(-old.weight);
+        recordAccess(key);
+        written(node);
+        return ret;
+    }
+
+    /**
+     * Removes the key from the cache and returns the value that was cached for it, if there was one.
+     */
+    public V invalidate(final K key) {
+        final Node<K, V> old = map.remove(key);
+        if(old == null || old.loading != null)
+            return null;
+        weight.addAndGet(-old.weight);
+        return old.value;
+    }
+
+    /**
+     * Removes everything from the cache.
+     */
+    public void invalidateAll() {
+        for(final K key: new ArrayList<>(map.keySet()))
+            invalidate(key);
+    }
+
+    /**
+     * Removes every entry that has expired and brings the cache back within its bound if necessary. Unlike the
+     * maintenance done while writing, this walks the entire cache.
+     */
+    public void cleanUp() {
+        if(expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0) {
+            final long now = ticker.getAsLong();
+            map.values().stream()
+                .filter(n -> n.loading == null && isExpired(n, now))
+                .forEach(this::expire);
+        }
+        maintenance(null);
+    }
+
+    /**
+     * The number of entries in the cache, including any that have expired but haven't been removed yet and any being
+     * loaded.
+     */
+    public long size() {
+        return map.size();
+    }
+
+    /**
+     * The total weight of the entries in the cache. Without a weigher this is the number of entries not counting those
+     * being loaded. It can be briefly over the maximum while writers wait for eviction to catch up.
+     */
+    public long weight() {
+        return weight.get();
+    }
+
+    /**
+     * The maximum size or weight of the cache.
+     */
+    public long maximum() {
+        return maximum;
+    }
+
+    /**
+     * A snapshot of the statistics for this cache.
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), loads.sum(), loadFailures.sum(), evictions.sum(), evictionWeight.sum());
+    }
+
+    /**
+     * The counts of what the cache has done since it was created. Expired entries that are removed count as evictions.
+     */
+    public static class Stats {
+        public final long hitCount;
+        public final long missCount;
+        public final long loadCount;
+        public final long loadFailureCount;
+        public final long evictionCount;
+        public final long evictionWeight;
+
+        public Stats(final long hitCount, final long missCount, final long loadCount, final long loadFailureCount, final long evictionCount,
+            final long evictionWeight) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadCount = loadCount;
+            this.loadFailureCount = loadFailureCount;
+            this.evictionCount = evictionCount;
+            this.evictionWeight = evictionWeight;
+        }
+
+        /**
+         * The fraction of lookups that were hits. 1.0 if there haven't been any lookups.
+         */
+        public double hitRate() {
+            final long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double)hitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats [hitCount=" + hitCount + ", missCount=" + missCount + ", loadCount=" + loadCount + ", loadFailureCount=" + loadFailureCount
+                + ", evictionCount=" + evictionCount + ", evictionWeight=" + evictionWeight + "]";
+        }
+    }
+
+    // =====================================================================
+    // Internals
+    // =====================================================================
+
+    // Nodes are compared by identity so the map's conditional remove and replace only succeed on the exact node that
+    // was looked at. That's what keeps the weight right: only the thread whose map operation put a node in or took it
+    // out adjusts it.
+    private static class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        final long writeTime;
+        // set while this is a placeholder for a value being loaded.
+        final CompletableFuture<V> loading;
+        volatile long accessTime;
+
+        Node(final K key, final V value, final long weight, final long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = now;
+            this.accessTime = now;
+            this.loading = null;
+        }
+
+        Node(final K key, final CompletableFuture<V> loading) {
+            this.key = key;
+            this.value = null;
+            this.weight = 0;
+            this.writeTime = 0;
+            this.accessTime = 0;
+            this.loading = loading;
+        }
+    }
+
+    private Node<K, V> newNode(final K key, final V value, final long now) {
+        final long w = weigher.applyAsLong(key, value);
+        if(w < 0)
+            throw new IllegalArgumentException("The weight of an entry can't be negative. It was " + w + " for " + key);
+        return new Node<>(key, value, w, now);
+    }
+
+    private V load(final Node<K, V> placeholder, final Function<? super K, ? extends V> loader) {
+        final V value;
+        try {
+            value = loader.apply(placeholder.key);
+        } catch(final RuntimeException | Error e) {
+            loadFailures.increment();
+            map.remove(placeholder.key, placeholder);
+            placeholder.loading.completeExceptionally(e);
+            throw e;
+        }
+
+        if(value == null) {
+            loadFailures.increment();
+            map.remove(placeholder.key, placeholder);
+            placeholder.loading.complete(null);
+            return null;
+        }
+
+        loads.increment();
+        final Node<K, V> node;
+        try {
+            node = newNode(placeholder.key, value, ticker.getAsLong());
+        } catch(final RuntimeException e) {
+            map.remove(placeholder.key, placeholder);
+            placeholder.loading.completeExceptionally(e);
+            throw e;
+        }
+        // if the placeholder was replaced or invalidated while loading then the value is returned but not cached.
+        if(map.replace(placeholder.key, placeholder, node))
+            written(node);
+        placeholder.loading.complete(value);
+        return value;
+    }
+
+    private static <V> V await(final CompletableFuture<V> loading) {
+        try {
+            return loading.join();
+        } catch(final CompletionException ce) {
+            final Throwable cause = ce.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if(cause instanceof Error)
+                throw (Error)cause;
+            throw ce;
+        }
+    }
+
+    private boolean isExpired(final Node<K, V> node, final long now) {
+        return (expireAfterWriteNanos > 0 && now - node.writeTime >= expireAfterWriteNanos) ||
+            (expireAfterAccessNanos > 0 && now - node.accessTime >= expireAfterAccessNanos);
+    }
+
+    private static void touch(final Node<?, ?> node, final long now) {
+        if(now - node.accessTime >= ACCESS_TIME_GRANULARITY_NANOS)
+            node.accessTime = now;
+    }
+
+    private void expire(final Node<K, V> node) {
+        if(map.remove(node.key, node))
+            removed(node);
+    }
+
+    private void removed(final Node<K, V> node) {
+        weight.addAndGet(-node.weight);
+        evictions.increment();
+        evictionWeight.add(node.weight);
+    }
+
+    private void written(final Node<K, V> node) {
+        weight.addAndGet(node.weight);
+        maintenance(node);
+    }
+
+    // Whoever gets the lock drains the read buffers and evicts until the cache is within its bound. The candidate is
+    // the node that was just written, if there was one. Once the lock's released the weight is checked again since a
+    // writer that failed to get the lock may have pushed it back over.
+    private void maintenance(Node<K, V> candidate) {
+        while(maintaining.compareAndSet(false, true)) {
+            try {
+                drainReadBuffers();
+                if(expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0)
+                    sweepSample();
+                evict(candidate);
+                candidate = null;
+            } finally {
+                maintaining.set(false);
+            }
+            if(weight.get() <= maximum)
+                return;
+        }
+        // Someone else has the maintenance. If they were left to evict for every other writer on their own the cache
+        // (and so the map, which never shrinks) would grow well past its bound so this writer evicts what it needs to
+        // itself. The sketch is only touched with the lock held so there's no admission check here.
+        evict(null);
+    }
+
+    private void sweepSample() {
+        final long now = ticker.getAsLong();
+        map.sample(ThreadLocalRandom.current().nextInt(), SAMPLE_SIZE, (k, n) -> {
+            if(n.loading == null && isExpired(n, now))
+                expire(n);
+        });
+    }
+
+    private void evict(Node<K, V> candidate) {
+        for(int attempts = 0; weight.get() > maximum && attempts < MAX_EVICTION_ATTEMPTS; attempts++) {
+            final long now = ticker.getAsLong();
+            Node<K, V> victim = sampleVictim(candidate, now);
+            if(victim == null) {
+                // the candidate is the only thing that can go.
+                if(candidate == null)
+                    return;
+                victim = candidate;
+            } else if(admission && candidate != null && !isExpired(victim, now)
+                && sketch.frequency(hash(candidate.key)) <= sketch.frequency(hash(victim.key)))
+                victim = candidate;
+
+            if(victim == candidate)
+                candidate = null;
+            if(map.remove(victim.key, victim))
+                removed(victim);
+        }
+    }
+
+    // Picks the least recently accessed of a sample of the entries, or any expired one. Nodes being loaded and the
+    // candidate aren't considered.
+    private Node<K, V> sampleVictim(final Node<K, V> candidate, final long now) {
+        final Victim<K, V> ret = new Victim<>();
+        map.sample(ThreadLocalRandom.current().nextInt(), SAMPLE_SIZE, (k, n) -> {
+            if(n.loading != null || n == candidate || ret.expired)
+                return;
+            if(isExpired(n, now)) {
+                ret.node = n;
+                ret.expired = true;
+            } else if(ret.node == null || n.accessTime - ret.node.accessTime < 0)
+                ret.node = n;
+        });
+        return ret.node;
+    }
+
+    private static class Victim<K, V> {
+        Node<K, V> node = null;
+        boolean expired = false;
+    }
+
+    // =====================================================================
+    // Frequency recording
+    // =====================================================================
+
+    private static int hash(final Object key) {
+        final int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    // Drops the key's hash into the read buffer for this thread's stripe. If the buffer is full the access is lost.
+    private void recordAccess(final K key) {
+        if(!admission)
+            return;
+        final int stripe = (int)((Thread.currentThread().getId() * 0x9e3779b97f4a7c15L) >>> 32) & (NUM_READ_BUFFERS - 1);
+        final int counter = stripe << PAD_SHIFT;
+        if(readBufferWrites.get(counter) - readBufferReads.get(counter) >= READ_BUFFER_SIZE)
+            return;
+        final long index = readBufferWrites.getAndIncrement(counter);
+        // the high bit marks the slot as full since a hash can be 0.
+        readBuffers.lazySet((stripe * READ_BUFFER_SIZE) + (int)(index & (READ_BUFFER_SIZE - 1)), (hash(key) & 0xffffffffL) | Long.MIN_VALUE);
+    }
+
+    // Only called with the maintenance lock held. A slot that was claimed but not yet filled is skipped and that access
+    // is lost or picked up on a later drain.
+    private void drainReadBuffers() {
+        if(!admission)
+            return;
+        for(int stripe = 0; stripe < NUM_READ_BUFFERS; stripe++) {
+            final int counter = stripe << PAD_SHIFT;
+            final long writes = readBufferWrites.get(counter);
+            final long reads = readBufferReads.get(counter);
+            for(long i = Math.max(reads, writes - READ_BUFFER_SIZE); i < writes; i++) {
+                final long entry = readBuffers.getAndSet((stripe * READ_BUFFER_SIZE) + (int)(i & (READ_BUFFER_SIZE - 1)), 0L);
+                if(entry != 0L)
+                    sketch.increment((int)entry);
+            }
+            readBufferReads.set(counter, writes);
+        }
+        sketch.ensureCapacity(map.size());
+    }
+
+    // the power of 2 at or above the expectedEntries.
+    private static int sizedCapacity(final long expectedEntries) {
+        final long clamped = Math.max(MIN_SIZED_CAPACITY, Math.min(MAX_SIZED_CAPACITY, expectedEntries));
+        return (int)Long.highestOneBit(clamped - 1L) << 1;
+    }
+
+    // The number of bins in the underlying map. Only meant for tests.
+    int capacity() {
+        return map.capacity();
+    }
+
+    private static long checkDuration(final long duration, final TimeUnit unit) {
+        if(duration < 0)
+            throw new IllegalArgumentException("An expiry can't be negative. It was " + duration + " " + unit);
+        return unit.toNanos(duration);
+    }
+
+    // A count-min sketch of 4-bit counters, 16 to a long, estimating how often each hash has been seen. Each hash has
+    // one counter at each of 4 depths, all in the same quarter of their longs, and its frequency is the smallest of
+    // them. Once 10 times as many increments as there are longs have been recorded every counter is halved so that old
+    // popularity fades. The table grows with the cache. It's only touched with the maintenance lock held so it doesn't need to be thread safe.
+    static class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L,0xb492b66fbe98f273L,0x9ae16a3b2f90404fL,0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_TABLE_SIZE = 1 << 22;
+
+        private long[] table = new long[16];
+        private int sampleSize = 10 * table.length;
+        private int additions = 0;
+
+        // Makes the table big enough for about this many distinct keys. Growing it forgets everything.
+        void ensureCapacity(final long expectedKeys) {
+            final int needed = Integer.highestOneBit((int)Math.min(MAX_TABLE_SIZE, Math.max(16L, expectedKeys)) - 1) << 1;
+            if(needed <= table.length)
+                return;
+            table = new long[needed];
+            sampleSize = 10 * needed;
+            additions = 0;
+        }
+
+        int frequency(final int hash) {
+            final int start = (hash & 3) << 2;
+            int ret = 15;
+            for(int i = 0; i < SEEDS.length; i++)
+                ret = Math.min(ret, (int)((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xfL));
+            return ret;
+        }
+
+        void increment(final int hash) {
+            final int start = (hash & 3) << 2;
+            boolean added = false;
+            for(int i = 0; i < SEEDS.length; i++) {
+                final int index = indexOf(hash, i);
+                final int shift = (start + i) << 2;
+                if(((table[index] >>> shift) & 0xfL) != 0xfL) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if(added && ++additions >= sampleSize)
+                reset();
+        }
+
+        private void reset() {
+            for(int i = 0; i < table.length; i++)
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            additions >>>= 1;
+        }
+
+        private int indexOf(final int hash, final int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return (int)h & (table.length - 1);
+        }
+    }
+}
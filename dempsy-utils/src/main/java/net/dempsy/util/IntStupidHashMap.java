@@ -0,0 +1,553 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * <p>
+ * A {@link StupidHashMap} keyed by a primitive {@code int}. Nothing is boxed on a lookup and the key is compared
+ * directly rather than through {@code equals}. Each entry holds the key itself rather than a reference to a boxed key
+ * and its hash, and the spin lock is a field in the entry rather than a separate object.
+ * </p>
+ *
+ * <p>
+ * Otherwise it works the same way. {@link IntStupidHashMap#get(int)} never locks or writes anything. Writers lock
+ * the individual nodes they change with a spin lock and the table grows incrementally with the writers helping to
+ * move it. Values can't be null.
+ * </p>
+ */
+public class IntStupidHashMap<V> {
+    private static final int DEFAULT_INITAL_TABLE_SIZE = 2048;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    // the number of bins a writer takes on at a time when it helps move the table.
+    private static final int TRANSFER_STRIDE = 64;
+    private static final int SPIN_TRIES = 100;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Node> MINE = AtomicIntegerFieldUpdater.newUpdater(Node.class, "mine");
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    private final float loadFactor;
+    private volatile Node<V>[] table;
+    private volatile int threshold;
+
+    // set from the time a resize is started until it's finished.
+    private final AtomicBoolean resizing = new AtomicBoolean(false);
+    private volatile Transfer<V> transfer = null;
+
+    /**
+     * Called with each of the entries by {@link IntStupidHashMap#forEach(EntryConsumer)}.
+     */
+    @FunctionalInterface
+    public static interface EntryConsumer<V> {
+        public void accept(int key, V value);
+    }
+
+    /**
+     * @param initialCapacity is the initial number of bins. It must be a power of 2.
+     * @param loadFactor is the average number of entries per bin that causes the table to double.
+     * @throws IllegalArgumentException if the initialCapacity isn't a power of 2 or the loadFactor isn't positive.
+     */
+    public IntStupidHashMap(final int initialCapacity, final float loadFactor) {
+        if(Integer.bitCount(initialCapacity) != 1)
+            throw new IllegalArgumentException("The initial capacity must be a power of 2.");
+        if(!(loadFactor > 0.0f))
+            throw new IllegalArgumentException("The load factor must be greater than zero.");
+
+        this.loadFactor = loadFactor;
+        this.table = newTable(initialCapacity);
+        this.threshold = threshold(initialCapacity);
+    }
+
+    public IntStupidHashMap(final int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntStupidHashMap() {
+        this(DEFAULT_INITAL_TABLE_SIZE);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public boolean containsKey(final int k) {
+        return get(k) != null;
+    }
+
+    public V get(final int k) {
+        final int h = hash(k);
+        FinalWrapper<Node<V>> tmpnode = bin(table, h).next;
+
+        // tmpnode now has the current node value
+        while(tmpnode != null) {
+            final Node<V> tmpnodevalue = tmpnode.value;
+            if(tmpnodevalue instanceof Entry) {
+                final Entry<V> e = (Entry<V>)tmpnodevalue;
+                if(e.key == k) // we found an existing entry
+                    return e.value;
+            } else if(tmpnodevalue instanceof Forward) { // the bin was moved. Look in the new table.
+                tmpnode = bin(((Forward<V>)tmpnodevalue).nextTable, h).next;
+                continue;
+            }
+            tmpnode = tmpnodevalue.next;
+        }
+        return null;
+    }
+
+    /**
+     * @return the previous value or null if there wasn't one.
+     */
+    public V put(final int k, final V v) {
+        Objects.requireNonNull(v);
+        return update(k, old -> v, kk -> v, false);
+    }
+
+    /**
+     * @return the existing value or null if there wasn't one and {@code v} was added.
+     */
+    public V putIfAbsent(final int k, final V v) {
+        Objects.requireNonNull(v);
+        return update(k, null, kk -> v, false);
+    }
+
+    /**
+     * If there's no entry for the key then the mappingFunction is called, with the bin locked, to create one. If it
+     * returns null nothing is added.
+     *
+     * @return the existing value or the one that was just added.
+     */
+    public V computeIfAbsent(final int k, final IntFunction<? extends V> mappingFunction) {
+        return update(k, null, mappingFunction, true);
+    }
+
+    /**
+     * @return the value that was removed or null if there wasn't one.
+     */
+    public V remove(final int k) {
+        return update(k, old -> null, null, false);
+    }
+
+    /**
+     * Empties the map a bin at a time. Entries added to bins that have already been cleared while this is going on are
+     * kept.
+     */
+    public void clear() {
+        final Node<V>[] tab = table; // snapshot of the table.
+        final List<Node<V>> locked = new ArrayList<>();
+        for(int i = 0; i < tab.length; i++)
+            clearBin(tab, i, locked);
+    }
+
+    /**
+     * Calls the action with each entry. This is weakly consistent the same way the {@link StupidHashMap}'s iterators
+     * are. Every entry that's in the map the whole time is passed to the action exactly once.
+     */
+    public void forEach(final EntryConsumer<? super V> action) {
+        final Node<V>[] tab = table; // snapshot of the table.
+        final Walker<V> walker = new Walker<>(action);
+        for(int i = 0; i < tab.length; i++) {
+            walker.numReturned = 0;
+            walker.revisiting = false;
+            walker.walkBin(tab, i);
+        }
+    }
+
+    /**
+     * The current number of bins. Only meant for monitoring and tests.
+     */
+    int capacity() {
+        return table.length;
+    }
+
+    // All of the writes come through here. This is the same as the StupidHashMap's update. If there's an entry for the
+    // key then it's locked, along with the node before it, and its value is replaced with whatever the remapping
+    // function returns, or it's removed if that's null. If the remapping function itself is null the existing value is
+    // returned without locking anything. If there's no entry the value from the absent function, if there is one and
+    // it doesn't return null, is appended to the bin with the last node locked.
+    //
+    // Returns the value that was there before or, if returnNew, the value that's there after.
+    private V update(final int k, final Function<? super V, ? extends V> remapping, final IntFunction<? extends V> absent,
+        final boolean returnNew) {
+        final int h = hash(k);
+        Node<V> b = bin(table, h);
+        retry: while(true) {
+            // satisfy the memory model/final semantics
+            FinalWrapper<Node<V>> tmpnode = b.next;
+
+            // tmpnode now has the current node value
+            FinalWrapper<Node<V>> prev = null;
+            while(tmpnode != null) {
+                final Node<V> tmpnodevalue = tmpnode.value;
+                if(tmpnodevalue instanceof Entry) {
+                    final Entry<V> e = (Entry<V>)tmpnodevalue;
+                    if(e.key == k) { // we found an existing entry
+                        if(remapping == null)
+                            return e.value;
+
+                        // lock the node and the one before it (or the bin).
+                        final Node<V> prevNode = (prev == null) ? b : prev.value;
+                        waitFor(e);
+                        waitFor(prevNode);
+                        boolean removed = false;
+                        final V old;
+                        final V ret;
+                        try {
+                            // double check.
+                            if(prevNode.next != tmpnode) // are we still in the list? if not, then start over
+                                continue retry;
+
+                            old = e.value;
+                            ret = remapping.apply(old);
+                            if(ret == null) {
+                                prevNode.next = e.next;
+                                e.next = new FinalWrapper<Node<V>>(b); // redirect to the bin itself
+                                removed = true;
+                            } else
+                                e.value = ret;
+                        } finally {
+                            MINE.lazySet(prevNode, 1); // unlock
+                            MINE.lazySet(e, 1); // unlock
+                        }
+                        if(removed)
+                            size.getAndDecrement();
+                        return returnNew ? ret : old;
+                    }
+                } else if(tmpnodevalue instanceof Forward) {
+                    // the bin has been moved to a new table so start over there.
+                    b = bin(helpTransfer((Forward<V>)tmpnodevalue), h);
+                    continue retry;
+                }
+
+                // move forward. If tmpnodevalue is a bin then we were on a removed entry which points back to the
+                // start of its bin.
+                prev = tmpnode;
+                tmpnode = tmpnodevalue.next;
+            }
+
+            if(absent == null)
+                return null;
+
+            // if we got here, then this is a new value and the last node's next (or the bin's, if it's empty) is null
+            final Node<V> last = (prev == null) ? b : prev.value;
+            waitFor(last);
+            final V ret;
+            try {
+                // double check and make sure it's still null
+                if(last.next != null)
+                    continue retry; // start over and try again
+
+                ret = absent.apply(k);
+                if(ret == null)
+                    return null;
+                last.next = new FinalWrapper<Node<V>>(new Entry<V>(k, ret));
+            } finally {
+                MINE.lazySet(last, 1);
+            }
+            addCount();
+            return returnNew ? ret : null;
+        }
+    }
+
+    private void clearBin(final Node<V>[] tab, final int i, final List<Node<V>> locked) {
+        final Node<V> b = tab[i];
+        lockBin(b, locked);
+        final FinalWrapper<Node<V>> first = b.next;
+        if(first != null && first.value instanceof Forward) {
+            // the bin's been moved so clear the two it was split into instead.
+            MINE.lazySet(b, 1);
+            final Node<V>[] nextTable = ((Forward<V>)first.value).nextTable;
+            clearBin(nextTable, i, locked);
+            clearBin(nextTable, i + tab.length, locked);
+            return;
+        }
+
+        // every node is left pointing at the bin just like remove leaves it.
+        b.next = null;
+        final FinalWrapper<Node<V>> toBin = new FinalWrapper<Node<V>>(b);
+        for(final Node<V> node: locked) {
+            node.next = toBin;
+            MINE.lazySet(node, 1);
+        }
+        final int removed = locked.size();
+        locked.clear();
+        MINE.lazySet(b, 1);
+        if(removed > 0)
+            size.addAndGet(-removed);
+    }
+
+    private static <V> Node<V> bin(final Node<V>[] tab, final int h) {
+        return tab[h & (tab.length - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newTable(final int capacity) {
+        final Node<V>[] ret = new Node[capacity];
+        for(int i = 0; i < capacity; i++)
+            ret[i] = new Node<V>();
+        return ret;
+    }
+
+    private int threshold(final int capacity) {
+        return capacity >= MAXIMUM_CAPACITY ? Integer.MAX_VALUE : (int)Math.min(Integer.MAX_VALUE, (long)(capacity * (double)loadFactor));
+    }
+
+    private void addCount() {
+        if(size.incrementAndGet() > threshold)
+            resize();
+    }
+
+    private void resize() {
+        Transfer<V> t = transfer;
+        if(t == null) {
+            final Node<V>[] tab = table;
+            if(tab.length >= MAXIMUM_CAPACITY || !resizing.compareAndSet(false, true))
+                return; // someone else is starting it.
+
+            // a resize may have just finished.
+            if(table != tab || size.get() <= threshold) {
+                resizing.set(false);
+                return;
+            }
+            transfer = t = new Transfer<>(tab, newTable(tab.length << 1));
+        }
+        transfer(t);
+    }
+
+    private Node<V>[] helpTransfer(final Forward<V> forward) {
+        final Transfer<V> t = transfer;
+        if(t != null && t.newTable == forward.nextTable)
+            transfer(t);
+        return forward.nextTable;
+    }
+
+    // Move strides of bins until there are none left to take on.
+    private void transfer(final Transfer<V> t) {
+        final List<Node<V>> locked = new ArrayList<>();
+        while(true) {
+            final int hi = t.nextBin.get();
+            if(hi <= 0)
+                return;
+            final int lo = Math.max(0, hi - TRANSFER_STRIDE);
+            if(!t.nextBin.compareAndSet(hi, lo))
+                continue;
+
+            for(int i = hi - 1; i >= lo; i--)
+                moveBin(t, i, locked);
+
+            if(t.binsLeft.addAndGet(lo - hi) == 0) {
+                // that was the last of them.
+                threshold = threshold(t.newTable.length);
+                table = t.newTable;
+                transfer = null;
+                resizing.set(false);
+                if(size.get() > threshold)
+                    resize();
+                return;
+            }
+        }
+    }
+
+    private void moveBin(final Transfer<V> t, final int i, final List<Node<V>> locked) {
+        final Node<V> b = t.oldTable[i];
+        final int n = t.oldTable.length;
+
+        lockBin(b, locked);
+
+        // the new bins are only reachable through this bin once it forwards so no one else can see them yet.
+        Node<V> loTail = t.newTable[i];
+        Node<V> hiTail = t.newTable[i + n];
+        for(final Node<V> node: locked) {
+            final Entry<V> e = (Entry<V>)node;
+            final Entry<V> copy = new Entry<V>(e.key, e.value);
+            if((hash(e.key) & n) == 0) {
+                loTail.next = new FinalWrapper<Node<V>>(copy);
+                loTail = copy;
+            } else {
+                hiTail.next = new FinalWrapper<Node<V>>(copy);
+                hiTail = copy;
+            }
+        }
+
+        // The forwarding node is created after the new bins are filled in so its final field publishes them. Every
+        // old node is forwarded too so a reader part way down the chain, or a writer waiting on one of the locks, ends
+        // up in the new table.
+        final FinalWrapper<Node<V>> forward = new FinalWrapper<Node<V>>(new Forward<V>(t.newTable));
+        b.next = forward;
+        for(final Node<V> node: locked) {
+            node.next = forward;
+            MINE.lazySet(node, 1);
+        }
+        locked.clear();
+        MINE.lazySet(b, 1);
+    }
+
+    // Lock the bin and every node in it the same way the StupidHashMap does. A forwarding node at the head of the bin
+    // isn't locked.
+    private static <V> void lockBin(final Node<V> b, final List<Node<V>> locked) {
+        while(true) {
+            waitFor(b);
+            boolean gotAll = true;
+            FinalWrapper<Node<V>> tmpnode = b.next;
+            while(tmpnode != null) {
+                final Node<V> tmpnodevalue = tmpnode.value;
+                if(tmpnodevalue instanceof Forward)
+                    break;
+                if(!MINE.compareAndSet(tmpnodevalue, 1, 0)) {
+                    gotAll = false;
+                    break;
+                }
+                locked.add(tmpnodevalue);
+                tmpnode = tmpnodevalue.next;
+            }
+            if(gotAll)
+                return;
+
+            locked.forEach(node -> MINE.lazySet(node, 1));
+            locked.clear();
+            MINE.lazySet(b, 1);
+            LockSupport.parkNanos(1L);
+        }
+    }
+
+    private static final int hash(final int key) {
+        return key ^ (key >>> 16);
+    }
+
+    private static final void waitFor(final Node<?> node) {
+        int counter = SPIN_TRIES;
+        do {
+            if(MINE.compareAndSet(node, 1, 0))
+                return;
+            if(counter > 0)
+                counter--;
+            else
+                LockSupport.parkNanos(1L);
+        } while(true);
+    }
+
+    private static class FinalWrapper<V> {
+        public final V value;
+
+        public FinalWrapper(final V value) {
+            this.value = value;
+        }
+    }
+
+    // A bin is a plain Node.
+    private static class Node<V> {
+        FinalWrapper<Node<V>> next = null;
+        // 1 when it's unlocked.
+        volatile int mine = 1;
+    }
+
+    private final static class Entry<V> extends Node<V> {
+        final int key;
+        // volatile since it's changed in place and read without a lock.
+        volatile V value;
+
+        Entry(final int k, final V v) {
+            this.key = k;
+            this.value = v;
+        }
+    }
+
+    // What's left in a bin that's been moved to a new table.
+    private final static class Forward<V> extends Node<V> {
+        final Node<V>[] nextTable;
+
+        Forward(final Node<V>[] nextTable) {
+            this.nextTable = nextTable;
+        }
+    }
+
+    private final static class Transfer<V> {
+        final Node<V>[] oldTable;
+        final Node<V>[] newTable;
+        // bins are taken on from the top down. This is one past the highest bin that hasn't been taken on.
+        final AtomicInteger nextBin;
+        final AtomicInteger binsLeft;
+
+        Transfer(final Node<V>[] oldTable, final Node<V>[] newTable) {
+            this.oldTable = oldTable;
+            this.newTable = newTable;
+            this.nextBin = new AtomicInteger(oldTable.length);
+            this.binsLeft = new AtomicInteger(oldTable.length);
+        }
+    }
+
+    // Walks a bin, and the bins in newer tables it was moved to, skipping keys already seen in the bin if it has to go
+    // back over any of it.
+    private static final class Walker<V> {
+        private final EntryConsumer<? super V> action;
+        private int[] returned = new int[8];
+        int numReturned = 0;
+        boolean revisiting = false;
+
+        Walker(final EntryConsumer<? super V> action) {
+            this.action = action;
+        }
+
+        void walkBin(final Node<V>[] tab, final int i) {
+            FinalWrapper<Node<V>> tmpnode = tab[i].next;
+            while(tmpnode != null) {
+                final Node<V> node = tmpnode.value;
+                if(node instanceof Entry) {
+                    final Entry<V> e = (Entry<V>)node;
+                    if(!(revisiting && seen(e.key))) {
+                        if(numReturned == returned.length)
+                            returned = Arrays.copyOf(returned, numReturned << 1);
+                        returned[numReturned++] = e.key;
+                        action.accept(e.key, e.value);
+                    }
+                } else if(node instanceof Forward) {
+                    revisiting = true;
+                    final Node<V>[] nextTable = ((Forward<V>)node).nextTable;
+                    walkBin(nextTable, i);
+                    walkBin(nextTable, i + tab.length);
+                    return;
+                } else // a removed entry pointing back to the start of its bin.
+                    revisiting = true;
+                tmpnode = node.next;
+            }
+        }
+
+        private boolean seen(final int key) {
+            for(int i = 0; i < numReturned; i++) {
+                if(returned[i] == key)
+                    return true;
+            }
+            return false;
+        }
+    }
+}
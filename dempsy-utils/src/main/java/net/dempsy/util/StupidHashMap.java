@@ -16,33 +16,81 @@
 
 package net.dempsy.util;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * <p>
+ * A concurrent map where {@link StupidHashMap#get(Object)} never locks or writes anything. Writers lock the individual
+ * nodes they change with a spin lock.
+ * </p>
+ *
+ * <p>
+ * Neither keys nor values can be null. The functions passed to {@link StupidHashMap#compute(Object, BiFunction)},
+ * {@link StupidHashMap#merge(Object, Object, BiFunction)} and the like are called with the entry locked so they're
+ * atomic with respect to other writers of that key. They should be quick and must not write to this map.
+ * </p>
+ *
+ * <p>
+ * The table doubles once the size passes the load factor times the number of bins. The resize is incremental. The
+ * bins are moved to the new table a stride at a time by whichever writers come along while it's in progress, and each
+ * moved bin is left with a forwarding node that sends readers and writers on to the new table. A reader never waits
+ * for, or helps with, a resize.
+ * </p>
+ */
 public class StupidHashMap<K, V> implements Map<K, V> {
     private static final int DEFAULT_INITAL_TABLE_SIZE = 2048;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    // the number of bins a writer takes on at a time when it helps move the table.
+    private static final int TRANSFER_STRIDE = 64;
     private static final int SPIN_TRIES = 100;
+    // the step between the bins visited by sample. It's odd so every bin is eventually visited.
+    private static final int SAMPLE_STRIDE = 0x9e3779b9;
     private final AtomicInteger size = new AtomicInteger(0);
 
-    private final int mask;
-    private final Node<K, V>[] table;
+    private final float loadFactor;
+    private volatile Node<K, V>[] table;
+    private volatile int threshold;
 
-    @SuppressWarnings("unchecked")
-    public StupidHashMap(final int initialCapacity) {
+    // set from the time a resize is started until it's finished.
+    private final AtomicBoolean resizing = new AtomicBoolean(false);
+    private volatile Transfer<K, V> transfer = null;
+
+    /**
+     * @param initialCapacity is the initial number of bins. It must be a power of 2.
+     * @param loadFactor is the average number of entries per bin that causes the table to double.
+     * @throws IllegalArgumentException if the initialCapacity isn't a power of 2 or the loadFactor isn't positive.
+     */
+    public StupidHashMap(final int initialCapacity, final float loadFactor) {
         if(Integer.bitCount(initialCapacity) != 1)
             throw new IllegalArgumentException("The initial capacity must be a power of 2.");
+        if(!(loadFactor > 0.0f))
+            throw new IllegalArgumentException("The load factor must be greater than zero.");
 
-        table = new Node[initialCapacity];
-        for(int i = 0; i < initialCapacity; i++)
-            table[i] = new Node<K, V>();
-        mask = initialCapacity - 1;
+        this.loadFactor = loadFactor;
+        this.table = newTable(initialCapacity);
+        this.threshold = threshold(initialCapacity);
+    }
+
+    public StupidHashMap(final int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
     }
 
     public StupidHashMap() {
@@ -56,28 +104,109 @@ public class StupidHashMap<K, V> implements Map<K, V> {
 
     @Override
     public V putIfAbsent(final K k, final V v) {
+        Objects.requireNonNull(v);
         return computeIfAbsent(k, () -> v);
     }
 
+    /**
+     * Like {@link StupidHashMap#putIfAbsent(Object, Object)} except the value is only created if there's no entry for
+     * the key. If the supplier returns null nothing is added.
+     *
+     * @return the existing value or null if there wasn't one.
+     */
     public V computeIfAbsent(final K k, final Supplier<V> v) {
+        return update(k, null, v, false);
+    }
+
+    @Override
+    public V computeIfAbsent(final K k, final Function<? super K, ? extends V> mappingFunction) {
+        return update(k, null, () -> mappingFunction.apply(k), true);
+    }
+
+    @Override
+    public V put(final K k, final V v) {
+        Objects.requireNonNull(v);
+        return update(k, (key, old) -> v, () -> v, false);
+    }
+
+    @Override
+    public V replace(final K k, final V v) {
+        Objects.requireNonNull(v);
+        return update(k, (key, old) -> v, null, false);
+    }
+
+    @Override
+    public boolean replace(final K k, final V oldValue, final V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        final MutableRef<Boolean> replaced = new MutableRef<>(Boolean.FALSE);
+        update(k, (key, cur) -> {
+            if(!cur.equals(oldValue))
+                return cur;
+            replaced.ref = Boolean.TRUE;
+            return newValue;
+        }, null, false);
+        return replaced.ref.booleanValue();
+    }
+
+    @Override
+    public boolean remove(final Object k, final Object value) {
+        if(value == null)
+            return false;
+        final MutableRef<Boolean> removed = new MutableRef<>(Boolean.FALSE);
+        @SuppressWarnings("unchecked")
+        final K key = (K)k;
+        update(key, (kk, cur) -> {
+            if(!cur.equals(value))
+                return cur;
+            removed.ref = Boolean.TRUE;
+            return null;
+        }, null, false);
+        return removed.ref.booleanValue();
+    }
+
+    /**
+     * The remapping function is called with the entry locked so it must not change this map.
+     */
+    @Override
+    public V compute(final K k, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return update(k, remappingFunction, () -> remappingFunction.apply(k, null), true);
+    }
+
+    /**
+     * The remapping function is called with the entry locked so it must not change this map.
+     */
+    @Override
+    public V computeIfPresent(final K k, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return update(k, remappingFunction, null, true);
+    }
+
+    /**
+     * The remapping function is called with the entry locked so it must not change this map.
+     */
+    @Override
+    public V merge(final K k, final V v, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(v);
+        return update(k, (key, old) -> remappingFunction.apply(old, v), () -> v, true);
+    }
+
+    // All of the writes, other than the plain remove, come through here.
+    //
+    // If there's an entry for the key then it's locked, along with the node before it, and its value is replaced with
+    // whatever the remapping function returns. If that's null the entry is removed just the way remove does it. If the
+    // remapping function itself is null the existing value is returned without locking anything.
+    //
+    // If there's no entry then the last node in the bin is locked and the value from the absent supplier is appended. If
+    // the absent supplier is null, or returns null, nothing is added.
+    //
+    // Returns the value that was there before or, if returnNew, the value that's there after.
+    private V update(final K k, final BiFunction<? super K, ? super V, ? extends V> remapping, final Supplier<? extends V> absent,
+        final boolean returnNew) {
         final int h = hash(k);
-        final Node<K, V> b = table[h & mask];
-        while(true) {
+        Node<K, V> b = bin(table, h);
+        retry: while(true) {
+            // satisfy the memory model/final semantics
             FinalWrapper<Node<K, V>> tmpnode = b.next;
-            if(tmpnode == null) { // this bin has no entries yet
-                waitFor(b); // grab the lock
-                if(b.next == null) { // double check - still has no entries.
-                    b.next = new FinalWrapper<Node<K, V>>(new Node<K, V>(h, k, v.get()));
-                    tmpnode = b.next;
-                    b.mine.lazySet(1);
-                    size.getAndIncrement();
-                    return null;
-                }
-
-                // in the meantime, it was set. So borrow the results and move on.
-                tmpnode = b.next;
-                b.mine.lazySet(1); // release the lock
-            }
 
             // tmpnode now has the current node value
             FinalWrapper<Node<K, V>> prev = null;
@@ -88,10 +217,41 @@ public class StupidHashMap<K, V> implements Map<K, V> {
                                                // collision. This is how remove collisions are managed. The
                                                // removed node is pointed to the bin.
                     if(tmpnodevalue.hash == h && tmpnodevalue.key.equals(k)) { // we found an existing entry
-                        final Node<K, V> cur = tmpnodevalue;
-                        final V ret = cur.value;
-                        return ret;
+                        if(remapping == null)
+                            return tmpnodevalue.value;
+
+                        // lock the node and the one before it (or the bin) in the same order remove does.
+                        final Node<K, V> prevNode = (prev == null) ? b : prev.value;
+                        waitFor(tmpnodevalue);
+                        waitFor(prevNode);
+                        boolean removed = false;
+                        final V old;
+                        final V ret;
+                        try {
+                            // double check.
+                            if(prevNode.next != tmpnode) // are we still in the list? if not, then start over
+                                continue retry;
+
+                            old = tmpnodevalue.value;
+                            ret = remapping.apply(k, old);
+                            if(ret == null) {
+                                prevNode.next = tmpnodevalue.next;
+                                tmpnodevalue.next = new FinalWrapper<Node<K, V>>(b); // redirect to the bin itself
+                                removed = true;
+                            } else
+                                tmpnodevalue.value = ret;
+                        } finally {
+                            prevNode.mine.lazySet(1); // unlock
+                            tmpnodevalue.mine.lazySet(1); // unlock
+                        }
+                        if(removed)
+                            size.getAndDecrement();
+                        return returnNew ? ret : old;
                     }
+                } else if(tmpnodevalue instanceof Forward) {
+                    // the bin has been moved to a new table so start over there.
+                    b = bin(helpTransfer((Forward<K, V>)tmpnodevalue), h);
+                    continue retry;
                 }
 
                 // move forward
@@ -99,83 +259,34 @@ public class StupidHashMap<K, V> implements Map<K, V> {
                 tmpnode = tmpnodevalue.next;
             }
 
-            // if we got here, then this is a new value and prev.next = null
-            // prev can't be null
-            waitFor(prev.value);
-            // double check and make sure it's still null
-            if(prev.value.next != null) {
-                prev.value.mine.lazySet(1);
-                continue; // start over and try again
+            if(absent == null)
+                return null;
+
+            // if we got here, then this is a new value and the last node's next (or the bin's, if it's empty) is null
+            final Node<K, V> last = (prev == null) ? b : prev.value;
+            waitFor(last);
+            final V ret;
+            try {
+                // double check and make sure it's still null
+                if(last.next != null)
+                    continue retry; // start over and try again
+
+                ret = absent.get();
+                if(ret == null)
+                    return null;
+                last.next = new FinalWrapper<Node<K, V>>(new Node<K, V>(h, k, ret));
+            } finally {
+                last.mine.lazySet(1);
             }
-            prev.value.next = new FinalWrapper<Node<K, V>>(new Node<K, V>(h, k, v.get()));
-            prev.value.mine.lazySet(1);
-            size.getAndIncrement();
-            return null;
+            addCount();
+            return returnNew ? ret : null;
         }
     }
 
-    @Override
-    public V put(final K k, final V v) {
-        // TODO: Maybe
-
-        // final int h = hash(k);
-        // final Node<K, V> b = table[h & mask];
-        // while (true) {
-        // // satisfy the memory model/final semantics
-        // FinalWrapper<Node<K, V>> tmpnode = b.next;
-        // if (tmpnode == null) { // this bin has no entries yet.
-        // waitFor(b); // grab the lock
-        // if (b.next == null) { // double check we're still okay
-        // b.next = new FinalWrapper<Node<K, V>>(new Node<K, V>(h, k, v));
-        // tmpnode = b.next;
-        // b.mine.lazySet(true);
-        // size.getAndIncrement();
-        // return null;
-        // }
-        //
-        // tmpnode = b.next;
-        // b.mine.lazySet(true); // release the lock - initiating the "happens-before" semantics
-        // }
-        //
-        // // tmpnode now has the current node value
-        // FinalWrapper<Node<K, V>> prev = null;
-        // while (tmpnode != null) {
-        // if (tmpnode.value.key != null) { // it's possible for this to be null if tmpnode is pointing to
-        // // a bin indicator. This is only possible if we had a "remove"
-        // // collision. This is how remove collisions are managed. The
-        // // removed node is pointed to the bin.
-        // if (tmpnode.value.hash == h && tmpnode.value.key.equals(k)) { // we found an existing entry
-        // waitFor(tmpnode.value);
-        // final Node<K, V> cur = tmpnode.value;
-        // final V ret = cur.value;
-        // cur.value = v; // affect the change.
-        // tmpnode.value.mine.lazySet(true); // change should be visible
-        // return ret;
-        // }
-        // }
-        // // move forward
-        // prev = tmpnode;
-        // tmpnode = tmpnode.value.next;
-        // }
-        //
-        // // if we got here, then this is a new value
-        // // prev can't be null
-        // waitFor(prev.value);
-        // // double check
-        // if (prev.value.next == null)
-        // continue; // start over and try again
-        // prev.value.next = new FinalWrapper<Node<K, V>>(new Node<K, V>(h, k, v));
-        // prev.value.mine.lazySet(true);
-        // size.getAndIncrement();
-        // return null;
-        // }
-        throw new UnsupportedOperationException();
-    }
-
     @Override
     public V remove(final Object k) {
         final int h = hash(k);
-        final Node<K, V> b = table[h & mask];
+        Node<K, V> b = bin(table, h);
         boolean done;
         do {
             done = true;
@@ -218,6 +329,11 @@ public class StupidHashMap<K, V> implements Map<K, V> {
                     prevNode.mine.lazySet(1); // unlock
                     tmpnodevalue.mine.lazySet(1); // unlock
                     return tmpnodevalue.value;
+                } else if(tmpnodevalue.key == null && tmpnodevalue instanceof Forward) {
+                    // the bin has been moved to a new table so start over there.
+                    b = bin(helpTransfer((Forward<K, V>)tmpnodevalue), h);
+                    done = false;
+                    break;
                 }
 
                 // move forward
@@ -235,37 +351,135 @@ public class StupidHashMap<K, V> implements Map<K, V> {
     @Override
     public V get(final Object k) {
         final int h = hash(k);
-        final Node<K, V> b = table[h & mask];
-
-        FinalWrapper<Node<K, V>> tmpnode = b.next;
-        if(tmpnode == null)
-            return null;
+        FinalWrapper<Node<K, V>> tmpnode = bin(table, h).next;
 
         // tmpnode now has the current node value
         while(tmpnode != null) {
-            if(tmpnode.value.key != null && tmpnode.value.hash == h && tmpnode.value.key.equals(k)) // we found an existing entry
-                return tmpnode.value.value;
-            tmpnode = tmpnode.value.next;
+            final Node<K, V> tmpnodevalue = tmpnode.value;
+            if(tmpnodevalue.key != null) {
+                if(tmpnodevalue.hash == h && tmpnodevalue.key.equals(k)) // we found an existing entry
+                    return tmpnodevalue.value;
+            } else if(tmpnodevalue instanceof Forward) { // the bin was moved. Look in the new table.
+                tmpnode = bin(((Forward<K, V>)tmpnodevalue).nextTable, h).next;
+                continue;
+            }
+            tmpnode = tmpnodevalue.next;
         }
         return null;
     }
 
+    /**
+     * The keys, entries and values are all live views of the map. Their iterators are weakly consistent. They walk the
+     * bins as they are, without copying anything, and never throw a {@link java.util.ConcurrentModificationException}.
+     * Every entry that's in the map for the whole iteration is returned exactly once. Entries added or removed while
+     * it's going on may or may not be.
+     */
     @Override
     public Set<K> keySet() {
-        final Set<K> ret = new HashSet<>();
-        final Node<K, V>[] tab = table; // snapshot of the table.
-        final int cap = tab.length;
-        for(int i = 0; i < cap; i++) {
-            final Node<K, V> b = table[i];
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new Traverser<K>() {
+                    @Override
+                    K current() {
+                        return curKey;
+                    }
+                };
+            }
 
-            FinalWrapper<Node<K, V>> tmpnode = b.next;
-            while(tmpnode != null) {
-                if(tmpnode.value.key != null)
-                    ret.add(tmpnode.value.key);
-                tmpnode = tmpnode.value.next;
+            @Override
+            public int size() {
+                return StupidHashMap.this.size();
             }
-        }
-        return ret;
+
+            @Override
+            public boolean contains(final Object o) {
+                return o != null && containsKey(o);
+            }
+
+            @Override
+            public boolean remove(final Object o) {
+                return o != null && StupidHashMap.this.remove(o) != null;
+            }
+
+            @Override
+            public void clear() {
+                StupidHashMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Traverser<V>() {
+                    @Override
+                    V current() {
+                        return curValue;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return StupidHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(final Object o) {
+                return o != null && containsValue(o);
+            }
+
+            @Override
+            public void clear() {
+                StupidHashMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new Traverser<Map.Entry<K, V>>() {
+                    @Override
+                    Map.Entry<K, V> current() {
+                        return new MapEntry(curKey, curValue);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return StupidHashMap.this.size();
+            }
+
+            @Override
+            public boolean contains(final Object o) {
+                if(!(o instanceof Map.Entry))
+                    return false;
+                final Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+                final Object k = e.getKey();
+                final Object v = k == null ? null : get(k);
+                return v != null && v.equals(e.getValue());
+            }
+
+            @Override
+            public boolean remove(final Object o) {
+                if(!(o instanceof Map.Entry))
+                    return false;
+                final Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+                return e.getKey() != null && StupidHashMap.this.remove(e.getKey(), e.getValue());
+            }
+
+            @Override
+            public void clear() {
+                StupidHashMap.this.clear();
+            }
+        };
     }
 
     static class ShmEntry<K, V> {
@@ -281,20 +495,188 @@ public class StupidHashMap<K, V> implements Map<K, V> {
     List<ShmEntry<K, V>> offlineCollect() {
         final Node<K, V>[] tab = table;
         final List<ShmEntry<K, V>> ret = new ArrayList<>();
-        for(int i = 0; i < tab.length; i++) {
-            Node<K, V> cur = tab[i].next.value;
-            while(cur != null) {
-                if(cur.key != null)
-                    ret.add(new ShmEntry<>(cur.key, cur.value));
-                else
-                    throw new IllegalStateException("Null Key in offline mode. This shouldn't happen.");
-
-                cur = cur.next.value;
+        for(int i = 0; i < tab.length; i++)
+            forEachInBin(tab, i, n -> ret.add(new ShmEntry<>(n.key, n.value)));
+        return ret;
+    }
+
+    /**
+     * Calls the consumer with the entries in the bins starting with startBin until at least count entries have been
+     * passed to it or every bin has been looked at. This lets a caller sample the map without walking all of it. The bins
+     * are visited with a large odd stride rather than in order so that keys with neighboring hashes (which end up in
+     * neighboring bins) don't make up the whole sample. Returns the number of entries passed to the consumer.
+     */
+    int sample(final int startBin, final int count, final BiConsumer<? super K, ? super V> consumer) {
+        final Node<K, V>[] tab = table; // snapshot of the table.
+        final MutableInt found = new MutableInt(0);
+        for(int i = 0; i < tab.length && found.val < count; i++) {
+            forEachInBin(tab, (startBin + (i * SAMPLE_STRIDE)) & (tab.length - 1), n -> {
+                consumer.accept(n.key, n.value);
+                found.val++;
+            });
+        }
+        return (int)found.val;
+    }
+
+    /**
+     * The current number of bins. Only meant for monitoring and tests.
+     */
+    int capacity() {
+        return table.length;
+    }
+
+    // Call the consumer with every entry in the given bin. If the bin's been moved then the two bins in the new table it
+    // was split into are visited instead.
+    private static <K, V> void forEachInBin(final Node<K, V>[] tab, final int i, final Consumer<Node<K, V>> consumer) {
+        FinalWrapper<Node<K, V>> tmpnode = tab[i].next;
+        while(tmpnode != null) {
+            final Node<K, V> tmpnodevalue = tmpnode.value;
+            if(tmpnodevalue.key != null)
+                consumer.accept(tmpnodevalue);
+            else if(tmpnodevalue instanceof Forward) {
+                final Node<K, V>[] nextTable = ((Forward<K, V>)tmpnodevalue).nextTable;
+                forEachInBin(nextTable, i, consumer);
+                forEachInBin(nextTable, i + tab.length, consumer);
+                return;
             }
+            tmpnode = tmpnodevalue.next;
         }
+    }
+
+    private static <K, V> Node<K, V> bin(final Node<K, V>[] tab, final int h) {
+        return tab[h & (tab.length - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newTable(final int capacity) {
+        final Node<K, V>[] ret = new Node[capacity];
+        for(int i = 0; i < capacity; i++)
+            ret[i] = new Node<K, V>();
         return ret;
     }
 
+    private int threshold(final int capacity) {
+        return capacity >= MAXIMUM_CAPACITY ? Integer.MAX_VALUE : (int)Math.min(Integer.MAX_VALUE, (long)(capacity * (double)loadFactor));
+    }
+
+    private void addCount() {
+        if(size.incrementAndGet() > threshold)
+            resize();
+    }
+
+    private void resize() {
+        Transfer<K, V> t = transfer;
+        if(t == null) {
+            final Node<K, V>[] tab = table;
+            if(tab.length >= MAXIMUM_CAPACITY || !resizing.compareAndSet(false, true))
+                return; // someone else is starting it.
+
+            // a resize may have just finished.
+            if(table != tab || size.get() <= threshold) {
+                resizing.set(false);
+                return;
+            }
+            transfer = t = new Transfer<>(tab, newTable(tab.length << 1));
+        }
+        transfer(t);
+    }
+
+    private Node<K, V>[] helpTransfer(final Forward<K, V> forward) {
+        final Transfer<K, V> t = transfer;
+        if(t != null && t.newTable == forward.nextTable)
+            transfer(t);
+        return forward.nextTable;
+    }
+
+    // Move strides of bins until there are none left to take on.
+    private void transfer(final Transfer<K, V> t) {
+        final List<Node<K, V>> locked = new ArrayList<>();
+        while(true) {
+            final int hi = t.nextBin.get();
+            if(hi <= 0)
+                return;
+            final int lo = Math.max(0, hi - TRANSFER_STRIDE);
+            if(!t.nextBin.compareAndSet(hi, lo))
+                continue;
+
+            for(int i = hi - 1; i >= lo; i--)
+                moveBin(t, i, locked);
+
+            if(t.binsLeft.addAndGet(lo - hi) == 0) {
+                // that was the last of them.
+                threshold = threshold(t.newTable.length);
+                table = t.newTable;
+                transfer = null;
+                resizing.set(false);
+                if(size.get() > threshold)
+                    resize();
+                return;
+            }
+        }
+    }
+
+    private void moveBin(final Transfer<K, V> t, final int i, final List<Node<K, V>> locked) {
+        final Node<K, V> b = t.oldTable[i];
+        final int n = t.oldTable.length;
+
+        lockBin(b, locked);
+
+        // the new bins are only reachable through this bin once it forwards so no one else can see them yet.
+        Node<K, V> loTail = t.newTable[i];
+        Node<K, V> hiTail = t.newTable[i + n];
+        for(final Node<K, V> node: locked) {
+            final Node<K, V> copy = new Node<K, V>(node.hash, node.key, node.value);
+            if((node.hash & n) == 0) {
+                loTail.next = new FinalWrapper<Node<K, V>>(copy);
+                loTail = copy;
+            } else {
+                hiTail.next = new FinalWrapper<Node<K, V>>(copy);
+                hiTail = copy;
+            }
+        }
+
+        // The forwarding node is created after the new bins are filled in so its final field publishes them. Every
+        // old node is forwarded too so a reader part way down the chain, or a writer waiting on one of the locks, ends
+        // up in the new table.
+        final FinalWrapper<Node<K, V>> forward = new FinalWrapper<Node<K, V>>(new Forward<K, V>(t.newTable));
+        b.next = forward;
+        for(final Node<K, V> node: locked) {
+            node.next = forward;
+            node.mine.lazySet(1);
+        }
+        locked.clear();
+        b.mine.lazySet(1);
+    }
+
+    // Lock the bin and every node in it so no writer can change the chain. The nodes are added to the locked list. A
+    // remove locks a node and then the one before it, which is the opposite order, so rather than wait on a node let go
+    // of everything and try again. A forwarding node at the head of the bin isn't locked.
+    private static <K, V> void lockBin(final Node<K, V> b, final List<Node<K, V>> locked) {
+        while(true) {
+            waitFor(b);
+            boolean gotAll = true;
+            FinalWrapper<Node<K, V>> tmpnode = b.next;
+            while(tmpnode != null) {
+                final Node<K, V> tmpnodevalue = tmpnode.value;
+                if(tmpnodevalue instanceof Forward)
+                    break;
+                if(!tmpnodevalue.mine.compareAndSet(1, 0)) {
+                    gotAll = false;
+                    break;
+                }
+                locked.add(tmpnodevalue);
+                tmpnode = tmpnodevalue.next;
+            }
+            if(gotAll)
+                return;
+
+            locked.forEach(node -> node.mine.lazySet(1));
+            locked.clear();
+            b.mine.lazySet(1);
+            LockSupport.parkNanos(1L);
+        }
+    }
+
     private static class FinalWrapper<V> {
         public final V value;
 
@@ -303,14 +685,15 @@ public class StupidHashMap<K, V> implements Map<K, V> {
         }
     }
 
-    private final static class Node<K, V> {
+    private static class Node<K, V> {
         public FinalWrapper<Node<K, V>> next = null;
         // This is actually a boolean but AtomicBoolean uses an int
         // value anyway so we're skipping the middle man
         public final AtomicInteger mine = new AtomicInteger(1);
         final int hash;
         final K key;
-        V value;
+        // volatile since it's changed in place and read without a lock.
+        volatile V value;
 
         private Node() {
             hash = -1;
@@ -325,6 +708,30 @@ public class StupidHashMap<K, V> implements Map<K, V> {
         }
     }
 
+    // What's left in a bin that's been moved to a new table.
+    private final static class Forward<K, V> extends Node<K, V> {
+        final Node<K, V>[] nextTable;
+
+        Forward(final Node<K, V>[] nextTable) {
+            this.nextTable = nextTable;
+        }
+    }
+
+    private final static class Transfer<K, V> {
+        final Node<K, V>[] oldTable;
+        final Node<K, V>[] newTable;
+        // bins are taken on from the top down. This is one past the highest bin that hasn't been taken on.
+        final AtomicInteger nextBin;
+        final AtomicInteger binsLeft;
+
+        Transfer(final Node<K, V>[] oldTable, final Node<K, V>[] newTable) {
+            this.oldTable = oldTable;
+            this.newTable = newTable;
+            this.nextBin = new AtomicInteger(oldTable.length);
+            this.binsLeft = new AtomicInteger(oldTable.length);
+        }
+    }
+
     private static final int hash(final Object key) {
         int h;
         return (h = key.hashCode()) ^ (h >>> 16);
@@ -354,26 +761,212 @@ public class StupidHashMap<K, V> implements Map<K, V> {
 
     @Override
     public boolean containsValue(final Object value) {
-        throw new UnsupportedOperationException();
+        Objects.requireNonNull(value);
+        for(final V v: values()) {
+            if(v.equals(value))
+                return true;
+        }
+        return false;
     }
 
     @Override
     public void putAll(final Map<? extends K, ? extends V> m) {
-        throw new UnsupportedOperationException();
+        for(final Map.Entry<? extends K, ? extends V> e: m.entrySet())
+            put(e.getKey(), e.getValue());
     }
 
+    /**
+     * Empties the map a bin at a time. Each bin is locked, cut loose from its chain and unlocked again so it's one pass
+     * over the table rather than a remove per entry. Entries added to bins that have already been cleared while this is
+     * going on are kept.
+     */
     @Override
     public void clear() {
-        throw new UnsupportedOperationException();
+        final Node<K, V>[] tab = table; // snapshot of the table.
+        final List<Node<K, V>> locked = new ArrayList<>();
+        for(int i = 0; i < tab.length; i++)
+            clearBin(tab, i, locked);
     }
 
-    @Override
-    public Collection<V> values() {
-        throw new UnsupportedOperationException();
+    private void clearBin(final Node<K, V>[] tab, final int i, final List<Node<K, V>> locked) {
+        final Node<K, V> b = tab[i];
+        lockBin(b, locked);
+        final FinalWrapper<Node<K, V>> first = b.next;
+        if(first != null && first.value instanceof Forward) {
+            // the bin's been moved so clear the two it was split into instead.
+            b.mine.lazySet(1);
+            final Node<K, V>[] nextTable = ((Forward<K, V>)first.value).nextTable;
+            clearBin(nextTable, i, locked);
+            clearBin(nextTable, i + tab.length, locked);
+            return;
+        }
+
+        // every node is left pointing at the bin just like remove leaves it.
+        b.next = null;
+        final FinalWrapper<Node<K, V>> toBin = new FinalWrapper<Node<K, V>>(b);
+        for(final Node<K, V> node: locked) {
+            node.next = toBin;
+            node.mine.lazySet(1);
+        }
+        final int removed = locked.size();
+        locked.clear();
+        b.mine.lazySet(1);
+        if(removed > 0)
+            size.addAndGet(-removed);
     }
 
-    @Override
-    public Set<Map.Entry<K, V>> entrySet() {
-        throw new UnsupportedOperationException();
+    private final class MapEntry implements Map.Entry<K, V> {
+        private final K key;
+        private V value;
+
+        MapEntry(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        // writes through to the map.
+        @Override
+        public V setValue(final V v) {
+            Objects.requireNonNull(v);
+            final V ret = value;
+            value = v;
+            put(key, v);
+            return ret;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if(!(o instanceof Map.Entry))
+                return false;
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    // Walks the table a bin at a time the same way get does, following forwarding nodes into the tables a bin was
+    // moved to. A reader that's on a node when it's removed gets sent back to the start of the bin. To keep from
+    // returning an entry twice when that happens, or when a bin is moved part way through, the keys already returned
+    // from the current bin are kept and skipped. Chains are only ever appended to so the bins are usually short.
+    private abstract class Traverser<T> implements Iterator<T> {
+        private final Node<K, V>[] tab = table; // snapshot of the table.
+        private int index = 0; // the next bin in tab.
+
+        // the bins in the newer tables the current bin in tab was moved to that haven't been walked yet.
+        private final List<Pending<K, V>> pending = new ArrayList<>();
+        private final List<K> returned = new ArrayList<>();
+        private boolean revisiting = false;
+
+        private Node<K, V>[] curTable = null;
+        private int curIndex = -1;
+        private FinalWrapper<Node<K, V>> cur = null;
+
+        private boolean hasNext = false;
+        K curKey = null;
+        V curValue = null;
+        private K lastKey = null;
+
+        Traverser() {
+            advance();
+        }
+
+        abstract T current();
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext)
+                throw new NoSuchElementException();
+            final T ret = current();
+            lastKey = curKey;
+            advance();
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            if(lastKey == null)
+                throw new IllegalStateException();
+            StupidHashMap.this.remove(lastKey);
+            lastKey = null;
+        }
+
+        private void advance() {
+            while(true) {
+                while(cur != null) {
+                    final Node<K, V> node = cur.value;
+                    if(node.key != null) {
+                        cur = node.next;
+                        final V value = node.value;
+                        if(value != null && !(revisiting && returned.contains(node.key))) {
+                            returned.add(node.key);
+                            curKey = node.key;
+                            curValue = value;
+                            hasNext = true;
+                            return;
+                        }
+                    } else if(node instanceof Forward) {
+                        final Node<K, V>[] nextTable = ((Forward<K, V>)node).nextTable;
+                        pending.add(new Pending<>(nextTable, curIndex + curTable.length));
+                        pending.add(new Pending<>(nextTable, curIndex));
+                        revisiting = true;
+                        cur = null;
+                    } else { // a removed node pointing back to the start of its bin.
+                        revisiting = true;
+                        cur = node.next;
+                    }
+                }
+
+                if(!pending.isEmpty()) {
+                    final Pending<K, V> p = pending.remove(pending.size() - 1);
+                    curTable = p.table;
+                    curIndex = p.index;
+                } else if(index < tab.length) {
+                    returned.clear();
+                    revisiting = false;
+                    curTable = tab;
+                    curIndex = index++;
+                } else {
+                    hasNext = false;
+                    curKey = null;
+                    curValue = null;
+                    return;
+                }
+                cur = curTable[curIndex].next;
+            }
+        }
+    }
+
+    private static class Pending<K, V> {
+        final Node<K, V>[] table;
+        final int index;
+
+        Pending(final Node<K, V>[] table, final int index) {
+            this.table = table;
+            this.index = index;
+        }
     }
 }
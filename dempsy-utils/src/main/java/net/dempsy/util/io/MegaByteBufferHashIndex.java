@@ -0,0 +1,665 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util.io;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * An open addressing hash index from fixed width keys to fixed width values that lives entirely in a
+ * {@link MegaByteBuffer}. Since the {@link MegaByteBuffer} can be larger than 2GB, and can be off of the heap, the
+ * index can hold billions of entries without costing anything at garbage collection time. If the buffer is a memory
+ * mapped file (see {@link MegaByteBufferHashIndex#allocateMaped(FileChannel, long, long, int, int, int)}) then the
+ * index is still there, and doesn't need to be rebuilt, when the process restarts.
+ * </p>
+ *
+ * <p>
+ * Keys and values are fixed size byte records. When they are each {@link Long#BYTES} wide the {@code long} versions of
+ * the methods can be used, which don't allocate or copy anything. The index doesn't grow. It's sized up front for the
+ * maximum number of entries it will hold.
+ * </p>
+ *
+ * <p>
+ * The slots are split into stripes, each its own linear probing table, and a key's hash picks the stripe. Each stripe
+ * has a sequence number that a writer makes odd while it's changing the stripe and even again when it's done. Only one
+ * writer at a time can change a stripe, so with a single stripe there's a single writer, and with more stripes writers
+ * only wait on one another when they're after the same stripe. Readers never lock or write anything. They read the
+ * stripe and then check that the sequence number didn't change while they did, and read it again if it did. Removes
+ * shift the entries after the removed one back rather than leaving tombstones so the probe lengths don't grow as
+ * entries come and go.
+ * </p>
+ *
+ * <p>
+ * The sequence numbers aren't persisted. An index in a mapped file should only be opened by one
+ * {@link MegaByteBufferHashIndex} at a time, and a process that dies part way through a write can leave the stripe it
+ * was writing inconsistent.
+ * </p>
+ */
+public class MegaByteBufferHashIndex {
+    private static final long MAGIC = 0x44656d7073794869L; // "DempsyHi"
+    private static final int FORMAT_VERSION = 1;
+
+    // header layout
+    private static final long MAGIC_OFFSET = 0L;
+    private static final long FORMAT_VERSION_OFFSET = 8L;
+    private static final long KEY_WIDTH_OFFSET = 12L;
+    private static final long VALUE_WIDTH_OFFSET = 16L;
+    private static final long NUM_STRIPES_OFFSET = 20L;
+    private static final long SLOTS_PER_STRIPE_OFFSET = 24L;
+    private static final long COUNTS_OFFSET = 32L; // a long per stripe
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+
+    // the index is sized so it's no more than this full when it holds the maximum number of entries.
+    private static final double LOAD_FACTOR = 0.7;
+    // a stripe is full once this fraction of its slots are used. Linear probing gets slow past this.
+    private static final double MAX_LOAD = 0.9;
+    private static final int SPIN_TRIES = 100;
+    // the sequence numbers are spread out in the array so each stripe's is on its own cache line.
+    private static final int PAD_SHIFT = 3;
+
+    private final MegaByteBuffer buffer;
+    private final int keyWidth;
+    private final int valueWidth;
+    private final int slotWidth;
+    private final int numStripes;
+    private final int stripeShift;
+    private final long slotsPerStripe;
+    private final long slotMask;
+    private final long maxPerStripe;
+    private final long dataStart;
+    private final long stripeBytes;
+
+    private final AtomicLongArray sequences;
+
+    private MegaByteBufferHashIndex(final MegaByteBuffer buffer, final int keyWidth, final int valueWidth, final int numStripes,
+        final long slotsPerStripe) {
+        this.buffer = buffer;
+        this.keyWidth = keyWidth;
+        this.valueWidth = valueWidth;
+        this.slotWidth = 1 + keyWidth + valueWidth;
+        this.numStripes = numStripes;
+        this.stripeShift = Long.SIZE - Integer.numberOfTrailingZeros(numStripes);
+        this.slotsPerStripe = slotsPerStripe;
+        this.slotMask = slotsPerStripe - 1L;
+        this.maxPerStripe = (long)(slotsPerStripe * MAX_LOAD);
+        this.dataStart = dataStart(numStripes);
+        this.stripeBytes = slotsPerStripe * slotWidth;
+        this.sequences = new AtomicLongArray(numStripes << PAD_SHIFT);
+    }
+
+    /**
+     * The number of bytes an index with the given dimensions takes up.
+     *
+     * @param maxEntries is the most entries the index needs to hold.
+     * @param keyWidth is the number of bytes in a key.
+     * @param valueWidth is the number of bytes in a value. This can be zero which makes the index a set.
+     * @param numStripes is the number of stripes the slots are split into. It must be a power of 2.
+     * @throws IllegalArgumentException if any of the dimensions are invalid.
+     */
+    public static long bytesNeeded(final long maxEntries, final int keyWidth, final int valueWidth, final int numStripes)
+        throws IllegalArgumentException {
+        return dataStart(numStripes) + numStripes * slotsPerStripe(maxEntries, keyWidth, valueWidth, numStripes) * (1L + keyWidth + valueWidth);
+    }
+
+    /**
+     * Lays out a new, empty, index at the start of the given buffer. Anything already in the buffer is overwritten.
+     *
+     * @see MegaByteBufferHashIndex#bytesNeeded(long, int, int, int)
+     * @throws IllegalArgumentException if any of the dimensions are invalid or the buffer isn't large enough.
+     */
+    public static MegaByteBufferHashIndex create(final MegaByteBuffer buffer, final long maxEntries, final int keyWidth, final int valueWidth,
+        final int numStripes) throws IllegalArgumentException {
+        return create(buffer, maxEntries, keyWidth, valueWidth, numStripes, true);
+    }
+
+    /**
+     * Opens an index that was previously created in the given buffer.
+     *
+     * @throws IllegalArgumentException if the buffer doesn't start with an index or is too small to hold all of it.
+     */
+    public static MegaByteBufferHashIndex open(final MegaByteBuffer buffer) throws IllegalArgumentException {
+        if(buffer.capacity() < COUNTS_OFFSET || buffer.getLong(MAGIC_OFFSET) != MAGIC)
+            throw new IllegalArgumentException("The buffer doesn't contain a " + MegaByteBufferHashIndex.class.getSimpleName());
+        if(buffer.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION)
+            throw new IllegalArgumentException("The buffer contains an index in an unknown format (" + buffer.getInt(FORMAT_VERSION_OFFSET) + ")");
+
+        final int numStripes = buffer.getInt(NUM_STRIPES_OFFSET);
+        final long slotsPerStripe = buffer.getLong(SLOTS_PER_STRIPE_OFFSET);
+        final MegaByteBufferHashIndex ret = new MegaByteBufferHashIndex(buffer, buffer.getInt(KEY_WIDTH_OFFSET), buffer.getInt(VALUE_WIDTH_OFFSET),
+            numStripes, slotsPerStripe);
+        if(buffer.capacity() < ret.dataStart + numStripes * ret.stripeBytes)
+            throw new IllegalArgumentException("The buffer is too small to hold the index it contains.");
+        return ret;
+    }
+
+    /**
+     * Creates a new index off of the heap.
+     *
+     * @see MegaByteBufferHashIndex#bytesNeeded(long, int, int, int)
+     * @throws IllegalArgumentException if any of the dimensions are invalid.
+     */
+    public static MegaByteBufferHashIndex allocateDirect(final long maxEntries, final int keyWidth, final int valueWidth, final int numStripes)
+        throws IllegalArgumentException {
+        // a new direct buffer is already zeroed so there's no need to clear the slots.
+        return create(MegaByteBuffer.allocateDirect(bytesNeeded(maxEntries, keyWidth, valueWidth, numStripes)), maxEntries, keyWidth, valueWidth,
+            numStripes, false);
+    }
+
+    /**
+     * Maps an index into the given file starting at the position. If there's already an index there it's opened as long
+     * as it has the same dimensions. Otherwise a new one is created. Call {@link MegaByteBufferHashIndex#force()} to make
+     * sure the changes are written to the file.
+     *
+     * @see MegaByteBufferHashIndex#bytesNeeded(long, int, int, int)
+     * @throws IllegalArgumentException if any of the dimensions are invalid or the file contains an index with
+     *     different dimensions.
+     */
+    public static MegaByteBufferHashIndex allocateMaped(final FileChannel channel, final long position, final long maxEntries, final int keyWidth,
+        final int valueWidth, final int numStripes) throws IOException, IllegalArgumentException {
+        final long size = bytesNeeded(maxEntries, keyWidth, valueWidth, numStripes);
+        // anything past the current end of the file will be zeros.
+        final boolean fresh = channel.size() <= position;
+        final MegaByteBuffer buffer = MegaByteBuffer.allocateMaped(position, size, channel, MapMode.READ_WRITE);
+        if(fresh || buffer.getLong(MAGIC_OFFSET) != MAGIC)
+            return create(buffer, maxEntries, keyWidth, valueWidth, numStripes, !fresh);
+
+        final MegaByteBufferHashIndex ret = open(buffer);
+        if(ret.keyWidth != keyWidth || ret.valueWidth != valueWidth || ret.numStripes != numStripes
+            || ret.slotsPerStripe != slotsPerStripe(maxEntries, keyWidth, valueWidth, numStripes))
+            throw new IllegalArgumentException("The file contains an index with different dimensions.");
+        return ret;
+    }
+
+    /**
+     * The number of entries currently in the index.
+     */
+    public long size() {
+        long ret = 0L;
+        for(int i = 0; i < numStripes; i++)
+            ret += buffer.getLong(COUNTS_OFFSET + (i * (long)Long.BYTES));
+        return ret;
+    }
+
+    /**
+     * The number of entries the index can hold when they're evenly spread across the stripes.
+     */
+    public long capacity() {
+        return maxPerStripe * numStripes;
+    }
+
+    public int keyWidth() {
+        return keyWidth;
+    }
+
+    public int valueWidth() {
+        return valueWidth;
+    }
+
+    public MegaByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * If the index is in a mapped file this makes sure any changes are written to it.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Looks up the value for the key when they're both {@code long}s. Nothing is allocated.
+     *
+     * @return the value or {@code missing} if the key isn't in the index.
+     * @throws IllegalStateException if the keys and values aren't {@link Long#BYTES} wide.
+     */
+    public long get(final long key, final long missing) throws IllegalStateException {
+        checkLongs();
+        final long h = mix(key);
+        final int stripe = stripe(h);
+        while(true) {
+            final long sequence = beginRead(stripe);
+            final long pos = find(stripe, h, key);
+            final long ret = pos < 0L ? missing : buffer.getLong(pos + 1L + Long.BYTES);
+            if(validate(stripe, sequence))
+                return ret;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the keys and values aren't {@link Long#BYTES} wide.
+     */
+    public boolean containsKey(final long key) throws IllegalStateException {
+        checkLongs();
+        final long h = mix(key);
+        final int stripe = stripe(h);
+        while(true) {
+            final long sequence = beginRead(stripe);
+            final boolean ret = find(stripe, h, key) >= 0L;
+            if(validate(stripe, sequence))
+                return ret;
+        }
+    }
+
+    /**
+     * Adds or replaces the value for the key when they're both {@code long}s.
+     *
+     * @return the previous value or {@code missing} if there wasn't one.
+     * @throws IllegalStateException if the keys and values aren't {@link Long#BYTES} wide or the key's stripe is full.
+     */
+    public long put(final long key, final long value, final long missing) throws IllegalStateException {
+        checkLongs();
+        final long h = mix(key);
+        final int stripe = stripe(h);
+        final long sequence = lock(stripe);
+        try {
+            long pos = find(stripe, h, key);
+            if(pos >= 0L) {
+                final long ret = buffer.getLong(pos + 1L + Long.BYTES);
+                buffer.putLong(pos + 1L + Long.BYTES, value);
+                return ret;
+            }
+            pos = -1L - pos;
+            checkFull(stripe);
+            buffer.putLong(pos + 1L, key);
+            buffer.putLong(pos + 1L + Long.BYTES, value);
+            buffer.put(pos, USED);
+            addCount(stripe, 1L);
+            return missing;
+        } finally {
+            unlock(stripe, sequence);
+        }
+    }
+
+    /**
+     * Removes the key when the keys and values are both {@code long}s.
+     *
+     * @return the value that was removed or {@code missing} if the key wasn't in the index.
+     * @throws IllegalStateException if the keys and values aren't {@link Long#BYTES} wide.
+     */
+    public long remove(final long key, final long missing) throws IllegalStateException {
+        checkLongs();
+        final long h = mix(key);
+        final int stripe = stripe(h);
+        final long sequence = lock(stripe);
+        try {
+            final long pos = find(stripe, h, key);
+            if(pos < 0L)
+                return missing;
+            final long ret = buffer.getLong(pos + 1L + Long.BYTES);
+            delete(stripe, pos);
+            return ret;
+        } finally {
+            unlock(stripe, sequence);
+        }
+    }
+
+    /**
+     * Looks up the value for the key.
+     *
+     * @param key must be {@link MegaByteBufferHashIndex#keyWidth()} bytes.
+     * @param value must be {@link MegaByteBufferHashIndex#valueWidth()} bytes. It's filled in with the value if the key
+     *     is found. Otherwise it may or may not have been written to.
+     * @return whether or not the key was found.
+     * @throws IllegalArgumentException if the key or value are the wrong size.
+     */
+    public boolean get(final byte[] key, final byte[] value) throws IllegalArgumentException {
+        checkWidths(key, value);
+        final long h = hash(key);
+        final int stripe = stripe(h);
+        while(true) {
+            final long sequence = beginRead(stripe);
+            final long pos = find(stripe, h, key);
+            if(pos >= 0L)
+                readBytes(pos + 1L + keyWidth, value, valueWidth);
+            if(validate(stripe, sequence))
+                return pos >= 0L;
+        }
+    }
+
+    /**
+     * @param key must be {@link MegaByteBufferHashIndex#keyWidth()} bytes.
+     * @throws IllegalArgumentException if the key is the wrong size.
+     */
+    public boolean containsKey(final byte[] key) throws IllegalArgumentException {
+        checkWidths(key, null);
+        final long h = hash(key);
+        final int stripe = stripe(h);
+        while(true) {
+            final long sequence = beginRead(stripe);
+            final boolean ret = find(stripe, h, key) >= 0L;
+            if(validate(stripe, sequence))
+                return ret;
+        }
+    }
+
+    /**
+     * Adds or replaces the value for the key.
+     *
+     * @param key must be {@link MegaByteBufferHashIndex#keyWidth()} bytes.
+     * @param value must be {@link MegaByteBufferHashIndex#valueWidth()} bytes.
+     * @return true if the key is new and false if an existing value was replaced.
+     * @throws IllegalArgumentException if the key or value are the wrong size.
+     * @throws IllegalStateException if the key's stripe is full.
+     */
+    public boolean put(final byte[] key, final byte[] value) throws IllegalArgumentException, IllegalStateException {
+        checkWidths(key, value);
+        final long h = hash(key);
+        final int stripe = stripe(h);
+        final long sequence = lock(stripe);
+        try {
+            long pos = find(stripe, h, key);
+            if(pos >= 0L) {
+                writeBytes(pos + 1L + keyWidth, value, valueWidth);
+                return false;
+            }
+            pos = -1L - pos;
+            checkFull(stripe);
+            writeBytes(pos + 1L, key, keyWidth);
+            writeBytes(pos + 1L + keyWidth, value, valueWidth);
+            buffer.put(pos, USED);
+            addCount(stripe, 1L);
+            return true;
+        } finally {
+            unlock(stripe, sequence);
+        }
+    }
+
+    /**
+     * @param key must be {@link MegaByteBufferHashIndex#keyWidth()} bytes.
+     * @return whether or not the key was there to be removed.
+     * @throws IllegalArgumentException if the key is the wrong size.
+     */
+    public boolean remove(final byte[] key) throws IllegalArgumentException {
+        checkWidths(key, null);
+        final long h = hash(key);
+        final int stripe = stripe(h);
+        final long sequence = lock(stripe);
+        try {
+            final long pos = find(stripe, h, key);
+            if(pos < 0L)
+                return false;
+            delete(stripe, pos);
+            return true;
+        } finally {
+            unlock(stripe, sequence);
+        }
+    }
+
+    /**
+     * Removes everything from the index a stripe at a time.
+     */
+    public void clear() {
+        for(int stripe = 0; stripe < numStripes; stripe++) {
+            final long sequence = lock(stripe);
+            try {
+                clearSlots(stripe);
+                buffer.putLong(COUNTS_OFFSET + (stripe * (long)Long.BYTES), 0L);
+            } finally {
+                unlock(stripe, sequence);
+            }
+        }
+    }
+
+    private static MegaByteBufferHashIndex create(final MegaByteBuffer buffer, final long maxEntries, final int keyWidth, final int valueWidth,
+        final int numStripes, final boolean clear) throws IllegalArgumentException {
+        final long slotsPerStripe = slotsPerStripe(maxEntries, keyWidth, valueWidth, numStripes);
+        final MegaByteBufferHashIndex ret = new MegaByteBufferHashIndex(buffer, keyWidth, valueWidth, numStripes, slotsPerStripe);
+        if(buffer.capacity() < ret.dataStart + numStripes * ret.stripeBytes)
+            throw new IllegalArgumentException("The buffer has " + buffer.capacity() + " bytes but the index needs "
+                + (ret.dataStart + numStripes * ret.stripeBytes));
+
+        // the magic number is written last so a partly laid out index can't be opened.
+        buffer.putLong(MAGIC_OFFSET, 0L);
+        buffer.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+        buffer.putInt(KEY_WIDTH_OFFSET, keyWidth);
+        buffer.putInt(VALUE_WIDTH_OFFSET, valueWidth);
+        buffer.putInt(NUM_STRIPES_OFFSET, numStripes);
+        buffer.putLong(SLOTS_PER_STRIPE_OFFSET, slotsPerStripe);
+        for(int stripe = 0; stripe < numStripes; stripe++) {
+            buffer.putLong(COUNTS_OFFSET + (stripe * (long)Long.BYTES), 0L);
+            if(clear)
+                ret.clearSlots(stripe);
+        }
+        buffer.putLong(MAGIC_OFFSET, MAGIC);
+        return ret;
+    }
+
+    private static long slotsPerStripe(final long maxEntries, final int keyWidth, final int valueWidth, final int numStripes)
+        throws IllegalArgumentException {
+        if(maxEntries <= 0L)
+            throw new IllegalArgumentException("The index must be able to hold at least one entry.");
+        if(keyWidth <= 0)
+            throw new IllegalArgumentException("The key width must be at least one byte.");
+        if(valueWidth < 0)
+            throw new IllegalArgumentException("The value width can't be negative.");
+        if(numStripes <= 0 || Integer.bitCount(numStripes) != 1)
+            throw new IllegalArgumentException("The number of stripes must be a power of 2.");
+
+        final long needed = Math.max(2L, (long)Math.ceil((double)maxEntries / numStripes / LOAD_FACTOR));
+        if(needed > (1L << 62))
+            throw new IllegalArgumentException("The index would be too large.");
+        return Long.highestOneBit(needed - 1L) << 1;
+    }
+
+    private static long dataStart(final int numStripes) {
+        return COUNTS_OFFSET + (numStripes * (long)Long.BYTES);
+    }
+
+    // Returns the position of the key's slot. If the key isn't there it returns -1 minus the position of the empty slot
+    // where it would go.
+    private long find(final int stripe, final long h, final long key) {
+        final long base = dataStart + (stripe * stripeBytes);
+        long slot = h & slotMask;
+        for(long n = 0; n < slotsPerStripe; n++) {
+            final long pos = base + (slot * slotWidth);
+            if(buffer.get(pos) == EMPTY)
+                return -1L - pos;
+            if(buffer.getLong(pos + 1L) == key)
+                return pos;
+            slot = (slot + 1L) & slotMask;
+        }
+        // a reader can see a stripe with no empty slots if it's part way through being cleared.
+        return -1L - base;
+    }
+
+    private long find(final int stripe, final long h, final byte[] key) {
+        final long base = dataStart + (stripe * stripeBytes);
+        long slot = h & slotMask;
+        for(long n = 0; n < slotsPerStripe; n++) {
+            final long pos = base + (slot * slotWidth);
+            if(buffer.get(pos) == EMPTY)
+                return -1L - pos;
+            if(keyEquals(pos + 1L, key))
+                return pos;
+            slot = (slot + 1L) & slotMask;
+        }
+        return -1L - base;
+    }
+
+    // Empties the slot at pos. The entries after it, up to the next empty slot, are moved back when the slot is between
+    // where they are and where they'd prefer to be, so none of them become unreachable.
+    private void delete(final int stripe, final long pos) {
+        final long base = dataStart + (stripe * stripeBytes);
+        long hole = (pos - base) / slotWidth;
+        long slot = hole;
+        while(true) {
+            slot = (slot + 1L) & slotMask;
+            final long slotPos = base + (slot * slotWidth);
+            if(buffer.get(slotPos) == EMPTY)
+                break;
+            final long home = hashAt(slotPos + 1L) & slotMask;
+            if(((slot - home) & slotMask) >= ((slot - hole) & slotMask)) {
+                copy(slotPos + 1L, base + (hole * slotWidth) + 1L, keyWidth + valueWidth);
+                hole = slot;
+            }
+        }
+        buffer.put(base + (hole * slotWidth), EMPTY);
+        addCount(stripe, -1L);
+    }
+
+    private void clearSlots(final int stripe) {
+        final long base = dataStart + (stripe * stripeBytes);
+        for(long slot = 0; slot < slotsPerStripe; slot++)
+            buffer.put(base + (slot * slotWidth), EMPTY);
+    }
+
+    private void checkFull(final int stripe) throws IllegalStateException {
+        if(buffer.getLong(COUNTS_OFFSET + (stripe * (long)Long.BYTES)) >= maxPerStripe)
+            throw new IllegalStateException("The index is full. Stripe " + stripe + " already holds " + maxPerStripe + " entries.");
+    }
+
+    private void addCount(final int stripe, final long delta) {
+        final long pos = COUNTS_OFFSET + (stripe * (long)Long.BYTES);
+        buffer.putLong(pos, buffer.getLong(pos) + delta);
+    }
+
+    private int stripe(final long h) {
+        return numStripes == 1 ? 0 : (int)(h >>> stripeShift);
+    }
+
+    private long beginRead(final int stripe) {
+        final int index = stripe << PAD_SHIFT;
+        int counter = SPIN_TRIES;
+        while(true) {
+            final long sequence = sequences.getAcquire(index);
+            if((sequence & 1L) == 0L)
+                return sequence;
+            if(counter > 0) {
+                counter--;
+                Thread.onSpinWait();
+            } else
+                LockSupport.parkNanos(1L);
+        }
+    }
+
+    private boolean validate(final int stripe, final long sequence) {
+        // keeps the reads of the stripe from moving after the second read of the sequence.
+        VarHandle.loadLoadFence();
+        return sequences.get(stripe << PAD_SHIFT) == sequence;
+    }
+
+    private long lock(final int stripe) {
+        final int index = stripe << PAD_SHIFT;
+        int counter = SPIN_TRIES;
+        while(true) {
+            final long sequence = sequences.get(index);
+            if((sequence & 1L) == 0L && sequences.compareAndSet(index, sequence, sequence + 1L)) {
+                // keeps the writes to the stripe from moving ahead of the odd sequence.
+                VarHandle.storeStoreFence();
+                return sequence + 1L;
+            }
+            if(counter > 0) {
+                counter--;
+                Thread.onSpinWait();
+            } else
+                LockSupport.parkNanos(1L);
+        }
+    }
+
+    private void unlock(final int stripe, final long sequence) {
+        sequences.setRelease(stripe << PAD_SHIFT, sequence + 1L);
+    }
+
+    private void checkLongs() throws IllegalStateException {
+        if(keyWidth != Long.BYTES || valueWidth != Long.BYTES)
+            throw new IllegalStateException("The long methods can only be used when the keys and values are " + Long.BYTES + " bytes wide.");
+    }
+
+    private void checkWidths(final byte[] key, final byte[] value) throws IllegalArgumentException {
+        if(key.length != keyWidth)
+            throw new IllegalArgumentException("The key must be " + keyWidth + " bytes but it's " + key.length);
+        if(value != null && value.length != valueWidth)
+            throw new IllegalArgumentException("The value must be " + valueWidth + " bytes but it's " + value.length);
+    }
+
+    // The bytes are hashed 8 at a time, big endian, the same way the buffer reads a long. So a long key hashes the same
+    // whether it's passed as a long or as its 8 bytes.
+    private static long hash(final byte[] key) {
+        long h = 0L;
+        for(int i = 0; i < key.length; i += Long.BYTES) {
+            long chunk = 0L;
+            final int end = Math.min(key.length, i + Long.BYTES);
+            for(int j = i; j < end; j++)
+                chunk = (chunk << 8) | (key[j] & 0xffL);
+            h = mix(h ^ (chunk << ((Long.BYTES - (end - i)) * 8)));
+        }
+        return h;
+    }
+
+    private long hashAt(final long pos) {
+        long h = 0L;
+        for(int i = 0; i < keyWidth; i += Long.BYTES) {
+            final int len = Math.min(Long.BYTES, keyWidth - i);
+            long chunk;
+            if(len == Long.BYTES)
+                chunk = buffer.getLong(pos + i);
+            else {
+                chunk = 0L;
+                for(int j = 0; j < len; j++)
+                    chunk = (chunk << 8) | (buffer.get(pos + i + j) & 0xffL);
+                chunk <<= (Long.BYTES - len) * 8;
+            }
+            h = mix(h ^ chunk);
+        }
+        return h;
+    }
+
+    // the murmur3 finalizer.
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // The MegaByteBuffer's bulk methods move the position of the underlying ByteBuffers, which isn't safe with
+    // concurrent readers and writers, so bytes are only moved with the absolute methods.
+    private boolean keyEquals(final long pos, final byte[] key) {
+        for(int i = 0; i < keyWidth; i++) {
+            if(buffer.get(pos + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void readBytes(final long pos, final byte[] to, final int length) {
+        for(int i = 0; i < length; i++)
+            to[i] = buffer.get(pos + i);
+    }
+
+    private void writeBytes(final long pos, final byte[] from, final int length) {
+        for(int i = 0; i < length; i++)
+            buffer.put(pos + i, from[i]);
+    }
+
+    private void copy(final long from, final long to, final int length) {
+        int i = 0;
+        for(; i + Long.BYTES <= length; i += Long.BYTES)
+            buffer.putLong(to + i, buffer.getLong(from + i));
+        for(; i < length; i++)
+            buffer.put(to + i, buffer.get(from + i));
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class TestBoundedCache {
+    public static final int NUMTHREADS = 8;
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testSizeBound() {
+        final BoundedCache<Integer, String> cache = new BoundedCache<>(100);
+        for(int i = 0; i < 1000; i++)
+            assertNull(cache.put(i, Integer.toString(i)));
+
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.weight());
+        assertEquals(900, cache.stats().evictionCount);
+        assertEquals(900, cache.stats().evictionWeight);
+        // whatever's left is right.
+        assertEquals(100, IntStream.range(0, 1000).filter(i -> {
+            final String v = cache.getIfPresent(i);
+            if(v != null)
+                assertEquals(Integer.toString(i), v);
+            return v != null;
+        }).count());
+        assertEquals(100, cache.stats().hitCount);
+        assertEquals(900, cache.stats().missCount);
+        assertEquals(0.1, cache.stats().hitRate(), 0.0001);
+
+        assertNotNull(cache.invalidate(IntStream.range(0, 1000).filter(i -> cache.getIfPresent(i) != null).findFirst().getAsInt()));
+        assertEquals(99, cache.weight());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testSamplingCostAtSteadyState() throws Exception {
+        // a count bounded cache's map is sized so there are 1 to 2 bins per entry and so each eviction looks at no
+        // more than 2 * SAMPLE_SIZE bins. Concurrent writers racing ahead of the eviction don't grow it.
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<>(100);
+        assertEquals(128, cache.capacity());
+
+        final List<Thread> threads = IntStream.range(0, NUMTHREADS).mapToObj(t -> new Thread(() -> {
+            for(int i = 0; i < 100000; i++)
+                cache.put((t * 100000) + i, i);
+        }, "writer-" + t)).collect(Collectors.toList());
+        threads.forEach(t -> t.start());
+        for(final Thread t: threads)
+            t.join(60000);
+
+        // writers evicting at the same time can take out a few more than they need to.
+        assertTrue(cache.weight() <= 100 && cache.weight() > 100 - NUMTHREADS);
+        assertEquals(128, cache.capacity());
+
+        // without an estimate a weight bounded cache starts with the default map and the cost is proportionally higher.
+        assertEquals(2048, new BoundedCache<Integer, String>(1000, (k, v) -> v.length()).capacity());
+        assertEquals(16, new BoundedCache<Integer, String>(1000, (k, v) -> v.length(), 10).capacity());
+        assertEquals(1024, new BoundedCache<Integer, Integer>(1000).capacity());
+    }
+
+    @Test
+    public void testRecentlyUsedSurvive() {
+        final AtomicLong now = new AtomicLong(0);
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100).ticker(now::get);
+        final int[] hot = IntStream.range(0, 10).map(i -> -1 - i).toArray();
+        for(final int h: hot)
+            cache.put(h, h);
+
+        for(int i = 0; i < 1000; i++) {
+            now.addAndGet(MILLIS);
+            cache.put(i, i);
+            // the hot keys are always more recently used than everything but what was just written.
+            now.addAndGet(MILLIS);
+            for(final int h: hot)
+                assertEquals(Integer.valueOf(h), cache.getIfPresent(h));
+        }
+        assertEquals(100, cache.weight());
+    }
+
+    @Test
+    public void testWeightBound() {
+        final BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(1000, (k, v) -> v.length());
+        final String hundred = "x".repeat(100);
+        for(int i = 0; i < 100; i++)
+            cache.put(i, hundred);
+        assertEquals(10, cache.size());
+        assertEquals(1000, cache.weight());
+        assertEquals(90, cache.stats().evictionCount);
+        assertEquals(9000, cache.stats().evictionWeight);
+
+        // something that can never fit is evicted right away
+        cache.put(-1, "x".repeat(2000));
+        assertNull(cache.getIfPresent(-1));
+        assertTrue(cache.weight() <= 1000);
+
+        // replacing an entry changes the weight by the difference
+        cache.invalidateAll();
+        cache.put(0, hundred);
+        assertEquals(hundred, cache.put(0, "x"));
+        assertEquals(1, cache.weight());
+
+        try {
+            cache.put(1, null);
+            fail("Shouldn't be able to cache a null.");
+        } catch(final NullPointerException npe) {}
+
+        try {
+            new BoundedCache<Integer, String>(10, (k, v) -> -1).put(1, "one");
+            fail("Shouldn't be able to have a negative weight.");
+        } catch(final IllegalArgumentException iae) {}
+    }
+
+    @Test
+    public void testExpireAfterWrite() {
+        final AtomicLong now = new AtomicLong(0);
+        final BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(1000)
+            .expireAfterWrite(10, TimeUnit.SECONDS)
+            .ticker(now::get);
+
+        cache.put(1, "one");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals("one", cache.getIfPresent(1));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(cache.getIfPresent(1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertEquals(1, cache.stats().evictionCount);
+
+        // an expired entry is loaded again
+        cache.put(1, "one");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals("uno", cache.get(1, k -> "uno"));
+        assertEquals("uno", cache.getIfPresent(1));
+
+        for(int i = 0; i < 100; i++)
+            cache.put(i, Integer.toString(i));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testExpireAfterAccess() {
+        final AtomicLong now = new AtomicLong(0);
+        final BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(1000)
+            .expireAfterAccess(10, TimeUnit.SECONDS)
+            .ticker(now::get);
+
+        cache.put(1, "one");
+        cache.put(2, "two");
+        for(int i = 0; i < 5; i++) {
+            now.addAndGet(TimeUnit.SECONDS.toNanos(8));
+            assertEquals("one", cache.getIfPresent(1));
+        }
+        assertEquals(2, cache.size());
+        assertNull(cache.getIfPresent(2));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertNull(cache.getIfPresent(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLoading() throws Exception {
+        final BoundedCache<Integer, String> cache = new BoundedCache<>(1000);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        final List<Thread> threads = IntStream.range(0, NUMTHREADS).mapToObj(i -> new Thread(() -> {
+            final String v = cache.get(1, k -> {
+                calls.incrementAndGet();
+                loading.countDown();
+                try {
+                    finish.await();
+                } catch(final InterruptedException ie) {
+                    throw new RuntimeException(ie);
+                }
+                return "one";
+            });
+            assertEquals("one", v);
+        }, "loader-" + i)).collect(Collectors.toList());
+        threads.forEach(t -> t.start());
+
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        // the entry being loaded isn't visible yet.
+        assertNull(cache.getIfPresent(1));
+        Thread.sleep(50);
+        finish.countDown();
+        for(final Thread t: threads)
+            t.join(10000);
+
+        assertEquals(1, calls.get());
+        assertEquals("one", cache.getIfPresent(1));
+        assertEquals(1, cache.weight());
+        assertEquals(1, cache.stats().loadCount);
+
+        // a failed load throws and doesn't cache anything.
+        final RuntimeException boom = new RuntimeException("boom");
+        try {
+            cache.get(2, k -> {
+                throw boom;
+            });
+            fail("Should have thrown.");
+        } catch(final RuntimeException rte) {
+            assertSame(boom, rte);
+        }
+        assertEquals(1, cache.stats().loadFailureCount);
+        assertNull(cache.get(2, k -> null));
+        assertEquals(2, cache.stats().loadFailureCount);
+        assertEquals(1, cache.size());
+        assertEquals("two", cache.get(2, k -> "two"));
+        assertEquals(2, cache.weight());
+    }
+
+    @Test
+    public void testFrequencyAdmission() {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100).frequencyAdmission(true);
+        final int[] hot = IntStream.range(0, 50).map(i -> -1 - i).toArray();
+        for(final int h: hot)
+            cache.get(h, k -> k);
+
+        // a long scan of keys that are only seen once doesn't push out the ones being used.
+        for(int i = 0; i < 10000; i++) {
+            cache.put(i, i);
+            for(int j = 0; j < 4; j++) {
+                final int h = hot[(i * 4 + j) % hot.length];
+                assertEquals(Integer.valueOf(h), cache.get(h, k -> {
+                    throw new IllegalStateException("Hot key " + h + " was evicted.");
+                }));
+            }
+        }
+        assertEquals(100, cache.weight());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(1000).frequencyAdmission(true);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        final List<Thread> threads = IntStream.range(0, NUMTHREADS).mapToObj(t -> new Thread(() -> {
+            try {
+                final Random random = new Random(t);
+                for(int i = 0; i < 200000; i++) {
+                    final int key = random.nextInt(5000);
+                    switch(random.nextInt(10)) {
+                        case 0:
+                            cache.put(key, key);
+                            break;
+                        case 1:
+                            cache.invalidate(key);
+                            break;
+                        default:
+                            if(cache.get(key, k -> k).intValue() != key)
+                                failed.set(true);
+                    }
+                }
+            } catch(final RuntimeException rte) {
+                rte.printStackTrace();
+                failed.set(true);
+            }
+        }, "cache-" + t)).collect(Collectors.toList());
+        threads.forEach(t -> t.start());
+        for(final Thread t: threads)
+            t.join(60000);
+
+        assertTrue(!failed.get());
+        cache.cleanUp();
+        assertTrue(cache.weight() <= 1000);
+        // once things settle the weight accounting matches what's really there.
+        assertEquals(cache.size(), cache.weight());
+        final BoundedCache.Stats stats = cache.stats();
+        assertEquals(NUMTHREADS * 200000L - countNonReads(NUMTHREADS, 200000), stats.hitCount + stats.missCount);
+    }
+
+    // the puts and invalidates in testConcurrent don't count as hits or misses.
+    private static long countNonReads(final int numThreads, final int numOps) {
+        long ret = 0;
+        for(int t = 0; t < numThreads; t++) {
+            final Random random = new Random(t);
+            for(int i = 0; i < numOps; i++) {
+                random.nextInt(5000);
+                if(random.nextInt(10) < 2)
+                    ret++;
+            }
+        }
+        return ret;
+    }
+}
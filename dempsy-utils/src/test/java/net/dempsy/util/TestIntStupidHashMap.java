@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class TestIntStupidHashMap {
+    public static final int NUMWRITERS = 8;
+    public static final int NUMWRITES = 50000;
+
+    @Test
+    public void testSimple() {
+        final IntStupidHashMap<String> it = new IntStupidHashMap<>(1);
+        // the table starts with a single bin so these all start out in it.
+        final int[] keys = {0, 0x10001, 0x20002, Integer.MIN_VALUE | 0x8000, -1};
+
+        for(final int k: keys)
+            assertNull(it.put(k, Integer.toString(k)));
+        assertEquals(keys.length, it.size());
+        for(final int k: keys)
+            assertEquals(Integer.toString(k), it.get(k));
+        assertNull(it.get(1));
+
+        assertEquals("0", it.put(0, "zero"));
+        assertEquals("zero", it.putIfAbsent(0, "nope"));
+        assertEquals("1", it.computeIfAbsent(1, Integer::toString));
+        assertNull(it.computeIfAbsent(2, k -> null));
+        assertFalse(it.containsKey(2));
+
+        assertEquals(Integer.toString(keys[1]), it.remove(keys[1]));
+        assertNull(it.remove(keys[1]));
+        assertEquals(Integer.toString(keys[2]), it.get(keys[2]));
+
+        final Map<Integer, String> all = new HashMap<>();
+        it.forEach((k, v) -> assertNull(all.put(k, v)));
+        assertEquals(it.size(), all.size());
+        assertEquals("zero", all.get(0));
+
+        it.clear();
+        assertTrue(it.isEmpty());
+        assertNull(it.get(0));
+    }
+
+    @Test
+    public void testGrowth() throws InterruptedException {
+        final IntStupidHashMap<Integer> it = new IntStupidHashMap<>(1);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        // each writer adds its own keys and removes every 4th one again so the table moves while both are going on.
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Writer-" + i, () -> {
+            for(int j = 0; j < NUMWRITES; j++) {
+                final int kv = j * NUMWRITERS + i;
+                if(it.computeIfAbsent(kv, Integer::valueOf).intValue() != kv)
+                    failed.set(true);
+                if(j % 4 == 3 && it.remove(kv).intValue() != kv)
+                    failed.set(true);
+            }
+        })).collect(Collectors.toList());
+
+        for(final Thread t: writers) {
+            t.join(60000);
+            if(t.isAlive())
+                throw new IllegalStateException("Failed on join.");
+        }
+
+        assertFalse(failed.get());
+        final int expected = NUMWRITERS * NUMWRITES * 3 / 4;
+        assertEquals(expected, it.size());
+        final AtomicInteger count = new AtomicInteger(0);
+        it.forEach((k, v) -> {
+            assertEquals(k, v.intValue());
+            count.incrementAndGet();
+        });
+        assertEquals(expected, count.get());
+        for(int i = 0; i < NUMWRITERS * NUMWRITES; i++)
+            assertEquals((i / NUMWRITERS) % 4 == 3 ? null : Integer.valueOf(i), it.get(i));
+        assertTrue(it.capacity() >= expected / 2);
+    }
+
+    private static Thread startThread(final String name, final Runnable r) {
+        final Thread ret = new Thread(r, name);
+        ret.start();
+        return ret;
+    }
+}
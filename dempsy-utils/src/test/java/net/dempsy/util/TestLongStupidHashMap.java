@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class TestLongStupidHashMap {
+    public static final int NUMWRITERS = 8;
+    public static final int NUMREADERS = 4;
+    public static final int NUMWRITES = 50000;
+
+    // ids are spread out this far so they don't all land in neighboring bins.
+    private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+    @Test
+    public void testSimple() {
+        final LongStupidHashMap<String> it = new LongStupidHashMap<>(1);
+        // these all hash to the same bin.
+        final long[] keys = {0L, (1L << 32) | 1L, (2L << 32) | 2L, Long.MIN_VALUE | (1L << 31), -1L};
+
+        for(final long k: keys)
+            assertNull(it.put(k, Long.toString(k)));
+        assertEquals(keys.length, it.size());
+        for(final long k: keys)
+            assertEquals(Long.toString(k), it.get(k));
+        assertNull(it.get(1L));
+        assertFalse(it.containsKey(1L));
+
+        assertEquals("0", it.put(0L, "zero"));
+        assertEquals("zero", it.putIfAbsent(0L, "nope"));
+        assertEquals("zero", it.computeIfAbsent(0L, k -> "nope"));
+        assertEquals("1", it.computeIfAbsent(1L, Long::toString));
+        assertNull(it.computeIfAbsent(2L, k -> null));
+        assertFalse(it.containsKey(2L));
+        assertNull(it.putIfAbsent(2L, "2"));
+        assertEquals(keys.length + 2, it.size());
+
+        assertEquals(Long.toString(keys[1]), it.remove(keys[1]));
+        assertNull(it.remove(keys[1]));
+        assertNull(it.get(keys[1]));
+        assertEquals(Long.toString(keys[2]), it.get(keys[2]));
+
+        final Map<Long, String> all = new HashMap<>();
+        it.forEach((k, v) -> assertNull(all.put(k, v)));
+        assertEquals(it.size(), all.size());
+        assertEquals("zero", all.get(0L));
+        assertEquals("2", all.get(2L));
+
+        it.clear();
+        assertEquals(0, it.size());
+        assertTrue(it.isEmpty());
+        assertNull(it.get(0L));
+        it.forEach((k, v) -> assertTrue(false));
+        assertNull(it.put(0L, "0"));
+        assertEquals(1, it.size());
+    }
+
+    @Test
+    public void testGrowth() throws InterruptedException {
+        final LongStupidHashMap<Long> it = new LongStupidHashMap<>(1);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicLong[] written = IntStream.range(0, NUMWRITERS).mapToObj(i -> new AtomicLong(-1)).toArray(AtomicLong[]::new);
+
+        // each writer adds its own ids and removes every 4th one again so the table moves while both are going on.
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Writer-" + i, () -> {
+            for(long j = 0; j < NUMWRITES; j++) {
+                final long id = (j * NUMWRITERS + i) * SPREAD;
+                if(it.computeIfAbsent(id, Long::valueOf).longValue() != id)
+                    failed.set(true);
+                written[i].set(j);
+                if(j % 4 == 3 && it.remove(id).longValue() != id)
+                    failed.set(true);
+            }
+        })).collect(Collectors.toList());
+
+        final List<Thread> readers = IntStream.range(0, NUMREADERS).mapToObj(i -> startThread("Reader-" + i, () -> {
+            final Random random = new Random();
+            while(!done.get()) {
+                final int writer = random.nextInt(NUMWRITERS);
+                final long upTo = written[writer].get();
+                if(upTo < 0)
+                    continue;
+                final long j = random.nextInt((int)upTo + 1);
+                // the writer may not have gotten to removing the last one yet.
+                if(j % 4 == 3 && j >= upTo - 1)
+                    continue;
+                final long id = (j * NUMWRITERS + writer) * SPREAD;
+                final Long v = it.get(id);
+                if(j % 4 == 3 ? v != null : (v == null || v.longValue() != id))
+                    failed.set(true);
+            }
+        })).collect(Collectors.toList());
+
+        try {
+            join(writers, 60000);
+        } finally {
+            done.set(true);
+        }
+        join(readers, 20000);
+
+        assertFalse(failed.get());
+        final int expected = NUMWRITERS * NUMWRITES * 3 / 4;
+        assertEquals(expected, it.size());
+        final AtomicLong count = new AtomicLong(0);
+        it.forEach((k, v) -> {
+            assertEquals(k, v.longValue());
+            count.incrementAndGet();
+        });
+        assertEquals(expected, count.get());
+        assertTrue(it.capacity() >= expected / 2);
+    }
+
+    @Test
+    public void testForEachWhileWriting() throws InterruptedException {
+        final LongStupidHashMap<Long> it = new LongStupidHashMap<>(16);
+        // these are in the map the entire time so every pass has to see each of them exactly once.
+        final int numStable = 10000;
+        for(long i = 0; i < numStable; i++)
+            it.put(i, i);
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Writer-" + i, () -> {
+            long j = 0;
+            while(!done.get()) {
+                final long id = numStable + (j++ % NUMWRITES) * NUMWRITERS + i;
+                it.put(id, id);
+                if((j & 0x1) == 0)
+                    it.remove(id);
+            }
+        })).collect(Collectors.toList());
+
+        try {
+            for(int pass = 0; pass < 20; pass++) {
+                final int[] seen = new int[numStable];
+                it.forEach((k, v) -> {
+                    assertEquals(k, v.longValue());
+                    if(k < numStable)
+                        seen[(int)k]++;
+                });
+                for(int i = 0; i < numStable; i++)
+                    assertEquals(1, seen[i]);
+            }
+        } finally {
+            done.set(true);
+        }
+        join(writers, 20000);
+    }
+
+    private static Thread startThread(final String name, final Runnable r) {
+        final Thread ret = new Thread(r, name);
+        ret.start();
+        return ret;
+    }
+
+    private static void join(final List<Thread> ts, final long timeout) throws InterruptedException {
+        for(final Thread t: ts) {
+            t.join(timeout);
+            if(t.isAlive())
+                throw new IllegalStateException("Failed on join.");
+        }
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -462,6 +463,227 @@ public class TestStupidHashMap {
 
     }
 
+    @Test
+    public void testGrowth() throws InterruptedException {
+        final int perWriter = 50000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicBoolean failedReads = new AtomicBoolean(false);
+        // the highest key each writer has put so far.
+        final AtomicInteger[] written = IntStream.range(0, NUMWRITERS).mapToObj(i -> new AtomicInteger(-1)).toArray(AtomicInteger[]::new);
+
+        // each writer puts its own keys and removes every 4th one again so the table moves while both are going on.
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Writer-" + i, () -> {
+            for(int j = 0; j < perWriter; j++) {
+                final Integer kv = Integer.valueOf(j * NUMWRITERS + i);
+                if(it.putIfAbsent(kv, kv) != null)
+                    failedReads.set(true);
+                written[i].set(j);
+                if(j % 4 == 3 && !kv.equals(it.remove(kv)))
+                    failedReads.set(true);
+            }
+        })).collect(Collectors.toList());
+
+        final List<Thread> readers = IntStream.range(0, NUMREADERS).mapToObj(i -> startThread("Reader-" + i, () -> {
+            final Random random = new Random();
+            while(!done.get()) {
+                final int writer = random.nextInt(NUMWRITERS);
+                final int upTo = written[writer].get();
+                if(upTo < 0)
+                    continue;
+                final int j = random.nextInt(upTo + 1);
+                // the writer may not have gotten to removing the last one yet.
+                if(j % 4 == 3 && j >= upTo - 1)
+                    continue;
+                final Integer v = it.get(Integer.valueOf(j * NUMWRITERS + writer));
+                if(j % 4 == 3 ? v != null : (v == null || v.intValue() != j * NUMWRITERS + writer))
+                    failedReads.set(true);
+            }
+        })).collect(Collectors.toList());
+
+        try {
+            join(writers, 60000);
+        } finally {
+            done.set(true);
+        }
+        join(readers, 20000);
+
+        assertFalse(failedReads.get());
+        final int expected = NUMWRITERS * perWriter * 3 / 4;
+        assertEquals(expected, it.size());
+        assertEquals(expected, it.keySet().size());
+        for(int i = 0; i < NUMWRITERS * perWriter; i++)
+            assertEquals((i / NUMWRITERS) % 4 == 3 ? null : Integer.valueOf(i), it.get(Integer.valueOf(i)));
+
+        if(it instanceof StupidHashMap)
+            assertTrue(((StupidHashMap<Integer, Integer>)it).capacity() >= expected / 2);
+    }
+
+    @Test
+    public void testWriteApi() {
+        assertNull(it.put(1, 1));
+        assertEquals(Integer.valueOf(1), it.put(1, 2));
+        assertEquals(Integer.valueOf(2), it.get(1));
+
+        assertNull(it.replace(2, 2));
+        assertFalse(it.containsKey(2));
+        assertEquals(Integer.valueOf(2), it.replace(1, 3));
+        assertFalse(it.replace(1, 2, 4));
+        assertTrue(it.replace(1, 3, 4));
+        assertEquals(Integer.valueOf(4), it.get(1));
+
+        assertEquals(Integer.valueOf(5), it.compute(1, (k, v) -> v + 1));
+        assertEquals(Integer.valueOf(2), it.compute(2, (k, v) -> v == null ? 2 : v + 1));
+        assertNull(it.compute(2, (k, v) -> null));
+        assertFalse(it.containsKey(2));
+        assertNull(it.computeIfPresent(2, (k, v) -> v + 1));
+        assertEquals(Integer.valueOf(6), it.computeIfPresent(1, (k, v) -> v + 1));
+        assertEquals(Integer.valueOf(3), it.computeIfAbsent(3, k -> k));
+        assertEquals(Integer.valueOf(3), it.computeIfAbsent(3, k -> k + 1));
+        assertNull(it.computeIfAbsent(4, k -> null));
+        assertFalse(it.containsKey(4));
+
+        assertEquals(Integer.valueOf(1), it.merge(4, 1, Integer::sum));
+        assertEquals(Integer.valueOf(2), it.merge(4, 1, Integer::sum));
+        assertNull(it.merge(4, 1, (v1, v2) -> null));
+        assertFalse(it.containsKey(4));
+
+        assertFalse(it.remove(3, 4));
+        assertTrue(it.remove(3, 3));
+        assertEquals(1, it.size());
+
+        final Map<Integer, Integer> more = IntStream.range(10, 1010).boxed().collect(Collectors.toMap(i -> i, i -> i));
+        it.putAll(more);
+        assertEquals(more.size() + 1, it.size());
+        assertTrue(it.containsValue(6));
+        assertTrue(it.containsValue(1009));
+        assertFalse(it.containsValue(1010));
+        assertEquals(it.size(), it.entrySet().size());
+        assertEquals(it.size(), new HashSet<>(it.values()).size());
+        for(final Map.Entry<Integer, Integer> e: it.entrySet())
+            assertEquals(it.get(e.getKey()), e.getValue());
+
+        // the views write through.
+        it.entrySet().forEach(e -> e.setValue(e.getValue() + 1));
+        assertEquals(Integer.valueOf(1010), it.get(1009));
+        it.keySet().removeIf(k -> k >= 510);
+        assertEquals(501, it.size());
+        it.values().removeIf(v -> v == 7);
+        assertFalse(it.containsKey(1));
+        assertEquals(500, it.size());
+
+        it.clear();
+        assertEquals(0, it.size());
+        assertTrue(it.isEmpty());
+        assertFalse(it.entrySet().iterator().hasNext());
+        assertNull(it.get(10));
+        assertNull(it.put(10, 10));
+        assertEquals(1, it.size());
+    }
+
+    @Test
+    public void testConcurrentMerge() throws InterruptedException {
+        final int numKeys = 100;
+
+        // half of the writers merge and half use compute. Every key is removed (and so re-added) along the way.
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Merger-" + i, () -> {
+            for(int j = 0; j < NUMWRITES; j++) {
+                final Integer key = Integer.valueOf(j % numKeys);
+                if((i & 0x1) == 0)
+                    it.merge(key, 1, Integer::sum);
+                else
+                    it.compute(key, (k, v) -> v == null ? 1 : v + 1);
+            }
+        })).collect(Collectors.toList());
+
+        final AtomicInteger taken = new AtomicInteger(0);
+        final Thread remover = startThread("Remover", () -> {
+            for(int j = 0; j < NUMWRITES; j++) {
+                final Integer v = it.remove(Integer.valueOf(j % numKeys));
+                if(v != null)
+                    taken.addAndGet(v.intValue());
+            }
+        });
+
+        join(writers, 60000);
+        join(remover, 60000);
+
+        assertEquals(NUMWRITERS * NUMWRITES, taken.get() + it.values().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(it.size(), it.keySet().size());
+    }
+
+    @Test
+    public void testIteratorsWhileWriting() throws InterruptedException {
+        // these are in the map the entire time so every iteration has to return each of them exactly once.
+        final int numStable = 10000;
+        for(int i = 0; i < numStable; i++)
+            it.put(i, i);
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Writer-" + i, () -> {
+            int j = 0;
+            while(!done.get()) {
+                final Integer kv = Integer.valueOf(numStable + (j++ % 50000) * NUMWRITERS + i);
+                it.put(kv, kv);
+                if((j & 0x1) == 0)
+                    it.remove(kv);
+            }
+        })).collect(Collectors.toList());
+
+        try {
+            for(int pass = 0; pass < 20; pass++) {
+                final int[] seen = new int[numStable];
+                for(final Map.Entry<Integer, Integer> e: it.entrySet()) {
+                    assertEquals(e.getKey(), e.getValue());
+                    if(e.getKey().intValue() < numStable)
+                        seen[e.getKey().intValue()]++;
+                }
+                for(final Integer v: it.values()) {
+                    if(v.intValue() < numStable)
+                        seen[v.intValue()]++;
+                }
+                for(int i = 0; i < numStable; i++)
+                    assertEquals(2, seen[i]);
+            }
+        } finally {
+            done.set(true);
+        }
+        join(writers, 20000);
+    }
+
+    @Test
+    public void testClearWhileWriting() throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Thread> writers = IntStream.range(0, NUMWRITERS).mapToObj(i -> startThread("Writer-" + i, () -> {
+            for(int j = 0; j < NUMWRITES; j++) {
+                final Integer kv = Integer.valueOf(j * NUMWRITERS + i);
+                it.put(kv, kv);
+                if(j % 3 == 0)
+                    it.remove(kv);
+            }
+        })).collect(Collectors.toList());
+
+        final Thread clearer = startThread("Clearer", () -> {
+            while(!done.get())
+                it.clear();
+        });
+
+        try {
+            join(writers, 60000);
+        } finally {
+            done.set(true);
+        }
+        join(clearer, 20000);
+
+        // whatever survived, the size has to agree with what's actually there.
+        final long found = IntStream.range(0, NUMWRITERS * NUMWRITES).filter(i -> it.get(Integer.valueOf(i)) != null).count();
+        assertEquals(found, it.size());
+        assertEquals(found, it.entrySet().stream().count());
+
+        it.clear();
+        assertEquals(0, it.size());
+        assertEquals(0L, it.keySet().stream().count());
+    }
+
     private static long sum(final List<Long> vals) {
         return vals.stream().reduce(Long.valueOf(0), (v1, v2) -> Long.valueOf(v1.longValue() + v2.longValue())).longValue();
     }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022 Jim Carroll
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.util.io;
+
+import static net.dempsy.util.io.TestMegaByteBuffer.setConstants;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class TestMegaByteBufferHashIndex {
+    private static final long MISSING = -1L;
+
+    @Test
+    public void testLongs() throws Exception {
+        // the tiny underlying buffers mean plenty of slots straddle two of them.
+        try(var qc = setConstants(true, 7, 0x000000000000007fL, 128);) {
+            final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateDirect(1000, Long.BYTES, Long.BYTES, 4);
+            final Map<Long, Long> expected = new HashMap<>();
+            final Random random = new Random(5374L);
+
+            // keys from a small range so there are lots of replaces and removes of things that are there.
+            for(int i = 0; i < 100000; i++) {
+                final long key = random.nextInt(1500) - 500L;
+                switch(random.nextInt(3)) {
+                    case 0:
+                    case 1:
+                        if(expected.size() < 800 || expected.containsKey(key)) {
+                            final long value = random.nextLong() & Long.MAX_VALUE;
+                            final Long prev = expected.put(key, value);
+                            assertEquals(prev == null ? MISSING : prev.longValue(), index.put(key, value, MISSING));
+                        }
+                        break;
+                    default:
+                        final Long prev = expected.remove(key);
+                        assertEquals(prev == null ? MISSING : prev.longValue(), index.remove(key, MISSING));
+                }
+                if(i % 1000 == 0) {
+                    assertEquals(expected.size(), index.size());
+                    for(long k = -500L; k < 1000L; k++) {
+                        final Long v = expected.get(k);
+                        assertEquals(v == null ? MISSING : v.longValue(), index.get(k, MISSING));
+                        assertEquals(v != null, index.containsKey(k));
+                    }
+                }
+            }
+
+            index.clear();
+            assertEquals(0L, index.size());
+            for(long k = -500L; k < 1000L; k++)
+                assertFalse(index.containsKey(k));
+        }
+    }
+
+    @Test
+    public void testRecords() {
+        final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateDirect(2000, 12, 5, 2);
+        final Map<String, String> expected = new HashMap<>();
+        final Random random = new Random(9987L);
+        final byte[] value = new byte[5];
+
+        for(int i = 0; i < 20000; i++) {
+            final String key = String.format("key-%08d", random.nextInt(3000));
+            if(random.nextInt(3) < 2 && (expected.size() < 1500 || expected.containsKey(key))) {
+                final String v = String.format("%05d", random.nextInt(100000));
+                assertEquals(expected.put(key, v) == null, index.put(bytes(key), bytes(v)));
+            } else
+                assertEquals(expected.remove(key) != null, index.remove(bytes(key)));
+        }
+
+        assertEquals(expected.size(), index.size());
+        for(int i = 0; i < 3000; i++) {
+            final String key = String.format("key-%08d", i);
+            final String v = expected.get(key);
+            assertEquals(v != null, index.get(bytes(key), value));
+            assertEquals(v != null, index.containsKey(bytes(key)));
+            if(v != null)
+                assertEquals(v, new String(value, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testLongsAreTheirBytes() {
+        final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateDirect(100, Long.BYTES, Long.BYTES, 1);
+        index.put(0x0102030405060708L, 42L, MISSING);
+        final byte[] value = new byte[Long.BYTES];
+        assertTrue(index.get(ByteBuffer.allocate(Long.BYTES).putLong(0x0102030405060708L).array(), value));
+        assertArrayEquals(ByteBuffer.allocate(Long.BYTES).putLong(42L).array(), value);
+
+        assertTrue(index.put(ByteBuffer.allocate(Long.BYTES).putLong(7L).array(), ByteBuffer.allocate(Long.BYTES).putLong(49L).array()));
+        assertEquals(49L, index.get(7L, MISSING));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFull() {
+        final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateDirect(100, Long.BYTES, Long.BYTES, 1);
+        for(long i = 0; i <= index.capacity(); i++)
+            index.put(i, i, MISSING);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLongsNeedLongWidths() {
+        MegaByteBufferHashIndex.allocateDirect(100, 4, Long.BYTES, 1).get(1L, MISSING);
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        final int numWriters = 4;
+        final int numReaders = 4;
+        final int keysPerWriter = 20000;
+        final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateDirect(numWriters * keysPerWriter, Long.BYTES, Long.BYTES, 16);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        // every value is derived from its key so a reader can tell if it ever sees one that's half written or moved.
+        final List<Thread> writers = IntStream.range(0, numWriters).mapToObj(w -> start("Writer-" + w, () -> {
+            for(int pass = 0; pass < 5; pass++) {
+                for(long i = 0; i < keysPerWriter; i++) {
+                    final long key = i * numWriters + w;
+                    index.put(key, ~key * (pass + 1), MISSING);
+                }
+                for(long i = pass & 0x1; i < keysPerWriter; i += 2)
+                    index.remove(i * numWriters + w, MISSING);
+            }
+        })).collect(Collectors.toList());
+
+        final List<Thread> readers = IntStream.range(0, numReaders).mapToObj(r -> start("Reader-" + r, () -> {
+            final Random random = new Random();
+            while(!done.get()) {
+                final long key = random.nextInt(numWriters * keysPerWriter);
+                final long value = index.get(key, MISSING);
+                if(value != MISSING && (value % ~key != 0L || value / ~key < 1L || value / ~key > 5L))
+                    failed.set(true);
+            }
+        })).collect(Collectors.toList());
+
+        try {
+            join(writers);
+        } finally {
+            done.set(true);
+        }
+        join(readers);
+
+        assertFalse(failed.get());
+        // the last pass removed the even ones.
+        assertEquals(numWriters * keysPerWriter / 2, index.size());
+        for(long key = 0; key < numWriters * keysPerWriter; key++)
+            assertEquals(((key / numWriters) & 0x1) == 1 ? ~key * 5 : MISSING, index.get(key, MISSING));
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        final File file = new File("target/hashindex.dat");
+        file.getParentFile().mkdirs();
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw");) {
+                final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateMaped(raf.getChannel(), 0L, 10000, Long.BYTES, Long.BYTES, 4);
+                for(long i = 0; i < 10000; i++)
+                    index.put(i, i * 3, MISSING);
+                index.remove(17L, MISSING);
+                index.force();
+            }
+
+            // reopened as if after a restart.
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw");) {
+                final MegaByteBufferHashIndex index = MegaByteBufferHashIndex.allocateMaped(raf.getChannel(), 0L, 10000, Long.BYTES, Long.BYTES, 4);
+                assertEquals(9999L, index.size());
+                for(long i = 0; i < 10000; i++)
+                    assertEquals(i == 17L ? MISSING : i * 3, index.get(i, MISSING));
+
+                assertEquals(9999L, MegaByteBufferHashIndex.open(index.buffer()).size());
+            }
+
+            try(RandomAccessFile raf = new RandomAccessFile(file, "rw");) {
+                MegaByteBufferHashIndex.allocateMaped(raf.getChannel(), 0L, 10000, Long.BYTES, Long.BYTES, 8);
+                assertTrue(false);
+            } catch(final IllegalArgumentException iae) {
+                // expected since the stripes don't match.
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] bytes(final String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static Thread start(final String name, final Runnable r) {
+        final Thread ret = new Thread(r, name);
+        ret.start();
+        return ret;
+    }
+
+    private static void join(final List<Thread> ts) throws InterruptedException {
+        for(final Thread t: ts) {
+            t.join(60000);
+            if(t.isAlive())
+                throw new IllegalStateException("Failed on join.");
+        }
+    }
+}